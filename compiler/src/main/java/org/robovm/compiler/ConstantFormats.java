@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+package org.robovm.compiler;
+
+import static org.robovm.compiler.Types.*;
+
+import java.util.DuplicateFormatFlagsException;
+import java.util.Formatter;
+import java.util.IllegalFormatException;
+import java.util.Locale;
+import java.util.UnknownFormatConversionException;
+
+import org.robovm.compiler.config.Config;
+import org.robovm.compiler.trampoline.Invokestatic;
+
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.jimple.InvokeExpr;
+import soot.jimple.StringConstant;
+
+/**
+ * Redirects <code>String.format()</code> calls with a constant format string
+ * to the methods in the runtime's <code>java.util.ConstantFormats</code>
+ * class. These parse each format string once and keep the result instead of
+ * parsing it on every call. Format strings with syntax errors are reported at
+ * build time and their calls are left alone so that they still throw at
+ * runtime.
+ */
+public class ConstantFormats {
+    private static final String TARGET_CLASS = "java/util/ConstantFormats";
+
+    private static final String FORMAT_DESC =
+            "(Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/String;";
+    private static final String FORMAT_LOCALE_DESC =
+            "(Ljava/util/Locale;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/String;";
+
+    /**
+     * Returns the {@link Invokestatic} trampoline which should be called
+     * instead of the method invoked by <code>expr</code> or <code>null</code>
+     * if the call should be compiled as usual.
+     */
+    public static Invokestatic getReplacement(Config config, SootMethod currMethod,
+            String callingClass, InvokeExpr expr) {
+
+        SootMethodRef methodRef = expr.getMethodRef();
+        if (!methodRef.isStatic() || !"format".equals(methodRef.name())
+                || !"java/lang/String".equals(getInternalName(methodRef.declaringClass()))) {
+            return null;
+        }
+        String desc = getDescriptor(methodRef);
+        int formatArg;
+        if (FORMAT_DESC.equals(desc)) {
+            formatArg = 0;
+        } else if (FORMAT_LOCALE_DESC.equals(desc)) {
+            formatArg = 1;
+        } else {
+            return null;
+        }
+        if (!(expr.getArg(formatArg) instanceof StringConstant)) {
+            return null;
+        }
+
+        String format = ((StringConstant) expr.getArg(formatArg)).value;
+        try {
+            // Formatting without arguments parses the whole format string
+            // and treats every argument as null which most conversions accept.
+            new Formatter(Locale.US).format(format, (Object[]) null);
+        } catch (UnknownFormatConversionException e) {
+            config.getLogger().warn("Invalid format string in %s: %s", currMethod, e.getMessage());
+            return null;
+        } catch (DuplicateFormatFlagsException e) {
+            config.getLogger().warn("Invalid format string in %s: %s", currMethod, e.getMessage());
+            return null;
+        } catch (IllegalFormatException e) {
+            // Depends on the actual arguments. Let the runtime decide.
+        }
+
+        return new Invokestatic(callingClass, TARGET_CLASS, "format", desc);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+package org.robovm.compiler;
+
+import static org.robovm.compiler.Types.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.robovm.compiler.config.Config;
+import org.robovm.compiler.trampoline.Invokestatic;
+
+import soot.SootMethod;
+import soot.SootMethodRef;
+import soot.jimple.IntConstant;
+import soot.jimple.InvokeExpr;
+import soot.jimple.StringConstant;
+
+/**
+ * Redirects calls which take a constant regular expression to the methods in
+ * the runtime's <code>java.util.regex.ConstantPatterns</code> class. These
+ * compile each regular expression once and share the resulting
+ * <code>Pattern</code> instead of compiling it on every call. Regular
+ * expressions which fail to compile are reported at build time and their
+ * calls are left alone so that they still throw at runtime.
+ */
+public class ConstantPatterns {
+    private static final String TARGET_CLASS = "java/util/regex/ConstantPatterns";
+
+    /**
+     * Maps the rewritten methods to the descriptor of the replacement method
+     * with the same name. Instance methods get the receiver as first
+     * parameter so the arguments are passed unchanged.
+     */
+    private static final Map<String, String> REPLACEMENTS;
+
+    static {
+        REPLACEMENTS = new HashMap<String, String>();
+        REPLACEMENTS.put("java/lang/String/matches(Ljava/lang/String;)Z",
+                "(Ljava/lang/String;Ljava/lang/String;)Z");
+        REPLACEMENTS.put("java/lang/String/replaceAll(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;",
+                "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;");
+        REPLACEMENTS.put("java/lang/String/replaceFirst(Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;",
+                "(Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;");
+        REPLACEMENTS.put("java/lang/String/split(Ljava/lang/String;)[Ljava/lang/String;",
+                "(Ljava/lang/String;Ljava/lang/String;)[Ljava/lang/String;");
+        REPLACEMENTS.put("java/lang/String/split(Ljava/lang/String;I)[Ljava/lang/String;",
+                "(Ljava/lang/String;Ljava/lang/String;I)[Ljava/lang/String;");
+        REPLACEMENTS.put("java/util/regex/Pattern/compile(Ljava/lang/String;)Ljava/util/regex/Pattern;",
+                "(Ljava/lang/String;)Ljava/util/regex/Pattern;");
+        REPLACEMENTS.put("java/util/regex/Pattern/compile(Ljava/lang/String;I)Ljava/util/regex/Pattern;",
+                "(Ljava/lang/String;I)Ljava/util/regex/Pattern;");
+        REPLACEMENTS.put("java/util/regex/Pattern/matches(Ljava/lang/String;Ljava/lang/CharSequence;)Z",
+                "(Ljava/lang/String;Ljava/lang/CharSequence;)Z");
+    }
+
+    /**
+     * Returns the {@link Invokestatic} trampoline which should be called
+     * instead of the method invoked by <code>expr</code> or <code>null</code>
+     * if the call should be compiled as usual.
+     */
+    public static Invokestatic getReplacement(Config config, SootMethod currMethod,
+            String callingClass, InvokeExpr expr) {
+
+        SootMethodRef methodRef = expr.getMethodRef();
+        String replacementDesc = REPLACEMENTS.get(getInternalName(methodRef.declaringClass()) + "/"
+                + methodRef.name() + getDescriptor(methodRef));
+        if (replacementDesc == null || !(expr.getArg(0) instanceof StringConstant)) {
+            return null;
+        }
+
+        String regex = ((StringConstant) expr.getArg(0)).value;
+        int flags = 0;
+        if ("compile".equals(methodRef.name()) && expr.getArgCount() == 2) {
+            if (!(expr.getArg(1) instanceof IntConstant)) {
+                return null;
+            }
+            flags = ((IntConstant) expr.getArg(1)).value;
+        }
+        try {
+            // The runtime uses ICU which accepts mostly the same syntax as the
+            // JDK we're running on.
+            Pattern.compile(regex, flags);
+        } catch (PatternSyntaxException e) {
+            config.getLogger().warn("Invalid regular expression in %s: %s", currMethod, e.getMessage());
+            return null;
+        } catch (IllegalArgumentException e) {
+            // Unknown flags
+            return null;
+        }
+
+        return new Invokestatic(callingClass, TARGET_CLASS, methodRef.name(), replacementDesc);
+    }
+}
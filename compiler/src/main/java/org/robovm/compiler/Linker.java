@@ -19,6 +19,8 @@ package org.robovm.compiler;
 import static org.robovm.compiler.Access.*;
 import static org.robovm.compiler.Functions.*;
 import static org.robovm.compiler.Mangler.*;
+import static org.robovm.compiler.Strings.*;
+import static org.robovm.compiler.Types.*;
 import static org.robovm.compiler.llvm.Linkage.*;
 import static org.robovm.compiler.llvm.Type.*;
 
@@ -32,6 +34,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -45,21 +48,31 @@ import org.robovm.compiler.config.Config;
 import org.robovm.compiler.config.OS;
 import org.robovm.compiler.hash.HashTableGenerator;
 import org.robovm.compiler.hash.ModifiedUtf8HashFunction;
+import org.robovm.compiler.llvm.ArrayConstant;
 import org.robovm.compiler.llvm.ArrayConstantBuilder;
 import org.robovm.compiler.llvm.Constant;
 import org.robovm.compiler.llvm.ConstantBitcast;
 import org.robovm.compiler.llvm.ConstantGetelementptr;
+import org.robovm.compiler.llvm.FloatingPointConstant;
+import org.robovm.compiler.llvm.FloatingPointType;
 import org.robovm.compiler.llvm.Function;
 import org.robovm.compiler.llvm.FunctionDeclaration;
 import org.robovm.compiler.llvm.FunctionRef;
 import org.robovm.compiler.llvm.Global;
 import org.robovm.compiler.llvm.IntegerConstant;
+import org.robovm.compiler.llvm.IntegerType;
 import org.robovm.compiler.llvm.NullConstant;
+import org.robovm.compiler.llvm.PackedStructureConstantBuilder;
+import org.robovm.compiler.llvm.PackedStructureType;
+import org.robovm.compiler.llvm.PointerType;
 import org.robovm.compiler.llvm.Ret;
 import org.robovm.compiler.llvm.StructureConstant;
 import org.robovm.compiler.llvm.StructureConstantBuilder;
+import org.robovm.compiler.llvm.StructureType;
 import org.robovm.compiler.llvm.Type;
 import org.robovm.compiler.llvm.Value;
+import org.robovm.compiler.trampoline.LdcString;
+import org.robovm.compiler.trampoline.Trampoline;
 import org.robovm.llvm.Context;
 import org.robovm.llvm.Module;
 import org.robovm.llvm.PassManager;
@@ -67,6 +80,9 @@ import org.robovm.llvm.Target;
 import org.robovm.llvm.TargetMachine;
 import org.robovm.llvm.binding.CodeGenFileType;
 
+import soot.SootClass;
+import soot.SootField;
+
 /**
  *
  */
@@ -164,6 +180,10 @@ public class Linker {
         
         ArrayConstantBuilder bootClasspathValues = new ArrayConstantBuilder(I8_PTR);
         ArrayConstantBuilder classpathValues = new ArrayConstantBuilder(I8_PTR);
+        ResourceIndex bootResourceIndex = new ResourceIndex();
+        ResourceIndex resourceIndex = new ResourceIndex();
+        int bootClasspathIndex = 0;
+        int classpathIndex = 0;
         List<Path> allPaths = new ArrayList<Path>();
         allPaths.addAll(config.getClazzes().getPaths());
         allPaths.addAll(config.getResourcesPaths());
@@ -176,18 +196,25 @@ public class Linker {
             }
             if (path.isInBootClasspath()) {
                 bootClasspathValues.add(mb.getString(entryName));
+                bootResourceIndex.add(bootClasspathIndex++, path.getFile());
             } else {
                 classpathValues.add(mb.getString(entryName));
+                resourceIndex.add(classpathIndex++, path.getFile());
             }
         }
         bootClasspathValues.add(new NullConstant(Type.I8_PTR));
         classpathValues.add(new NullConstant(Type.I8_PTR));
         mb.addGlobal(new Global("_bcBootclasspath", new ConstantGetelementptr(mb.newGlobal(bootClasspathValues.build()).ref(), 0, 0)));
         mb.addGlobal(new Global("_bcClasspath", new ConstantGetelementptr(mb.newGlobal(classpathValues.build()).ref(), 0, 0)));
+        mb.addGlobal(new Global("_bcBootResourcesHash", new ConstantGetelementptr(mb.newGlobal(generateResourcesHash(mb, bootResourceIndex), true).ref(), 0, 0)));
+        mb.addGlobal(new Global("_bcResourcesHash", new ConstantGetelementptr(mb.newGlobal(generateResourcesHash(mb, resourceIndex), true).ref(), 0, 0)));
 
         if (config.getMainClass() != null) {
             mb.addGlobal(new Global("_bcMainClass", mb.getString(config.getMainClass())));
         }        
+
+        mb.addGlobal(new Global("_bcStrings", new ConstantGetelementptr(
+                mb.newGlobal(createStringsTable(mb, linkClasses), true).ref(), 0, 0)));
         
         buildTypeInfos(typeInfos);
         
@@ -331,7 +358,136 @@ public class Linker {
         
         return typeInfo;
     }
-    
+
+    /**
+     * Emits a {@code java.lang.String} object and a {@code char[]} for every
+     * string literal used by the linked classes and returns a table of
+     * {modified UTF-8 string, String object} pairs terminated by a pair of
+     * nulls. The objects are complete except for their class pointers which
+     * the runtime sets before adding them to the interned strings.
+     */
+    private ArrayConstant createStringsTable(ModuleBuilder mb, Set<Clazz> linkClasses) {
+        Set<String> literals = new TreeSet<String>();
+        for (Clazz clazz : linkClasses) {
+            for (Trampoline t : clazz.getClazzInfo().getTrampolines()) {
+                if (t instanceof LdcString) {
+                    literals.add(t.getTarget());
+                }
+            }
+        }
+
+        SootClass stringClass = config.getClazzes().load("java/lang/String").getSootClass();
+        StructureType instanceType = getInstanceType(config.getOs(), config.getArch(), stringClass);
+        List<SootField> fields = getInstanceFields(config.getOs(), config.getArch(), stringClass);
+        StructureType entryType = new StructureType(I8_PTR, OBJECT_PTR);
+        ArrayConstantBuilder table = new ArrayConstantBuilder(entryType);
+        for (String s : literals) {
+            Global value = mb.newGlobal(createCharArray(s));
+            Global string = new Global(getStringObjectName(s), createString(instanceType, fields, s, value));
+            mb.addGlobal(string);
+            table.add(new StructureConstant(entryType, mb.getString(s),
+                    new ConstantBitcast(string.ref(), OBJECT_PTR)));
+        }
+        table.add(new StructureConstant(entryType, new NullConstant(I8_PTR), new NullConstant(OBJECT_PTR)));
+        return table.build();
+    }
+
+    /**
+     * Returns the header of an object. The class pointer is set at runtime.
+     */
+    private static StructureConstant createObjectHeader() {
+        return new StructureConstant(DATA_OBJECT,
+                new StructureConstant(OBJECT, new NullConstant(CLASS_PTR), new NullConstant(I8_PTR)));
+    }
+
+    private static StructureConstant createCharArray(String s) {
+        ArrayConstantBuilder chars = new ArrayConstantBuilder(I16);
+        for (int i = 0; i < s.length(); i++) {
+            chars.add(new IntegerConstant(s.charAt(i)));
+        }
+        return new StructureConstantBuilder()
+                .add(createObjectHeader())
+                .add(new IntegerConstant(s.length()))
+                .add(chars.build())
+                .build();
+    }
+
+    /**
+     * Returns a String instance laid out like {@code instanceType} (see
+     * {@link Types#getInstanceType(OS, Arch, SootClass)}) with {@code value}
+     * as its {@code char[]} and its hash code already computed.
+     */
+    private static StructureConstant createString(StructureType instanceType,
+            List<SootField> fields, String s, Global value) {
+
+        PackedStructureType dataType = (PackedStructureType) instanceType.getTypeAt(1);
+        PackedStructureConstantBuilder data = new PackedStructureConstantBuilder();
+        // Element 0 is the (empty) instance data of java.lang.Object and is
+        // followed by one padded element per field and any trailing padding.
+        data.add(zero(dataType.getTypeAt(0)));
+        for (int i = 0; i < fields.size(); i++) {
+            PackedStructureType fieldType = (PackedStructureType) dataType.getTypeAt(i + 1);
+            String name = fields.get(i).getName();
+            Constant fieldValue = null;
+            if (name.equals("value")) {
+                fieldValue = new ConstantBitcast(value.ref(), OBJECT_PTR);
+            } else if (name.equals("count")) {
+                fieldValue = new IntegerConstant(s.length());
+            } else if (name.equals("hashCode")) {
+                fieldValue = new IntegerConstant(s.hashCode());
+            } else {
+                fieldValue = zero(fieldType.getTypeAt(1));
+            }
+            data.add(new PackedStructureConstantBuilder()
+                    .add(zero(fieldType.getTypeAt(0)))
+                    .add(fieldValue)
+                    .build());
+        }
+        for (int i = fields.size() + 1; i < dataType.getTypeCount(); i++) {
+            data.add(zero(dataType.getTypeAt(i)));
+        }
+        return new StructureConstantBuilder().add(createObjectHeader()).add(data.build()).build();
+    }
+
+    private static Constant zero(Type type) {
+        if (type instanceof PackedStructureType) {
+            PackedStructureType st = (PackedStructureType) type;
+            PackedStructureConstantBuilder builder = new PackedStructureConstantBuilder();
+            for (int i = 0; i < st.getTypeCount(); i++) {
+                builder.add(zero(st.getTypeAt(i)));
+            }
+            return builder.build();
+        } else if (type instanceof IntegerType) {
+            return new IntegerConstant(0, (IntegerType) type);
+        } else if (type instanceof FloatingPointType) {
+            return new FloatingPointConstant(0.0, (FloatingPointType) type);
+        } else if (type instanceof PointerType) {
+            return new NullConstant(type);
+        }
+        throw new IllegalArgumentException("Unsupported type: " + type);
+    }
+
+    /**
+     * Generates a hash table mapping resource names to structs holding the
+     * name, the number of classpath entries containing the resource followed
+     * by the indexes of those entries. See <code>lookupResource()</code> in
+     * <code>bc.c</code>.
+     */
+    private StructureConstant generateResourcesHash(ModuleBuilder mb, ResourceIndex index) {
+        HashTableGenerator<String, Constant> hashGen = 
+                new HashTableGenerator<String, Constant>(new ModifiedUtf8HashFunction(), 4, 0.75, I32);
+        for (Entry<String, List<Integer>> entry : index.getResources().entrySet()) {
+            StructureConstantBuilder builder = new StructureConstantBuilder();
+            builder.add(mb.getString(entry.getKey()));
+            builder.add(new IntegerConstant(entry.getValue().size()));
+            for (int i : entry.getValue()) {
+                builder.add(new IntegerConstant(i));
+            }
+            hashGen.put(entry.getKey(), new ConstantBitcast(mb.newGlobal(builder.build(), true).ref(), I8_PTR));
+        }
+        return hashGen.generate();
+    }
+
     private void buildTypeInfos(Map<ClazzInfo, TypeInfo> typeInfos) {
         for (TypeInfo typeInfo : typeInfos.values()) {
             buildTypeInfo(typeInfo, typeInfos);
@@ -18,6 +18,7 @@ package org.robovm.compiler;
 
 import static org.robovm.compiler.Functions.*;
 import static org.robovm.compiler.Mangler.*;
+import static org.robovm.compiler.Strings.*;
 import static org.robovm.compiler.Types.*;
 import static org.robovm.compiler.llvm.Type.*;
 
@@ -497,9 +498,7 @@ public class MethodCompiler extends AbstractMethodCompiler {
                     value = new IntegerConstant(ltag.getLongValue());
                 } else if (tag instanceof StringConstantValueTag) {
                     String s = ((StringConstantValueTag) tag).getStringValue();
-                    Trampoline trampoline = new LdcString(className, s);
-                    trampolines.add(trampoline);
-                    value = call(trampoline.getFunctionRef(), env);
+                    value = ldcString(s);
                 }
                 
                 if (value != null) {
@@ -517,6 +516,17 @@ public class MethodCompiler extends AbstractMethodCompiler {
             || instr instanceof Switch;
     }
 
+    /**
+     * Returns the java.lang.String object for the string literal {@code s}.
+     * The object is emitted by the {@link Linker} so no code needs to run to
+     * load it. The {@link LdcString} trampoline records the literal in the
+     * {@link org.robovm.compiler.clazz.ClazzInfo} for the {@link Linker}.
+     */
+    private Value ldcString(String s) {
+        trampolines.add(new LdcString(className, s));
+        return new GlobalRef(getStringObjectName(s), OBJECT);
+    }
+
     private Value immediate(Unit unit, Immediate v) {
         // v is either a soot.Local or a soot.jimple.Constant
         if (v instanceof soot.Local) {
@@ -538,9 +548,7 @@ public class MethodCompiler extends AbstractMethodCompiler {
             return new NullConstant(OBJECT_PTR);
         } else if (v instanceof soot.jimple.StringConstant) {
             String s = ((soot.jimple.StringConstant) v).value;
-            Trampoline trampoline = new LdcString(className, s);
-            trampolines.add(trampoline);
-            return call(trampoline.getFunctionRef(), env);
+            return ldcString(s);
         } else if (v instanceof soot.jimple.ClassConstant) {
             // ClassConstant is either the internal name of a class or the descriptor of an array
             String targetClassName = ((soot.jimple.ClassConstant) v).getValue();
@@ -701,6 +709,16 @@ public class MethodCompiler extends AbstractMethodCompiler {
         }
         Value result = null;
         FunctionRef functionRef = Intrinsics.getIntrinsic(sootMethod, stmt, expr);
+        if (functionRef == null) {
+            Trampoline trampoline = ConstantPatterns.getReplacement(config, sootMethod, this.className, expr);
+            if (trampoline == null) {
+                trampoline = ConstantFormats.getReplacement(config, sootMethod, this.className, expr);
+            }
+            if (trampoline != null) {
+                trampolines.add(trampoline);
+                functionRef = trampoline.getFunctionRef();
+            }
+        }
         if (functionRef == null) {
             if (canCallDirectly(expr)) {
                 SootMethod method = this.sootMethod.getDeclaringClass().getMethod(methodRef.name(), 
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+package org.robovm.compiler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Maps the names of the resources in a list of classpath entries to the
+ * indexes of the entries containing them. {@link Linker} emits the index into
+ * the executable which lets the runtime class loaders skip archives which
+ * don't contain a requested resource. Classes are not resources and are
+ * skipped. The names of directories are included with a trailing
+ * <code>/</code>.
+ */
+public class ResourceIndex {
+    private final Map<String, List<Integer>> resources = new TreeMap<String, List<Integer>>();
+
+    /**
+     * Adds the resources in the specified classpath entry (a directory or a
+     * zip/jar file).
+     */
+    public void add(int index, File file) throws IOException {
+        if (file.isDirectory()) {
+            addDirectory(index, file, "");
+        } else if (file.isFile()) {
+            ZipFile archive = new ZipFile(file);
+            try {
+                Enumeration<? extends ZipEntry> entries = archive.entries();
+                while (entries.hasMoreElements()) {
+                    add(index, entries.nextElement().getName());
+                }
+            } finally {
+                archive.close();
+            }
+        }
+    }
+
+    private void addDirectory(int index, File dir, String prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                String name = prefix + f.getName() + "/";
+                add(index, name);
+                addDirectory(index, f, name);
+            } else {
+                add(index, prefix + f.getName());
+            }
+        }
+    }
+
+    private void add(int index, String name) {
+        if (name.toLowerCase().endsWith(".class")) {
+            return;
+        }
+        List<Integer> indexes = resources.get(name);
+        if (indexes == null) {
+            indexes = new ArrayList<Integer>(1);
+            resources.put(name, indexes);
+        }
+        if (!indexes.contains(index)) {
+            indexes.add(index);
+        }
+    }
+
+    /**
+     * Returns the resource names mapped to the indexes, in ascending order, of
+     * the classpath entries containing them.
+     */
+    public Map<String, List<Integer>> getResources() {
+        return resources;
+    }
+}
@@ -38,6 +38,14 @@ public class Strings {
         return sb.toString();
     }
     
+    /**
+     * Returns the name of the {@code java.lang.String} object the
+     * {@link Linker} emits for the string literal {@code s}.
+     */
+    public static String getStringObjectName(String s) {
+        return getStringVarName(stringToModifiedUtf8Z(s)) + "_obj";
+    }
+
     public static byte[] stringToModifiedUtf8(String unicode) {
         return stringToModifiedUtf8(unicode, false);
     }
@@ -112,16 +112,11 @@ public class TrampolineCompiler {
         this.dependencies = new HashSet<String>();
         
         if (t instanceof LdcString) {
-            byte[] modUtf8 = stringToModifiedUtf8Z(t.getTarget());
-            Global g = new Global(getStringVarName(modUtf8) + "_ptr", weak, new NullConstant(OBJECT_PTR));
-            if (!mb.hasSymbol(g.getName())) {
-                mb.addGlobal(g);
+            // The String object is emitted by the Linker. Only declare it.
+            String name = getStringObjectName(t.getTarget());
+            if (!mb.hasSymbol(name)) {
+                mb.addGlobal(new Global(name, external, OBJECT, false));
             }
-            Function f = new FunctionBuilder(t).linkage(weak).build();
-            mb.addFunction(f);
-            Value result = call(f, BC_LDC_STRING, f.getParameterRef(0), g.ref(),
-                    mb.getString(t.getTarget()), new IntegerConstant(t.getTarget().length()));
-            f.add(new Ret(result));
             return;
         }
         
@@ -35,7 +35,7 @@ public class HashTableGenerator<K, V extends Constant> {
     private List<Entry<K, V>>[] table;
     private int tableSize;
     private int count = 0;
-    private IntegerType indexType = Type.I16;
+    private final IntegerType indexType;
     private double loadFactor;
     
     public HashTableGenerator(HashFunction<K> function) {
@@ -47,9 +47,19 @@ public class HashTableGenerator<K, V extends Constant> {
     }
     
     public HashTableGenerator(HashFunction<K> function, int tableSize, double loadFactor) {
+        this(function, tableSize, loadFactor, Type.I16);
+    }
+    
+    /**
+     * Creates a new generator which uses the specified type for the table size
+     * and the bucket start indexes. The default {@link Type#I16} limits the
+     * table to 32767 entries.
+     */
+    public HashTableGenerator(HashFunction<K> function, int tableSize, double loadFactor, IntegerType indexType) {
         this.function = function;
         this.tableSize = tableSize;
         this.loadFactor = loadFactor;
+        this.indexType = indexType;
         allocateTable();
     }
     
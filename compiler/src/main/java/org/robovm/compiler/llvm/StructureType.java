@@ -39,6 +39,10 @@ public class StructureType extends AggregateType {
     public Type getTypeAt(int index) {
         return types[index];
     }
+
+    public int getTypeCount() {
+        return types.length;
+    }
     
     @Override
     public String getDefinition() {
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+package org.robovm.compiler.profiler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A heap profile written by a running RoboVM app, either through
+ * <code>org.robovm.rt.VM.writeHeapProfile()</code> or by sending
+ * <code>SIGQUIT</code> to an app launched with
+ * <code>-rvm:heapProfileFile=&lt;path&gt;</code>. See
+ * <code>vm/core/src/heapprofile.c</code> for a description of the file format.
+ */
+public class HeapProfile {
+    private final long timestamp;
+    private final List<ClassStats> histogram = new ArrayList<ClassStats>();
+    private final List<AllocationSite> allocationSites = new ArrayList<AllocationSite>();
+    private int sampleInterval;
+
+    HeapProfile(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the live object histogram ordered by total bytes, largest first.
+     */
+    public List<ClassStats> getHistogram() {
+        return Collections.unmodifiableList(histogram);
+    }
+
+    /**
+     * Returns the sampled allocation sites ordered by sampled bytes, largest
+     * first. Empty if allocation sampling wasn't enabled.
+     */
+    public List<AllocationSite> getAllocationSites() {
+        return Collections.unmodifiableList(allocationSites);
+    }
+
+    /**
+     * Returns the allocation sample interval in bytes or 0 if allocation
+     * sampling wasn't enabled.
+     */
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Reads all profiles from the specified {@link Reader}. A file written
+     * in response to signals will contain one profile per signal received.
+     */
+    public static List<HeapProfile> read(Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        List<HeapProfile> result = new ArrayList<HeapProfile>();
+        HeapProfile profile = null;
+        AllocationSite site = null;
+        int lineNo = 0;
+        String line = null;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            if (line.length() == 0) {
+                continue;
+            }
+            String[] parts = line.split(" ");
+            char type = line.charAt(0);
+            if (type == 'P') {
+                profile = new HeapProfile(Long.parseLong(parts[2]));
+                site = null;
+                continue;
+            }
+            if (profile == null) {
+                throw new IOException("Unexpected record at line " + lineNo + ": " + line);
+            }
+            switch (type) {
+            case 'H':
+                profile.histogram.add(new ClassStats(toJavaName(parts[3]),
+                        Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                break;
+            case 'S':
+                profile.sampleInterval = Integer.parseInt(parts[1]);
+                break;
+            case 'A':
+                site = new AllocationSite(toJavaName(parts[3]),
+                        Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                profile.allocationSites.add(site);
+                break;
+            case 'F':
+                if (site == null) {
+                    throw new IOException("Unexpected frame at line " + lineNo + ": " + line);
+                }
+                if ("?".equals(parts[1])) {
+                    site.frames.add("<unknown>");
+                } else {
+                    site.frames.add(toJavaName(parts[1]) + "." + parts[2] + parts[3]);
+                }
+                break;
+            case 'E':
+                result.add(profile);
+                profile = null;
+                site = null;
+                break;
+            default:
+                throw new IOException("Unknown record type at line " + lineNo + ": " + line);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converts an internal class name (e.g. <code>java/lang/String</code> or
+     * <code>[[I</code>) to a Java source name (<code>java.lang.String</code>,
+     * <code>int[][]</code>).
+     */
+    static String toJavaName(String internalName) {
+        int dims = 0;
+        while (dims < internalName.length() && internalName.charAt(dims) == '[') {
+            dims++;
+        }
+        if (dims == 0) {
+            return internalName.replace('/', '.');
+        }
+        String base = null;
+        String desc = internalName.substring(dims);
+        switch (desc.charAt(0)) {
+        case 'Z': base = "boolean"; break;
+        case 'B': base = "byte"; break;
+        case 'C': base = "char"; break;
+        case 'S': base = "short"; break;
+        case 'I': base = "int"; break;
+        case 'J': base = "long"; break;
+        case 'F': base = "float"; break;
+        case 'D': base = "double"; break;
+        case 'L': base = desc.substring(1, desc.length() - 1).replace('/', '.'); break;
+        default: base = desc;
+        }
+        StringBuilder sb = new StringBuilder(base);
+        for (int i = 0; i < dims; i++) {
+            sb.append("[]");
+        }
+        return sb.toString();
+    }
+
+    public static class ClassStats {
+        private final String className;
+        private final long instances;
+        private final long bytes;
+
+        ClassStats(String className, long instances, long bytes) {
+            this.className = className;
+            this.instances = instances;
+            this.bytes = bytes;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getInstances() {
+            return instances;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    public static class AllocationSite {
+        private final String className;
+        private final long samples;
+        private final long bytes;
+        private final List<String> frames = new ArrayList<String>();
+
+        AllocationSite(String className, long samples, long bytes) {
+            this.className = className;
+            this.samples = samples;
+            this.bytes = bytes;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the frames of the allocating call stack, innermost first.
+         */
+        public List<String> getFrames() {
+            return Collections.unmodifiableList(frames);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+package org.robovm.compiler.profiler;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.robovm.compiler.profiler.HeapProfile.AllocationSite;
+import org.robovm.compiler.profiler.HeapProfile.ClassStats;
+
+/**
+ * Prints reports from heap profile files written by RoboVM apps. By default
+ * the last profile in the file is reported. With <code>-diff</code> the
+ * growth per class between the first and the last profile is reported
+ * instead which is useful when hunting leaks.
+ */
+public class HeapProfileReport {
+    private final PrintStream out;
+    private final int limit;
+    private final int depth;
+
+    public HeapProfileReport(PrintStream out, int limit, int depth) {
+        this.out = out;
+        this.limit = limit;
+        this.depth = depth;
+    }
+
+    public void printHistogram(HeapProfile profile) {
+        out.format("%12s %14s  %s%n", "instances", "bytes", "class");
+        long totalInstances = 0;
+        long totalBytes = 0;
+        int n = 0;
+        for (ClassStats stats : profile.getHistogram()) {
+            if (n++ < limit) {
+                out.format("%12d %14d  %s%n", stats.getInstances(), stats.getBytes(), stats.getClassName());
+            }
+            totalInstances += stats.getInstances();
+            totalBytes += stats.getBytes();
+        }
+        out.format("%12d %14d  %s%n", totalInstances, totalBytes, "<total>");
+    }
+
+    public void printAllocationSites(HeapProfile profile) {
+        if (profile.getAllocationSites().isEmpty()) {
+            return;
+        }
+        out.format("%nAllocation sites (one sample every %d bytes):%n", profile.getSampleInterval());
+        int n = 0;
+        for (AllocationSite site : profile.getAllocationSites()) {
+            if (n++ >= limit) {
+                break;
+            }
+            out.format("%n%8d samples %12d bytes  %s%n", site.getSamples(), site.getBytes(), site.getClassName());
+            List<String> frames = site.getFrames();
+            for (int i = 0; i < frames.size() && i < depth; i++) {
+                out.format("        at %s%n", frames.get(i));
+            }
+        }
+    }
+
+    public void printDiff(HeapProfile first, HeapProfile last) {
+        final Map<String, long[]> deltas = new HashMap<String, long[]>();
+        for (ClassStats stats : last.getHistogram()) {
+            deltas.put(stats.getClassName(), new long[] {stats.getInstances(), stats.getBytes()});
+        }
+        for (ClassStats stats : first.getHistogram()) {
+            long[] d = deltas.get(stats.getClassName());
+            if (d == null) {
+                d = new long[2];
+                deltas.put(stats.getClassName(), d);
+            }
+            d[0] -= stats.getInstances();
+            d[1] -= stats.getBytes();
+        }
+        List<String> classes = new ArrayList<String>(deltas.keySet());
+        Collections.sort(classes, new Comparator<String>() {
+            public int compare(String o1, String o2) {
+                long b1 = deltas.get(o1)[1];
+                long b2 = deltas.get(o2)[1];
+                return b1 < b2 ? 1 : (b1 > b2 ? -1 : o1.compareTo(o2));
+            }
+        });
+        out.format("Growth over %d ms:%n", last.getTimestamp() - first.getTimestamp());
+        out.format("%12s %14s  %s%n", "instances", "bytes", "class");
+        int n = 0;
+        for (String cls : classes) {
+            if (n++ >= limit) {
+                break;
+            }
+            long[] d = deltas.get(cls);
+            out.format("%+12d %+14d  %s%n", d[0], d[1], cls);
+        }
+    }
+
+    private static void printUsageAndExit(String errorMessage) {
+        if (errorMessage != null) {
+            System.err.format("robovm-heapreport: %s\n", errorMessage);
+        }
+        System.err.println("Usage: robovm-heapreport [-options] <file>");
+        System.err.println("Options:");
+        System.err.println("  -limit <n>      Print at most n classes and allocation sites. Default is 50.");
+        System.err.println("  -depth <n>      Print at most n frames per allocation site. Default is 8.");
+        System.err.println("  -diff           Print the growth between the first and the last profile in\n"
+                         + "                  the file instead of the last profile.");
+        System.err.println("  -help, -?       Display this information");
+        System.exit(errorMessage != null ? 1 : 0);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int limit = 50;
+        int depth = 8;
+        boolean diff = false;
+        File file = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("-limit".equals(args[i])) {
+                    limit = Integer.parseInt(args[++i]);
+                } else if ("-depth".equals(args[i])) {
+                    depth = Integer.parseInt(args[++i]);
+                } else if ("-diff".equals(args[i])) {
+                    diff = true;
+                } else if ("-help".equals(args[i]) || "-?".equals(args[i])) {
+                    printUsageAndExit(null);
+                } else if (args[i].startsWith("-")) {
+                    throw new IllegalArgumentException("Unrecognized option: " + args[i]);
+                } else {
+                    file = new File(args[i]);
+                }
+            }
+        } catch (Throwable t) {
+            printUsageAndExit(t.getMessage());
+        }
+        if (file == null) {
+            printUsageAndExit("No heap profile file specified");
+        }
+
+        List<HeapProfile> profiles = null;
+        Reader reader = null;
+        try {
+            reader = new FileReader(file);
+            profiles = HeapProfile.read(reader);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        if (profiles.isEmpty()) {
+            printUsageAndExit("No complete heap profile found in " + file);
+        }
+
+        HeapProfileReport report = new HeapProfileReport(System.out, limit, depth);
+        HeapProfile last = profiles.get(profiles.size() - 1);
+        if (diff) {
+            if (profiles.size() < 2) {
+                printUsageAndExit("-diff requires at least 2 profiles in " + file);
+            }
+            report.printDiff(profiles.get(0), last);
+        } else {
+            report.printHistogram(last);
+            report.printAllocationSites(last);
+        }
+    }
+}
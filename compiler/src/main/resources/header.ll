@@ -1,6 +1,6 @@
 %GatewayFrame = type {i8*, i8*, i8*}
 %StackFrame = type {i8*, i8*}
-%Thread = type {i32} ; Incomplete. Just enough to get threadId
+%Thread = type {i32, i32} ; Incomplete. Just enough to get threadId and monitorDepth
 %Env = type {i8*, i8*, i8*, %Thread*, i8*, i8*, %GatewayFrame*, i8*, i32}
 %TypeInfo = type {i32, i32, i32, i32, i32, [0 x i32]}
 %VITable = type {i16, [0 x i8*]}
@@ -92,7 +92,6 @@ declare %Object* @_bcNewDoubleArray(%Env*, i32)
 declare %Object* @_bcNewMultiArray(%Env*, i32, i32*, %Object*)
 declare void @_bcSetObjectArrayElement(%Env*, %Object*, i32, %Object*)
 
-declare %Object* @_bcLdcString(%Env*, %Object**, i8*, i32)
         
 declare void @_bcMonitorEnter(%Env*, %Object*)
 declare void @_bcMonitorExit(%Env*, %Object*)
@@ -123,6 +122,14 @@ define private i32 @Thread_threadId(%Thread* %t) alwaysinline {
     ret i32 %2
 }
 
+define private void @Thread_addMonitorDepth(%Thread* %t, i32 %delta) alwaysinline {
+    %1 = getelementptr %Thread* %t, i32 0, i32 1 ; Thread->monitorDepth
+    %2 = load i32* %1
+    %3 = add i32 %2, %delta
+    store i32 %3, i32* %1
+    ret void
+}
+
 define private %Thread* @Env_currentThread(%Env* %env) alwaysinline {
     %1 = getelementptr %Env* %env, i32 0, i32 3 ; Env->currentThread
     %2 = load volatile %Thread** %1
@@ -917,6 +924,7 @@ tryLock:
     %isSuccess = call i1 @atomic_cas(i32 %thin, i32 %newThin, i32* %lockPtr)
     br i1 %isSuccess, label %success, label %callBc
 success:
+    call void @Thread_addMonitorDepth(%Thread* %currentThread, i32 1)
     ret void
 callBc:
     tail call void @_bcMonitorEnter(%Env* %env, %Object* %o)
@@ -946,6 +954,7 @@ unlock:
     %newThin = and i32 %thin, 6 ; LW_HASH_STATE_MASK << LW_HASH_STATE_SHIFT (0x3 << 1)
     fence seq_cst
     store volatile i32 %newThin, i32* %lockPtr
+    call void @Thread_addMonitorDepth(%Thread* %currentThread, i32 -1)
     ret void
 callBc:
     tail call void @_bcMonitorExit(%Env* %env, %Object* %o)
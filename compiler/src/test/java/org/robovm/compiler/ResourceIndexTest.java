@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+package org.robovm.compiler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests {@link ResourceIndex}.
+ */
+public class ResourceIndexTest {
+
+    private File createTempDir() throws IOException {
+        File dir = File.createTempFile(getClass().getSimpleName(), ".dir");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    @Test
+    public void testDirectoriesAndArchives() throws IOException {
+        File dir = createTempDir();
+        try {
+            File classes = new File(dir, "classes");
+            FileUtils.writeStringToFile(new File(classes, "com/example/Foo.class"), "");
+            FileUtils.writeStringToFile(new File(classes, "com/example/config.properties"), "a=b");
+            FileUtils.writeStringToFile(new File(classes, "log.xml"), "<log/>");
+
+            File jar = new File(dir, "lib.jar");
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+            out.putNextEntry(new ZipEntry("META-INF/"));
+            out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            out.putNextEntry(new ZipEntry("log.xml"));
+            out.putNextEntry(new ZipEntry("com/example/Bar.CLASS"));
+            out.close();
+
+            ResourceIndex index = new ResourceIndex();
+            index.add(0, classes);
+            index.add(1, new File(dir, "missing.jar"));
+            index.add(2, jar);
+            Map<String, List<Integer>> resources = index.getResources();
+
+            assertEquals(Arrays.asList(0), resources.get("com/"));
+            assertEquals(Arrays.asList(0), resources.get("com/example/"));
+            assertEquals(Arrays.asList(0), resources.get("com/example/config.properties"));
+            assertEquals(Arrays.asList(0, 2), resources.get("log.xml"));
+            assertEquals(Arrays.asList(2), resources.get("META-INF/"));
+            assertEquals(Arrays.asList(2), resources.get("META-INF/MANIFEST.MF"));
+            assertNull(resources.get("com/example/Foo.class"));
+            assertNull(resources.get("com/example/Bar.CLASS"));
+            assertEquals(6, resources.size());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
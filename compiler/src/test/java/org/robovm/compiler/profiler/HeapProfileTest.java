@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/gpl-2.0.html>.
+ */
+package org.robovm.compiler.profiler;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link HeapProfile}.
+ */
+public class HeapProfileTest {
+
+    @Test
+    public void testToJavaName() {
+        assertEquals("java.lang.String", HeapProfile.toJavaName("java/lang/String"));
+        assertEquals("int[]", HeapProfile.toJavaName("[I"));
+        assertEquals("boolean[][]", HeapProfile.toJavaName("[[Z"));
+        assertEquals("java.lang.Object[]", HeapProfile.toJavaName("[Ljava/lang/Object;"));
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        String s = "P 1 1000\n"
+                 + "H 10 400 [C\n"
+                 + "H 5 120 java/lang/String\n"
+                 + "S 524288\n"
+                 + "A 3 96 [C 2\n"
+                 + "F java/lang/String <init> ([C)V\n"
+                 + "F ? ? ?\n"
+                 + "E\n"
+                 + "P 1 2000\n"
+                 + "H 1 16 java/lang/Object\n"
+                 + "E\n"
+                 + "P 1 3000\n"
+                 + "H 1 16 java/lang/Object\n";
+        List<HeapProfile> profiles = HeapProfile.read(new StringReader(s));
+        // The last profile is incomplete and must be ignored
+        assertEquals(2, profiles.size());
+
+        HeapProfile p1 = profiles.get(0);
+        assertEquals(1000, p1.getTimestamp());
+        assertEquals(2, p1.getHistogram().size());
+        assertEquals("char[]", p1.getHistogram().get(0).getClassName());
+        assertEquals(10, p1.getHistogram().get(0).getInstances());
+        assertEquals(400, p1.getHistogram().get(0).getBytes());
+        assertEquals(524288, p1.getSampleInterval());
+        assertEquals(1, p1.getAllocationSites().size());
+        assertEquals(3, p1.getAllocationSites().get(0).getSamples());
+        assertEquals("java.lang.String.<init>([C)V", p1.getAllocationSites().get(0).getFrames().get(0));
+        assertEquals("<unknown>", p1.getAllocationSites().get(0).getFrames().get(1));
+
+        HeapProfile p2 = profiles.get(1);
+        assertEquals(2000, p2.getTimestamp());
+        assertEquals(0, p2.getSampleInterval());
+        assertTrue(p2.getAllocationSites().isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadUnknownRecord() throws IOException {
+        HeapProfile.read(new StringReader("P 1 1000\nX foo\nE\n"));
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.json;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -574,6 +575,14 @@ public class JSONArray {
         stringer.endArray();
     }
 
+    void writeTo(JSONStreamWriter writer) throws JSONException, IOException {
+        writer.array();
+        for (Object value : values) {
+            writer.value(value);
+        }
+        writer.endArray();
+    }
+
     @Override public boolean equals(Object o) {
         return o instanceof JSONArray && ((JSONArray) o).values.equals(values);
     }
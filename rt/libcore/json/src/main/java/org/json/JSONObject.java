@@ -16,6 +16,7 @@
 
 package org.json;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -669,6 +670,14 @@ public class JSONObject {
         stringer.endObject();
     }
 
+    void writeTo(JSONStreamWriter writer) throws JSONException, IOException {
+        writer.object();
+        for (Map.Entry<String, Object> entry : nameValuePairs.entrySet()) {
+            writer.key(entry.getKey()).value(entry.getValue());
+        }
+        writer.endObject();
+    }
+
     /**
      * Encodes the number as a JSON string.
      *
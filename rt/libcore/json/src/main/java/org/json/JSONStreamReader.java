@@ -0,0 +1,1018 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charsets;
+import java.util.Arrays;
+
+/**
+ * Reads a JSON encoded value from a stream, one token at a time. Unlike
+ * {@link JSONTokener} the document is never held in memory and values are
+ * only converted to Java objects when asked for, so large documents can be
+ * processed with a fixed amount of memory. For example:<pre>
+ * JSONStreamReader reader = new JSONStreamReader(in);
+ * reader.beginArray();
+ * while (reader.hasNext()) {
+ *     reader.beginObject();
+ *     while (reader.hasNext()) {
+ *         String name = reader.nextName();
+ *         if (name.equals("id")) {
+ *             ids.add(reader.nextLong());
+ *         } else {
+ *             reader.skipValue();
+ *         }
+ *     }
+ *     reader.endObject();
+ * }
+ * reader.endArray();
+ * reader.close();</pre>
+ *
+ * <p>{@link #skipValue} skips strings, numbers and whole arrays and objects
+ * without creating any objects. {@link #nextValue} reads the next value into
+ * the same {@link JSONObject}, {@link JSONArray}, String, Boolean, Integer,
+ * Long, Double or {@link JSONObject#NULL} a {@link JSONTokener} would return,
+ * so streamed and tree based processing can be mixed.
+ *
+ * <p>By default only well-formed JSON as defined by RFC 4627 is accepted,
+ * except that the top-level value may be of any type. After {@link
+ * #setLenient setLenient(true)} the reader also accepts most of the syntax
+ * {@link JSONTokener} accepts: end of line comments starting with {@code //}
+ * or {@code #}, C-style comments, single quoted strings, unquoted strings
+ * and names, {@code =} and {@code =>} between names and values, {@code ;}
+ * between elements, case-insensitive {@code true}, {@code false} and {@code
+ * null} and multiple top-level values.
+ *
+ * <p>Malformed input fails with a {@link JSONException}, as does asking for a
+ * token other than the next one. Instances of this class are not thread safe.
+ *
+ * @hide
+ */
+public class JSONStreamReader implements Closeable {
+
+    /**
+     * The kinds of tokens returned by {@link JSONStreamReader#peek}.
+     */
+    public enum Token {
+        BEGIN_ARRAY,
+        END_ARRAY,
+        BEGIN_OBJECT,
+        END_OBJECT,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT,
+    }
+
+    /**
+     * Lexical scoping elements within this reader, necessary to know which
+     * separators may follow the current token.
+     */
+    private enum Scope {
+        EMPTY_DOCUMENT,
+        NONEMPTY_DOCUMENT,
+        EMPTY_ARRAY,
+        NONEMPTY_ARRAY,
+        EMPTY_OBJECT,
+        DANGLING_NAME,
+        NONEMPTY_OBJECT,
+        CLOSED,
+    }
+
+    private final Reader in;
+
+    private final char[] buffer = new char[1024];
+    private int pos;
+    private int limit;
+
+    /** The number of characters discarded from the start of the buffer. */
+    private long bufferStart;
+
+    private boolean lenient;
+
+    private Scope[] stack = new Scope[32];
+    private int stackSize;
+
+    /** The peeked token, or null if the next token hasn't been read yet. */
+    private Token token;
+
+    /**
+     * The opening quote of the peeked {@link Token#NAME} or {@link
+     * Token#STRING}, whose contents haven't been read yet. 0 if the peeked
+     * token is an unquoted literal.
+     */
+    private char quote;
+
+    /**
+     * The peeked literal is in {@code buffer[valuePos..valuePos+valueLength)},
+     * unless it was too long for the buffer in which case it's in {@code
+     * value}.
+     */
+    private int valuePos;
+    private int valueLength;
+    private String value;
+
+    /** True if the peeked {@link Token#NUMBER} has no fraction or exponent. */
+    private boolean integral;
+
+    /**
+     * Creates a reader which reads from {@code in}.
+     */
+    public JSONStreamReader(Reader in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        this.in = in;
+        stack[stackSize++] = Scope.EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Creates a reader which reads UTF-8 encoded JSON from {@code in}.
+     */
+    public JSONStreamReader(InputStream in) {
+        this(new InputStreamReader(in, Charsets.UTF_8));
+    }
+
+    /**
+     * Sets whether this reader accepts the non-standard syntax described in
+     * the class documentation.
+     */
+    public void setLenient(boolean lenient) {
+        this.lenient = lenient;
+    }
+
+    public boolean isLenient() {
+        return lenient;
+    }
+
+    /**
+     * Consumes the next token, which must be the beginning of an array.
+     */
+    public void beginArray() throws IOException, JSONException {
+        expect(Token.BEGIN_ARRAY);
+        push(Scope.EMPTY_ARRAY);
+    }
+
+    /**
+     * Consumes the next token, which must be the end of the current array.
+     */
+    public void endArray() throws IOException, JSONException {
+        expect(Token.END_ARRAY);
+    }
+
+    /**
+     * Consumes the next token, which must be the beginning of an object.
+     */
+    public void beginObject() throws IOException, JSONException {
+        expect(Token.BEGIN_OBJECT);
+        push(Scope.EMPTY_OBJECT);
+    }
+
+    /**
+     * Consumes the next token, which must be the end of the current object.
+     */
+    public void endObject() throws IOException, JSONException {
+        expect(Token.END_OBJECT);
+    }
+
+    /**
+     * Returns true if the current array or object has another element.
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        Token t = peek();
+        return t != Token.END_ARRAY && t != Token.END_OBJECT && t != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public Token peek() throws IOException, JSONException {
+        if (token != null) {
+            return token;
+        }
+
+        switch (stack[stackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                if ((pos < limit || fill(1)) && buffer[pos] == '\ufeff') {
+                    pos++;
+                }
+                stack[stackSize - 1] = Scope.NONEMPTY_DOCUMENT;
+                return token = nextValueToken();
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace(false) == -1) {
+                    return token = Token.END_DOCUMENT;
+                }
+                if (!lenient) {
+                    throw syntaxError("Expected end of document");
+                }
+                pos--;
+                return token = nextValueToken();
+            case EMPTY_ARRAY:
+                return token = nextInArray(true);
+            case NONEMPTY_ARRAY:
+                return token = nextInArray(false);
+            case EMPTY_OBJECT:
+                return token = nextInObject(true);
+            case DANGLING_NAME:
+                return token = objectValue();
+            case NONEMPTY_OBJECT:
+                return token = nextInObject(false);
+            default:
+                throw new IllegalStateException("JSONStreamReader is closed");
+        }
+    }
+
+    /**
+     * Returns the next token, a property name, and consumes it.
+     */
+    public String nextName() throws IOException, JSONException {
+        expectPeeked(Token.NAME);
+        String result = quote != 0 ? readString(quote) : literal();
+        token = null;
+        return result;
+    }
+
+    /**
+     * Returns the string value of the next token and consumes it. The token
+     * must be a string or a number.
+     */
+    public String nextString() throws IOException, JSONException {
+        Token t = peek();
+        String result;
+        if (t == Token.STRING && quote != 0) {
+            result = readString(quote);
+        } else if (t == Token.STRING || t == Token.NUMBER) {
+            result = literal();
+        } else {
+            throw typeMismatch("a string");
+        }
+        token = null;
+        return result;
+    }
+
+    /**
+     * Returns the boolean value of the next token and consumes it.
+     */
+    public boolean nextBoolean() throws IOException, JSONException {
+        expectPeeked(Token.BOOLEAN);
+        boolean result = Character.toLowerCase(literalChar(0)) == 't';
+        token = null;
+        return result;
+    }
+
+    /**
+     * Consumes the next token, which must be a null literal.
+     */
+    public void nextNull() throws IOException, JSONException {
+        expect(Token.NULL);
+    }
+
+    /**
+     * Returns the double value of the next token and consumes it. The token
+     * must be a number or a string containing a number.
+     */
+    public double nextDouble() throws IOException, JSONException {
+        Token t = peek();
+        double result;
+        if (t == Token.NUMBER && integral && value == null && valueLength <= 18) {
+            result = parseLong();
+        } else if (t == Token.NUMBER) {
+            result = Double.parseDouble(literal());
+        } else if (t == Token.STRING) {
+            String s = quote != 0 ? readString(quote) : literal();
+            try {
+                result = Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                throw new JSONException("Expected a double but was " + s);
+            }
+        } else {
+            throw typeMismatch("a double");
+        }
+        token = null;
+        return result;
+    }
+
+    /**
+     * Returns the long value of the next token and consumes it. The token
+     * must be a number or a string containing a number, which must be
+     * representable exactly as a long.
+     */
+    public long nextLong() throws IOException, JSONException {
+        long result = readLong();
+        token = null;
+        return result;
+    }
+
+    /**
+     * Returns the int value of the next token and consumes it. The token must
+     * be a number or a string containing a number, which must be
+     * representable exactly as an int.
+     */
+    public int nextInt() throws IOException, JSONException {
+        long result = readLong();
+        if (result != (int) result) {
+            throw new JSONException("Expected an int but was " + result);
+        }
+        token = null;
+        return (int) result;
+    }
+
+    private long readLong() throws IOException, JSONException {
+        Token t = peek();
+        String s;
+        if (t == Token.NUMBER) {
+            if (integral && value == null) {
+                return parseLong();
+            }
+            s = literal();
+        } else if (t == Token.STRING) {
+            // Replace the string token so a failed conversion can't leave the
+            // reader in the middle of the string.
+            s = quote != 0 ? readString(quote) : literal();
+            value = s;
+            quote = 0;
+        } else {
+            throw typeMismatch("a long");
+        }
+
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            try {
+                double d = Double.parseDouble(s);
+                long result = (long) d;
+                if (result == d) {
+                    return result;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            throw new JSONException("Expected a long but was " + s);
+        }
+    }
+
+    /**
+     * Parses the peeked integral number literal in the buffer. Literals with
+     * up to 18 digits are parsed without creating a string.
+     */
+    private long parseLong() throws JSONException {
+        int i = valuePos;
+        int end = valuePos + valueLength;
+        boolean negative = buffer[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (end - i > 18) {
+            String s = literal();
+            try {
+                return Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                throw new JSONException("Expected a long but was " + s);
+            }
+        }
+        long result = 0;
+        for (; i < end; i++) {
+            result = result * 10 + (buffer[i] - '0');
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Skips the next value, including all nested values if it's an array or
+     * object. If the next token is a name, the name and its value are skipped.
+     * No strings are created for the skipped values.
+     */
+    public void skipValue() throws IOException, JSONException {
+        if (peek() == Token.NAME) {
+            if (quote != 0) {
+                skipString(quote);
+            }
+            token = null;
+        }
+
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                case END_OBJECT:
+                    if (depth == 0) {
+                        throw typeMismatch("a value");
+                    }
+                    token = null;
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw typeMismatch("a value");
+                case NAME:
+                case STRING:
+                    if (quote != 0) {
+                        skipString(quote);
+                    }
+                    token = null;
+                    break;
+                default:
+                    // Numbers, booleans and nulls have been read by peek().
+                    token = null;
+                    break;
+            }
+        } while (depth != 0);
+    }
+
+    /**
+     * Returns the next value and consumes it. Arrays and objects are read
+     * completely into a {@link JSONArray} or {@link JSONObject}.
+     *
+     * @return a {@link JSONObject}, {@link JSONArray}, String, Boolean,
+     *     Integer, Long, Double or {@link JSONObject#NULL}.
+     */
+    public Object nextValue() throws IOException, JSONException {
+        switch (peek()) {
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                beginArray();
+                while (hasNext()) {
+                    array.put(nextValue());
+                }
+                endArray();
+                return array;
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    object.put(name, nextValue());
+                }
+                endObject();
+                return object;
+            case STRING:
+                return nextString();
+            case NUMBER:
+                Object result = toNumber();
+                token = null;
+                return result;
+            case BOOLEAN:
+                return nextBoolean();
+            case NULL:
+                token = null;
+                return JSONObject.NULL;
+            default:
+                throw typeMismatch("a value");
+        }
+    }
+
+    /**
+     * Returns the peeked number as the type {@link JSONTokener} uses: an
+     * Integer or Long if it's integral and fits, a Double otherwise.
+     */
+    private Number toNumber() throws JSONException {
+        if (integral) {
+            long longValue;
+            if (value == null && valueLength <= 10) {
+                longValue = parseLong();
+            } else {
+                try {
+                    longValue = Long.parseLong(literal());
+                } catch (NumberFormatException e) {
+                    // Greater than Long.MAX_VALUE. Fall through to floating point.
+                    return Double.valueOf(literal());
+                }
+            }
+            // Literals like "-2147483648" are longer than 10 characters but
+            // still fit in an int.
+            if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                return (int) longValue;
+            }
+            return longValue;
+        }
+        return Double.valueOf(literal());
+    }
+
+    /**
+     * Closes this reader and the underlying reader.
+     */
+    public void close() throws IOException {
+        token = null;
+        stack[0] = Scope.CLOSED;
+        stackSize = 1;
+        in.close();
+    }
+
+    private void expect(Token expected) throws IOException, JSONException {
+        expectPeeked(expected);
+        token = null;
+    }
+
+    private void expectPeeked(Token expected) throws IOException, JSONException {
+        if (peek() != expected) {
+            throw typeMismatch(expected.toString());
+        }
+    }
+
+    private void push(Scope scope) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private Token nextInArray(boolean first) throws IOException, JSONException {
+        int c;
+        if (first) {
+            stack[stackSize - 1] = Scope.NONEMPTY_ARRAY;
+            c = nextNonWhitespace(true);
+            if (c == ']') {
+                stackSize--;
+                return Token.END_ARRAY;
+            }
+            pos--;
+        } else {
+            c = nextNonWhitespace(true);
+            if (c == ']') {
+                stackSize--;
+                return Token.END_ARRAY;
+            } else if (c == ';') {
+                checkLenient();
+            } else if (c != ',') {
+                throw syntaxError("Unterminated array");
+            }
+        }
+        return nextValueToken();
+    }
+
+    private Token nextInObject(boolean first) throws IOException, JSONException {
+        int c;
+        if (!first) {
+            c = nextNonWhitespace(true);
+            if (c == '}') {
+                stackSize--;
+                return Token.END_OBJECT;
+            } else if (c == ';') {
+                checkLenient();
+            } else if (c != ',') {
+                throw syntaxError("Unterminated object");
+            }
+        }
+
+        c = nextNonWhitespace(true);
+        if (first && c == '}') {
+            stackSize--;
+            return Token.END_OBJECT;
+        }
+        stack[stackSize - 1] = Scope.DANGLING_NAME;
+        switch (c) {
+            case '\'':
+                checkLenient();
+                // fall-through
+            case '"':
+                quote = (char) c;
+                return Token.NAME;
+            default:
+                if (!lenient) {
+                    throw syntaxError("Expected name");
+                }
+                pos--;
+                readLiteral();
+                if (valueLength == 0 && value == null) {
+                    throw syntaxError("Expected name");
+                }
+                return Token.NAME;
+        }
+    }
+
+    private Token objectValue() throws IOException, JSONException {
+        int c = nextNonWhitespace(true);
+        if (c == '=') {
+            checkLenient();
+            if ((pos < limit || fill(1)) && buffer[pos] == '>') {
+                pos++;
+            }
+        } else if (c != ':') {
+            throw syntaxError("Expected ':' after name");
+        }
+        stack[stackSize - 1] = Scope.NONEMPTY_OBJECT;
+        return nextValueToken();
+    }
+
+    private Token nextValueToken() throws IOException, JSONException {
+        int c = nextNonWhitespace(true);
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '\'':
+                checkLenient();
+                // fall-through
+            case '"':
+                quote = (char) c;
+                return Token.STRING;
+            default:
+                pos--;
+                readLiteral();
+                return classifyLiteral();
+        }
+    }
+
+    /**
+     * Reads the unquoted literal at {@code pos}. Literals which don't fit in
+     * the buffer are copied into {@link #value}.
+     */
+    private void readLiteral() throws IOException {
+        quote = 0;
+        value = null;
+        StringBuilder builder = null;
+        int i = 0;
+        while (true) {
+            if (pos + i == limit) {
+                if (i == buffer.length) {
+                    if (builder == null) {
+                        builder = new StringBuilder();
+                    }
+                    builder.append(buffer, pos, i);
+                    pos += i;
+                    i = 0;
+                }
+                if (!fill(i + 1)) {
+                    break;
+                }
+            }
+            if (isLiteralDelimiter(buffer[pos + i])) {
+                break;
+            }
+            i++;
+        }
+
+        if (builder != null) {
+            builder.append(buffer, pos, i);
+            value = builder.toString();
+            valueLength = value.length();
+        } else {
+            valuePos = pos;
+            valueLength = i;
+        }
+        pos += i;
+    }
+
+    /**
+     * Returns true if {@code c} ends an unquoted literal. These are the same
+     * characters that end a literal in {@link JSONTokener}.
+     */
+    private static boolean isLiteralDelimiter(char c) {
+        switch (c) {
+            case '{':
+            case '}':
+            case '[':
+            case ']':
+            case '/':
+            case '\\':
+            case ':':
+            case ',':
+            case '=':
+            case ';':
+            case '#':
+            case ' ':
+            case '\t':
+            case '\f':
+            case '\r':
+            case '\n':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private Token classifyLiteral() throws JSONException {
+        if (valueLength == 0) {
+            throw syntaxError("Expected literal value");
+        }
+        if (literalIs("null")) {
+            return Token.NULL;
+        } else if (literalIs("true") || literalIs("false")) {
+            return Token.BOOLEAN;
+        } else if (isNumber()) {
+            return Token.NUMBER;
+        }
+        checkLenient();
+        return Token.STRING;
+    }
+
+    private boolean literalIs(String keyword) {
+        if (valueLength != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < valueLength; i++) {
+            char c = literalChar(i);
+            if (c != keyword.charAt(i) && (!lenient || Character.toLowerCase(c) != keyword.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the peeked literal is a number as defined by RFC 4627
+     * and sets {@link #integral}.
+     */
+    private boolean isNumber() {
+        int i = 0;
+        if (literalChar(i) == '-') {
+            i++;
+        }
+        if (i == valueLength) {
+            return false;
+        }
+        char c = literalChar(i++);
+        if (c >= '1' && c <= '9') {
+            while (i < valueLength && isDigit(literalChar(i))) {
+                i++;
+            }
+        } else if (c != '0') {
+            return false;
+        }
+        integral = true;
+
+        if (i < valueLength && literalChar(i) == '.') {
+            integral = false;
+            int start = ++i;
+            while (i < valueLength && isDigit(literalChar(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < valueLength && (literalChar(i) == 'e' || literalChar(i) == 'E')) {
+            integral = false;
+            i++;
+            if (i < valueLength && (literalChar(i) == '+' || literalChar(i) == '-')) {
+                i++;
+            }
+            int start = i;
+            while (i < valueLength && isDigit(literalChar(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == valueLength;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private char literalChar(int index) {
+        return value != null ? value.charAt(index) : buffer[valuePos + index];
+    }
+
+    private String literal() {
+        return value != null ? value : new String(buffer, valuePos, valueLength);
+    }
+
+    /**
+     * Returns the next character that isn't whitespace or part of a comment,
+     * or -1 at the end of the input if {@code throwOnEof} is false.
+     */
+    private int nextNonWhitespace(boolean throwOnEof) throws IOException, JSONException {
+        while (pos < limit || fill(1)) {
+            int c = buffer[pos++];
+            switch (c) {
+                case '\t':
+                case ' ':
+                case '\n':
+                case '\r':
+                    continue;
+
+                case '/':
+                    if (!lenient || (pos == limit && !fill(1))) {
+                        return c;
+                    }
+                    char peek = buffer[pos];
+                    if (peek == '*') {
+                        pos++;
+                        skipComment();
+                        continue;
+                    } else if (peek == '/') {
+                        pos++;
+                        skipToEndOfLine();
+                        continue;
+                    }
+                    return c;
+
+                case '#':
+                    if (!lenient) {
+                        return c;
+                    }
+                    skipToEndOfLine();
+                    continue;
+
+                default:
+                    return c;
+            }
+        }
+        if (throwOnEof) {
+            throw syntaxError("End of input");
+        }
+        return -1;
+    }
+
+    private void skipComment() throws IOException, JSONException {
+        while (pos + 1 < limit || fill(2)) {
+            if (buffer[pos] == '*' && buffer[pos + 1] == '/') {
+                pos += 2;
+                return;
+            }
+            pos++;
+        }
+        throw syntaxError("Unterminated comment");
+    }
+
+    private void skipToEndOfLine() throws IOException {
+        while (pos < limit || fill(1)) {
+            char c = buffer[pos++];
+            if (c == '\r' || c == '\n') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the string up to but not including {@code quote}, unescaping any
+     * escape sequences encountered along the way. The opening quote has
+     * already been read.
+     */
+    private String readString(char quote) throws IOException, JSONException {
+        StringBuilder builder = null;
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == quote) {
+                    if (builder == null) {
+                        return new String(buffer, start, pos - start - 1);
+                    }
+                    builder.append(buffer, start, pos - start - 1);
+                    return builder.toString();
+                } else if (c == '\\') {
+                    if (builder == null) {
+                        builder = new StringBuilder();
+                    }
+                    builder.append(buffer, start, pos - start - 1);
+                    builder.append(readEscapeCharacter());
+                    start = pos;
+                }
+            }
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+            builder.append(buffer, start, pos - start);
+            if (!fill(1)) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Skips the string up to and including {@code quote} without unescaping
+     * it. The opening quote has already been read.
+     */
+    private void skipString(char quote) throws IOException, JSONException {
+        while (pos < limit || fill(1)) {
+            char c = buffer[pos++];
+            if (c == quote) {
+                return;
+            } else if (c == '\\') {
+                if (pos == limit && !fill(1)) {
+                    break;
+                }
+                if (buffer[pos++] == 'u') {
+                    if (limit - pos < 4 && !fill(4)) {
+                        break;
+                    }
+                    pos += 4;
+                }
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Unescapes the character identified by the character or characters that
+     * immediately follow a backslash. The backslash '\' should have already
+     * been read. Supports the same escapes as {@link JSONTokener}.
+     */
+    private char readEscapeCharacter() throws IOException, JSONException {
+        if (pos == limit && !fill(1)) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        char escaped = buffer[pos++];
+        switch (escaped) {
+            case 'u':
+                if (limit - pos < 4 && !fill(4)) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(buffer[pos++], 16);
+                    if (digit == -1) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    result = (result << 4) | digit;
+                }
+                return (char) result;
+
+            case 't':
+                return '\t';
+
+            case 'b':
+                return '\b';
+
+            case 'n':
+                return '\n';
+
+            case 'r':
+                return '\r';
+
+            case 'f':
+                return '\f';
+
+            case '\'':
+            case '"':
+            case '\\':
+            default:
+                return escaped;
+        }
+    }
+
+    /**
+     * Moves the unread characters to the start of the buffer and reads until
+     * at least {@code minimum} characters are available. Returns false if the
+     * input ends first.
+     */
+    private boolean fill(int minimum) throws IOException {
+        if (pos != 0) {
+            bufferStart += pos;
+            limit -= pos;
+            System.arraycopy(buffer, pos, buffer, 0, limit);
+            pos = 0;
+        }
+        while (limit < minimum) {
+            int count = in.read(buffer, limit, buffer.length - limit);
+            if (count == -1) {
+                return false;
+            }
+            limit += count;
+        }
+        return true;
+    }
+
+    private void checkLenient() throws JSONException {
+        if (!lenient) {
+            throw syntaxError("Use JSONStreamReader.setLenient(true) to accept malformed JSON");
+        }
+    }
+
+    private JSONException typeMismatch(String expected) {
+        return syntaxError("Expected " + expected + " but was " + token);
+    }
+
+    /**
+     * Returns an exception containing the given message plus the current
+     * position in the input.
+     */
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + (bufferStart + pos));
+    }
+
+    @Override public String toString() {
+        return "JSONStreamReader at character " + (bufferStart + pos);
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charsets;
+import java.util.Arrays;
+import org.json.JSONStringer.Scope;
+
+/**
+ * Writes a JSON encoded value to a stream, one token at a time. Unlike
+ * {@link JSONStringer} the encoded document is never held in memory, so
+ * arbitrarily large documents can be written with a fixed amount of memory.
+ * For example:<pre>
+ * JSONStreamWriter writer = new JSONStreamWriter(out);
+ * writer.object();
+ * writer.key("id").value(id);
+ * writer.key("tags").array();
+ * for (String tag : tags) {
+ *     writer.value(tag);
+ * }
+ * writer.endArray();
+ * writer.endObject();
+ * writer.close();</pre>
+ *
+ * <p>The output is identical to the output of {@link JSONStringer} and the
+ * same nesting rules apply: a document has exactly one top-level array or
+ * object, scopes must be balanced and objects must alternate keys and
+ * values. Calls that would result in malformed JSON fail with a {@link
+ * JSONException}. {@link JSONObject} and {@link JSONArray} values may be
+ * mixed freely with streamed values.
+ *
+ * <p>Instances of this class are not thread safe.
+ *
+ * @hide
+ */
+public class JSONStreamWriter implements Closeable, Flushable {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    private Scope[] stack = new Scope[32];
+    private int stackSize;
+
+    /** True once the top-level array or object has been opened. */
+    private boolean wroteRoot;
+
+    /**
+     * A string containing a full set of spaces for a single level of
+     * indentation, or null for no pretty printing.
+     */
+    private String indent;
+
+    /**
+     * Creates a writer which writes to {@code out}. Characters are written to
+     * {@code out} as soon as they are encoded so it should normally be
+     * buffered.
+     */
+    public JSONStreamWriter(Writer out) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+        this.out = out;
+    }
+
+    /**
+     * Creates a writer which writes UTF-8 encoded JSON to {@code out}.
+     */
+    public JSONStreamWriter(OutputStream out) {
+        this(new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8)));
+    }
+
+    /**
+     * Sets the number of spaces to indent each level of nesting with. If
+     * {@code indentSpaces} is 0 the output is compact; this is the default.
+     *
+     * @return this writer.
+     */
+    public JSONStreamWriter setIndent(int indentSpaces) {
+        if (indentSpaces < 0) {
+            throw new IllegalArgumentException("indentSpaces < 0: " + indentSpaces);
+        }
+        if (indentSpaces == 0) {
+            indent = null;
+        } else {
+            char[] indentChars = new char[indentSpaces];
+            Arrays.fill(indentChars, ' ');
+            indent = new String(indentChars);
+        }
+        return this;
+    }
+
+    /**
+     * Begins encoding a new array. Each call to this method must be paired with
+     * a call to {@link #endArray}.
+     *
+     * @return this writer.
+     */
+    public JSONStreamWriter array() throws JSONException, IOException {
+        return open(Scope.EMPTY_ARRAY, '[');
+    }
+
+    /**
+     * Ends encoding the current array.
+     *
+     * @return this writer.
+     */
+    public JSONStreamWriter endArray() throws JSONException, IOException {
+        return close(Scope.EMPTY_ARRAY, Scope.NONEMPTY_ARRAY, ']');
+    }
+
+    /**
+     * Begins encoding a new object. Each call to this method must be paired
+     * with a call to {@link #endObject}.
+     *
+     * @return this writer.
+     */
+    public JSONStreamWriter object() throws JSONException, IOException {
+        return open(Scope.EMPTY_OBJECT, '{');
+    }
+
+    /**
+     * Ends encoding the current object.
+     *
+     * @return this writer.
+     */
+    public JSONStreamWriter endObject() throws JSONException, IOException {
+        return close(Scope.EMPTY_OBJECT, Scope.NONEMPTY_OBJECT, '}');
+    }
+
+    private JSONStreamWriter open(Scope empty, char openBracket)
+            throws JSONException, IOException {
+        if (stackSize == 0) {
+            if (wroteRoot) {
+                throw new JSONException("Nesting problem: multiple top-level roots");
+            }
+            wroteRoot = true;
+        } else {
+            beforeValue();
+        }
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = empty;
+        out.write(openBracket);
+        return this;
+    }
+
+    private JSONStreamWriter close(Scope empty, Scope nonempty, char closeBracket)
+            throws JSONException, IOException {
+        Scope context = peek();
+        if (context != nonempty && context != empty) {
+            throw new JSONException("Nesting problem");
+        }
+
+        stackSize--;
+        if (context == nonempty) {
+            newline();
+        }
+        out.write(closeBracket);
+        return this;
+    }
+
+    private Scope peek() throws JSONException {
+        if (stackSize == 0) {
+            throw new JSONException("Nesting problem");
+        }
+        return stack[stackSize - 1];
+    }
+
+    /**
+     * Encodes the key (property name) to this writer.
+     *
+     * @param name the name of the forthcoming value. May not be null.
+     * @return this writer.
+     */
+    public JSONStreamWriter key(String name) throws JSONException, IOException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        Scope context = peek();
+        if (context == Scope.NONEMPTY_OBJECT) {
+            out.write(',');
+        } else if (context != Scope.EMPTY_OBJECT) {
+            throw new JSONException("Nesting problem");
+        }
+        newline();
+        stack[stackSize - 1] = Scope.DANGLING_KEY;
+        string(name);
+        return this;
+    }
+
+    /**
+     * Encodes {@code value}.
+     *
+     * @param value a {@link JSONObject}, {@link JSONArray}, String, Boolean,
+     *     Integer, Long, Double or null. May not be {@link Double#isNaN() NaNs}
+     *     or {@link Double#isInfinite() infinities}.
+     * @return this writer.
+     */
+    public JSONStreamWriter value(Object value) throws JSONException, IOException {
+        if (value instanceof JSONArray) {
+            ((JSONArray) value).writeTo(this);
+            return this;
+
+        } else if (value instanceof JSONObject) {
+            ((JSONObject) value).writeTo(this);
+            return this;
+        }
+
+        beforeValue();
+
+        if (value == null
+                || value instanceof Boolean
+                || value == JSONObject.NULL) {
+            out.write(String.valueOf(value));
+
+        } else if (value instanceof Number) {
+            out.write(JSONObject.numberToString((Number) value));
+
+        } else {
+            string(value.toString());
+        }
+
+        return this;
+    }
+
+    /**
+     * Encodes {@code value} to this writer.
+     *
+     * @return this writer.
+     */
+    public JSONStreamWriter value(boolean value) throws JSONException, IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Encodes {@code value} to this writer.
+     *
+     * @param value a finite value. May not be {@link Double#isNaN() NaNs} or
+     *     {@link Double#isInfinite() infinities}.
+     * @return this writer.
+     */
+    public JSONStreamWriter value(double value) throws JSONException, IOException {
+        beforeValue();
+        out.write(JSONObject.numberToString(value));
+        return this;
+    }
+
+    /**
+     * Encodes {@code value} to this writer.
+     *
+     * @return this writer.
+     */
+    public JSONStreamWriter value(long value) throws JSONException, IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    /**
+     * Encodes {@code value} as a quoted string, writing runs of characters
+     * which need no escaping directly to the underlying writer.
+     */
+    private void string(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            char escape;
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    escape = c;
+                    break;
+                case '\t':
+                    escape = 't';
+                    break;
+                case '\b':
+                    escape = 'b';
+                    break;
+                case '\n':
+                    escape = 'n';
+                    break;
+                case '\r':
+                    escape = 'r';
+                    break;
+                case '\f':
+                    escape = 'f';
+                    break;
+                default:
+                    if (c > 0x1F) {
+                        continue;
+                    }
+                    escape = 'u';
+                    break;
+            }
+
+            if (i > start) {
+                out.write(value, start, i - start);
+            }
+            out.write('\\');
+            out.write(escape);
+            if (escape == 'u') {
+                out.write('0');
+                out.write('0');
+                out.write(HEX_DIGITS[c >> 4]);
+                out.write(HEX_DIGITS[c & 0xf]);
+            }
+            start = i + 1;
+        }
+        if (value.length() > start) {
+            out.write(value, start, value.length() - start);
+        }
+        out.write('"');
+    }
+
+    private void newline() throws IOException {
+        if (indent == null) {
+            return;
+        }
+
+        out.write('\n');
+        for (int i = 0; i < stackSize; i++) {
+            out.write(indent);
+        }
+    }
+
+    /**
+     * Inserts any necessary separators and whitespace before a literal value,
+     * inline array, or inline object. Also adjusts the stack to expect either a
+     * closing bracket or another element.
+     */
+    private void beforeValue() throws JSONException, IOException {
+        Scope context = peek();
+        if (context == Scope.EMPTY_ARRAY) { // first in array
+            stack[stackSize - 1] = Scope.NONEMPTY_ARRAY;
+            newline();
+        } else if (context == Scope.NONEMPTY_ARRAY) { // another in array
+            out.write(',');
+            newline();
+        } else if (context == Scope.DANGLING_KEY) { // value for key
+            out.write(indent == null ? ":" : ": ");
+            stack[stackSize - 1] = Scope.NONEMPTY_OBJECT;
+        } else {
+            throw new JSONException("Nesting problem");
+        }
+    }
+
+    /**
+     * Flushes the underlying writer.
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying writer.
+     *
+     * @throws IOException if the top-level array or object hasn't been
+     *     closed.
+     */
+    public void close() throws IOException {
+        out.close();
+        if (stackSize > 0) {
+            throw new IOException("Incomplete document");
+        }
+    }
+}
@@ -27,6 +27,7 @@ import libcore.io.IoBridge;
 import libcore.io.IoUtils;
 import libcore.io.Libcore;
 import libcore.io.Streams;
+import sun.misc.Cleaner;
 import static libcore.io.OsConstants.*;
 
 /**
@@ -63,6 +64,12 @@ public class FileInputStream extends InputStream implements Closeable {
 
     private final CloseGuard guard = CloseGuard.get();
 
+    /**
+     * Closes an owned fd if this stream is garbage collected without having
+     * been closed. {@code null} if the fd isn't owned by this stream.
+     */
+    private final Cleaner cleaner;
+
     /**
      * Constructs a new {@code FileInputStream} that reads from {@code file}.
      *
@@ -78,6 +85,7 @@ public class FileInputStream extends InputStream implements Closeable {
         this.fd = IoBridge.open(file.getAbsolutePath(), O_RDONLY);
         this.shouldClose = true;
         guard.open("close");
+        this.cleaner = Cleaner.create(this, IoUtils.newFileDescriptorCloser(fd, guard));
     }
 
     /**
@@ -94,6 +102,7 @@ public class FileInputStream extends InputStream implements Closeable {
         }
         this.fd = fd;
         this.shouldClose = false;
+        this.cleaner = null;
         // Note that we do not call guard.open here because the
         // FileDescriptor is not owned by the stream.
     }
@@ -119,6 +128,7 @@ public class FileInputStream extends InputStream implements Closeable {
             }
             if (shouldClose) {
                 IoUtils.close(fd);
+                cleaner.clean();
             } else {
                 // An owned fd has been invalidated by IoUtils.close, but
                 // we need to explicitly stop using an unowned fd (http://b/4361076).
@@ -127,30 +137,6 @@ public class FileInputStream extends InputStream implements Closeable {
         }
     }
 
-    /**
-     * Ensures that all resources for this stream are released when it is about
-     * to be garbage collected.
-     *
-     * @throws IOException
-     *             if an error occurs attempting to finalize this stream.
-     */
-    @Override protected void finalize() throws IOException {
-        try {
-            if (guard != null) {
-                guard.warnIfOpen();
-            }
-            close();
-        } finally {
-            try {
-                super.finalize();
-            } catch (Throwable t) {
-                // for consistency with the RI, we must override Object.finalize() to
-                // remove the 'throws Throwable' clause.
-                throw new AssertionError(t);
-            }
-        }
-    }
-
     /**
      * Returns a read-only {@link FileChannel} that shares its position with
      * this stream.
@@ -23,6 +23,7 @@ import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import libcore.io.IoBridge;
 import libcore.io.IoUtils;
+import sun.misc.Cleaner;
 import static libcore.io.OsConstants.*;
 
 /**
@@ -63,6 +64,12 @@ public class FileOutputStream extends OutputStream implements Closeable {
 
     private final CloseGuard guard = CloseGuard.get();
 
+    /**
+     * Closes an owned fd if this stream is garbage collected without having
+     * been closed. {@code null} if the fd isn't owned by this stream.
+     */
+    private final Cleaner cleaner;
+
     /**
      * Constructs a new {@code FileOutputStream} that writes to {@code file}. The file will be
      * truncated if it exists, and created if it doesn't exist.
@@ -88,6 +95,7 @@ public class FileOutputStream extends OutputStream implements Closeable {
         this.fd = IoBridge.open(file.getAbsolutePath(), mode);
         this.shouldClose = true;
         this.guard.open("close");
+        this.cleaner = Cleaner.create(this, IoUtils.newFileDescriptorCloser(fd, guard));
     }
 
     /**
@@ -101,6 +109,7 @@ public class FileOutputStream extends OutputStream implements Closeable {
         }
         this.fd = fd;
         this.shouldClose = false;
+        this.cleaner = null;
         this.mode = O_WRONLY;
         this.channel = NioUtils.newFileChannel(this, fd, mode);
         // Note that we do not call guard.open here because the
@@ -137,6 +146,7 @@ public class FileOutputStream extends OutputStream implements Closeable {
             }
             if (shouldClose) {
                 IoUtils.close(fd);
+                cleaner.clean();
             } else {
                 // An owned fd has been invalidated by IoUtils.close, but
                 // we need to explicitly stop using an unowned fd (http://b/4361076).
@@ -145,23 +155,6 @@ public class FileOutputStream extends OutputStream implements Closeable {
         }
     }
 
-    @Override protected void finalize() throws IOException {
-        try {
-            if (guard != null) {
-                guard.warnIfOpen();
-            }
-            close();
-        } finally {
-            try {
-                super.finalize();
-            } catch (Throwable t) {
-                // for consistency with the RI, we must override Object.finalize() to
-                // remove the 'throws Throwable' clause.
-                throw new AssertionError(t);
-            }
-        }
-    }
-
     /**
      * Returns a write-only {@link FileChannel} that shares its position with
      * this stream.
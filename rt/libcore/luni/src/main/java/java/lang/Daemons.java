@@ -22,30 +22,66 @@ import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
 import java.util.concurrent.TimeoutException;
 import libcore.util.EmptyArray;
+import sun.misc.Cleaner;
 
 /**
  * Calls Object.finalize() on objects in the finalizer reference queue. The VM
  * will abort if any finalize() call takes more than the maximum finalize time
  * to complete.
+ * <p>
+ * RoboVM note: Finalizers and {@link Cleaner}s are run by a pool of
+ * {@link FinalizerDaemon}s. The size of the pool can be set using the
+ * <code>-rvm:finalizerThreads=&lt;n&gt;</code> launch option.
  *
  * @hide
  */
 public final class Daemons {
     private static final int NANOS_PER_MILLI = 1000000;
     private static final long MAX_FINALIZE_MILLIS = 10L * 1000L; // 10 seconds
+    private static final int MAX_DEFAULT_FINALIZER_THREADS = 4;
 
     public static void start() {
         ReferenceQueueDaemon.INSTANCE.start();
-        FinalizerDaemon.INSTANCE.start();
+        for (FinalizerDaemon daemon : FinalizerDaemon.INSTANCES) {
+            daemon.start();
+        }
         FinalizerWatchdogDaemon.INSTANCE.start();
     }
 
     public static void stop() {
         ReferenceQueueDaemon.INSTANCE.stop();
-        FinalizerDaemon.INSTANCE.stop();
+        for (FinalizerDaemon daemon : FinalizerDaemon.INSTANCES) {
+            daemon.stop();
+        }
         FinalizerWatchdogDaemon.INSTANCE.stop();
     }
 
+    /**
+     * Runs the VM side of finalization for all objects the GC has found ready
+     * for finalization and enqueues the cleared references. Called
+     * continuously by the {@link ReferenceQueueDaemon} and by
+     * {@link Runtime#runFinalization()}.
+     */
+    static void processPendingReferences() {
+        Reference<?> list = runPendingFinalizers();
+        if (list != null) {
+            ReferenceQueue.enqueuePending(list);
+        }
+    }
+
+    /**
+     * Returns the value of the <code>-rvm:finalizerThreads</code> launch
+     * option or 0 if not set.
+     */
+    private static native int finalizerThreads();
+
+    /**
+     * Blocks until the GC has found objects ready for finalization.
+     */
+    private static native void waitForPendingFinalizers();
+
+    private static native Reference<?> runPendingFinalizers();
+
     /**
      * A background task that provides runtime support to the application.
      * Daemons can be stopped and started, but only so that the zygote can be a
@@ -58,14 +94,17 @@ public final class Daemons {
             if (thread != null) {
                 throw new IllegalStateException("already running");
             }
-            thread = new Thread(ThreadGroup.mMain, this,
-                getClass().getSimpleName());
+            thread = new Thread(ThreadGroup.mMain, this, getName());
             thread.setDaemon(true);
             thread.start();
         }
 
         public abstract void run();
 
+        protected String getName() {
+            return getClass().getSimpleName();
+        }
+
         /**
          * Returns true while the current thread should continue to run; false
          * when it should return.
@@ -116,73 +155,85 @@ public final class Daemons {
     /**
      * This heap management thread moves elements from the garbage collector's
      * pending list to the managed reference queue.
+     * <p>
+     * RoboVM note: This thread also runs the VM side of finalization for all
+     * objects the GC has found unreachable. This clears the references to
+     * them in one batch. The thread isn't interruptible while waiting for the
+     * GC. {@link #stop()} is never called by RoboVM.
      */
     private static class ReferenceQueueDaemon extends Daemon {
         private static final ReferenceQueueDaemon INSTANCE = new ReferenceQueueDaemon();
 
         @Override public void run() {
             while (isRunning()) {
-                Reference<?> list;
-                try {
-                    synchronized (ReferenceQueue.class) {
-                        while (ReferenceQueue.unenqueued == null) {
-                            ReferenceQueue.class.wait();
-                        }
-                        list = ReferenceQueue.unenqueued;
-                        ReferenceQueue.unenqueued = null;
-                    }
-                } catch (InterruptedException e) {
-                    continue;
-                }
-                enqueue(list);
-            }
-        }
-
-        private void enqueue(Reference<?> list) {
-            while (list != null) {
-                Reference<?> reference;
-                // pendingNext is owned by the GC so no synchronization is required
-                if (list == list.pendingNext) {
-                    reference = list;
-                    reference.pendingNext = null;
-                    list = null;
-                } else {
-                    reference = list.pendingNext;
-                    list.pendingNext = reference.pendingNext;
-                    reference.pendingNext = null;
-                }
-                reference.enqueueInternal();
+                waitForPendingFinalizers();
+                processPendingReferences();
             }
         }
     }
 
     private static class FinalizerDaemon extends Daemon {
-        private static final FinalizerDaemon INSTANCE = new FinalizerDaemon();
+        private static final FinalizerDaemon[] INSTANCES = newInstances();
         private final ReferenceQueue<Object> queue = FinalizerReference.queue;
+        private final int index;
         private volatile Object finalizingObject;
         private volatile long finalizingStartedNanos;
 
+        private FinalizerDaemon(int index) {
+            this.index = index;
+        }
+
+        private static FinalizerDaemon[] newInstances() {
+            int count = finalizerThreads();
+            if (count <= 0) {
+                count = Math.max(1, Math.min(MAX_DEFAULT_FINALIZER_THREADS,
+                        Runtime.getRuntime().availableProcessors() / 2));
+            }
+            FinalizerDaemon[] daemons = new FinalizerDaemon[count];
+            for (int i = 0; i < count; i++) {
+                daemons[i] = new FinalizerDaemon(i);
+            }
+            return daemons;
+        }
+
+        @Override protected String getName() {
+            return INSTANCES.length == 1 ? super.getName() : super.getName() + "-" + index;
+        }
+
         @Override public void run() {
             while (isRunning()) {
                 // Take a reference, blocking until one is ready or the thread should stop
+                Reference<?> reference;
                 try {
-                    doFinalize((FinalizerReference<?>) queue.remove());
+                    reference = queue.remove();
                 } catch (InterruptedException ignored) {
+                    continue;
+                }
+                try {
+                    if (reference instanceof Cleaner) {
+                        doClean((Cleaner) reference);
+                    } else {
+                        doFinalize((FinalizerReference<?>) reference);
+                    }
+                } finally {
+                    FinalizerReference.finalized(reference);
                 }
             }
         }
 
+        private void startFinalizing(Object object) {
+            finalizingStartedNanos = System.nanoTime();
+            finalizingObject = object;
+            FinalizerWatchdogDaemon.INSTANCE.finalizingStarted();
+        }
+
         @FindBugsSuppressWarnings("FI_EXPLICIT_INVOCATION")
         private void doFinalize(FinalizerReference<?> reference) {
             FinalizerReference.remove(reference);
             Object object = reference.get();
             reference.clear();
             try {
-                finalizingStartedNanos = System.nanoTime();
-                finalizingObject = object;
-                synchronized (FinalizerWatchdogDaemon.INSTANCE) {
-                    FinalizerWatchdogDaemon.INSTANCE.notify();
-                }
+                startFinalizing(object);
                 object.finalize();
             } catch (Throwable ex) {
                 // The RI silently swallows these, but Android has always logged.
@@ -191,6 +242,16 @@ public final class Daemons {
                 finalizingObject = null;
             }
         }
+
+        private void doClean(Cleaner cleaner) {
+            try {
+                startFinalizing(cleaner);
+                // Exceptions are logged by clean()
+                cleaner.clean();
+            } finally {
+                finalizingObject = null;
+            }
+        }
     }
 
     /**
@@ -200,22 +261,67 @@ public final class Daemons {
      */
     private static class FinalizerWatchdogDaemon extends Daemon {
         private static final FinalizerWatchdogDaemon INSTANCE = new FinalizerWatchdogDaemon();
+        private volatile boolean waiting;
+
+        /**
+         * Called by a FinalizerDaemon after it has set its finalizingObject.
+         * Only takes the lock if the watchdog is waiting for work.
+         */
+        void finalizingStarted() {
+            if (waiting) {
+                synchronized (this) {
+                    notify();
+                }
+            }
+        }
+
+        /**
+         * Returns the FinalizerDaemon which has been busy with the same object
+         * for the longest time or null if none is busy.
+         */
+        private static FinalizerDaemon longestRunning() {
+            FinalizerDaemon result = null;
+            long startedNanos = 0;
+            for (FinalizerDaemon daemon : FinalizerDaemon.INSTANCES) {
+                if (daemon.finalizingObject != null) {
+                    long started = daemon.finalizingStartedNanos;
+                    if (result == null || started - startedNanos < 0) {
+                        result = daemon;
+                        startedNanos = started;
+                    }
+                }
+            }
+            return result;
+        }
 
         @Override public void run() {
             while (isRunning()) {
                 try {
-                    Object object = FinalizerDaemon.INSTANCE.finalizingObject;
-                    long startedNanos = FinalizerDaemon.INSTANCE.finalizingStartedNanos;
-
-                    if (object == null) {
+                    FinalizerDaemon daemon = longestRunning();
+                    if (daemon == null) {
                         synchronized (this) {
-                            // wait until something is being finalized
+                            // wait until something is being finalized. Recheck
+                            // after setting waiting or finalizingStarted() may
+                            // have missed us.
                             // http://code.google.com/p/android/issues/detail?id=22778
-                            wait();
+                            waiting = true;
+                            try {
+                                if (longestRunning() == null) {
+                                    wait();
+                                }
+                            } finally {
+                                waiting = false;
+                            }
                             continue;
                         }
                     }
 
+                    Object object = daemon.finalizingObject;
+                    long startedNanos = daemon.finalizingStartedNanos;
+                    if (object == null) {
+                        continue;
+                    }
+
                     long elapsedMillis = (System.nanoTime() - startedNanos) / NANOS_PER_MILLI;
                     long sleepMillis = MAX_FINALIZE_MILLIS - elapsedMillis;
                     if (sleepMillis > 0) {
@@ -223,15 +329,16 @@ public final class Daemons {
                         elapsedMillis = (System.nanoTime() - startedNanos) / NANOS_PER_MILLI;
                     }
 
-                    if (object != FinalizerDaemon.INSTANCE.finalizingObject
+                    if (object != daemon.finalizingObject
                             || VMRuntime.getRuntime().isDebuggerActive()) {
                         continue;
                     }
 
                     // The current object has exceeded the finalization deadline; abort!
                     Exception syntheticException = new TimeoutException();
-                    syntheticException.setStackTrace(FinalizerDaemon.INSTANCE.getStackTrace());
-                    System.logE(object.getClass().getName() + ".finalize() timed out after "
+                    syntheticException.setStackTrace(daemon.getStackTrace());
+                    String what = object instanceof Cleaner ? "Cleaner" : object.getClass().getName() + ".finalize()";
+                    System.logE(what + " timed out after "
                             + elapsedMillis + " ms; limit is " + MAX_FINALIZE_MILLIS + " ms",
                             syntheticException);
                     System.exit(2);
@@ -36,10 +36,12 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.zip.ZipFile;
+import org.robovm.rt.VM;
 
 /**
  * Provides a simple {@link ClassLoader} implementation that operates on a list
@@ -62,6 +64,15 @@ class PathClassLoader extends ClassLoader {
     private File[] mFiles;
     private ZipFile[] mZips;
 
+    /*
+     * RoboVM note: Set if this loader's path is the boot classpath or the
+     * classpath of the executable. Resources on those paths are looked up in
+     * the resource index generated by the compiler so that we only have to
+     * search the entries which actually contain a resource.
+     */
+    private boolean mIndexed;
+    private boolean mIndexedBootClasspath;
+
     /**
      * Native library path.
      */
@@ -130,6 +141,13 @@ class PathClassLoader extends ClassLoader {
         mFiles = new File[length];
         mZips = new ZipFile[length];
 
+        if (path.equals(VM.bootClassPath())) {
+            mIndexed = true;
+            mIndexedBootClasspath = true;
+        } else if (path.equals(VM.classPath())) {
+            mIndexed = true;
+        }
+
         /* open all Zip files up front */
         for (int i = 0; i < length; i++) {
             //System.out.println("My path is: " + mPaths[i]);
@@ -208,6 +226,17 @@ class PathClassLoader extends ClassLoader {
         init();
         //java.util.logging.Logger.global.severe("findResource: " + name);
 
+        int[] indexes = getIndexedEntries(name);
+        if (indexes != null) {
+            for (int i : indexes) {
+                URL result = findResource(name, i);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return null;
+        }
+
         int length = mPaths.length;
 
         for (int i = 0; i < length; i++) {
@@ -231,9 +260,21 @@ class PathClassLoader extends ClassLoader {
     protected Enumeration<URL> findResources(String resName) {
         init();
 
-        int length = mPaths.length;
         ArrayList<URL> results = new ArrayList<URL>();
 
+        int[] indexes = getIndexedEntries(resName);
+        if (indexes != null) {
+            for (int i : indexes) {
+                URL result = findResource(resName, i);
+                if (result != null) {
+                    results.add(result);
+                }
+            }
+            return new EnumerateListArray<URL>(results);
+        }
+
+        int length = mPaths.length;
+
         for (int i = 0; i < length; i++) {
             URL result = findResource(resName, i);
             if(result != null) {
@@ -243,6 +284,80 @@ class PathClassLoader extends ClassLoader {
         return new EnumerateListArray<URL>(results);
     }
 
+    /**
+     * Returns the indexes, in search order, of the path entries which may
+     * contain the specified resource according to the resource index or
+     * {@code null} if the index cannot be used and all entries have to be
+     * searched.
+     */
+    private int[] getIndexedEntries(String name) {
+        if (!mIndexed || !isIndexable(name)) {
+            return null;
+        }
+        int[] indexes = VMClassLoader.getResourceClasspathIndexes(name, mIndexedBootClasspath);
+        if (indexes == null) {
+            return null;
+        }
+        if (!name.endsWith("/")) {
+            // Archive lookups also match the directory entry "name/".
+            int[] dirIndexes = VMClassLoader.getResourceClasspathIndexes(name + "/", mIndexedBootClasspath);
+            if (dirIndexes.length > 0) {
+                indexes = merge(indexes, dirIndexes);
+            }
+        }
+        for (int i : indexes) {
+            if (i >= mPaths.length) {
+                // The index doesn't match this path. Search everything.
+                return null;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns {@code true} if a resource with the specified name can be looked
+     * up in the resource index. The index only contains normalized names of
+     * resources other than classes.
+     */
+    private static boolean isIndexable(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.toLowerCase().endsWith(".class")) {
+            return false;
+        }
+        int start = 0;
+        while (start < name.length()) {
+            int end = name.indexOf('/', start);
+            if (end == -1) {
+                end = name.length();
+            }
+            String segment = name.substring(start, end);
+            if ((end < name.length() && segment.isEmpty()) || segment.equals(".") || segment.equals("..")) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Merges two sorted arrays of indexes.
+     */
+    private static int[] merge(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            int next;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (n == 0 || result[n - 1] != next) {
+                result[n++] = next;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
     private URL findResource(String name, int i) {
         File pathFile = mFiles[i];
         ZipFile zip = mZips[i];
@@ -407,6 +407,7 @@ public class Runtime {
      */
     public void runFinalization() {
         try {
+            Daemons.processPendingReferences();
             FinalizerReference.finalizeAllEnqueued();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -187,6 +187,12 @@ public class Thread implements Runnable {
 
     /** The object used to implement join() and parking. */
     private Object lock = new Object();
+
+    /**
+     * The number of AbstractOwnableSynchronizers owned by this thread. Only
+     * updated by this thread.
+     */
+    private int ownedSynchronizers;
     
     /**
      * Constructs a new {@code Thread} with no {@code Runnable} object and a
@@ -1181,6 +1187,27 @@ public class Thread implements Runnable {
         }
     }
 
+    /**
+     * Adjusts the number of exclusive synchronizers, e.g. a locked
+     * {@link java.util.concurrent.locks.ReentrantLock}, owned by this thread.
+     *
+     * @hide for AbstractOwnableSynchronizer
+     */
+    public final void addOwnedSynchronizers(int delta) {
+        ownedSynchronizers += delta;
+    }
+
+    /**
+     * Returns the number of exclusive synchronizers owned by this thread.
+     * Fibers share the identity of their carrier thread so a carrier mustn't
+     * switch to another fiber while it owns one.
+     *
+     * @hide for org.robovm.rt.Fiber
+     */
+    public final int getOwnedSynchronizerCount() {
+        return ownedSynchronizers;
+    }
+
     /**
      * Parks the current thread for a particular number of nanoseconds, or
      * indefinitely. If not indefinitely, this method unparks the thread
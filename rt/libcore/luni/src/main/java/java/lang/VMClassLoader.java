@@ -85,6 +85,14 @@ class VMClassLoader {
 
     native static final Class findClassInClasspathForLoader(ClassLoader cl, String name) 
             throws ClassNotFoundException;
+
+    /**
+     * Returns the indexes of the boot classpath (if {@code bootClasspath} is
+     * {@code true}) or classpath entries which contain the resource with the
+     * specified name according to the resource index generated by the
+     * compiler. Returns {@code null} if the executable has no resource index.
+     */
+    native static int[] getResourceClasspathIndexes(String name, boolean bootClasspath);
     
 //    /**
 //     * Boot class path manipulation, for getResources().
@@ -24,6 +24,44 @@ public final class FinalizerReference<T> extends Reference<T> {
 
     private static FinalizerReference head = null;
 
+    /**
+     * Number of FinalizerReferences and Cleaners which have been put on
+     * {@link #queue}. Guarded by {@link #finalizedLock}.
+     */
+    private static volatile long enqueuedCount = 0;
+
+    /**
+     * Number of finalizers and Cleaners which have been run. Guarded by
+     * {@link #finalizedLock}.
+     */
+    private static volatile long finalizedCount = 0;
+    private static final Object finalizedLock = new Object();
+    private static int finalizedWaiters = 0;
+
+    /**
+     * The references put on {@link #queue} between two calls to
+     * {@link #finalizeAllEnqueued()}. {@link #queue} is LIFO and drained by
+     * several finalizer daemons so references aren't finalized in the order
+     * they were enqueued. Instead each reference counts towards its batch
+     * until it has been finalized. Guarded by {@link #finalizedLock}.
+     */
+    static final class Batch {
+        final long sequence;
+        int pending;
+        Batch next;
+
+        Batch(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * The oldest batch which may still have pending references and the batch
+     * new references are added to. Guarded by {@link #finalizedLock}.
+     */
+    private static Batch oldestBatch = new Batch(0);
+    private static Batch currentBatch = oldestBatch;
+
     private T zombie;
 
     private FinalizerReference prev;
@@ -74,33 +112,81 @@ public final class FinalizerReference<T> extends Reference<T> {
     }
 
     /**
-     * Returns once all currently-enqueued references have been finalized.
+     * Moves a list of FinalizerReferences and Cleaners linked through
+     * {@link Reference#pendingNext} to {@link #queue} while holding its lock
+     * only once.
      */
-    public static void finalizeAllEnqueued() throws InterruptedException {
-        Sentinel sentinel = new Sentinel();
-        FinalizerReference<Object> reference = new FinalizerReference<Object>(null, queue);
-        reference.zombie = sentinel;
-        reference.enqueueInternal();
-        sentinel.awaitFinalization();
+    static void enqueueAll(Reference<?> list) {
+        synchronized (queue) {
+            synchronized (finalizedLock) {
+                Batch batch = currentBatch;
+                while (list != null) {
+                    Reference<?> reference = list;
+                    list = reference.pendingNext;
+                    reference.pendingNext = null;
+                    reference.queue = null;
+                    reference.finalizerBatch = batch;
+                    queue.enqueueLocked(reference);
+                    batch.pending++;
+                    enqueuedCount++;
+                }
+            }
+            queue.notifyAll();
+        }
     }
 
     /**
-     * A marker object that we can immediately enqueue. When this object's
-     * finalize() method is called, we know all previously-enqueued finalizable
-     * references have been finalized.
-     *
-     * <p>Each instance of this class will be finalized twice as it is enqueued
-     * directly and by the garbage collector.
+     * Called by the finalizer daemons each time they have run a finalizer or
+     * a Cleaner taken from {@link #queue}.
      */
-    private static class Sentinel {
-        boolean finalized = false;
-        @Override protected synchronized void finalize() throws Throwable {
-            finalized = true;
-            notifyAll();
+    public static void finalized(Reference<?> reference) {
+        synchronized (finalizedLock) {
+            finalizedCount++;
+            Batch batch = reference.finalizerBatch;
+            reference.finalizerBatch = null;
+            if (--batch.pending == 0 && finalizedWaiters > 0) {
+                finalizedLock.notifyAll();
+            }
         }
-        synchronized void awaitFinalization() throws InterruptedException {
-            while (!finalized) {
-                wait();
+    }
+
+    /**
+     * Returns the number of finalizers and Cleaners which are waiting to be
+     * run or are currently being run.
+     */
+    public static int getQueueDepth() {
+        return (int) (enqueuedCount - finalizedCount);
+    }
+
+    /**
+     * Returns the total number of finalizers and Cleaners which have been run.
+     */
+    public static long getFinalizedCount() {
+        return finalizedCount;
+    }
+
+    /**
+     * Returns once all currently-enqueued references have been finalized.
+     */
+    public static void finalizeAllEnqueued() throws InterruptedException {
+        synchronized (finalizedLock) {
+            // References enqueued from now on don't hold us up
+            Batch target = currentBatch;
+            currentBatch = new Batch(target.sequence + 1);
+            target.next = currentBatch;
+            finalizedWaiters++;
+            try {
+                while (true) {
+                    while (oldestBatch != currentBatch && oldestBatch.pending == 0) {
+                        oldestBatch = oldestBatch.next;
+                    }
+                    if (oldestBatch.sequence > target.sequence) {
+                        return;
+                    }
+                    finalizedLock.wait();
+                }
+            } finally {
+                finalizedWaiters--;
             }
         }
     }
@@ -76,6 +76,13 @@ public abstract class Reference<T> {
      */
     public volatile Reference<?> pendingNext;
 
+    /**
+     * The batch in which a {@link FinalizerReference} or
+     * {@link sun.misc.Cleaner} was put on {@link FinalizerReference#queue}.
+     * Guarded by FinalizerReference.finalizedLock.
+     */
+    FinalizerReference.Batch finalizerBatch;
+
     /**
      * Constructs a new instance of this class.
      */
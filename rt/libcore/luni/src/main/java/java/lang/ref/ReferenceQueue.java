@@ -135,28 +135,56 @@ public class ReferenceQueue<T> {
      *         to enqueue.
      */
     synchronized void enqueue(Reference<? extends T> reference) {
+        enqueueLocked(reference);
+        notify();
+    }
+
+    /**
+     * Enqueues without notifying waiting threads. The caller must hold the
+     * lock on this queue.
+     */
+    void enqueueLocked(Reference<? extends T> reference) {
         if (head == null) {
             reference.queueNext = reference;
         } else {
             reference.queueNext = head;
         }
         head = reference;
-        notify();
     }
 
-    /** @hide */
-    public static Reference unenqueued = null;
-
-    static void add(Reference<?> list) {
-        synchronized (ReferenceQueue.class) {
-            if (unenqueued == null) {
-                unenqueued = list;
+    /**
+     * Enqueues the references in the specified circular list linked through
+     * {@link Reference#pendingNext}. The list is the result of a single call
+     * into the VM for all objects the GC has found unreachable since the
+     * previous call. {@link FinalizerReference}s and {@link sun.misc.Cleaner}s
+     * are handed to the finalizer daemons in one go.
+     *
+     * @hide
+     */
+    public static void enqueuePending(Reference<?> list) {
+        Reference<?> finalizable = null;
+        while (list != null) {
+            Reference<?> reference;
+            // pendingNext is owned by the GC so no synchronization is required
+            if (list == list.pendingNext) {
+                reference = list;
+                reference.pendingNext = null;
+                list = null;
             } else {
-                Reference<?> next = unenqueued.pendingNext;
-                unenqueued.pendingNext = list.pendingNext;
-                list.pendingNext = next;
+                reference = list.pendingNext;
+                list.pendingNext = reference.pendingNext;
+                reference.pendingNext = null;
             }
-            ReferenceQueue.class.notifyAll();
+            if (reference instanceof FinalizerReference || reference instanceof sun.misc.Cleaner) {
+                // Chain it up for FinalizerReference.enqueueAll()
+                reference.pendingNext = finalizable;
+                finalizable = reference;
+            } else {
+                reference.enqueueInternal();
+            }
+        }
+        if (finalizable != null) {
+            FinalizerReference.enqueueAll(finalizable);
         }
     }
 }
@@ -99,9 +99,7 @@ public class BigInteger extends Number
     }
 
     BigInteger(int sign, long value) {
-        BigInt bigInt = new BigInt();
-        bigInt.putULongInt(value, (sign < 0));
-        setBigInt(bigInt);
+        setJavaRepresentation(sign, value);
     }
 
     /**
@@ -179,9 +177,11 @@ public class BigInteger extends Number
      *     representation of a {@code BigInteger}.
      */
     public BigInteger(String value) {
-        BigInt bigInt = new BigInt();
-        bigInt.putDecString(value);
-        setBigInt(bigInt);
+        if (!parseSmallDecString(value)) {
+            BigInt bigInt = new BigInt();
+            bigInt.putDecString(value);
+            setBigInt(bigInt);
+        }
     }
 
     /**
@@ -202,9 +202,11 @@ public class BigInteger extends Number
             throw new NullPointerException("value == null");
         }
         if (radix == 10) {
-            BigInt bigInt = new BigInt();
-            bigInt.putDecString(value);
-            setBigInt(bigInt);
+            if (!parseSmallDecString(value)) {
+                BigInt bigInt = new BigInt();
+                bigInt.putDecString(value);
+                setBigInt(bigInt);
+            }
         } else if (radix == 16) {
             BigInt bigInt = new BigInt();
             bigInt.putHexString(value);
@@ -311,6 +313,66 @@ public class BigInteger extends Number
         this.javaIsValid = true;
     }
 
+    /**
+     * Sets the Java representation to {@code sign * magnitude} where
+     * {@code magnitude} is treated as unsigned.
+     */
+    private void setJavaRepresentation(int sign, long magnitude) {
+        int high = (int) (magnitude >>> 32);
+        if (high == 0) {
+            setJavaRepresentation(sign, 1, new int[] { (int) magnitude });
+        } else {
+            setJavaRepresentation(sign, 2, new int[] { (int) magnitude, high });
+        }
+    }
+
+    /**
+     * Parses {@code value} if it consists of at most 18 ASCII digits with an
+     * optional sign, which always fits in a {@code long}. Returns false
+     * without touching this for anything else, including invalid strings,
+     * which is left to OpenSSL.
+     */
+    private boolean parseSmallDecString(String value) {
+        int length = value.length();
+        int i = 0;
+        if (length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+')) {
+            i = 1;
+        }
+        if (i == length || length - i > 18) {
+            return false;
+        }
+        long magnitude = 0;
+        for (int j = i; j < length; j++) {
+            char ch = value.charAt(j);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+            magnitude = magnitude * 10 + (ch - '0');
+        }
+        setJavaRepresentation(value.charAt(0) == '-' ? -1 : 1, magnitude);
+        return true;
+    }
+
+    /**
+     * Returns true if this has a Java representation whose magnitude is less
+     * than {@code 2^63}. Arithmetic on such values is done on {@code long}s
+     * and only falls back to OpenSSL on overflow.
+     */
+    private boolean isSmall() {
+        return javaIsValid && (numberLength == 1 || (numberLength == 2 && digits[1] >= 0));
+    }
+
+    /**
+     * Returns the value of this as a {@code long}. Must only be called if
+     * {@link #isSmall()} returns true.
+     */
+    private long smallValue() {
+        long magnitude = (numberLength == 1)
+                ? digits[0] & 0xFFFFFFFFL
+                : ((long) digits[1]) << 32 | digits[0] & 0xFFFFFFFFL;
+        return (sign < 0) ? -magnitude : magnitude;
+    }
+
     void prepareJavaRepresentation() {
         if (javaIsValid) {
             return;
@@ -353,6 +415,9 @@ public class BigInteger extends Number
      * this}.
      */
     public BigInteger abs() {
+        if (isSmall()) {
+            return (sign >= 0) ? this : valueOf(-smallValue());
+        }
         BigInt bigInt = getBigInt();
         if (bigInt.sign() >= 0) {
             return this;
@@ -366,6 +431,9 @@ public class BigInteger extends Number
      * Returns a {@code BigInteger} whose value is the {@code -this}.
      */
     public BigInteger negate() {
+        if (isSmall()) {
+            return (sign == 0) ? this : valueOf(-smallValue());
+        }
         BigInt bigInt = getBigInt();
         int sign = bigInt.sign();
         if (sign == 0) {
@@ -380,6 +448,15 @@ public class BigInteger extends Number
      * Returns a {@code BigInteger} whose value is {@code this + value}.
      */
     public BigInteger add(BigInteger value) {
+        if (isSmall() && value.isSmall()) {
+            long a = smallValue();
+            long b = value.smallValue();
+            long r = a + b;
+            // Overflow iff both operands have the sign opposite to the result.
+            if (((a ^ r) & (b ^ r)) >= 0) {
+                return (b == 0) ? this : (a == 0) ? value : valueOf(r);
+            }
+        }
         BigInt lhs = getBigInt();
         BigInt rhs = value.getBigInt();
         if (rhs.sign() == 0) {
@@ -395,6 +472,16 @@ public class BigInteger extends Number
      * Returns a {@code BigInteger} whose value is {@code this - value}.
      */
     public BigInteger subtract(BigInteger value) {
+        if (isSmall() && value.isSmall()) {
+            long a = smallValue();
+            long b = value.smallValue();
+            long r = a - b;
+            // Overflow iff the operands' signs differ and the result's sign
+            // differs from this.
+            if (((a ^ b) & (a ^ r)) >= 0) {
+                return (b == 0) ? this : valueOf(r);
+            }
+        }
         BigInt lhs = getBigInt();
         BigInt rhs = value.getBigInt();
         if (rhs.sign() == 0) {
@@ -449,6 +536,16 @@ public class BigInteger extends Number
         if (n == 0) {
             return this;
         }
+        if (isSmall()) {
+            long value = smallValue();
+            if (n < 0) {
+                // >> rounds towards negative infinity just like this method.
+                return valueOf(value >> ((n <= -63) ? 63 : -n));
+            }
+            if (n < 63 && BitLevel.bitLength(this) + n < 63) {
+                return valueOf(value << n);
+            }
+        }
         int sign = signum();
         if (sign == 0) {
             return this;
@@ -483,7 +580,7 @@ public class BigInteger extends Number
      */
     public int bitLength() {
         // Optimization to avoid unnecessary duplicate representation:
-        if (!nativeIsValid && javaIsValid) {
+        if (javaIsValid) {
             return BitLevel.bitLength(this);
         }
         return getBigInt().bitLength();
@@ -766,6 +863,11 @@ public class BigInteger extends Number
      * @throws NullPointerException if {@code value == null}.
      */
     public int compareTo(BigInteger value) {
+        if (isSmall() && value.isSmall()) {
+            long a = smallValue();
+            long b = value.smallValue();
+            return (a < b) ? -1 : (a == b) ? 0 : 1;
+        }
         return BigInt.cmp(getBigInt(), value.getBigInt());
     }
 
@@ -819,6 +921,9 @@ public class BigInteger extends Number
      */
     @Override
     public String toString() {
+        if (isSmall()) {
+            return Long.toString(smallValue());
+        }
         return getBigInt().decString();
     }
 
@@ -833,7 +938,7 @@ public class BigInteger extends Number
      */
     public String toString(int radix) {
         if (radix == 10) {
-            return getBigInt().decString();
+            return toString();
         } else {
             prepareJavaRepresentation();
             return Conversion.bigInteger2String(this, radix);
@@ -849,6 +954,16 @@ public class BigInteger extends Number
      * @throws NullPointerException if {@code value == null}.
      */
     public BigInteger gcd(BigInteger value) {
+        if (isSmall() && value.isSmall()) {
+            long a = Math.abs(smallValue());
+            long b = Math.abs(value.smallValue());
+            while (b != 0) {
+                long r = a % b;
+                a = b;
+                b = r;
+            }
+            return valueOf(a);
+        }
         return new BigInteger(BigInt.gcd(getBigInt(), value.getBigInt()));
     }
 
@@ -858,6 +973,16 @@ public class BigInteger extends Number
      * @throws NullPointerException if {@code value == null}.
      */
     public BigInteger multiply(BigInteger value) {
+        if (isSmall() && value.isSmall()) {
+            long a = smallValue();
+            long b = value.smallValue();
+            long r = a * b;
+            // Both magnitudes below 2^31 can't overflow. Otherwise check by
+            // dividing back, which is exact since neither is Long.MIN_VALUE.
+            if (((Math.abs(a) | Math.abs(b)) >>> 31) == 0 || a == 0 || r / a == b) {
+                return valueOf(r);
+            }
+        }
         return new BigInteger(BigInt.product(getBigInt(), value.getBigInt()));
     }
 
@@ -884,6 +1009,11 @@ public class BigInteger extends Number
      * @see #remainder
      */
     public BigInteger[] divideAndRemainder(BigInteger divisor) {
+        if (isSmall() && divisor.isSmall() && divisor.sign != 0) {
+            long a = smallValue();
+            long b = divisor.smallValue();
+            return new BigInteger[] { valueOf(a / b), valueOf(a % b) };
+        }
         BigInt divisorBigInt = divisor.getBigInt();
         BigInt quotient = new BigInt();
         BigInt remainder = new BigInt();
@@ -900,6 +1030,9 @@ public class BigInteger extends Number
      * @throws ArithmeticException if {@code divisor == 0}.
      */
     public BigInteger divide(BigInteger divisor) {
+        if (isSmall() && divisor.isSmall() && divisor.sign != 0) {
+            return valueOf(smallValue() / divisor.smallValue());
+        }
         BigInt quotient = new BigInt();
         BigInt.division(getBigInt(), divisor.getBigInt(), quotient, null);
         return new BigInteger(quotient);
@@ -915,6 +1048,9 @@ public class BigInteger extends Number
      * @throws ArithmeticException if {@code divisor == 0}.
      */
     public BigInteger remainder(BigInteger divisor) {
+        if (isSmall() && divisor.isSmall() && divisor.sign != 0) {
+            return valueOf(smallValue() % divisor.smallValue());
+        }
         BigInt remainder = new BigInt();
         BigInt.division(getBigInt(), divisor.getBigInt(), null, remainder);
         return new BigInteger(remainder);
@@ -978,6 +1114,10 @@ public class BigInteger extends Number
         if (m.signum() <= 0) {
             throw new ArithmeticException("m.signum() <= 0");
         }
+        if (isSmall() && m.isSmall()) {
+            long r = smallValue() % m.smallValue();
+            return valueOf((r < 0) ? r + m.smallValue() : r);
+        }
         return new BigInteger(BigInt.modulus(getBigInt(), m.getBigInt()));
     }
 
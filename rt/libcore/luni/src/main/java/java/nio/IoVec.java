@@ -20,10 +20,12 @@ import java.io.FileDescriptor;
 import java.io.IOException;
 import libcore.io.Libcore;
 import libcore.io.ErrnoException;
+import static libcore.io.OsConstants.*;
 
 /**
  * Used to implement java.nio read(ByteBuffer[])/write(ByteBuffer[]) operations as POSIX readv(2)
- * and writev(2) calls.
+ * and writev(2) calls. The buffers' backing arrays or direct addresses are passed straight to the
+ * kernel so no intermediate buffer is needed to gather or scatter the data.
  */
 final class IoVec {
     enum Direction { READV, WRITEV };
@@ -81,6 +83,10 @@ final class IoVec {
                 return Libcore.os.writev(fd, ioBuffers, offsets, byteCounts);
             }
         } catch (ErrnoException errnoException) {
+            if (errnoException.errno == EAGAIN || errnoException.errno == EWOULDBLOCK) {
+                // Non-blocking fd which isn't ready. Report "no bytes transferred".
+                return 0;
+            }
             throw errnoException.rethrowAsIOException();
         }
     }
@@ -92,7 +98,7 @@ final class IoVec {
                 b.position(b.limit());
                 byteCount -= byteCounts[i];
             } else {
-                b.position((direction == Direction.WRITEV ? b.position() : 0) + byteCount);
+                b.position(b.position() + byteCount);
                 byteCount = 0;
             }
         }
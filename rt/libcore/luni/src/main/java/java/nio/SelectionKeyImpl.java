@@ -37,6 +37,17 @@ final class SelectionKeyImpl extends AbstractSelectionKey {
 
     private SelectorImpl selector;
 
+    /*
+     * RoboVM note: State used by SelectorImpl when selecting with epoll.
+     * fd is the int value of the channel's file descriptor when the key was
+     * registered. epollEvents is the event mask currently registered with
+     * epoll and epollPending is set when the interest set has changed since
+     * it was last pushed to epoll.
+     */
+    int fd = -1;
+    int epollEvents;
+    boolean epollPending;
+
     public SelectionKeyImpl(AbstractSelectableChannel channel, int operations,
             Object attachment, SelectorImpl selector) {
         this.channel = channel;
@@ -72,6 +83,7 @@ final class SelectionKeyImpl extends AbstractSelectionKey {
         }
         synchronized (selector.keysLock) {
             interestOps = operations;
+            selector.interestOpsChanged(this);
         }
         return this;
     }
@@ -28,6 +28,7 @@ import java.nio.channels.spi.AbstractSelectableChannel;
 import java.nio.channels.spi.AbstractSelectionKey;
 import java.nio.channels.spi.AbstractSelector;
 import java.nio.channels.spi.SelectorProvider;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -80,7 +81,32 @@ final class SelectorImpl extends AbstractSelector {
 
     private final UnsafeArrayList<StructPollfd> pollFds = new UnsafeArrayList<StructPollfd>(StructPollfd.class, 8);
 
-    public SelectorImpl(SelectorProvider selectorProvider) throws IOException {
+    /**
+     * RoboVM note: The epoll(7) instance or {@code null} if this selector uses
+     * poll(2). With epoll the kernel keeps the interest sets of all keys.
+     * Interest set changes are pushed to the kernel incrementally at the
+     * next select and only ready keys are returned by epoll_wait(2), so idle
+     * keys cost nothing when selecting.
+     */
+    private final FileDescriptor epollFd;
+
+    /**
+     * (events, fd) pairs filled in by epoll_wait(2).
+     */
+    private final int[] epollEvents;
+
+    /**
+     * Registered keys indexed by the int value of their file descriptors.
+     */
+    private SelectionKeyImpl[] keysByFd;
+
+    /**
+     * Keys whose interest sets must be pushed to epoll at the next select.
+     * Guarded by {@link #keysLock}.
+     */
+    private final ArrayList<SelectionKeyImpl> epollPendingKeys = new ArrayList<SelectionKeyImpl>();
+
+    public SelectorImpl(SelectorProvider selectorProvider, boolean useEpoll) throws IOException {
         super(selectorProvider);
 
         /*
@@ -93,8 +119,17 @@ final class SelectorImpl extends AbstractSelector {
             wakeupIn = pipeFds[0];
             wakeupOut = pipeFds[1];
             IoUtils.setBlocking(wakeupIn, false);
-            pollFds.add(new StructPollfd());
-            setPollFd(0, wakeupIn, POLLIN, null);
+            if (useEpoll) {
+                epollFd = Libcore.os.epoll_create1(EPOLL_CLOEXEC);
+                epollEvents = new int[1024];
+                keysByFd = new SelectionKeyImpl[64];
+                Libcore.os.epoll_ctl(epollFd, EPOLL_CTL_ADD, wakeupIn, EPOLLIN, wakeupIn.getInt$());
+            } else {
+                epollFd = null;
+                epollEvents = null;
+                pollFds.add(new StructPollfd());
+                setPollFd(0, wakeupIn, POLLIN, null);
+            }
         } catch (ErrnoException errnoException) {
             throw errnoException.rethrowAsIOException();
         }
@@ -107,6 +142,7 @@ final class SelectorImpl extends AbstractSelector {
                 synchronized (selectedKeys) {
                     IoUtils.close(wakeupIn);
                     IoUtils.close(wakeupOut);
+                    IoUtils.close(epollFd);
                     doCancel();
                     for (SelectionKey sk : mutableKeys) {
                         deregister((AbstractSelectionKey) sk);
@@ -126,7 +162,11 @@ final class SelectorImpl extends AbstractSelector {
                 SelectionKeyImpl selectionKey = new SelectionKeyImpl(channel, operations,
                         attachment, this);
                 mutableKeys.add(selectionKey);
-                ensurePollFdsCapacity();
+                if (epollFd != null) {
+                    registerEpollKey(selectionKey);
+                } else {
+                    ensurePollFdsCapacity();
+                }
                 return selectionKey;
             }
         }
@@ -168,7 +208,11 @@ final class SelectorImpl extends AbstractSelector {
                     doCancel();
                     boolean isBlock = (timeout != 0);
                     synchronized (keysLock) {
-                        preparePollFds();
+                        if (epollFd != null) {
+                            updateEpollInterests();
+                        } else {
+                            preparePollFds();
+                        }
                     }
                     int rc = -1;
                     try {
@@ -176,7 +220,11 @@ final class SelectorImpl extends AbstractSelector {
                             begin();
                         }
                         try {
-                            rc = Libcore.os.poll(pollFds.array(), (int) timeout);
+                            if (epollFd != null) {
+                                rc = Libcore.os.epoll_wait(epollFd, epollEvents, (int) timeout);
+                            } else {
+                                rc = Libcore.os.poll(pollFds.array(), (int) timeout);
+                            }
                         } catch (ErrnoException errnoException) {
                             if (errnoException.errno != EINTR) {
                                 throw errnoException.rethrowAsIOException();
@@ -188,7 +236,10 @@ final class SelectorImpl extends AbstractSelector {
                         }
                     }
 
-                    int readyCount = (rc > 0) ? processPollFds() : 0;
+                    int readyCount = 0;
+                    if (rc > 0) {
+                        readyCount = (epollFd != null) ? processEpollEvents(rc) : processPollFds();
+                    }
                     readyCount -= doCancel();
                     return readyCount;
                 }
@@ -232,10 +283,7 @@ final class SelectorImpl extends AbstractSelector {
      */
     private int processPollFds() throws IOException {
         if (pollFds.get(0).revents == POLLIN) {
-            // Read bytes from the wakeup pipe until the pipe is empty.
-            byte[] buffer = new byte[8];
-            while (IoBridge.read(wakeupIn, buffer, 0, 1) > 0) {
-            }
+            drainWakeupPipe();
         }
 
         int readyKeyCount = 0;
@@ -265,19 +313,139 @@ final class SelectorImpl extends AbstractSelector {
                 }
             }
 
-            if (selectedOp != 0) {
-                boolean wasSelected = mutableSelectedKeys.contains(key);
-                if (wasSelected && key.readyOps() != selectedOp) {
-                    key.setReadyOps(key.readyOps() | selectedOp);
-                    ++readyKeyCount;
-                } else if (!wasSelected) {
-                    key.setReadyOps(selectedOp);
-                    mutableSelectedKeys.add(key);
-                    ++readyKeyCount;
+            readyKeyCount += selectKey(key, selectedOp);
+        }
+
+        return readyKeyCount;
+    }
+
+    /**
+     * Adds {@code selectedOp} to the ready ops of {@code key} and adds the key
+     * to the selected key set. Returns 1 if the key's ready set was updated.
+     */
+    private int selectKey(SelectionKeyImpl key, int selectedOp) {
+        if (selectedOp != 0) {
+            boolean wasSelected = mutableSelectedKeys.contains(key);
+            if (wasSelected && key.readyOps() != selectedOp) {
+                key.setReadyOps(key.readyOps() | selectedOp);
+                return 1;
+            } else if (!wasSelected) {
+                key.setReadyOps(selectedOp);
+                mutableSelectedKeys.add(key);
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    private void drainWakeupPipe() throws IOException {
+        // Read bytes from the wakeup pipe until the pipe is empty.
+        byte[] buffer = new byte[8];
+        while (IoBridge.read(wakeupIn, buffer, 0, 1) > 0) {
+        }
+    }
+
+    private void registerEpollKey(SelectionKeyImpl key) {
+        int fd = ((FileDescriptorChannel) key.channel()).getFD().getInt$();
+        if (fd >= keysByFd.length) {
+            keysByFd = Arrays.copyOf(keysByFd, Math.max(fd + 1, keysByFd.length * 2));
+        }
+        keysByFd[fd] = key;
+        key.fd = fd;
+        synchronized (keysLock) {
+            interestOpsChanged(key);
+        }
+    }
+
+    /**
+     * Called by {@link SelectionKeyImpl} with {@link #keysLock} held when
+     * the interest set of a key has changed.
+     */
+    void interestOpsChanged(SelectionKeyImpl key) {
+        if (epollFd != null && !key.epollPending) {
+            key.epollPending = true;
+            epollPendingKeys.add(key);
+        }
+    }
+
+    /**
+     * Pushes changed interest sets to epoll. Must be called with
+     * {@link #keysLock} held.
+     */
+    private void updateEpollInterests() {
+        for (int i = 0; i < epollPendingKeys.size(); i++) {
+            SelectionKeyImpl key = epollPendingKeys.get(i);
+            key.epollPending = false;
+            if (!key.isValid()) {
+                // Cancelled keys are removed from epoll by doCancel()
+                continue;
+            }
+            int interestOps = key.interestOpsNoCheck();
+            int events = 0;
+            if (((OP_ACCEPT | OP_READ) & interestOps) != 0) {
+                events |= EPOLLIN;
+            }
+            if (((OP_CONNECT | OP_WRITE) & interestOps) != 0) {
+                events |= EPOLLOUT;
+            }
+            if (events == key.epollEvents) {
+                continue;
+            }
+            // Keys with an empty interest set are removed from epoll since
+            // epoll always reports EPOLLERR and EPOLLHUP.
+            FileDescriptor fd = ((FileDescriptorChannel) key.channel()).getFD();
+            try {
+                if (key.epollEvents == 0) {
+                    Libcore.os.epoll_ctl(epollFd, EPOLL_CTL_ADD, fd, events, key.fd);
+                } else if (events == 0) {
+                    Libcore.os.epoll_ctl(epollFd, EPOLL_CTL_DEL, fd, 0, key.fd);
+                } else {
+                    Libcore.os.epoll_ctl(epollFd, EPOLL_CTL_MOD, fd, events, key.fd);
                 }
+                key.epollEvents = events;
+            } catch (ErrnoException ignored) {
+                // The channel has been closed. Its key will be cancelled.
             }
         }
+        epollPendingKeys.clear();
+    }
+
+    /**
+     * Updates the key ready ops and selected key set from the first
+     * {@code count} events returned by epoll_wait(2).
+     */
+    private int processEpollEvents(int count) throws IOException {
+        int readyKeyCount = 0;
+        int wakeupFd = wakeupIn.getInt$();
+        for (int i = 0; i < count; i++) {
+            int events = epollEvents[i * 2];
+            int fd = epollEvents[i * 2 + 1];
+            if (fd == wakeupFd) {
+                drainWakeupPipe();
+                continue;
+            }
 
+            SelectionKeyImpl key = fd < keysByFd.length ? keysByFd[fd] : null;
+            if (key == null || !key.isValid()) {
+                continue;
+            }
+
+            int ops = key.interestOpsNoCheck();
+            int selectedOp = 0;
+            if ((events & (EPOLLERR | EPOLLHUP)) != 0) {
+                // Let the channel operations report the error
+                selectedOp = ops;
+            } else if ((events & EPOLLIN) != 0) {
+                selectedOp = ops & (OP_ACCEPT | OP_READ);
+            } else if ((events & EPOLLOUT) != 0) {
+                if (key.isConnected()) {
+                    selectedOp = ops & OP_WRITE;
+                } else {
+                    selectedOp = ops & OP_CONNECT;
+                }
+            }
+            readyKeyCount += selectKey(key, selectedOp);
+        }
         return readyKeyCount;
     }
 
@@ -298,6 +466,9 @@ final class SelectorImpl extends AbstractSelector {
         synchronized (cancelledKeys) {
             if (cancelledKeys.size() > 0) {
                 for (SelectionKey currentKey : cancelledKeys) {
+                    if (epollFd != null) {
+                        deregisterEpollKey((SelectionKeyImpl) currentKey);
+                    }
                     mutableKeys.remove(currentKey);
                     deregister((AbstractSelectionKey) currentKey);
                     if (mutableSelectedKeys.remove(currentKey)) {
@@ -311,6 +482,23 @@ final class SelectorImpl extends AbstractSelector {
         return deselected;
     }
 
+    private void deregisterEpollKey(SelectionKeyImpl key) {
+        if (key.fd < keysByFd.length && keysByFd[key.fd] == key) {
+            keysByFd[key.fd] = null;
+        }
+        if (key.epollEvents != 0) {
+            key.epollEvents = 0;
+            FileDescriptor fd = ((FileDescriptorChannel) key.channel()).getFD();
+            if (fd.valid()) {
+                try {
+                    Libcore.os.epoll_ctl(epollFd, EPOLL_CTL_DEL, fd, 0, key.fd);
+                } catch (ErrnoException ignored) {
+                    // Closing the channel has already removed it from epoll
+                }
+            }
+        }
+    }
+
     @Override public Selector wakeup() {
         try {
             Libcore.os.write(wakeupOut, new byte[] { 1 }, 0, 1);
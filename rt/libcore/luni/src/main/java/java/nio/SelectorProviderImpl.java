@@ -24,11 +24,21 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.AbstractSelector;
 import java.nio.channels.spi.SelectorProvider;
+import libcore.io.OsConstants;
 
 /**
  * @hide for java.nio.channels.spi.SelectorProvider only.
  */
 public final class SelectorProviderImpl extends SelectorProvider {
+    /**
+     * RoboVM note: Selectors use epoll(7) where available (Linux). Set the
+     * {@code robovm.nio.selector} system property to {@code poll} to use
+     * poll(2) instead.
+     */
+    private static final boolean USE_EPOLL = OsConstants.EPOLLIN != 0
+            && !"poll".equals(System.getProperty("robovm.nio.selector"));
+
+
     public DatagramChannel openDatagramChannel() throws IOException {
         return new DatagramChannelImpl(this);
     }
@@ -38,7 +48,7 @@ public final class SelectorProviderImpl extends SelectorProvider {
     }
 
     public AbstractSelector openSelector() throws IOException {
-        return new SelectorImpl(this);
+        return new SelectorImpl(this, USE_EPOLL);
     }
 
     public ServerSocketChannel openServerSocketChannel() throws IOException {
@@ -271,28 +271,7 @@ class SocketChannelImpl extends SocketChannel implements FileDescriptorChannel {
     public long read(ByteBuffer[] targets, int offset, int length) throws IOException {
         Arrays.checkOffsetAndCount(targets.length, offset, length);
         checkOpenConnected();
-        int totalCount = FileChannelImpl.calculateTotalRemaining(targets, offset, length, true);
-        if (totalCount == 0) {
-            return 0;
-        }
-        byte[] readArray = new byte[totalCount];
-        ByteBuffer readBuffer = ByteBuffer.wrap(readArray);
-        int readCount;
-        // read data to readBuffer, and then transfer data from readBuffer to targets.
-        readCount = readImpl(readBuffer);
-        readBuffer.flip();
-        if (readCount > 0) {
-            int left = readCount;
-            int index = offset;
-            // transfer data from readArray to targets
-            while (left > 0) {
-                int putLength = Math.min(targets[index].remaining(), left);
-                targets[index].put(readArray, readCount - left, putLength);
-                index++;
-                left -= putLength;
-            }
-        }
-        return readCount;
+        return transferIoVec(new IoVec(targets, offset, length, IoVec.Direction.READV), readLock);
     }
 
     private int readImpl(ByteBuffer dst) throws IOException {
@@ -331,29 +310,33 @@ class SocketChannelImpl extends SocketChannel implements FileDescriptorChannel {
     public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
         Arrays.checkOffsetAndCount(sources.length, offset, length);
         checkOpenConnected();
-        int count = FileChannelImpl.calculateTotalRemaining(sources, offset, length, false);
-        if (count == 0) {
-            return 0;
+        return transferIoVec(new IoVec(sources, offset, length, IoVec.Direction.WRITEV), writeLock);
+    }
+
+    /*
+     * Scatters/gathers directly from/to the buffers using readv/writev.
+     */
+    private int transferIoVec(IoVec ioVec, Object lock) throws IOException {
+        synchronized (lock) {
+            if (ioVec.init() == 0) {
+                return 0;
+            }
+            int bytesTransferred = 0;
+            boolean completed = false;
+            try {
+                if (isBlocking()) {
+                    begin();
+                }
+                bytesTransferred = ioVec.doTransfer(fd);
+                completed = true;
+            } finally {
+                if (isBlocking()) {
+                    end(completed);
+                }
+            }
+            ioVec.didTransfer(bytesTransferred);
+            return bytesTransferred;
         }
-        ByteBuffer writeBuf = ByteBuffer.allocate(count);
-        for (int val = offset; val < length + offset; val++) {
-            ByteBuffer source = sources[val];
-            int oldPosition = source.position();
-            writeBuf.put(source);
-            source.position(oldPosition);
-        }
-        writeBuf.flip();
-        int result = writeImpl(writeBuf);
-        int val = offset;
-        int written = result;
-        while (result > 0) {
-            ByteBuffer source = sources[val];
-            int gap = Math.min(result, source.remaining());
-            source.position(source.position() + gap);
-            val++;
-            result -= gap;
-        }
-        return written;
     }
 
     private int writeImpl(ByteBuffer src) throws IOException {
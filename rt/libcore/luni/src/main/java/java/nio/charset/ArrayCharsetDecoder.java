@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Base class for the built-in decoders implemented in Java. Subclasses decode
+ * from a {@code byte[]} into a {@code char[]}. Buffers which aren't backed by
+ * accessible arrays are decoded in chunks through temporary arrays.
+ *
+ * <p>Like the ICU decoders, an incomplete sequence at the end of the input is
+ * consumed and remembered, so a sequence may be split across calls to
+ * {@link #decode(ByteBuffer, CharBuffer, boolean)}. If the input ends in the
+ * middle of a sequence, {@link #flush} reports it as malformed.
+ */
+abstract class ArrayCharsetDecoder extends CharsetDecoder {
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * The longest sequence any subclass decodes. An incomplete sequence is
+     * always shorter than this.
+     */
+    private static final int MAX_SEQUENCE_LENGTH = 4;
+
+    /**
+     * Set by {@link #decodeArray} to the positions in the source and
+     * destination arrays where decoding stopped.
+     */
+    int srcPos;
+    int dstPos;
+
+    private byte[] srcChunk;
+    private char[] dstChunk;
+
+    private final byte[] pending = new byte[MAX_SEQUENCE_LENGTH];
+    private final char[] pendingChars = new char[MAX_SEQUENCE_LENGTH];
+    private int pendingCount;
+
+    ArrayCharsetDecoder(Charset charset, float averageCharsPerByte, float maxCharsPerByte) {
+        super(charset, averageCharsPerByte, maxCharsPerByte);
+    }
+
+    /**
+     * Decodes {@code src[sp..sl)} into {@code dst[dp..dl)} and sets
+     * {@link #srcPos} and {@link #dstPos}. Follows the contract of
+     * {@link #decodeLoop}: an incomplete sequence at the end of the input is
+     * left unconsumed and {@link CoderResult#UNDERFLOW} is returned.
+     */
+    abstract CoderResult decodeArray(byte[] src, int sp, int sl, char[] dst, int dp, int dl);
+
+    @Override protected final CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+        if (pendingCount > 0) {
+            CoderResult result = decodePending(in, out);
+            if (result != null) {
+                return result;
+            }
+        }
+        CoderResult result = decodeBuffers(in, out);
+        if (result.isUnderflow() && in.hasRemaining()) {
+            pendingCount = in.remaining();
+            in.get(pending, 0, pendingCount);
+        }
+        return result;
+    }
+
+    /**
+     * Completes the sequence started by the pending bytes using bytes from
+     * {@code in}. Returns {@code null} if decoding should continue with the
+     * rest of {@code in}.
+     */
+    private CoderResult decodePending(ByteBuffer in, CharBuffer out) {
+        int position = in.position();
+        int n = Math.min(in.remaining(), pending.length - pendingCount);
+        in.get(pending, pendingCount, n);
+        CoderResult result = decodeArray(pending, 0, pendingCount + n, pendingChars, 0,
+                Math.min(out.remaining(), pendingChars.length));
+        if (srcPos >= pendingCount) {
+            out.put(pendingChars, 0, dstPos);
+            in.position(position + srcPos - pendingCount);
+            pendingCount = 0;
+            return result.isUnderflow() ? null : result;
+        }
+
+        // Nothing could be decoded: the pending bytes are still incomplete,
+        // there's no room for the decoded chars or the sequence is malformed.
+        if (result.isUnderflow()) {
+            pendingCount += n;
+            return result;
+        }
+        if (result.isOverflow()) {
+            in.position(position);
+            return result;
+        }
+        // The malformed bytes may come from both the pending bytes and in so
+        // the error action can't be left to decode().
+        if (malformedInputAction() == CodingErrorAction.REPLACE) {
+            if (out.remaining() < replacement().length()) {
+                in.position(position);
+                return CoderResult.OVERFLOW;
+            }
+            out.put(replacement());
+        }
+        in.position(position + Math.max(0, result.length() - pendingCount));
+        if (result.length() < pendingCount) {
+            System.arraycopy(pending, result.length(), pending, 0, pendingCount - result.length());
+        }
+        pendingCount = Math.max(0, pendingCount - result.length());
+        return malformedInputAction() == CodingErrorAction.REPORT ? result : decodeLoop(in, out);
+    }
+
+    private CoderResult decodeBuffers(ByteBuffer in, CharBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            int inOffset = in.arrayOffset();
+            int outOffset = out.arrayOffset();
+            CoderResult result = decodeArray(in.array(), inOffset + in.position(),
+                    inOffset + in.limit(), out.array(), outOffset + out.position(),
+                    outOffset + out.limit());
+            in.position(srcPos - inOffset);
+            out.position(dstPos - outOffset);
+            return result;
+        }
+
+        if (srcChunk == null) {
+            srcChunk = new byte[CHUNK_SIZE];
+            dstChunk = new char[CHUNK_SIZE];
+        }
+        while (true) {
+            int position = in.position();
+            int remaining = in.remaining();
+            int n = Math.min(remaining, CHUNK_SIZE);
+            int m = Math.min(out.remaining(), CHUNK_SIZE);
+            in.get(srcChunk, 0, n);
+            CoderResult result = decodeArray(srcChunk, 0, n, dstChunk, 0, m);
+            in.position(position + srcPos);
+            out.put(dstChunk, 0, dstPos);
+            if (result.isUnderflow()) {
+                if (n == remaining) {
+                    return result;
+                }
+            } else if (result.isOverflow()) {
+                if (dstPos == 0 || !out.hasRemaining()) {
+                    return result;
+                }
+            } else {
+                return result;
+            }
+        }
+    }
+
+    @Override protected final CoderResult implFlush(CharBuffer out) {
+        if (pendingCount > 0) {
+            // The input ended in the middle of a sequence.
+            CodingErrorAction action = malformedInputAction();
+            if (action == CodingErrorAction.REPORT) {
+                int length = pendingCount;
+                pendingCount = 0;
+                return CoderResult.malformedForLength(length);
+            }
+            if (action == CodingErrorAction.REPLACE) {
+                if (out.remaining() < replacement().length()) {
+                    return CoderResult.OVERFLOW;
+                }
+                out.put(replacement());
+            }
+            pendingCount = 0;
+        }
+        return CoderResult.UNDERFLOW;
+    }
+
+    @Override protected final void implReset() {
+        pendingCount = 0;
+    }
+}
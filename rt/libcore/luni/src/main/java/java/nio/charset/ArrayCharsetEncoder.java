@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio.charset;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Base class for the built-in encoders implemented in Java. Subclasses encode
+ * from a {@code char[]} into a {@code byte[]}. Buffers which aren't backed by
+ * accessible arrays are encoded in chunks through temporary arrays.
+ *
+ * <p>Like the ICU encoders, a high surrogate at the end of the input is
+ * consumed and remembered, so a surrogate pair may be split across calls to
+ * {@link #encode(CharBuffer, ByteBuffer, boolean)}. If the input ends after a
+ * high surrogate, {@link #flush} reports it as malformed.
+ */
+abstract class ArrayCharsetEncoder extends CharsetEncoder {
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Set by {@link #encodeArray} to the positions in the source and
+     * destination arrays where encoding stopped.
+     */
+    int srcPos;
+    int dstPos;
+
+    private char[] srcChunk;
+    private byte[] dstChunk;
+
+    private final char[] pending = new char[2];
+    private final byte[] pendingBytes = new byte[4];
+    private boolean hasPending;
+
+    ArrayCharsetEncoder(Charset cs, float averageBytesPerChar, float maxBytesPerChar) {
+        // The replacement is trusted: '?' is legal in all the built-in
+        // charsets and checking it would create a decoder.
+        super(cs, averageBytesPerChar, maxBytesPerChar, new byte[] { (byte) '?' }, true);
+    }
+
+    /**
+     * Encodes {@code src[sp..sl)} into {@code dst[dp..dl)} and sets
+     * {@link #srcPos} and {@link #dstPos}. Follows the contract of
+     * {@link #encodeLoop}: a high surrogate at the end of the input is left
+     * unconsumed and {@link CoderResult#UNDERFLOW} is returned.
+     */
+    abstract CoderResult encodeArray(char[] src, int sp, int sl, byte[] dst, int dp, int dl);
+
+    @Override protected final CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
+        if (hasPending) {
+            CoderResult result = encodePending(in, out);
+            if (result != null) {
+                return result;
+            }
+        }
+        CoderResult result = encodeBuffers(in, out);
+        if (result.isUnderflow() && in.hasRemaining()) {
+            pending[0] = in.get();
+            hasPending = true;
+        }
+        return result;
+    }
+
+    /**
+     * Completes the surrogate pair started by the pending high surrogate
+     * using the next char from {@code in}. Returns {@code null} if encoding
+     * should continue with the rest of {@code in}.
+     */
+    private CoderResult encodePending(CharBuffer in, ByteBuffer out) {
+        if (!in.hasRemaining()) {
+            return CoderResult.UNDERFLOW;
+        }
+        int position = in.position();
+        pending[1] = in.get();
+        CoderResult result = encodeArray(pending, 0, 2, pendingBytes, 0,
+                Math.min(out.remaining(), pendingBytes.length));
+        if (srcPos > 0) {
+            out.put(pendingBytes, 0, dstPos);
+            in.position(position + srcPos - 1);
+            hasPending = false;
+            return result.isUnderflow() ? null : result;
+        }
+        if (result.isOverflow()) {
+            in.position(position);
+            return result;
+        }
+
+        // The pair is malformed or unmappable. The error may cover the char
+        // from in as well so the error action can't be left to encode().
+        CodingErrorAction action = result.isUnmappable()
+                ? unmappableCharacterAction() : malformedInputAction();
+        if (action == CodingErrorAction.REPLACE) {
+            if (out.remaining() < replacement().length) {
+                in.position(position);
+                return CoderResult.OVERFLOW;
+            }
+            out.put(replacement());
+        }
+        in.position(position + result.length() - 1);
+        hasPending = false;
+        return action == CodingErrorAction.REPORT ? result : encodeLoop(in, out);
+    }
+
+    private CoderResult encodeBuffers(CharBuffer in, ByteBuffer out) {
+        if (in.hasArray() && out.hasArray()) {
+            int inOffset = in.arrayOffset();
+            int outOffset = out.arrayOffset();
+            CoderResult result = encodeArray(in.array(), inOffset + in.position(),
+                    inOffset + in.limit(), out.array(), outOffset + out.position(),
+                    outOffset + out.limit());
+            in.position(srcPos - inOffset);
+            out.position(dstPos - outOffset);
+            return result;
+        }
+
+        if (srcChunk == null) {
+            srcChunk = new char[CHUNK_SIZE];
+            dstChunk = new byte[CHUNK_SIZE];
+        }
+        while (true) {
+            int position = in.position();
+            int remaining = in.remaining();
+            int n = Math.min(remaining, CHUNK_SIZE);
+            int m = Math.min(out.remaining(), CHUNK_SIZE);
+            in.get(srcChunk, 0, n);
+            CoderResult result = encodeArray(srcChunk, 0, n, dstChunk, 0, m);
+            in.position(position + srcPos);
+            out.put(dstChunk, 0, dstPos);
+            if (result.isUnderflow()) {
+                if (n == remaining) {
+                    return result;
+                }
+            } else if (result.isOverflow()) {
+                if (dstPos == 0 || !out.hasRemaining()) {
+                    return result;
+                }
+            } else {
+                return result;
+            }
+        }
+    }
+
+    @Override protected final CoderResult implFlush(ByteBuffer out) {
+        if (hasPending) {
+            // The input ended after a high surrogate.
+            CodingErrorAction action = malformedInputAction();
+            if (action == CodingErrorAction.REPORT) {
+                hasPending = false;
+                return CoderResult.malformedForLength(1);
+            }
+            if (action == CodingErrorAction.REPLACE) {
+                if (out.remaining() < replacement().length) {
+                    return CoderResult.OVERFLOW;
+                }
+                out.put(replacement());
+            }
+            hasPending = false;
+        }
+        return CoderResult.UNDERFLOW;
+    }
+
+    @Override protected final void implReset() {
+        hasPending = false;
+    }
+}
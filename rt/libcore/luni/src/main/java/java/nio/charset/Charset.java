@@ -216,7 +216,10 @@ public abstract class Charset implements Comparable<Charset> {
         // Start with a copy of the built-in charsets...
         TreeMap<String, Charset> charsets = new TreeMap<String, Charset>(String.CASE_INSENSITIVE_ORDER);
         for (String charsetName : NativeConverter.getAvailableCharsetNames()) {
-            Charset charset = NativeConverter.charsetForName(charsetName);
+            Charset charset = builtInCharsetForName(charsetName);
+            if (charset == null) {
+                charset = NativeConverter.charsetForName(charsetName);
+            }
             charsets.put(charset.name(), charset);
         }
 
@@ -235,6 +238,35 @@ public abstract class Charset implements Comparable<Charset> {
         return Collections.unmodifiableSortedMap(charsets);
     }
 
+    /**
+     * Returns the built-in Java implementation of the named charset or null.
+     *
+     * RoboVM note: UTF-8, ISO-8859-1 and US-ASCII are implemented in Java
+     * instead of by ICU so that using them never calls into ICU's converters.
+     */
+    private static Charset builtInCharsetForName(String charsetName) {
+        if (isNameOrAlias(CharsetUTF8.INSTANCE, charsetName)) {
+            return CharsetUTF8.INSTANCE;
+        } else if (isNameOrAlias(CharsetLatin1.ISO_8859_1, charsetName)) {
+            return CharsetLatin1.ISO_8859_1;
+        } else if (isNameOrAlias(CharsetLatin1.US_ASCII, charsetName)) {
+            return CharsetLatin1.US_ASCII;
+        }
+        return null;
+    }
+
+    private static boolean isNameOrAlias(Charset cs, String charsetName) {
+        if (cs.canonicalName.equalsIgnoreCase(charsetName)) {
+            return true;
+        }
+        for (String alias : cs.aliasesSet) {
+            if (alias.equalsIgnoreCase(charsetName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static Charset cacheCharset(String charsetName, Charset cs) {
         synchronized (CACHED_CHARSETS) {
             // Get the canonical name for this charset, and the canonical instance from the table.
@@ -285,13 +317,21 @@ public abstract class Charset implements Comparable<Charset> {
             throw new IllegalCharsetNameException(null);
         }
 
-        // Is this a built-in charset supported by ICU?
+        // Is this a built-in charset implemented in Java?
         checkCharsetName(charsetName);
-        cs = NativeConverter.charsetForName(charsetName);
+        cs = builtInCharsetForName(charsetName);
         if (cs != null) {
             return cacheCharset(charsetName, cs);
         }
 
+        // Is this a built-in charset supported by ICU?
+        cs = NativeConverter.charsetForName(charsetName);
+        if (cs != null) {
+            // ICU knows more aliases than we do.
+            Charset builtIn = builtInCharsetForName(cs.name());
+            return cacheCharset(charsetName, builtIn != null ? builtIn : cs);
+        }
+
         // Does a configured CharsetProvider have this charset?
         for (CharsetProvider charsetProvider : ServiceLoader.load(CharsetProvider.class)) {
             cs = charsetProvider.charsetForName(charsetName);
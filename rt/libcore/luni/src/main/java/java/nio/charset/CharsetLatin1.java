@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio.charset;
+
+/**
+ * ISO-8859-1 and US-ASCII implemented in Java rather than by ICU. Both map
+ * each byte to the char with the same value, up to U+00FF and U+007F
+ * respectively.
+ */
+final class CharsetLatin1 extends Charset {
+    static final CharsetLatin1 ISO_8859_1 = new CharsetLatin1("ISO-8859-1", new String[] {
+        "ISO8859_1", "ISO8859-1", "8859_1", "ISO_8859_1", "ISO_8859-1", "ISO_8859-1:1987",
+        "latin1", "l1", "IBM819", "CP819", "819", "csISOLatin1", "iso-ir-100"
+    }, 0xff);
+
+    static final CharsetLatin1 US_ASCII = new CharsetLatin1("US-ASCII", new String[] {
+        "ASCII", "ascii7", "646", "ISO646-US", "iso_646.irv:1983", "ISO_646.irv:1991",
+        "ANSI_X3.4-1968", "ANSI_X3.4-1986", "iso-ir-6", "us", "IBM367", "cp367", "csASCII"
+    }, 0x7f);
+
+    private final char maxChar;
+
+    private CharsetLatin1(String canonicalName, String[] aliases, int maxChar) {
+        super(canonicalName, aliases);
+        this.maxChar = (char) maxChar;
+    }
+
+    @Override public boolean contains(Charset cs) {
+        return cs instanceof CharsetLatin1 && ((CharsetLatin1) cs).maxChar <= maxChar;
+    }
+
+    @Override public CharsetDecoder newDecoder() {
+        return new Decoder(this, maxChar);
+    }
+
+    @Override public CharsetEncoder newEncoder() {
+        return new Encoder(this, maxChar);
+    }
+
+    private static final class Decoder extends ArrayCharsetDecoder {
+        private final char maxChar;
+
+        Decoder(Charset cs, char maxChar) {
+            super(cs, 1.0f, 1.0f);
+            this.maxChar = maxChar;
+        }
+
+        @Override CoderResult decodeArray(byte[] src, int sp, int sl, char[] dst, int dp, int dl) {
+            CoderResult result = CoderResult.UNDERFLOW;
+            int end = sp + Math.min(sl - sp, dl - dp);
+            while (sp < end) {
+                char c = (char) (src[sp] & 0xff);
+                if (c > maxChar) {
+                    result = CoderResult.malformedForLength(1);
+                    break;
+                }
+                dst[dp++] = c;
+                sp++;
+            }
+            if (result.isUnderflow() && sp < sl) {
+                result = CoderResult.OVERFLOW;
+            }
+            srcPos = sp;
+            dstPos = dp;
+            return result;
+        }
+    }
+
+    private static final class Encoder extends ArrayCharsetEncoder {
+        private final char maxChar;
+
+        Encoder(Charset cs, char maxChar) {
+            super(cs, 1.0f, 1.0f);
+            this.maxChar = maxChar;
+        }
+
+        @Override public boolean canEncode(char c) {
+            return c <= maxChar;
+        }
+
+        @Override CoderResult encodeArray(char[] src, int sp, int sl, byte[] dst, int dp, int dl) {
+            CoderResult result = CoderResult.UNDERFLOW;
+            while (sp < sl) {
+                char c = src[sp];
+                if (c > maxChar) {
+                    if (Character.isHighSurrogate(c)) {
+                        if (sl - sp < 2) {
+                            // Wait for the low surrogate.
+                            break;
+                        }
+                        result = Character.isLowSurrogate(src[sp + 1])
+                                ? CoderResult.unmappableForLength(2)
+                                : CoderResult.malformedForLength(1);
+                    } else if (Character.isLowSurrogate(c)) {
+                        result = CoderResult.malformedForLength(1);
+                    } else {
+                        result = CoderResult.unmappableForLength(1);
+                    }
+                    break;
+                }
+                if (dp == dl) {
+                    result = CoderResult.OVERFLOW;
+                    break;
+                }
+                dst[dp++] = (byte) c;
+                sp++;
+            }
+            srcPos = sp;
+            dstPos = dp;
+            return result;
+        }
+    }
+}
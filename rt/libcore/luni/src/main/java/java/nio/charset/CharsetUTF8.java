@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.nio.charset;
+
+/**
+ * UTF-8 implemented in Java rather than by ICU. Decoding follows the
+ * Unicode Standard's definition of well-formed UTF-8 (table 3-7): overlong
+ * forms, encoded surrogates and code points above U+10FFFF are malformed.
+ */
+final class CharsetUTF8 extends Charset {
+    static final CharsetUTF8 INSTANCE = new CharsetUTF8();
+
+    private CharsetUTF8() {
+        super("UTF-8", new String[] { "UTF8", "unicode-1-1-utf-8" });
+    }
+
+    @Override public boolean contains(Charset cs) {
+        // Every charset maps to a subset of Unicode.
+        return cs != null;
+    }
+
+    @Override public CharsetDecoder newDecoder() {
+        return new Decoder(this);
+    }
+
+    @Override public CharsetEncoder newEncoder() {
+        return new Encoder(this);
+    }
+
+    private static final class Decoder extends ArrayCharsetDecoder {
+        Decoder(Charset cs) {
+            super(cs, 1.0f, 1.0f);
+        }
+
+        @Override CoderResult decodeArray(byte[] src, int sp, int sl, char[] dst, int dp, int dl) {
+            CoderResult result = CoderResult.UNDERFLOW;
+            while (sp < sl) {
+                int b0 = src[sp];
+                if (b0 >= 0) {
+                    if (dp == dl) {
+                        result = CoderResult.OVERFLOW;
+                        break;
+                    }
+                    dst[dp++] = (char) b0;
+                    sp++;
+                    continue;
+                }
+
+                int length = sequenceLength(b0 & 0xff);
+                if (length == 0) {
+                    result = CoderResult.malformedForLength(1);
+                    break;
+                }
+                int available = Math.min(length, sl - sp);
+                int valid = validPrefixLength(src, sp, available);
+                if (valid < available) {
+                    result = CoderResult.malformedForLength(valid);
+                    break;
+                }
+                if (available < length) {
+                    // Wait for the rest of the sequence.
+                    break;
+                }
+
+                if (length == 2) {
+                    if (dp == dl) {
+                        result = CoderResult.OVERFLOW;
+                        break;
+                    }
+                    dst[dp++] = (char) (((b0 & 0x1f) << 6) | (src[sp + 1] & 0x3f));
+                } else if (length == 3) {
+                    if (dp == dl) {
+                        result = CoderResult.OVERFLOW;
+                        break;
+                    }
+                    dst[dp++] = (char) (((b0 & 0x0f) << 12) | ((src[sp + 1] & 0x3f) << 6)
+                            | (src[sp + 2] & 0x3f));
+                } else {
+                    if (dl - dp < 2) {
+                        result = CoderResult.OVERFLOW;
+                        break;
+                    }
+                    int codePoint = ((b0 & 0x07) << 18) | ((src[sp + 1] & 0x3f) << 12)
+                            | ((src[sp + 2] & 0x3f) << 6) | (src[sp + 3] & 0x3f);
+                    dst[dp++] = Character.highSurrogate(codePoint);
+                    dst[dp++] = Character.lowSurrogate(codePoint);
+                }
+                sp += length;
+            }
+            srcPos = sp;
+            dstPos = dp;
+            return result;
+        }
+
+        /**
+         * Returns the length of the sequence starting with the lead byte
+         * {@code b0} or 0 if {@code b0} can't start a sequence.
+         */
+        private static int sequenceLength(int b0) {
+            if (b0 >= 0xc2 && b0 <= 0xdf) {
+                return 2;
+            } else if (b0 >= 0xe0 && b0 <= 0xef) {
+                return 3;
+            } else if (b0 >= 0xf0 && b0 <= 0xf4) {
+                return 4;
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the number of bytes of the {@code available} bytes at
+         * {@code sp} which form a valid prefix of a sequence.
+         */
+        private static int validPrefixLength(byte[] src, int sp, int available) {
+            if (available < 2) {
+                return available;
+            }
+            int b0 = src[sp] & 0xff;
+            int b1 = src[sp + 1] & 0xff;
+            int min = 0x80;
+            int max = 0xbf;
+            if (b0 == 0xe0) {
+                min = 0xa0; // Overlong
+            } else if (b0 == 0xed) {
+                max = 0x9f; // Surrogate
+            } else if (b0 == 0xf0) {
+                min = 0x90; // Overlong
+            } else if (b0 == 0xf4) {
+                max = 0x8f; // Above U+10FFFF
+            }
+            if (b1 < min || b1 > max) {
+                return 1;
+            }
+            for (int i = 2; i < available; i++) {
+                if ((src[sp + i] & 0xc0) != 0x80) {
+                    return i;
+                }
+            }
+            return available;
+        }
+    }
+
+    private static final class Encoder extends ArrayCharsetEncoder {
+        Encoder(Charset cs) {
+            super(cs, 1.1f, 3.0f);
+        }
+
+        @Override public boolean canEncode(char c) {
+            return !Character.isSurrogate(c);
+        }
+
+        @Override CoderResult encodeArray(char[] src, int sp, int sl, byte[] dst, int dp, int dl) {
+            CoderResult result = CoderResult.UNDERFLOW;
+            while (sp < sl) {
+                char c = src[sp];
+                if (c < 0x80) {
+                    if (dp == dl) {
+                        result = CoderResult.OVERFLOW;
+                        break;
+                    }
+                    dst[dp++] = (byte) c;
+                    sp++;
+                } else if (c < 0x800) {
+                    if (dl - dp < 2) {
+                        result = CoderResult.OVERFLOW;
+                        break;
+                    }
+                    dst[dp++] = (byte) (0xc0 | (c >> 6));
+                    dst[dp++] = (byte) (0x80 | (c & 0x3f));
+                    sp++;
+                } else if (Character.isSurrogate(c)) {
+                    if (!Character.isHighSurrogate(c)) {
+                        result = CoderResult.malformedForLength(1);
+                        break;
+                    }
+                    if (sl - sp < 2) {
+                        // Wait for the low surrogate.
+                        break;
+                    }
+                    char low = src[sp + 1];
+                    if (!Character.isLowSurrogate(low)) {
+                        result = CoderResult.malformedForLength(1);
+                        break;
+                    }
+                    if (dl - dp < 4) {
+                        result = CoderResult.OVERFLOW;
+                        break;
+                    }
+                    int codePoint = Character.toCodePoint(c, low);
+                    dst[dp++] = (byte) (0xf0 | (codePoint >> 18));
+                    dst[dp++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    dst[dp++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    dst[dp++] = (byte) (0x80 | (codePoint & 0x3f));
+                    sp += 2;
+                } else {
+                    if (dl - dp < 3) {
+                        result = CoderResult.OVERFLOW;
+                        break;
+                    }
+                    dst[dp++] = (byte) (0xe0 | (c >> 12));
+                    dst[dp++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    dst[dp++] = (byte) (0x80 | (c & 0x3f));
+                    sp++;
+                }
+            }
+            srcPos = sp;
+            dstPos = dp;
+            return result;
+        }
+    }
+}
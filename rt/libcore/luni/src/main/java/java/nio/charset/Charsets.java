@@ -45,19 +45,91 @@ public class Charsets {
      * Returns a new byte array containing the bytes corresponding to the given characters,
      * encoded in US-ASCII. Unrepresentable characters are replaced by (byte) '?'.
      */
-    public static native byte[] toAsciiBytes(char[] chars, int offset, int length);
+    public static byte[] toAsciiBytes(char[] chars, int offset, int length) {
+        return toBytes(chars, offset, length, 0x7f);
+    }
 
     /**
      * Returns a new byte array containing the bytes corresponding to the given characters,
      * encoded in ISO-8859-1. Unrepresentable characters are replaced by (byte) '?'.
      */
-    public static native byte[] toIsoLatin1Bytes(char[] chars, int offset, int length);
+    public static byte[] toIsoLatin1Bytes(char[] chars, int offset, int length) {
+        return toBytes(chars, offset, length, 0xff);
+    }
+
+    /**
+     * Translates the given characters to US-ASCII or ISO-8859-1 bytes, using the fact that
+     * Unicode code points between U+0000 and U+007f inclusive are identical to US-ASCII, while
+     * U+0000 to U+00ff inclusive are identical to ISO-8859-1.
+     */
+    private static byte[] toBytes(char[] chars, int offset, int length, int maxValidChar) {
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            char ch = chars[offset + i];
+            result[i] = (byte) ((ch <= maxValidChar) ? ch : '?');
+        }
+        return result;
+    }
 
     /**
      * Returns a new byte array containing the bytes corresponding to the given characters,
      * encoded in UTF-8. All characters are representable in UTF-8.
      */
-    public static native byte[] toUtf8Bytes(char[] chars, int offset, int length);
+    public static byte[] toUtf8Bytes(char[] chars, int offset, int length) {
+        // RoboVM note: Implemented in Java rather than using JNI. The first
+        // pass computes the exact length so the result is never resized.
+        int end = offset + length;
+        int byteCount = 0;
+        for (int i = offset; i < end; ++i) {
+            char ch = chars[i];
+            if (ch < 0x80) {
+                byteCount++;
+            } else if (ch < 0x800) {
+                byteCount += 2;
+            } else if (Character.isSurrogate(ch)) {
+                if (Character.isHighSurrogate(ch) && i + 1 < end
+                        && Character.isLowSurrogate(chars[i + 1])) {
+                    byteCount += 4;
+                    ++i;
+                } else {
+                    byteCount++;
+                }
+            } else {
+                byteCount += 3;
+            }
+        }
+        if (byteCount == length) {
+            return toBytes(chars, offset, length, 0x7f);
+        }
+
+        byte[] result = new byte[byteCount];
+        int j = 0;
+        for (int i = offset; i < end; ++i) {
+            char ch = chars[i];
+            if (ch < 0x80) {
+                result[j++] = (byte) ch;
+            } else if (ch < 0x800) {
+                result[j++] = (byte) (0xc0 | (ch >> 6));
+                result[j++] = (byte) (0x80 | (ch & 0x3f));
+            } else if (Character.isSurrogate(ch)) {
+                if (Character.isHighSurrogate(ch) && i + 1 < end
+                        && Character.isLowSurrogate(chars[i + 1])) {
+                    int codePoint = Character.toCodePoint(ch, chars[++i]);
+                    result[j++] = (byte) (0xf0 | (codePoint >> 18));
+                    result[j++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    result[j++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    result[j++] = (byte) (0x80 | (codePoint & 0x3f));
+                } else {
+                    result[j++] = (byte) '?';
+                }
+            } else {
+                result[j++] = (byte) (0xe0 | (ch >> 12));
+                result[j++] = (byte) (0x80 | ((ch >> 6) & 0x3f));
+                result[j++] = (byte) (0x80 | (ch & 0x3f));
+            }
+        }
+        return result;
+    }
 
     /**
      * Returns a new byte array containing the bytes corresponding to the given characters,
@@ -76,23 +148,24 @@ public class Charsets {
     }
 
     /**
-     * Decodes the given US-ASCII bytes into the given char[]. Equivalent to but faster than:
-     *
-     * for (int i = 0; i < count; ++i) {
-     *     char ch = (char) (data[start++] & 0xff);
-     *     value[i] = (ch <= 0x7f) ? ch : REPLACEMENT_CHAR;
-     * }
+     * Decodes the given US-ASCII bytes into the given char[]. Bytes above 0x7f
+     * are replaced by U+FFFD.
      */
-    public static native void asciiBytesToChars(byte[] bytes, int offset, int length, char[] chars);
+    public static void asciiBytesToChars(byte[] bytes, int offset, int length, char[] chars) {
+        for (int i = 0; i < length; ++i) {
+            byte b = bytes[offset + i];
+            chars[i] = (b >= 0) ? (char) b : '\ufffd';
+        }
+    }
 
     /**
-     * Decodes the given ISO-8859-1 bytes into the given char[]. Equivalent to but faster than:
-     *
-     * for (int i = 0; i < count; ++i) {
-     *     value[i] = (char) (data[start++] & 0xff);
-     * }
+     * Decodes the given ISO-8859-1 bytes into the given char[].
      */
-    public static native void isoLatin1BytesToChars(byte[] bytes, int offset, int length, char[] chars);
+    public static void isoLatin1BytesToChars(byte[] bytes, int offset, int length, char[] chars) {
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) (bytes[offset + i] & 0xff);
+        }
+    }
 
     private Charsets() {
     }
@@ -19,6 +19,7 @@ package java.util;
 
 import java.io.Serializable;
 import java.lang.reflect.Array;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * {@code Arrays} contains static methods which operate on arrays.
@@ -2038,6 +2039,438 @@ public class Arrays {
         TimSort.sort(array, comparator);
     }
 
+    /**
+     * The minimum array length below which a parallel sorting algorithm
+     * will not further partition the sorting task. Using smaller sizes
+     * typically results in memory contention across tasks that makes
+     * parallel speedups unlikely.
+     */
+    private static final int MIN_ARRAY_SORT_GRAN = 1 << 13;
+
+    /**
+     * Returns the size of the ranges the {@code parallelSort} methods sort
+     * sequentially when sorting {@code n} elements, or 0 if the elements
+     * should be sorted sequentially in the calling thread.
+     */
+    private static int parallelSortGranularity(int n) {
+        int p = ForkJoinPool.getCommonPoolParallelism();
+        if (n <= MIN_ARRAY_SORT_GRAN || p == 1) {
+            return 0;
+        }
+        int g = n / (p << 2);
+        return g <= MIN_ARRAY_SORT_GRAN ? MIN_ARRAY_SORT_GRAN : g;
+    }
+
+    /**
+     * Sorts the specified array in ascending numerical order using a
+     * parallel merge sort on the {@link ForkJoinPool#commonPool() common
+     * pool}. Arrays shorter than the sort granularity, and all arrays if
+     * the common pool has a parallelism of 1, are sorted using
+     * {@link #sort(byte[])}.
+     *
+     * @param array
+     *            the {@code byte} array to be sorted.
+     * @since 1.8
+     */
+    public static void parallelSort(byte[] array) {
+        parallelSort(array, 0, array.length);
+    }
+
+    /**
+     * Sorts the specified range in the array in ascending numerical order
+     * using a parallel merge sort on the {@link ForkJoinPool#commonPool()
+     * common pool}.
+     *
+     * @param array
+     *            the {@code byte} array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static void parallelSort(byte[] array, int start, int end) {
+        Arrays.checkStartAndEnd(array.length, start, end);
+        int n = end - start;
+        int g = parallelSortGranularity(n);
+        if (g == 0) {
+            DualPivotQuicksort.sort(array, start, end);
+        } else {
+            new ArraysParallelSortHelpers.FJByte.Sorter(array, new byte[n], start, n, 0, g).invoke();
+        }
+    }
+
+    /**
+     * Sorts the specified array in ascending numerical order using a
+     * parallel merge sort on the {@link ForkJoinPool#commonPool() common
+     * pool}. Arrays shorter than the sort granularity, and all arrays if
+     * the common pool has a parallelism of 1, are sorted using
+     * {@link #sort(char[])}.
+     *
+     * @param array
+     *            the {@code char} array to be sorted.
+     * @since 1.8
+     */
+    public static void parallelSort(char[] array) {
+        parallelSort(array, 0, array.length);
+    }
+
+    /**
+     * Sorts the specified range in the array in ascending numerical order
+     * using a parallel merge sort on the {@link ForkJoinPool#commonPool()
+     * common pool}.
+     *
+     * @param array
+     *            the {@code char} array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static void parallelSort(char[] array, int start, int end) {
+        Arrays.checkStartAndEnd(array.length, start, end);
+        int n = end - start;
+        int g = parallelSortGranularity(n);
+        if (g == 0) {
+            DualPivotQuicksort.sort(array, start, end);
+        } else {
+            new ArraysParallelSortHelpers.FJChar.Sorter(array, new char[n], start, n, 0, g).invoke();
+        }
+    }
+
+    /**
+     * Sorts the specified array in ascending numerical order using a
+     * parallel merge sort on the {@link ForkJoinPool#commonPool() common
+     * pool}. Arrays shorter than the sort granularity, and all arrays if
+     * the common pool has a parallelism of 1, are sorted using
+     * {@link #sort(short[])}.
+     *
+     * @param array
+     *            the {@code short} array to be sorted.
+     * @since 1.8
+     */
+    public static void parallelSort(short[] array) {
+        parallelSort(array, 0, array.length);
+    }
+
+    /**
+     * Sorts the specified range in the array in ascending numerical order
+     * using a parallel merge sort on the {@link ForkJoinPool#commonPool()
+     * common pool}.
+     *
+     * @param array
+     *            the {@code short} array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static void parallelSort(short[] array, int start, int end) {
+        Arrays.checkStartAndEnd(array.length, start, end);
+        int n = end - start;
+        int g = parallelSortGranularity(n);
+        if (g == 0) {
+            DualPivotQuicksort.sort(array, start, end);
+        } else {
+            new ArraysParallelSortHelpers.FJShort.Sorter(array, new short[n], start, n, 0, g).invoke();
+        }
+    }
+
+    /**
+     * Sorts the specified array in ascending numerical order using a
+     * parallel merge sort on the {@link ForkJoinPool#commonPool() common
+     * pool}. Arrays shorter than the sort granularity, and all arrays if
+     * the common pool has a parallelism of 1, are sorted using
+     * {@link #sort(int[])}.
+     *
+     * @param array
+     *            the {@code int} array to be sorted.
+     * @since 1.8
+     */
+    public static void parallelSort(int[] array) {
+        parallelSort(array, 0, array.length);
+    }
+
+    /**
+     * Sorts the specified range in the array in ascending numerical order
+     * using a parallel merge sort on the {@link ForkJoinPool#commonPool()
+     * common pool}.
+     *
+     * @param array
+     *            the {@code int} array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static void parallelSort(int[] array, int start, int end) {
+        Arrays.checkStartAndEnd(array.length, start, end);
+        int n = end - start;
+        int g = parallelSortGranularity(n);
+        if (g == 0) {
+            DualPivotQuicksort.sort(array, start, end);
+        } else {
+            new ArraysParallelSortHelpers.FJInt.Sorter(array, new int[n], start, n, 0, g).invoke();
+        }
+    }
+
+    /**
+     * Sorts the specified array in ascending numerical order using a
+     * parallel merge sort on the {@link ForkJoinPool#commonPool() common
+     * pool}. Arrays shorter than the sort granularity, and all arrays if
+     * the common pool has a parallelism of 1, are sorted using
+     * {@link #sort(long[])}.
+     *
+     * @param array
+     *            the {@code long} array to be sorted.
+     * @since 1.8
+     */
+    public static void parallelSort(long[] array) {
+        parallelSort(array, 0, array.length);
+    }
+
+    /**
+     * Sorts the specified range in the array in ascending numerical order
+     * using a parallel merge sort on the {@link ForkJoinPool#commonPool()
+     * common pool}.
+     *
+     * @param array
+     *            the {@code long} array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static void parallelSort(long[] array, int start, int end) {
+        Arrays.checkStartAndEnd(array.length, start, end);
+        int n = end - start;
+        int g = parallelSortGranularity(n);
+        if (g == 0) {
+            DualPivotQuicksort.sort(array, start, end);
+        } else {
+            new ArraysParallelSortHelpers.FJLong.Sorter(array, new long[n], start, n, 0, g).invoke();
+        }
+    }
+
+    /**
+     * Sorts the specified array in ascending numerical order using a
+     * parallel merge sort on the {@link ForkJoinPool#commonPool() common
+     * pool}. Arrays shorter than the sort granularity, and all arrays if
+     * the common pool has a parallelism of 1, are sorted using
+     * {@link #sort(float[])}.
+     * The values are sorted according to the order imposed by
+     * {@code Float.compareTo()}.
+     *
+     * @param array
+     *            the {@code float} array to be sorted.
+     * @since 1.8
+     */
+    public static void parallelSort(float[] array) {
+        parallelSort(array, 0, array.length);
+    }
+
+    /**
+     * Sorts the specified range in the array in ascending numerical order
+     * using a parallel merge sort on the {@link ForkJoinPool#commonPool()
+     * common pool}.
+     *
+     * @param array
+     *            the {@code float} array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static void parallelSort(float[] array, int start, int end) {
+        Arrays.checkStartAndEnd(array.length, start, end);
+        int n = end - start;
+        int g = parallelSortGranularity(n);
+        if (g == 0) {
+            DualPivotQuicksort.sort(array, start, end);
+        } else {
+            new ArraysParallelSortHelpers.FJFloat.Sorter(array, new float[n], start, n, 0, g).invoke();
+        }
+    }
+
+    /**
+     * Sorts the specified array in ascending numerical order using a
+     * parallel merge sort on the {@link ForkJoinPool#commonPool() common
+     * pool}. Arrays shorter than the sort granularity, and all arrays if
+     * the common pool has a parallelism of 1, are sorted using
+     * {@link #sort(double[])}.
+     * The values are sorted according to the order imposed by
+     * {@code Double.compareTo()}.
+     *
+     * @param array
+     *            the {@code double} array to be sorted.
+     * @since 1.8
+     */
+    public static void parallelSort(double[] array) {
+        parallelSort(array, 0, array.length);
+    }
+
+    /**
+     * Sorts the specified range in the array in ascending numerical order
+     * using a parallel merge sort on the {@link ForkJoinPool#commonPool()
+     * common pool}.
+     *
+     * @param array
+     *            the {@code double} array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static void parallelSort(double[] array, int start, int end) {
+        Arrays.checkStartAndEnd(array.length, start, end);
+        int n = end - start;
+        int g = parallelSortGranularity(n);
+        if (g == 0) {
+            DualPivotQuicksort.sort(array, start, end);
+        } else {
+            new ArraysParallelSortHelpers.FJDouble.Sorter(array, new double[n], start, n, 0, g).invoke();
+        }
+    }
+
+    /**
+     * Sorts the specified array in ascending natural order using a parallel
+     * merge sort on the {@link ForkJoinPool#commonPool() common pool}. The
+     * sort is stable.
+     *
+     * @param array
+     *            the array to be sorted.
+     * @throws ClassCastException
+     *                if an element in the array does not implement {@code Comparable}
+     *                or if some elements cannot be compared to each other.
+     * @since 1.8
+     */
+    public static <T extends Comparable<? super T>> void parallelSort(T[] array) {
+        parallelSort(array, 0, array.length);
+    }
+
+    /**
+     * Sorts the specified range in the array in ascending natural order
+     * using a parallel merge sort on the {@link ForkJoinPool#commonPool()
+     * common pool}. The sort is stable.
+     *
+     * @param array
+     *            the array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @throws ClassCastException
+     *                if an element in the array does not implement {@code Comparable}
+     *                or some elements cannot be compared to each other.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static <T extends Comparable<? super T>> void parallelSort(T[] array, int start, int end) {
+        parallelSort0(array, start, end, ArraysParallelSortHelpers.NATURAL_ORDER);
+    }
+
+    /**
+     * Sorts the specified array using the specified {@code Comparator} and
+     * a parallel merge sort on the {@link ForkJoinPool#commonPool() common
+     * pool}. The sort is stable.
+     *
+     * @param array
+     *            the array to be sorted.
+     * @param comparator
+     *            the {@code Comparator}, or {@code null} for the natural order.
+     * @throws ClassCastException
+     *                if elements in the array cannot be compared to each other
+     *                using the {@code Comparator}.
+     * @since 1.8
+     */
+    public static <T> void parallelSort(T[] array, Comparator<? super T> comparator) {
+        parallelSort(array, 0, array.length, comparator);
+    }
+
+    /**
+     * Sorts the specified range in the array using the specified
+     * {@code Comparator} and a parallel merge sort on the
+     * {@link ForkJoinPool#commonPool() common pool}. The sort is stable.
+     *
+     * @param array
+     *            the array to be sorted.
+     * @param start
+     *            the start index to sort.
+     * @param end
+     *            the last + 1 index to sort.
+     * @param comparator
+     *            the {@code Comparator}, or {@code null} for the natural order.
+     * @throws ClassCastException
+     *                if elements in the array cannot be compared to each other
+     *                using the {@code Comparator}.
+     * @throws IllegalArgumentException
+     *                if {@code start > end}.
+     * @throws ArrayIndexOutOfBoundsException
+     *                if {@code start < 0} or {@code end > array.length}.
+     * @since 1.8
+     */
+    public static <T> void parallelSort(T[] array, int start, int end,
+            Comparator<? super T> comparator) {
+        parallelSort0(array, start, end,
+                comparator != null ? comparator : ArraysParallelSortHelpers.NATURAL_ORDER);
+    }
+
+    private static <T> void parallelSort0(T[] array, int start, int end,
+            Comparator<? super T> comparator) {
+        Arrays.checkStartAndEnd(array.length, start, end);
+        int n = end - start;
+        int g = parallelSortGranularity(n);
+        if (g == 0) {
+            if (comparator == ArraysParallelSortHelpers.NATURAL_ORDER) {
+                ComparableTimSort.sort(array, start, end);
+            } else {
+                TimSort.sort(array, start, end, comparator);
+            }
+        } else {
+            @SuppressWarnings("unchecked")
+            T[] workspace = (T[]) Array.newInstance(array.getClass().getComponentType(), n);
+            new ArraysParallelSortHelpers.FJObject.Sorter<T>(array, workspace, start, n, 0, g,
+                    comparator).invoke();
+        }
+    }
+
     /**
      * Creates a {@code String} representation of the {@code boolean[]} passed.
      * The result is surrounded by brackets ({@code "[]"}), each
@@ -0,0 +1,1004 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The tasks used by the {@code Arrays.parallelSort} methods. The array is
+ * split into four quarters which are sorted in parallel. The first two and
+ * the last two quarters are then merged into a workspace array of the same
+ * size and the two halves are finally merged back into the array. Merges of
+ * large runs are split by binary searching for a split point in the longer
+ * run so they too run in parallel. Ranges no larger than the granularity are
+ * sorted sequentially using {@link DualPivotQuicksort}, {@link TimSort} or
+ * {@link ComparableTimSort}.
+ *
+ * <p>There is one pair of Sorter and Merger classes per element type. They
+ * only differ in the element type and how elements are compared.
+ */
+/*package*/ final class ArraysParallelSortHelpers {
+
+    private ArraysParallelSortHelpers() {
+    }
+
+    /**
+     * A comparator that implements the natural order of a group of
+     * mutually comparable elements. When passed to {@link FJObject} the
+     * ranges are sorted sequentially using {@link ComparableTimSort}.
+     */
+    static final Comparator<Object> NATURAL_ORDER = new Comparator<Object>() {
+        @SuppressWarnings("unchecked")
+        public int compare(Object first, Object second) {
+            return ((Comparable<Object>) first).compareTo(second);
+        }
+    };
+
+    static final class FJByte {
+        static final class Sorter extends RecursiveAction {
+            final byte[] a, w;
+            final int base, size, wbase, gran;
+
+            Sorter(byte[] a, byte[] w, int base, int size, int wbase, int gran) {
+                this.a = a;
+                this.w = w;
+                this.base = base;
+                this.size = size;
+                this.wbase = wbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                byte[] a = this.a, w = this.w;
+                int b = base, n = size, wb = wbase, g = gran;
+                if (n <= g) {
+                    DualPivotQuicksort.sort(a, b, b + n);
+                    return;
+                }
+                int h = n >>> 1, q = h >>> 1, u = h + q;
+                invokeAll(new Sorter(a, w, b, q, wb, g),
+                        new Sorter(a, w, b + q, h - q, wb + q, g),
+                        new Sorter(a, w, b + h, q, wb + h, g),
+                        new Sorter(a, w, b + u, n - u, wb + u, g));
+                invokeAll(new Merger(a, w, b, q, b + q, h - q, wb, g),
+                        new Merger(a, w, b + h, q, b + u, n - u, wb + h, g));
+                new Merger(w, a, wb, h, wb + h, n - h, b, g).compute();
+            }
+        }
+
+        /**
+         * Merges the sorted runs src[lbase, lbase + lsize) and
+         * src[rbase, rbase + rsize) into dst starting at dbase. Merges of
+         * more than gran elements are split. gran must be at least 2.
+         */
+        static final class Merger extends RecursiveAction {
+            final byte[] src, dst;
+            final int lbase, lsize, rbase, rsize, dbase, gran;
+            Merger next;
+
+            Merger(byte[] src, byte[] dst, int lbase, int lsize, int rbase, int rsize,
+                    int dbase, int gran) {
+                this.src = src;
+                this.dst = dst;
+                this.lbase = lbase;
+                this.lsize = lsize;
+                this.rbase = rbase;
+                this.rsize = rsize;
+                this.dbase = dbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                byte[] a = src, w = dst;
+                int lb = lbase, ln = lsize, rb = rbase, rn = rsize, k = dbase, g = gran;
+                Merger forked = null;
+                while (ln > 0 && rn > 0 && ln + rn > g) {
+                    int lh, rh;
+                    if (ln >= rn) {
+                        lh = ln >>> 1;
+                        byte split = a[lb + lh];
+                        int lo = 0, hi = rn;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[rb + m] < split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        rh = lo;
+                    } else {
+                        rh = rn >>> 1;
+                        byte split = a[rb + rh];
+                        int lo = 0, hi = ln;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[lb + m] <= split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        lh = lo;
+                    }
+                    Merger m = new Merger(a, w, lb + lh, ln - lh, rb + rh, rn - rh,
+                            k + lh + rh, g);
+                    m.next = forked;
+                    forked = m;
+                    m.fork();
+                    ln = lh;
+                    rn = rh;
+                }
+                int lf = lb + ln, rf = rb + rn;
+                while (lb < lf && rb < rf) {
+                    byte al = a[lb], ar = a[rb];
+                    if (al <= ar) {
+                        w[k++] = al;
+                        lb++;
+                    } else {
+                        w[k++] = ar;
+                        rb++;
+                    }
+                }
+                if (lb < lf) {
+                    System.arraycopy(a, lb, w, k, lf - lb);
+                } else if (rb < rf) {
+                    System.arraycopy(a, rb, w, k, rf - rb);
+                }
+                for (; forked != null; forked = forked.next) {
+                    forked.join();
+                }
+            }
+        }
+    }
+
+    static final class FJChar {
+        static final class Sorter extends RecursiveAction {
+            final char[] a, w;
+            final int base, size, wbase, gran;
+
+            Sorter(char[] a, char[] w, int base, int size, int wbase, int gran) {
+                this.a = a;
+                this.w = w;
+                this.base = base;
+                this.size = size;
+                this.wbase = wbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                char[] a = this.a, w = this.w;
+                int b = base, n = size, wb = wbase, g = gran;
+                if (n <= g) {
+                    DualPivotQuicksort.sort(a, b, b + n);
+                    return;
+                }
+                int h = n >>> 1, q = h >>> 1, u = h + q;
+                invokeAll(new Sorter(a, w, b, q, wb, g),
+                        new Sorter(a, w, b + q, h - q, wb + q, g),
+                        new Sorter(a, w, b + h, q, wb + h, g),
+                        new Sorter(a, w, b + u, n - u, wb + u, g));
+                invokeAll(new Merger(a, w, b, q, b + q, h - q, wb, g),
+                        new Merger(a, w, b + h, q, b + u, n - u, wb + h, g));
+                new Merger(w, a, wb, h, wb + h, n - h, b, g).compute();
+            }
+        }
+
+        /**
+         * Merges the sorted runs src[lbase, lbase + lsize) and
+         * src[rbase, rbase + rsize) into dst starting at dbase. Merges of
+         * more than gran elements are split. gran must be at least 2.
+         */
+        static final class Merger extends RecursiveAction {
+            final char[] src, dst;
+            final int lbase, lsize, rbase, rsize, dbase, gran;
+            Merger next;
+
+            Merger(char[] src, char[] dst, int lbase, int lsize, int rbase, int rsize,
+                    int dbase, int gran) {
+                this.src = src;
+                this.dst = dst;
+                this.lbase = lbase;
+                this.lsize = lsize;
+                this.rbase = rbase;
+                this.rsize = rsize;
+                this.dbase = dbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                char[] a = src, w = dst;
+                int lb = lbase, ln = lsize, rb = rbase, rn = rsize, k = dbase, g = gran;
+                Merger forked = null;
+                while (ln > 0 && rn > 0 && ln + rn > g) {
+                    int lh, rh;
+                    if (ln >= rn) {
+                        lh = ln >>> 1;
+                        char split = a[lb + lh];
+                        int lo = 0, hi = rn;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[rb + m] < split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        rh = lo;
+                    } else {
+                        rh = rn >>> 1;
+                        char split = a[rb + rh];
+                        int lo = 0, hi = ln;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[lb + m] <= split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        lh = lo;
+                    }
+                    Merger m = new Merger(a, w, lb + lh, ln - lh, rb + rh, rn - rh,
+                            k + lh + rh, g);
+                    m.next = forked;
+                    forked = m;
+                    m.fork();
+                    ln = lh;
+                    rn = rh;
+                }
+                int lf = lb + ln, rf = rb + rn;
+                while (lb < lf && rb < rf) {
+                    char al = a[lb], ar = a[rb];
+                    if (al <= ar) {
+                        w[k++] = al;
+                        lb++;
+                    } else {
+                        w[k++] = ar;
+                        rb++;
+                    }
+                }
+                if (lb < lf) {
+                    System.arraycopy(a, lb, w, k, lf - lb);
+                } else if (rb < rf) {
+                    System.arraycopy(a, rb, w, k, rf - rb);
+                }
+                for (; forked != null; forked = forked.next) {
+                    forked.join();
+                }
+            }
+        }
+    }
+
+    static final class FJShort {
+        static final class Sorter extends RecursiveAction {
+            final short[] a, w;
+            final int base, size, wbase, gran;
+
+            Sorter(short[] a, short[] w, int base, int size, int wbase, int gran) {
+                this.a = a;
+                this.w = w;
+                this.base = base;
+                this.size = size;
+                this.wbase = wbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                short[] a = this.a, w = this.w;
+                int b = base, n = size, wb = wbase, g = gran;
+                if (n <= g) {
+                    DualPivotQuicksort.sort(a, b, b + n);
+                    return;
+                }
+                int h = n >>> 1, q = h >>> 1, u = h + q;
+                invokeAll(new Sorter(a, w, b, q, wb, g),
+                        new Sorter(a, w, b + q, h - q, wb + q, g),
+                        new Sorter(a, w, b + h, q, wb + h, g),
+                        new Sorter(a, w, b + u, n - u, wb + u, g));
+                invokeAll(new Merger(a, w, b, q, b + q, h - q, wb, g),
+                        new Merger(a, w, b + h, q, b + u, n - u, wb + h, g));
+                new Merger(w, a, wb, h, wb + h, n - h, b, g).compute();
+            }
+        }
+
+        /**
+         * Merges the sorted runs src[lbase, lbase + lsize) and
+         * src[rbase, rbase + rsize) into dst starting at dbase. Merges of
+         * more than gran elements are split. gran must be at least 2.
+         */
+        static final class Merger extends RecursiveAction {
+            final short[] src, dst;
+            final int lbase, lsize, rbase, rsize, dbase, gran;
+            Merger next;
+
+            Merger(short[] src, short[] dst, int lbase, int lsize, int rbase, int rsize,
+                    int dbase, int gran) {
+                this.src = src;
+                this.dst = dst;
+                this.lbase = lbase;
+                this.lsize = lsize;
+                this.rbase = rbase;
+                this.rsize = rsize;
+                this.dbase = dbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                short[] a = src, w = dst;
+                int lb = lbase, ln = lsize, rb = rbase, rn = rsize, k = dbase, g = gran;
+                Merger forked = null;
+                while (ln > 0 && rn > 0 && ln + rn > g) {
+                    int lh, rh;
+                    if (ln >= rn) {
+                        lh = ln >>> 1;
+                        short split = a[lb + lh];
+                        int lo = 0, hi = rn;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[rb + m] < split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        rh = lo;
+                    } else {
+                        rh = rn >>> 1;
+                        short split = a[rb + rh];
+                        int lo = 0, hi = ln;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[lb + m] <= split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        lh = lo;
+                    }
+                    Merger m = new Merger(a, w, lb + lh, ln - lh, rb + rh, rn - rh,
+                            k + lh + rh, g);
+                    m.next = forked;
+                    forked = m;
+                    m.fork();
+                    ln = lh;
+                    rn = rh;
+                }
+                int lf = lb + ln, rf = rb + rn;
+                while (lb < lf && rb < rf) {
+                    short al = a[lb], ar = a[rb];
+                    if (al <= ar) {
+                        w[k++] = al;
+                        lb++;
+                    } else {
+                        w[k++] = ar;
+                        rb++;
+                    }
+                }
+                if (lb < lf) {
+                    System.arraycopy(a, lb, w, k, lf - lb);
+                } else if (rb < rf) {
+                    System.arraycopy(a, rb, w, k, rf - rb);
+                }
+                for (; forked != null; forked = forked.next) {
+                    forked.join();
+                }
+            }
+        }
+    }
+
+    static final class FJInt {
+        static final class Sorter extends RecursiveAction {
+            final int[] a, w;
+            final int base, size, wbase, gran;
+
+            Sorter(int[] a, int[] w, int base, int size, int wbase, int gran) {
+                this.a = a;
+                this.w = w;
+                this.base = base;
+                this.size = size;
+                this.wbase = wbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                int[] a = this.a, w = this.w;
+                int b = base, n = size, wb = wbase, g = gran;
+                if (n <= g) {
+                    DualPivotQuicksort.sort(a, b, b + n);
+                    return;
+                }
+                int h = n >>> 1, q = h >>> 1, u = h + q;
+                invokeAll(new Sorter(a, w, b, q, wb, g),
+                        new Sorter(a, w, b + q, h - q, wb + q, g),
+                        new Sorter(a, w, b + h, q, wb + h, g),
+                        new Sorter(a, w, b + u, n - u, wb + u, g));
+                invokeAll(new Merger(a, w, b, q, b + q, h - q, wb, g),
+                        new Merger(a, w, b + h, q, b + u, n - u, wb + h, g));
+                new Merger(w, a, wb, h, wb + h, n - h, b, g).compute();
+            }
+        }
+
+        /**
+         * Merges the sorted runs src[lbase, lbase + lsize) and
+         * src[rbase, rbase + rsize) into dst starting at dbase. Merges of
+         * more than gran elements are split. gran must be at least 2.
+         */
+        static final class Merger extends RecursiveAction {
+            final int[] src, dst;
+            final int lbase, lsize, rbase, rsize, dbase, gran;
+            Merger next;
+
+            Merger(int[] src, int[] dst, int lbase, int lsize, int rbase, int rsize,
+                    int dbase, int gran) {
+                this.src = src;
+                this.dst = dst;
+                this.lbase = lbase;
+                this.lsize = lsize;
+                this.rbase = rbase;
+                this.rsize = rsize;
+                this.dbase = dbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                int[] a = src, w = dst;
+                int lb = lbase, ln = lsize, rb = rbase, rn = rsize, k = dbase, g = gran;
+                Merger forked = null;
+                while (ln > 0 && rn > 0 && ln + rn > g) {
+                    int lh, rh;
+                    if (ln >= rn) {
+                        lh = ln >>> 1;
+                        int split = a[lb + lh];
+                        int lo = 0, hi = rn;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[rb + m] < split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        rh = lo;
+                    } else {
+                        rh = rn >>> 1;
+                        int split = a[rb + rh];
+                        int lo = 0, hi = ln;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[lb + m] <= split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        lh = lo;
+                    }
+                    Merger m = new Merger(a, w, lb + lh, ln - lh, rb + rh, rn - rh,
+                            k + lh + rh, g);
+                    m.next = forked;
+                    forked = m;
+                    m.fork();
+                    ln = lh;
+                    rn = rh;
+                }
+                int lf = lb + ln, rf = rb + rn;
+                while (lb < lf && rb < rf) {
+                    int al = a[lb], ar = a[rb];
+                    if (al <= ar) {
+                        w[k++] = al;
+                        lb++;
+                    } else {
+                        w[k++] = ar;
+                        rb++;
+                    }
+                }
+                if (lb < lf) {
+                    System.arraycopy(a, lb, w, k, lf - lb);
+                } else if (rb < rf) {
+                    System.arraycopy(a, rb, w, k, rf - rb);
+                }
+                for (; forked != null; forked = forked.next) {
+                    forked.join();
+                }
+            }
+        }
+    }
+
+    static final class FJLong {
+        static final class Sorter extends RecursiveAction {
+            final long[] a, w;
+            final int base, size, wbase, gran;
+
+            Sorter(long[] a, long[] w, int base, int size, int wbase, int gran) {
+                this.a = a;
+                this.w = w;
+                this.base = base;
+                this.size = size;
+                this.wbase = wbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                long[] a = this.a, w = this.w;
+                int b = base, n = size, wb = wbase, g = gran;
+                if (n <= g) {
+                    DualPivotQuicksort.sort(a, b, b + n);
+                    return;
+                }
+                int h = n >>> 1, q = h >>> 1, u = h + q;
+                invokeAll(new Sorter(a, w, b, q, wb, g),
+                        new Sorter(a, w, b + q, h - q, wb + q, g),
+                        new Sorter(a, w, b + h, q, wb + h, g),
+                        new Sorter(a, w, b + u, n - u, wb + u, g));
+                invokeAll(new Merger(a, w, b, q, b + q, h - q, wb, g),
+                        new Merger(a, w, b + h, q, b + u, n - u, wb + h, g));
+                new Merger(w, a, wb, h, wb + h, n - h, b, g).compute();
+            }
+        }
+
+        /**
+         * Merges the sorted runs src[lbase, lbase + lsize) and
+         * src[rbase, rbase + rsize) into dst starting at dbase. Merges of
+         * more than gran elements are split. gran must be at least 2.
+         */
+        static final class Merger extends RecursiveAction {
+            final long[] src, dst;
+            final int lbase, lsize, rbase, rsize, dbase, gran;
+            Merger next;
+
+            Merger(long[] src, long[] dst, int lbase, int lsize, int rbase, int rsize,
+                    int dbase, int gran) {
+                this.src = src;
+                this.dst = dst;
+                this.lbase = lbase;
+                this.lsize = lsize;
+                this.rbase = rbase;
+                this.rsize = rsize;
+                this.dbase = dbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                long[] a = src, w = dst;
+                int lb = lbase, ln = lsize, rb = rbase, rn = rsize, k = dbase, g = gran;
+                Merger forked = null;
+                while (ln > 0 && rn > 0 && ln + rn > g) {
+                    int lh, rh;
+                    if (ln >= rn) {
+                        lh = ln >>> 1;
+                        long split = a[lb + lh];
+                        int lo = 0, hi = rn;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[rb + m] < split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        rh = lo;
+                    } else {
+                        rh = rn >>> 1;
+                        long split = a[rb + rh];
+                        int lo = 0, hi = ln;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (a[lb + m] <= split) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        lh = lo;
+                    }
+                    Merger m = new Merger(a, w, lb + lh, ln - lh, rb + rh, rn - rh,
+                            k + lh + rh, g);
+                    m.next = forked;
+                    forked = m;
+                    m.fork();
+                    ln = lh;
+                    rn = rh;
+                }
+                int lf = lb + ln, rf = rb + rn;
+                while (lb < lf && rb < rf) {
+                    long al = a[lb], ar = a[rb];
+                    if (al <= ar) {
+                        w[k++] = al;
+                        lb++;
+                    } else {
+                        w[k++] = ar;
+                        rb++;
+                    }
+                }
+                if (lb < lf) {
+                    System.arraycopy(a, lb, w, k, lf - lb);
+                } else if (rb < rf) {
+                    System.arraycopy(a, rb, w, k, rf - rb);
+                }
+                for (; forked != null; forked = forked.next) {
+                    forked.join();
+                }
+            }
+        }
+    }
+
+    static final class FJFloat {
+        static final class Sorter extends RecursiveAction {
+            final float[] a, w;
+            final int base, size, wbase, gran;
+
+            Sorter(float[] a, float[] w, int base, int size, int wbase, int gran) {
+                this.a = a;
+                this.w = w;
+                this.base = base;
+                this.size = size;
+                this.wbase = wbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                float[] a = this.a, w = this.w;
+                int b = base, n = size, wb = wbase, g = gran;
+                if (n <= g) {
+                    DualPivotQuicksort.sort(a, b, b + n);
+                    return;
+                }
+                int h = n >>> 1, q = h >>> 1, u = h + q;
+                invokeAll(new Sorter(a, w, b, q, wb, g),
+                        new Sorter(a, w, b + q, h - q, wb + q, g),
+                        new Sorter(a, w, b + h, q, wb + h, g),
+                        new Sorter(a, w, b + u, n - u, wb + u, g));
+                invokeAll(new Merger(a, w, b, q, b + q, h - q, wb, g),
+                        new Merger(a, w, b + h, q, b + u, n - u, wb + h, g));
+                new Merger(w, a, wb, h, wb + h, n - h, b, g).compute();
+            }
+        }
+
+        /**
+         * Merges the sorted runs src[lbase, lbase + lsize) and
+         * src[rbase, rbase + rsize) into dst starting at dbase. Merges of
+         * more than gran elements are split. gran must be at least 2.
+         */
+        static final class Merger extends RecursiveAction {
+            final float[] src, dst;
+            final int lbase, lsize, rbase, rsize, dbase, gran;
+            Merger next;
+
+            Merger(float[] src, float[] dst, int lbase, int lsize, int rbase, int rsize,
+                    int dbase, int gran) {
+                this.src = src;
+                this.dst = dst;
+                this.lbase = lbase;
+                this.lsize = lsize;
+                this.rbase = rbase;
+                this.rsize = rsize;
+                this.dbase = dbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                float[] a = src, w = dst;
+                int lb = lbase, ln = lsize, rb = rbase, rn = rsize, k = dbase, g = gran;
+                Merger forked = null;
+                while (ln > 0 && rn > 0 && ln + rn > g) {
+                    int lh, rh;
+                    if (ln >= rn) {
+                        lh = ln >>> 1;
+                        float split = a[lb + lh];
+                        int lo = 0, hi = rn;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (Float.compare(a[rb + m], split) < 0) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        rh = lo;
+                    } else {
+                        rh = rn >>> 1;
+                        float split = a[rb + rh];
+                        int lo = 0, hi = ln;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (Float.compare(a[lb + m], split) <= 0) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        lh = lo;
+                    }
+                    Merger m = new Merger(a, w, lb + lh, ln - lh, rb + rh, rn - rh,
+                            k + lh + rh, g);
+                    m.next = forked;
+                    forked = m;
+                    m.fork();
+                    ln = lh;
+                    rn = rh;
+                }
+                int lf = lb + ln, rf = rb + rn;
+                while (lb < lf && rb < rf) {
+                    float al = a[lb], ar = a[rb];
+                    if (Float.compare(al, ar) <= 0) {
+                        w[k++] = al;
+                        lb++;
+                    } else {
+                        w[k++] = ar;
+                        rb++;
+                    }
+                }
+                if (lb < lf) {
+                    System.arraycopy(a, lb, w, k, lf - lb);
+                } else if (rb < rf) {
+                    System.arraycopy(a, rb, w, k, rf - rb);
+                }
+                for (; forked != null; forked = forked.next) {
+                    forked.join();
+                }
+            }
+        }
+    }
+
+    static final class FJDouble {
+        static final class Sorter extends RecursiveAction {
+            final double[] a, w;
+            final int base, size, wbase, gran;
+
+            Sorter(double[] a, double[] w, int base, int size, int wbase, int gran) {
+                this.a = a;
+                this.w = w;
+                this.base = base;
+                this.size = size;
+                this.wbase = wbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                double[] a = this.a, w = this.w;
+                int b = base, n = size, wb = wbase, g = gran;
+                if (n <= g) {
+                    DualPivotQuicksort.sort(a, b, b + n);
+                    return;
+                }
+                int h = n >>> 1, q = h >>> 1, u = h + q;
+                invokeAll(new Sorter(a, w, b, q, wb, g),
+                        new Sorter(a, w, b + q, h - q, wb + q, g),
+                        new Sorter(a, w, b + h, q, wb + h, g),
+                        new Sorter(a, w, b + u, n - u, wb + u, g));
+                invokeAll(new Merger(a, w, b, q, b + q, h - q, wb, g),
+                        new Merger(a, w, b + h, q, b + u, n - u, wb + h, g));
+                new Merger(w, a, wb, h, wb + h, n - h, b, g).compute();
+            }
+        }
+
+        /**
+         * Merges the sorted runs src[lbase, lbase + lsize) and
+         * src[rbase, rbase + rsize) into dst starting at dbase. Merges of
+         * more than gran elements are split. gran must be at least 2.
+         */
+        static final class Merger extends RecursiveAction {
+            final double[] src, dst;
+            final int lbase, lsize, rbase, rsize, dbase, gran;
+            Merger next;
+
+            Merger(double[] src, double[] dst, int lbase, int lsize, int rbase, int rsize,
+                    int dbase, int gran) {
+                this.src = src;
+                this.dst = dst;
+                this.lbase = lbase;
+                this.lsize = lsize;
+                this.rbase = rbase;
+                this.rsize = rsize;
+                this.dbase = dbase;
+                this.gran = gran;
+            }
+
+            protected void compute() {
+                double[] a = src, w = dst;
+                int lb = lbase, ln = lsize, rb = rbase, rn = rsize, k = dbase, g = gran;
+                Merger forked = null;
+                while (ln > 0 && rn > 0 && ln + rn > g) {
+                    int lh, rh;
+                    if (ln >= rn) {
+                        lh = ln >>> 1;
+                        double split = a[lb + lh];
+                        int lo = 0, hi = rn;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (Double.compare(a[rb + m], split) < 0) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        rh = lo;
+                    } else {
+                        rh = rn >>> 1;
+                        double split = a[rb + rh];
+                        int lo = 0, hi = ln;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (Double.compare(a[lb + m], split) <= 0) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        lh = lo;
+                    }
+                    Merger m = new Merger(a, w, lb + lh, ln - lh, rb + rh, rn - rh,
+                            k + lh + rh, g);
+                    m.next = forked;
+                    forked = m;
+                    m.fork();
+                    ln = lh;
+                    rn = rh;
+                }
+                int lf = lb + ln, rf = rb + rn;
+                while (lb < lf && rb < rf) {
+                    double al = a[lb], ar = a[rb];
+                    if (Double.compare(al, ar) <= 0) {
+                        w[k++] = al;
+                        lb++;
+                    } else {
+                        w[k++] = ar;
+                        rb++;
+                    }
+                }
+                if (lb < lf) {
+                    System.arraycopy(a, lb, w, k, lf - lb);
+                } else if (rb < rf) {
+                    System.arraycopy(a, rb, w, k, rf - rb);
+                }
+                for (; forked != null; forked = forked.next) {
+                    forked.join();
+                }
+            }
+        }
+    }
+
+    static final class FJObject {
+        static final class Sorter<T> extends RecursiveAction {
+            final T[] a, w;
+            final int base, size, wbase, gran;
+            final Comparator<? super T> c;
+
+            Sorter(T[] a, T[] w, int base, int size, int wbase, int gran, Comparator<? super T> c) {
+                this.a = a;
+                this.w = w;
+                this.base = base;
+                this.size = size;
+                this.wbase = wbase;
+                this.gran = gran;
+                this.c = c;
+            }
+
+            protected void compute() {
+                T[] a = this.a, w = this.w;
+                int b = base, n = size, wb = wbase, g = gran;
+                Comparator<? super T> c = this.c;
+                if (n <= g) {
+                    if (c == NATURAL_ORDER) {
+                        ComparableTimSort.sort(a, b, b + n);
+                    } else {
+                        TimSort.sort(a, b, b + n, c);
+                    }
+                    return;
+                }
+                int h = n >>> 1, q = h >>> 1, u = h + q;
+                invokeAll(new Sorter<T>(a, w, b, q, wb, g, c),
+                        new Sorter<T>(a, w, b + q, h - q, wb + q, g, c),
+                        new Sorter<T>(a, w, b + h, q, wb + h, g, c),
+                        new Sorter<T>(a, w, b + u, n - u, wb + u, g, c));
+                invokeAll(new Merger<T>(a, w, b, q, b + q, h - q, wb, g, c),
+                        new Merger<T>(a, w, b + h, q, b + u, n - u, wb + h, g, c));
+                new Merger<T>(w, a, wb, h, wb + h, n - h, b, g, c).compute();
+            }
+        }
+
+        /**
+         * Merges the sorted runs src[lbase, lbase + lsize) and
+         * src[rbase, rbase + rsize) into dst starting at dbase. Merges of
+         * more than gran elements are split. gran must be at least 2.
+         */
+        static final class Merger<T> extends RecursiveAction {
+            final T[] src, dst;
+            final int lbase, lsize, rbase, rsize, dbase, gran;
+            final Comparator<? super T> c;
+            Merger<T> next;
+
+            Merger(T[] src, T[] dst, int lbase, int lsize, int rbase, int rsize,
+                    int dbase, int gran, Comparator<? super T> c) {
+                this.src = src;
+                this.dst = dst;
+                this.lbase = lbase;
+                this.lsize = lsize;
+                this.rbase = rbase;
+                this.rsize = rsize;
+                this.dbase = dbase;
+                this.gran = gran;
+                this.c = c;
+            }
+
+            protected void compute() {
+                T[] a = src, w = dst;
+                int lb = lbase, ln = lsize, rb = rbase, rn = rsize, k = dbase, g = gran;
+                Comparator<? super T> c = this.c;
+                Merger<T> forked = null;
+                while (ln > 0 && rn > 0 && ln + rn > g) {
+                    int lh, rh;
+                    if (ln >= rn) {
+                        lh = ln >>> 1;
+                        T split = a[lb + lh];
+                        int lo = 0, hi = rn;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (c.compare(a[rb + m], split) < 0) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        rh = lo;
+                    } else {
+                        rh = rn >>> 1;
+                        T split = a[rb + rh];
+                        int lo = 0, hi = ln;
+                        while (lo < hi) {
+                            int m = (lo + hi) >>> 1;
+                            if (c.compare(a[lb + m], split) <= 0) {
+                                lo = m + 1;
+                            } else {
+                                hi = m;
+                            }
+                        }
+                        lh = lo;
+                    }
+                    Merger<T> m = new Merger<T>(a, w, lb + lh, ln - lh, rb + rh, rn - rh,
+                            k + lh + rh, g, c);
+                    m.next = forked;
+                    forked = m;
+                    m.fork();
+                    ln = lh;
+                    rn = rh;
+                }
+                int lf = lb + ln, rf = rb + rn;
+                while (lb < lf && rb < rf) {
+                    T al = a[lb], ar = a[rb];
+                    if (c.compare(al, ar) <= 0) {
+                        w[k++] = al;
+                        lb++;
+                    } else {
+                        w[k++] = ar;
+                        rb++;
+                    }
+                }
+                if (lb < lf) {
+                    System.arraycopy(a, lb, w, k, lf - lb);
+                } else if (rb < rf) {
+                    System.arraycopy(a, rb, w, k, rf - rb);
+                }
+                for (; forked != null; forked = forked.next) {
+                    forked.join();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Targets of calls with constant format strings. The RoboVM compiler rewrites
+ * calls like {@code String.format("%d items", n)} where the format string is
+ * a constant to call the method here with the same name instead. Each format
+ * string is parsed once and kept for the lifetime of the app, unlike
+ * {@link Formatter}'s own cache which only keeps the most recently used
+ * format strings.
+ * <p>
+ * The cache is never pruned. Only the compiler should call these methods so
+ * it only ever holds the constant format strings in the app.
+ *
+ * @hide
+ */
+public final class ConstantFormats {
+    private static final ConcurrentHashMap<String, Formatter.ParsedFormat> formats =
+            new ConcurrentHashMap<String, Formatter.ParsedFormat>();
+
+    private ConstantFormats() {
+    }
+
+    /**
+     * Equivalent to {@link String#format(String, Object...)}.
+     */
+    public static String format(String format, Object... args) {
+        return format(Locale.getDefault(), format, args);
+    }
+
+    /**
+     * Equivalent to {@link String#format(Locale, String, Object...)}.
+     */
+    public static String format(Locale locale, String format, Object... args) {
+        if (format == null) {
+            throw new NullPointerException("null format argument");
+        }
+        Formatter.ParsedFormat parsed = formats.get(format);
+        if (parsed == null) {
+            parsed = new Formatter.ParsedFormat(format);
+            if (parsed.isComplete()) {
+                formats.putIfAbsent(format, parsed);
+            }
+        }
+        int bufferSize = format.length() + (args == null ? 0 : args.length * 10);
+        Formatter f = new Formatter(new StringBuilder(bufferSize), locale);
+        return f.format(locale, parsed, args).toString();
+    }
+}
@@ -33,6 +33,7 @@ import java.nio.charset.Charset;
 import libcore.icu.LocaleData;
 import libcore.icu.NativeDecimalFormat;
 import libcore.io.IoUtils;
+import libcore.util.BasicLruCache;
 
 /**
  * Formats arguments according to a format string (like {@code printf} in C).
@@ -592,6 +593,39 @@ public final class Formatter implements Closeable, Flushable {
         return cachedDecimalFormat.get().update(localeData, pattern);
     }
 
+    /**
+     * The most recently used locale and its data. Almost every call uses the
+     * same locale, and {@link LocaleData#get} has to build the locale's name
+     * and take a lock to look it up.
+     */
+    private static volatile LocaleDataEntry lastLocaleData;
+
+    private static final class LocaleDataEntry {
+        final Locale locale;
+        final LocaleData localeData;
+
+        LocaleDataEntry(Locale locale, LocaleData localeData) {
+            this.locale = locale;
+            this.localeData = localeData;
+        }
+    }
+
+    private static LocaleData getLocaleData(Locale locale) {
+        LocaleDataEntry entry = lastLocaleData;
+        if (entry == null || !entry.locale.equals(locale)) {
+            entry = new LocaleDataEntry(locale, LocaleData.get(locale));
+            lastLocaleData = entry;
+        }
+        return entry.localeData;
+    }
+
+    /**
+     * Recently used format strings. Most format strings are used over and
+     * over again so there's no need to parse them every time.
+     */
+    private static final BasicLruCache<String, ParsedFormat> parsedFormats =
+            new BasicLruCache<String, ParsedFormat>(64);
+
     /**
      * Constructs a {@code Formatter}.
      *
@@ -1033,10 +1067,29 @@ public final class Formatter implements Closeable, Flushable {
      *             if the {@code Formatter} has been closed.
      */
     public Formatter format(Locale l, String format, Object... args) {
+        checkNotClosed();
+        if (format == null) {
+            throw new NullPointerException("format == null");
+        }
+        ParsedFormat parsed = parsedFormats.get(format);
+        if (parsed == null) {
+            parsed = new ParsedFormat(format);
+            if (parsed.isComplete()) {
+                parsedFormats.put(format, parsed);
+            }
+        }
+        return format(l, parsed, args);
+    }
+
+    /**
+     * Like {@link #format(Locale, String, Object...)} but with a format
+     * string which has already been parsed.
+     */
+    Formatter format(Locale l, ParsedFormat format, Object... args) {
         Locale originalLocale = locale;
         try {
             this.locale = (l == null ? Locale.US : l);
-            this.localeData = LocaleData.get(locale);
+            this.localeData = getLocaleData(locale);
             doFormat(format, args);
         } finally {
             this.locale = originalLocale;
@@ -1044,45 +1097,52 @@ public final class Formatter implements Closeable, Flushable {
         return this;
     }
 
-    private void doFormat(String format, Object... args) {
+    private void doFormat(ParsedFormat parsed, Object... args) {
         checkNotClosed();
 
-        FormatSpecifierParser fsp = new FormatSpecifierParser(format);
+        String format = parsed.format;
         int currentObjectIndex = 0;
         Object lastArgument = null;
         boolean hasLastArgumentSet = false;
 
-        int length = format.length();
-        int i = 0;
-        while (i < length) {
-            // Find the maximal plain-text sequence...
-            int plainTextStart = i;
-            int nextPercent = format.indexOf('%', i);
-            int plainTextEnd = (nextPercent == -1) ? length : nextPercent;
-            // ...and output it.
+        int count = parsed.tokens.length;
+        for (int t = 0; t < count; t++) {
+            int plainTextStart = parsed.textStarts[t];
+            int plainTextEnd = parsed.specifierStarts[t] - 1;
             if (plainTextEnd > plainTextStart) {
                 outputCharSequence(format, plainTextStart, plainTextEnd);
             }
-            i = plainTextEnd;
-            // Do we have a format specifier?
-            if (i < length) {
-                FormatToken token = fsp.parseFormatToken(i + 1);
-
-                Object argument = null;
-                if (token.requireArgument()) {
-                    int index = token.getArgIndex() == FormatToken.UNSET ? currentObjectIndex++ : token.getArgIndex();
-                    argument = getArgument(args, index, fsp, lastArgument, hasLastArgumentSet);
-                    lastArgument = argument;
-                    hasLastArgumentSet = true;
-                }
 
-                CharSequence substitution = transform(token, argument);
-                // The substitution is null if we called Formattable.formatTo.
-                if (substitution != null) {
-                    outputCharSequence(substitution, 0, substitution.length());
-                }
-                i = fsp.i;
+            FormatToken token = parsed.tokens[t];
+            if (!token.isShareable()) {
+                // The transform methods modify the token.
+                token = token.copy();
+            }
+
+            Object argument = null;
+            if (token.requireArgument()) {
+                int index = token.getArgIndex() == FormatToken.UNSET ? currentObjectIndex++ : token.getArgIndex();
+                argument = getArgument(args, index, format, parsed.specifierStarts[t],
+                        parsed.textStarts[t + 1], lastArgument, hasLastArgumentSet);
+                lastArgument = argument;
+                hasLastArgumentSet = true;
             }
+
+            CharSequence substitution = transform(token, argument);
+            // The substitution is null if we called Formattable.formatTo.
+            if (substitution != null) {
+                outputCharSequence(substitution, 0, substitution.length());
+            }
+        }
+
+        int plainTextStart = parsed.textStarts[count];
+        int plainTextEnd = parsed.isComplete() ? format.length() : parsed.errorOffset - 1;
+        if (plainTextEnd > plainTextStart) {
+            outputCharSequence(format, plainTextStart, plainTextEnd);
+        }
+        if (!parsed.isComplete()) {
+            // Parse the broken format specifier again to throw a fresh exception.
+            new FormatSpecifierParser(format).parseFormatToken(parsed.errorOffset);
         }
     }
 
@@ -1095,8 +1155,8 @@ public final class Formatter implements Closeable, Flushable {
         }
     }
 
-    private Object getArgument(Object[] args, int index, FormatSpecifierParser fsp,
-            Object lastArgument, boolean hasLastArgumentSet) {
+    private Object getArgument(Object[] args, int index, String format, int specifierStart,
+            int specifierEnd, Object lastArgument, boolean hasLastArgumentSet) {
         if (index == FormatToken.LAST_ARGUMENT_INDEX && !hasLastArgumentSet) {
             throw new MissingFormatArgumentException("<");
         }
@@ -1106,7 +1166,7 @@ public final class Formatter implements Closeable, Flushable {
         }
 
         if (index >= args.length) {
-            throw new MissingFormatArgumentException(fsp.getFormatSpecifierText());
+            throw new MissingFormatArgumentException(format.substring(specifierStart, specifierEnd));
         }
 
         if (index == FormatToken.LAST_ARGUMENT_INDEX) {
@@ -1157,6 +1217,31 @@ public final class Formatter implements Closeable, Flushable {
                     !flagSpace && !flagZero && width == UNSET && precision == UNSET;
         }
 
+        // Tests whether transform() leaves this token alone so that it can be
+        // used by several threads at once.
+        boolean isShareable() {
+            return isDefault() && (conversionType == 's' || conversionType == 'd'
+                    || conversionType == 'x');
+        }
+
+        FormatToken copy() {
+            FormatToken token = new FormatToken();
+            token.argIndex = argIndex;
+            token.flagComma = flagComma;
+            token.flagMinus = flagMinus;
+            token.flagParenthesis = flagParenthesis;
+            token.flagPlus = flagPlus;
+            token.flagSharp = flagSharp;
+            token.flagSpace = flagSpace;
+            token.flagZero = flagZero;
+            token.conversionType = conversionType;
+            token.dateSuffix = dateSuffix;
+            token.precision = precision;
+            token.width = width;
+            token.strFlags = strFlags;
+            return token;
+        }
+
         boolean isPrecisionSet() {
             return precision != UNSET;
         }
@@ -1434,6 +1519,15 @@ public final class Formatter implements Closeable, Flushable {
                     String result = arg.toString();
                     return needLocalizedDigits ? localizeDigits(result) : result;
                 }
+                break;
+            case 'x':
+                // Hex digits are never localized.
+                if (arg instanceof Integer) {
+                    return IntegralToString.intToHexString(((Integer) arg).intValue(), false, 0);
+                } else if (arg instanceof Long) {
+                    return IntegralToString.longToHexString(((Long) arg).longValue());
+                }
+                break;
             }
         }
 
@@ -2256,6 +2350,78 @@ public final class Formatter implements Closeable, Flushable {
         result.delete(indexOfFirstFractionalDigit + precision, indexOfP);
     }
 
+    /**
+     * A format string split into its plain text and format specifiers. If the
+     * format string contains an invalid format specifier only the part before
+     * it is parsed so that formatting outputs the same and throws the same
+     * exception as it would have without parsing ahead. Only complete parsed
+     * formats may be cached since the tokens of shareable format specifiers
+     * are used by several threads at once.
+     */
+    static final class ParsedFormat {
+        final String format;
+        /** The format specifiers. */
+        final FormatToken[] tokens;
+        /**
+         * Index of the character after the '%' of each format specifier.
+         */
+        final int[] specifierStarts;
+        /**
+         * Index of the plain text following each format specifier. The first
+         * element is the index of the plain text before the first format
+         * specifier.
+         */
+        final int[] textStarts;
+        /**
+         * Index of the character after the '%' of the invalid format
+         * specifier or -1.
+         */
+        final int errorOffset;
+
+        ParsedFormat(String format) {
+            this.format = format;
+            ArrayList<FormatToken> tokens = new ArrayList<FormatToken>();
+            int[] specifierStarts = new int[8];
+            int[] textStarts = new int[9];
+            int errorOffset = -1;
+
+            FormatSpecifierParser fsp = new FormatSpecifierParser(format);
+            int length = format.length();
+            int i = 0;
+            while (i < length) {
+                int nextPercent = format.indexOf('%', i);
+                if (nextPercent == -1) {
+                    break;
+                }
+                try {
+                    FormatToken token = fsp.parseFormatToken(nextPercent + 1);
+                    int n = tokens.size();
+                    if (n == specifierStarts.length) {
+                        specifierStarts = Arrays.copyOf(specifierStarts, n * 2);
+                        textStarts = Arrays.copyOf(textStarts, n * 2 + 1);
+                    }
+                    tokens.add(token);
+                    specifierStarts[n] = nextPercent + 1;
+                    textStarts[n + 1] = fsp.i;
+                    i = fsp.i;
+                } catch (IllegalFormatException e) {
+                    errorOffset = nextPercent + 1;
+                    break;
+                }
+            }
+
+            int n = tokens.size();
+            this.tokens = tokens.toArray(new FormatToken[n]);
+            this.specifierStarts = Arrays.copyOf(specifierStarts, n);
+            this.textStarts = Arrays.copyOf(textStarts, n + 1);
+            this.errorOffset = errorOffset;
+        }
+
+        boolean isComplete() {
+            return errorOffset == -1;
+        }
+    }
+
     private static class FormatSpecifierParser {
         private String format;
         private int length;
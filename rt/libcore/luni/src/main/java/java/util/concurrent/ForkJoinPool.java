@@ -0,0 +1,1289 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An {@link ExecutorService} for running {@link ForkJoinTask}s. A
+ * {@code ForkJoinPool} differs from other kinds of {@link ExecutorService}
+ * mainly by virtue of employing <em>work-stealing</em>: every worker thread
+ * has its own double-ended queue of tasks. Tasks forked by a worker are
+ * pushed on and popped from the top of its own queue while idle workers
+ * steal tasks from the bottom of the queues of the other workers. This makes
+ * divide-and-conquer computations efficient since a worker mostly works on
+ * the subtasks it created itself, and large chunks of work (the oldest
+ * tasks) are the ones being stolen.
+ *
+ * <p>A static {@link #commonPool()} is available and appropriate for most
+ * applications. It is used by any {@link ForkJoinTask} that is not
+ * explicitly submitted to a specified pool. Its threads are daemon threads
+ * which terminate when idle and are recreated when needed.
+ *
+ * <p>A worker waiting in {@link ForkJoinTask#join} keeps running other
+ * tasks, so nested joins never tie up threads. Tasks which must block on
+ * something else than other tasks should use {@link #managedBlock} which
+ * lets the pool start a spare thread while the task is blocked.
+ *
+ * <p>The parallelism of the common pool may be set using the system
+ * property {@code java.util.concurrent.ForkJoinPool.common.parallelism}.
+ * It defaults to one less than the number of processors.
+ *
+ * @since 1.7
+ */
+public class ForkJoinPool extends AbstractExecutorService {
+
+    /**
+     * Factory for creating new {@link ForkJoinWorkerThread}s.
+     */
+    public static interface ForkJoinWorkerThreadFactory {
+        /**
+         * Returns a new worker thread operating in the given pool.
+         *
+         * @throws NullPointerException if the pool is null
+         */
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool);
+    }
+
+    /**
+     * Interface for extending managed parallelism for tasks running in
+     * {@link ForkJoinPool}s. See {@link ForkJoinPool#managedBlock}.
+     */
+    public static interface ManagedBlocker {
+        /**
+         * Possibly blocks the current thread, for example waiting for a lock
+         * or condition.
+         *
+         * @return {@code true} if no additional blocking is necessary (i.e.,
+         *     if isReleasable would return true)
+         */
+        boolean block() throws InterruptedException;
+
+        /**
+         * Returns {@code true} if blocking is unnecessary.
+         */
+        boolean isReleasable();
+    }
+
+    static final class DefaultForkJoinWorkerThreadFactory implements ForkJoinWorkerThreadFactory {
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            return new ForkJoinWorkerThread(pool);
+        }
+    }
+
+    /**
+     * Creates a new ForkJoinWorkerThread. This factory is used unless
+     * overridden in ForkJoinPool constructors.
+     */
+    public static final ForkJoinWorkerThreadFactory defaultForkJoinWorkerThreadFactory =
+            new DefaultForkJoinWorkerThreadFactory();
+
+    /**
+     * A double-ended queue of tasks. The owning worker pushes and pops
+     * tasks at the top while other workers poll tasks from the base. The
+     * slots of the circular array are claimed by CAS so only one thread gets
+     * each task. This is the Chase-Lev work-stealing deque as used by the
+     * JSR 166 ForkJoinPool.
+     *
+     * <p>The queue used for submissions from threads which aren't workers
+     * has no owner. Pushes to it are done holding the queue's monitor.
+     */
+    static final class WorkQueue {
+        static final int INITIAL_QUEUE_CAPACITY = 1 << 8;
+        static final int MAXIMUM_QUEUE_CAPACITY = 1 << 26;
+
+        final ForkJoinPool pool;
+        final ForkJoinWorkerThread owner;
+        /** Index in ForkJoinPool.workQueues. */
+        final int poolIndex;
+        volatile ForkJoinTask<?>[] array;
+        /** Index of the next slot to poll. */
+        volatile int base;
+        /** Index of the next slot to push to. Only written by the owner. */
+        volatile int top;
+        /** Number of stolen tasks. Only written by the owner. */
+        int nsteals;
+        /** Random seed used to pick queues to steal from. */
+        int seed;
+        /** Whether the owner is on the idle stack. Guarded by pool.lock. */
+        boolean idle;
+        /**
+         * Whether the owner has been subtracted from the worker count.
+         * Guarded by pool.lock.
+         */
+        boolean released;
+
+        WorkQueue(ForkJoinPool pool, ForkJoinWorkerThread owner, int poolIndex, int seed) {
+            this.pool = pool;
+            this.owner = owner;
+            this.poolIndex = poolIndex;
+            this.seed = seed;
+        }
+
+        final int queueSize() {
+            int n = base - top;
+            return n >= 0 ? 0 : -n;
+        }
+
+        final boolean isEmpty() {
+            return base - top >= 0;
+        }
+
+        /**
+         * Pushes a task. Called only by the owner or, for the submission
+         * queue, while holding the queue's monitor.
+         */
+        final void push0(ForkJoinTask<?> task) {
+            ForkJoinTask<?>[] a = array;
+            int s = top;
+            if (a == null || s - base >= a.length - 1) {
+                a = growArray();
+            }
+            UNSAFE.putOrderedObject(a, slotOffset(a, s), task);
+            top = s + 1;
+        }
+
+        /**
+         * Pushes a task forked by the owner and makes sure an idle worker
+         * gets to know about it.
+         */
+        final void push(ForkJoinTask<?> task) {
+            push0(task);
+            pool.signalWork();
+        }
+
+        /**
+         * Doubles the capacity of the array, moving the queued tasks.
+         * Called only by the owner.
+         */
+        final ForkJoinTask<?>[] growArray() {
+            ForkJoinTask<?>[] oldA = array;
+            int size = oldA != null ? oldA.length << 1 : INITIAL_QUEUE_CAPACITY;
+            if (size > MAXIMUM_QUEUE_CAPACITY) {
+                throw new RejectedExecutionException("Queue capacity exceeded");
+            }
+            ForkJoinTask<?>[] a = new ForkJoinTask<?>[size];
+            if (oldA != null) {
+                for (int b = base, t = top; b != t; b++) {
+                    long oldj = slotOffset(oldA, b);
+                    ForkJoinTask<?> x = (ForkJoinTask<?>) UNSAFE.getObjectVolatile(oldA, oldj);
+                    if (x != null && UNSAFE.compareAndSwapObject(oldA, oldj, x, null)) {
+                        a[b & (size - 1)] = x;
+                    }
+                }
+            }
+            array = a;
+            return a;
+        }
+
+        /**
+         * Takes the most recently pushed task. Called only by the owner.
+         */
+        final ForkJoinTask<?> pop() {
+            ForkJoinTask<?>[] a;
+            int s;
+            while ((a = array) != null && (s = top - 1) - base >= 0) {
+                long j = slotOffset(a, s);
+                ForkJoinTask<?> t = (ForkJoinTask<?>) UNSAFE.getObjectVolatile(a, j);
+                if (t == null) {
+                    // Being stolen by a thread which hasn't updated base yet.
+                    break;
+                }
+                if (UNSAFE.compareAndSwapObject(a, j, t, null)) {
+                    top = s;
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Takes the oldest task. May be called by any thread.
+         */
+        final ForkJoinTask<?> poll() {
+            ForkJoinTask<?>[] a;
+            int b;
+            while ((b = base) - top < 0 && (a = array) != null) {
+                long j = slotOffset(a, b);
+                ForkJoinTask<?> t = (ForkJoinTask<?>) UNSAFE.getObjectVolatile(a, j);
+                if (t != null) {
+                    if (base == b && UNSAFE.compareAndSwapObject(a, j, t, null)) {
+                        base = b + 1;
+                        return t;
+                    }
+                } else if (base == b) {
+                    if (b + 1 == top) {
+                        // Being popped or stolen by another thread.
+                        break;
+                    }
+                    // A stealer has claimed the slot but not yet updated base.
+                    Thread.yield();
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Takes the next task to be run by the owner: the most recently
+         * pushed one or, in async mode, the oldest one.
+         */
+        final ForkJoinTask<?> nextLocalTask() {
+            return pool.asyncMode ? poll() : pop();
+        }
+
+        final ForkJoinTask<?> peek() {
+            ForkJoinTask<?>[] a = array;
+            if (a == null) {
+                return null;
+            }
+            int i = pool.asyncMode ? base : top - 1;
+            return (ForkJoinTask<?>) UNSAFE.getObjectVolatile(a, slotOffset(a, i));
+        }
+
+        /**
+         * Takes {@code task} if it's the most recently pushed task. Called
+         * only by the owner or, for the submission queue, while holding the
+         * queue's monitor.
+         */
+        final boolean tryUnpush(ForkJoinTask<?> task) {
+            ForkJoinTask<?>[] a = array;
+            int s = top - 1;
+            if (a != null && s - base >= 0
+                    && UNSAFE.compareAndSwapObject(a, slotOffset(a, s), task, null)) {
+                top = s;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Runs the tasks in the queue until it's empty.
+         */
+        final void runLocalTasks() {
+            ForkJoinTask<?> t;
+            while ((t = nextLocalTask()) != null) {
+                t.doExec();
+            }
+        }
+
+        /**
+         * Cancels all queued tasks.
+         */
+        final void cancelAll() {
+            ForkJoinTask<?> t;
+            while ((t = poll()) != null) {
+                t.cancel(false);
+            }
+        }
+
+        final int nextSeed() {
+            // Xorshift
+            int r = seed;
+            r ^= r << 13;
+            r ^= r >>> 17;
+            r ^= r << 5;
+            return seed = r;
+        }
+
+        private static long slotOffset(ForkJoinTask<?>[] a, int i) {
+            return ((long) (i & (a.length - 1)) << ASHIFT) + ABASE;
+        }
+    }
+
+    /** How long an idle worker waits for work before terminating. */
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** How long a joining worker waits before looking for work again. */
+    private static final long JOIN_TIMEOUT_MILLIS = 1;
+
+    private static final int RUNNING    = 0;
+    private static final int SHUTDOWN   = 1;
+    private static final int STOP       = 2;
+    private static final int TERMINATED = 3;
+
+    private static final int MAX_CAP = 0x7fff;
+
+    private static int poolNumberSequence;
+
+    /**
+     * The common pool. Its run state is never changed by shutdown().
+     */
+    static final ForkJoinPool common;
+
+    private static final RuntimePermission modifyThreadPermission =
+            new RuntimePermission("modifyThread");
+
+    final int parallelism;
+    final boolean asyncMode;
+    private final ForkJoinWorkerThreadFactory factory;
+    private final Thread.UncaughtExceptionHandler ueh;
+    private final String workerNamePrefix;
+
+    /**
+     * Guards worker registration, the idle stack and the run state
+     * transitions. Never held while running tasks.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * The submission queue at index 0 followed by the queues of the
+     * workers. Replaced by a copy when workers are added or removed. Slots
+     * of terminated workers are null.
+     */
+    private volatile WorkQueue[] workQueues;
+    private final WorkQueue submissionQueue;
+
+    /** Number of live workers, including ones being started. */
+    private volatile int workerCount;
+    /** Number of workers currently blocked in managedBlock(). */
+    private volatile int blockedCount;
+    /** Number of workers on the idle stack. */
+    volatile int idleCount;
+    /** Workers waiting for work. Guarded by lock. */
+    private WorkQueue[] idleStack;
+
+    private volatile int runState;
+    /** Steals by terminated workers. Guarded by lock. */
+    private long stealCount;
+    private int nextWorkerNumber;
+
+    /**
+     * Creates a {@code ForkJoinPool} with parallelism equal to the number
+     * of available processors, using the default thread factory, no
+     * UncaughtExceptionHandler, and non-async LIFO processing mode.
+     */
+    public ForkJoinPool() {
+        this(Runtime.getRuntime().availableProcessors(),
+                defaultForkJoinWorkerThreadFactory, null, false);
+    }
+
+    /**
+     * Creates a {@code ForkJoinPool} with the indicated parallelism level,
+     * the default thread factory, no UncaughtExceptionHandler, and non-async
+     * LIFO processing mode.
+     *
+     * @throws IllegalArgumentException if parallelism less than or equal to
+     *     zero, or greater than the implementation limit
+     */
+    public ForkJoinPool(int parallelism) {
+        this(parallelism, defaultForkJoinWorkerThreadFactory, null, false);
+    }
+
+    /**
+     * Creates a {@code ForkJoinPool} with the given parameters.
+     *
+     * @param parallelism the parallelism level, i.e. the number of threads
+     *     actively running tasks
+     * @param factory the factory for creating new threads
+     * @param handler the handler for internal worker threads that terminate
+     *     due to unrecoverable errors, or {@code null} for none
+     * @param asyncMode if {@code true}, establishes local first-in-first-out
+     *     scheduling mode for forked tasks that are never joined. This mode
+     *     may be more appropriate than the default stack-based mode in
+     *     applications in which worker threads only process event-style
+     *     asynchronous tasks.
+     * @throws IllegalArgumentException if parallelism less than or equal to
+     *     zero, or greater than the implementation limit
+     * @throws NullPointerException if the factory is null
+     */
+    public ForkJoinPool(int parallelism, ForkJoinWorkerThreadFactory factory,
+            Thread.UncaughtExceptionHandler handler, boolean asyncMode) {
+        this(checkParallelism(parallelism), checkFactory(factory), handler, asyncMode,
+                "ForkJoinPool-" + nextPoolNumber() + "-worker-");
+        checkPermission();
+    }
+
+    private ForkJoinPool(int parallelism, ForkJoinWorkerThreadFactory factory,
+            Thread.UncaughtExceptionHandler handler, boolean asyncMode, String workerNamePrefix) {
+        this.parallelism = parallelism;
+        this.factory = factory;
+        this.ueh = handler;
+        this.asyncMode = asyncMode;
+        this.workerNamePrefix = workerNamePrefix;
+        this.submissionQueue = new WorkQueue(this, null, 0, 0);
+        this.workQueues = new WorkQueue[] { submissionQueue };
+        this.idleStack = new WorkQueue[parallelism];
+    }
+
+    private static int checkParallelism(int parallelism) {
+        if (parallelism <= 0 || parallelism > MAX_CAP) {
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        }
+        return parallelism;
+    }
+
+    private static ForkJoinWorkerThreadFactory checkFactory(ForkJoinWorkerThreadFactory factory) {
+        if (factory == null) {
+            throw new NullPointerException();
+        }
+        return factory;
+    }
+
+    private static synchronized int nextPoolNumber() {
+        return ++poolNumberSequence;
+    }
+
+    private static void checkPermission() {
+        SecurityManager security = System.getSecurityManager();
+        if (security != null) {
+            security.checkPermission(modifyThreadPermission);
+        }
+    }
+
+    /**
+     * Returns the common pool instance. Its run state is unaffected by
+     * attempts to {@link #shutdown} or {@link #shutdownNow}.
+     *
+     * @since 1.8
+     */
+    public static ForkJoinPool commonPool() {
+        return common;
+    }
+
+    /**
+     * Returns the targeted parallelism level of the common pool.
+     *
+     * @since 1.8
+     */
+    public static int getCommonPoolParallelism() {
+        return common.parallelism;
+    }
+
+    // Worker management
+
+    final String nextWorkerThreadName() {
+        synchronized (lock) {
+            return workerNamePrefix + (++nextWorkerNumber);
+        }
+    }
+
+    /**
+     * Adds the work queue of a new worker to workQueues. Called from the
+     * ForkJoinWorkerThread constructor.
+     */
+    final WorkQueue registerWorker(ForkJoinWorkerThread wt) {
+        wt.setDaemon(true);
+        if (ueh != null) {
+            wt.setUncaughtExceptionHandler(ueh);
+        }
+        synchronized (lock) {
+            WorkQueue[] ws = workQueues;
+            int i = 1;
+            while (i < ws.length && ws[i] != null) {
+                i++;
+            }
+            WorkQueue w = new WorkQueue(this, wt, i, System.identityHashCode(wt) | 1);
+            ws = Arrays.copyOf(ws, Math.max(ws.length, i + 1));
+            ws[i] = w;
+            workQueues = ws;
+            return w;
+        }
+    }
+
+    /**
+     * Removes a terminating worker and cancels any tasks left in its queue.
+     */
+    final void deregisterWorker(ForkJoinWorkerThread wt, Throwable ex) {
+        WorkQueue w = wt.workQueue;
+        synchronized (lock) {
+            removeIdle(w);
+            if (!w.released) {
+                w.released = true;
+                workerCount--;
+            }
+            WorkQueue[] ws = workQueues.clone();
+            if (w.poolIndex < ws.length && ws[w.poolIndex] == w) {
+                ws[w.poolIndex] = null;
+            }
+            workQueues = ws;
+            stealCount += w.nsteals;
+        }
+        if (!w.isEmpty()) {
+            if (runState >= STOP) {
+                w.cancelAll();
+            } else {
+                // Let another worker take over the tasks.
+                WorkQueue q = submissionQueue;
+                ForkJoinTask<?> t;
+                while ((t = w.poll()) != null) {
+                    synchronized (q) {
+                        q.push0(t);
+                    }
+                }
+                signalWork();
+            }
+        }
+        tryTerminate();
+    }
+
+    /**
+     * Starts a new worker unless there already are enough workers.
+     */
+    private void tryAddWorker() {
+        synchronized (lock) {
+            if (runState >= STOP || workerCount >= parallelism + blockedCount) {
+                return;
+            }
+            workerCount++;
+        }
+        Throwable ex = null;
+        try {
+            ForkJoinWorkerThread wt = factory.newThread(this);
+            if (wt != null) {
+                wt.start();
+                return;
+            }
+        } catch (Throwable e) {
+            ex = e;
+        }
+        synchronized (lock) {
+            workerCount--;
+        }
+        tryTerminate();
+        if (ex != null) {
+            ForkJoinTask.rethrow(ex);
+        }
+    }
+
+    /**
+     * Wakes up an idle worker or starts a new one if there are fewer
+     * workers than the parallelism level. Called after pushing a task.
+     */
+    final void signalWork() {
+        if (idleCount > 0) {
+            WorkQueue w = null;
+            synchronized (lock) {
+                int n = idleCount;
+                if (n > 0) {
+                    w = idleStack[--n];
+                    idleStack[n] = null;
+                    w.idle = false;
+                    idleCount = n;
+                }
+            }
+            if (w != null) {
+                LockSupport.unpark(w.owner);
+                return;
+            }
+        }
+        if (workerCount < parallelism + blockedCount) {
+            tryAddWorker();
+        }
+    }
+
+    private void removeIdle(WorkQueue w) {
+        if (w.idle) {
+            int n = idleCount;
+            for (int i = 0; i < n; i++) {
+                if (idleStack[i] == w) {
+                    System.arraycopy(idleStack, i + 1, idleStack, i, n - i - 1);
+                    idleStack[--n] = null;
+                    break;
+                }
+            }
+            w.idle = false;
+            idleCount = n;
+        }
+    }
+
+    /**
+     * Returns {@code true} if any queue has tasks.
+     */
+    private boolean hasQueuedTasks() {
+        for (WorkQueue q : workQueues) {
+            if (q != null && !q.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Top-level loop of a worker. Returns when the worker should terminate.
+     */
+    final void runWorker(WorkQueue w) {
+        do {
+            ForkJoinTask<?> t;
+            while ((t = scan(w)) != null) {
+                t.doExec();
+                w.runLocalTasks();
+            }
+        } while (awaitWork(w));
+    }
+
+    /**
+     * Tries to steal a task from the other queues, starting at a random
+     * one. Returns {@code null} if all queues looked empty.
+     */
+    final ForkJoinTask<?> scan(WorkQueue w) {
+        WorkQueue[] ws = workQueues;
+        int n = ws.length;
+        int r = w.nextSeed() >>> 1;
+        for (int i = 0; i < n; i++) {
+            WorkQueue q = ws[(r + i) % n];
+            if (q != null && q != w) {
+                ForkJoinTask<?> t = q.poll();
+                if (t != null) {
+                    w.nsteals++;
+                    if (!q.isEmpty()) {
+                        // Let another worker steal the rest.
+                        signalWork();
+                    }
+                    return t;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parks an idle worker until it's signalled. Returns {@code false} if
+     * the worker should terminate, because the pool is shutting down or
+     * because it was idle for too long.
+     */
+    private boolean awaitWork(WorkQueue w) {
+        synchronized (lock) {
+            if (runState >= STOP || (runState == SHUTDOWN && !hasQueuedTasks())) {
+                return release(w);
+            }
+            if (idleCount == idleStack.length) {
+                idleStack = Arrays.copyOf(idleStack, idleCount * 2);
+            }
+            idleStack[idleCount] = w;
+            w.idle = true;
+            idleCount++;
+        }
+        // A task pushed before idleCount was incremented may not have
+        // signalled any worker.
+        if (hasQueuedTasks()) {
+            synchronized (lock) {
+                removeIdle(w);
+            }
+            return true;
+        }
+        long deadline = System.nanoTime() + IDLE_TIMEOUT_NANOS;
+        for (;;) {
+            LockSupport.parkNanos(this, deadline - System.nanoTime());
+            Thread.interrupted();
+            synchronized (lock) {
+                if (!w.idle) {
+                    return true;
+                }
+                if (runState >= STOP || (runState == SHUTDOWN && !hasQueuedTasks())) {
+                    removeIdle(w);
+                    return release(w);
+                }
+                if (deadline - System.nanoTime() <= 0) {
+                    removeIdle(w);
+                    release(w);
+                    // Same as above. A task pushed before the worker count
+                    // was decremented may have found enough workers.
+                    if (hasQueuedTasks() && runState < STOP) {
+                        w.released = false;
+                        workerCount++;
+                        return true;
+                    }
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Subtracts a worker about to terminate from the worker count. Must be
+     * called holding lock. Always returns {@code false}.
+     */
+    private boolean release(WorkQueue w) {
+        if (!w.released) {
+            w.released = true;
+            workerCount--;
+        }
+        return false;
+    }
+
+    /**
+     * Helps with other tasks until {@code task} is done or the deadline (as
+     * given by {@link System#nanoTime()}, 0 meaning none) has passed.
+     * Called by the worker owning {@code w}. Returns the task's status.
+     */
+    final int awaitJoin(WorkQueue w, ForkJoinTask<?> task, long deadline) {
+        int s;
+        while ((s = task.status) >= 0) {
+            ForkJoinTask<?> t = w.nextLocalTask();
+            if (t == null) {
+                t = scan(w);
+            }
+            if (t != null) {
+                t.doExec();
+            } else {
+                if (deadline != 0L && deadline - System.nanoTime() <= 0) {
+                    break;
+                }
+                // The task has been stolen and no other work is available.
+                // Wait a while and look again since stolen subtasks of the
+                // task may become available.
+                task.internalWait(JOIN_TIMEOUT_MILLIS);
+            }
+        }
+        return task.status;
+    }
+
+    /**
+     * Runs tasks until all queues are empty and no other worker is active
+     * or the deadline (0 meaning none) has passed. Returns {@code true} if
+     * the pool became quiescent.
+     */
+    final boolean helpQuiescePool(WorkQueue w, long deadline) {
+        for (;;) {
+            ForkJoinTask<?> t = w.nextLocalTask();
+            if (t == null) {
+                t = scan(w);
+            }
+            if (t != null) {
+                t.doExec();
+            } else if (getActiveThreadCount() <= 1 && !hasQueuedTasks()) {
+                return true;
+            } else if (deadline != 0L && deadline - System.nanoTime() <= 0) {
+                return false;
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    // Submissions
+
+    /**
+     * Pushes a task submitted by a thread which isn't a worker of this pool.
+     */
+    final void externalPush(ForkJoinTask<?> task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        WorkQueue q = submissionQueue;
+        synchronized (q) {
+            if (runState != RUNNING) {
+                throw new RejectedExecutionException();
+            }
+            q.push0(task);
+        }
+        signalWork();
+    }
+
+    final boolean tryExternalUnpush(ForkJoinTask<?> task) {
+        WorkQueue q = submissionQueue;
+        synchronized (q) {
+            return q.tryUnpush(task);
+        }
+    }
+
+    /**
+     * Submits a task. Tasks submitted from a worker of this pool are pushed
+     * on the worker's own queue.
+     */
+    private void doSubmit(ForkJoinTask<?> task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).pool == this
+                && runState == RUNNING) {
+            ((ForkJoinWorkerThread) t).workQueue.push(task);
+        } else {
+            externalPush(task);
+        }
+    }
+
+    /**
+     * Performs the given task, returning its result upon completion.
+     *
+     * @throws NullPointerException if the task is null
+     * @throws RejectedExecutionException if the task cannot be scheduled
+     *     for execution
+     */
+    public <T> T invoke(ForkJoinTask<T> task) {
+        doSubmit(task);
+        return task.join();
+    }
+
+    /**
+     * Arranges for (asynchronous) execution of the given task.
+     *
+     * @throws NullPointerException if the task is null
+     * @throws RejectedExecutionException if the task cannot be scheduled
+     *     for execution
+     */
+    public void execute(ForkJoinTask<?> task) {
+        doSubmit(task);
+    }
+
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        ForkJoinTask<?> job;
+        if (task instanceof ForkJoinTask<?>) {
+            job = (ForkJoinTask<?>) task;
+        } else {
+            job = new ForkJoinTask.AdaptedRunnableAction(task);
+        }
+        doSubmit(job);
+    }
+
+    /**
+     * Submits a ForkJoinTask for execution.
+     *
+     * @return the task
+     * @throws NullPointerException if the task is null
+     * @throws RejectedExecutionException if the task cannot be scheduled
+     *     for execution
+     */
+    public <T> ForkJoinTask<T> submit(ForkJoinTask<T> task) {
+        doSubmit(task);
+        return task;
+    }
+
+    public <T> ForkJoinTask<T> submit(Callable<T> task) {
+        ForkJoinTask<T> job = new ForkJoinTask.AdaptedCallable<T>(task);
+        doSubmit(job);
+        return job;
+    }
+
+    public <T> ForkJoinTask<T> submit(Runnable task, T result) {
+        ForkJoinTask<T> job = new ForkJoinTask.AdaptedRunnable<T>(task, result);
+        doSubmit(job);
+        return job;
+    }
+
+    public ForkJoinTask<?> submit(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        ForkJoinTask<?> job;
+        if (task instanceof ForkJoinTask<?>) {
+            job = (ForkJoinTask<?>) task;
+        } else {
+            job = new ForkJoinTask.AdaptedRunnableAction(task);
+        }
+        doSubmit(job);
+        return job;
+    }
+
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        boolean done = false;
+        try {
+            for (Callable<T> t : tasks) {
+                ForkJoinTask<T> f = new ForkJoinTask.AdaptedCallable<T>(t);
+                futures.add(f);
+                doSubmit(f);
+            }
+            for (Future<T> f : futures) {
+                ((ForkJoinTask<?>) f).quietlyJoin();
+            }
+            done = true;
+            return futures;
+        } finally {
+            if (!done) {
+                for (Future<T> f : futures) {
+                    f.cancel(false);
+                }
+            }
+        }
+    }
+
+    // Status and statistics
+
+    /**
+     * Returns the factory used for constructing new workers.
+     */
+    public ForkJoinWorkerThreadFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Returns the handler for internal worker threads that terminate due to
+     * unrecoverable errors encountered while executing tasks.
+     */
+    public Thread.UncaughtExceptionHandler getUncaughtExceptionHandler() {
+        return ueh;
+    }
+
+    /**
+     * Returns the targeted parallelism level of this pool.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the number of worker threads that have started but not yet
+     * terminated.
+     */
+    public int getPoolSize() {
+        return workerCount;
+    }
+
+    /**
+     * Returns {@code true} if this pool uses local first-in-first-out
+     * scheduling mode for forked tasks that are never joined.
+     */
+    public boolean getAsyncMode() {
+        return asyncMode;
+    }
+
+    /**
+     * Returns an estimate of the number of worker threads that are not
+     * blocked waiting to join tasks or for other managed synchronization.
+     */
+    public int getRunningThreadCount() {
+        return Math.max(0, getActiveThreadCount() - blockedCount);
+    }
+
+    /**
+     * Returns an estimate of the number of threads that are currently
+     * stealing or executing tasks.
+     */
+    public int getActiveThreadCount() {
+        return Math.max(0, workerCount - idleCount);
+    }
+
+    /**
+     * Returns {@code true} if all worker threads are currently idle.
+     */
+    public boolean isQuiescent() {
+        return getActiveThreadCount() == 0 && !hasQueuedTasks();
+    }
+
+    /**
+     * Returns an estimate of the total number of tasks stolen from one
+     * thread's work queue by another.
+     */
+    public long getStealCount() {
+        long count;
+        synchronized (lock) {
+            count = stealCount;
+        }
+        for (WorkQueue q : workQueues) {
+            if (q != null) {
+                count += q.nsteals;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns an estimate of the total number of tasks currently held in
+     * queues by worker threads.
+     */
+    public long getQueuedTaskCount() {
+        long count = 0;
+        WorkQueue[] ws = workQueues;
+        for (int i = 1; i < ws.length; i++) {
+            if (ws[i] != null) {
+                count += ws[i].queueSize();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns an estimate of the number of tasks submitted to this pool
+     * that have not yet begun executing.
+     */
+    public int getQueuedSubmissionCount() {
+        return submissionQueue.queueSize();
+    }
+
+    /**
+     * Returns {@code true} if there are any tasks submitted to this pool
+     * that have not yet begun executing.
+     */
+    public boolean hasQueuedSubmissions() {
+        return !submissionQueue.isEmpty();
+    }
+
+    /**
+     * Removes and returns the next unexecuted submission if one is
+     * available.
+     */
+    protected ForkJoinTask<?> pollSubmission() {
+        return submissionQueue.poll();
+    }
+
+    /**
+     * Removes all available unexecuted submitted and forked tasks from
+     * scheduling queues and adds them to the given collection.
+     *
+     * @return the number of elements transferred
+     */
+    protected int drainTasksTo(Collection<? super ForkJoinTask<?>> c) {
+        int count = 0;
+        for (WorkQueue q : workQueues) {
+            if (q != null) {
+                ForkJoinTask<?> t;
+                while ((t = q.poll()) != null) {
+                    c.add(t);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public String toString() {
+        String level;
+        switch (runState) {
+        case RUNNING:
+            level = "Running";
+            break;
+        case TERMINATED:
+            level = "Terminated";
+            break;
+        default:
+            level = "Shutting down";
+            break;
+        }
+        return super.toString() + "[" + level + ", parallelism = " + parallelism
+                + ", size = " + getPoolSize() + ", active = " + getActiveThreadCount()
+                + ", running = " + getRunningThreadCount() + ", steals = " + getStealCount()
+                + ", tasks = " + getQueuedTaskCount()
+                + ", submissions = " + getQueuedSubmissionCount() + "]";
+    }
+
+    // Termination
+
+    /**
+     * Initiates an orderly shutdown in which previously submitted tasks are
+     * executed, but no new tasks will be accepted. Has no effect on the
+     * {@link #commonPool()}.
+     */
+    public void shutdown() {
+        checkPermission();
+        if (this != common) {
+            advanceRunState(SHUTDOWN);
+        }
+    }
+
+    /**
+     * Attempts to cancel all queued tasks and reject all subsequently
+     * submitted tasks. Running tasks are interrupted. Has no effect on the
+     * {@link #commonPool()}.
+     *
+     * @return an empty list
+     */
+    public List<Runnable> shutdownNow() {
+        checkPermission();
+        if (this != common) {
+            advanceRunState(STOP);
+            for (WorkQueue q : workQueues) {
+                if (q != null) {
+                    q.cancelAll();
+                    if (q.owner != null) {
+                        q.owner.interrupt();
+                    }
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private void advanceRunState(int state) {
+        WorkQueue[] idle;
+        synchronized (lock) {
+            if (runState >= state) {
+                return;
+            }
+            synchronized (submissionQueue) {
+                runState = state;
+            }
+            idle = Arrays.copyOf(idleStack, idleCount);
+        }
+        // Idle workers terminate once there's nothing left to do.
+        for (WorkQueue w : idle) {
+            LockSupport.unpark(w.owner);
+        }
+        tryTerminate();
+    }
+
+    private void tryTerminate() {
+        synchronized (lock) {
+            if (runState == SHUTDOWN && workerCount == 0 && !hasQueuedTasks()
+                    || runState == STOP && workerCount == 0) {
+                runState = TERMINATED;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if all tasks have completed following shut down.
+     */
+    public boolean isTerminated() {
+        return runState == TERMINATED;
+    }
+
+    /**
+     * Returns {@code true} if the process of termination has commenced but
+     * not yet completed.
+     */
+    public boolean isTerminating() {
+        int s = runState;
+        return s != RUNNING && s != TERMINATED;
+    }
+
+    /**
+     * Returns {@code true} if this pool has been shut down.
+     */
+    public boolean isShutdown() {
+        return runState != RUNNING;
+    }
+
+    /**
+     * Blocks until all tasks have completed execution after a shutdown
+     * request, or the timeout occurs, or the current thread is interrupted,
+     * whichever happens first. Because the {@link #commonPool()} never
+     * terminates until program shutdown, when applied to the common pool,
+     * this method is equivalent to {@link #awaitQuiescence} but always
+     * returns {@code false}.
+     *
+     * @return {@code true} if this executor terminated and {@code false} if
+     *     the timeout elapsed before termination
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (this == common) {
+            awaitQuiescence(timeout, unit);
+            return false;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (runState != TERMINATED) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, nanos);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * If called by a ForkJoinTask operating in this pool, equivalent in
+     * effect to {@link ForkJoinTask#helpQuiesce}. Otherwise, waits until the
+     * pool {@link #isQuiescent} or the timeout elapses.
+     *
+     * @return {@code true} if quiescent; {@code false} if the timeout
+     *     elapsed.
+     * @since 1.8
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (deadline == 0L) {
+            deadline = 1L;
+        }
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) t).pool == this) {
+            return helpQuiescePool(((ForkJoinWorkerThread) t).workQueue, deadline);
+        }
+        while (!isQuiescent()) {
+            if (deadline - System.nanoTime() <= 0) {
+                return false;
+            }
+            Thread.yield();
+        }
+        return true;
+    }
+
+    /**
+     * Blocks in accord with the given blocker. If the current thread is a
+     * {@link ForkJoinWorkerThread}, the pool may start a spare thread to
+     * keep the parallelism level while the current thread is blocked.
+     *
+     * <p>This method repeatedly calls {@code blocker.isReleasable()} and
+     * {@code blocker.block()} until either method returns {@code true}.
+     *
+     * @throws InterruptedException if blocker.block did so
+     */
+    public static void managedBlock(ManagedBlocker blocker) throws InterruptedException {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread && !blocker.isReleasable()) {
+            ForkJoinPool p = ((ForkJoinWorkerThread) t).pool;
+            p.adjustBlockedCount(1);
+            try {
+                do {
+                } while (!blocker.isReleasable() && !blocker.block());
+            } finally {
+                p.adjustBlockedCount(-1);
+            }
+        } else {
+            do {
+            } while (!blocker.isReleasable() && !blocker.block());
+        }
+    }
+
+    private void adjustBlockedCount(int delta) {
+        synchronized (lock) {
+            blockedCount += delta;
+        }
+        if (delta > 0 && hasQueuedTasks()) {
+            signalWork();
+        }
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new ForkJoinTask.AdaptedRunnable<T>(runnable, value);
+    }
+
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new ForkJoinTask.AdaptedCallable<T>(callable);
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe UNSAFE = sun.misc.Unsafe.getUnsafe();
+    private static final int ABASE;
+    private static final int ASHIFT;
+
+    static {
+        ABASE = UNSAFE.arrayBaseOffset(ForkJoinTask[].class);
+        int scale = UNSAFE.arrayIndexScale(ForkJoinTask[].class);
+        if ((scale & (scale - 1)) != 0) {
+            throw new Error("data type scale not a power of two");
+        }
+        ASHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+
+        int parallelism = Runtime.getRuntime().availableProcessors() - 1;
+        try {
+            String p = System.getProperty("java.util.concurrent.ForkJoinPool.common.parallelism");
+            if (p != null) {
+                parallelism = Integer.parseInt(p);
+            }
+        } catch (Exception ignored) {
+        }
+        parallelism = Math.min(MAX_CAP, Math.max(1, parallelism));
+        common = new ForkJoinPool(parallelism, defaultForkJoinWorkerThreadFactory, null, false,
+                "ForkJoinPool.commonPool-worker-");
+    }
+}
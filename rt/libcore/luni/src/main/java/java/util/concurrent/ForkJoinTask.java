@@ -0,0 +1,791 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.concurrent;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Abstract base class for tasks that run within a {@link ForkJoinPool}.
+ * A {@code ForkJoinTask} is a thread-like entity that is much lighter
+ * weight than a normal thread. Huge numbers of tasks and subtasks may be
+ * hosted by a small number of actual threads in a ForkJoinPool.
+ *
+ * <p>A task normally splits its work by calling {@link #fork} on subtasks,
+ * which pushes them on the work queue of the current worker where idle
+ * workers may steal them, and {@link #join} to wait for their results.
+ * A worker waiting in {@link #join} doesn't block: it runs its own queued
+ * tasks and steals tasks from other workers until the joined task is done.
+ * Tasks should therefore be small, purely computational and avoid
+ * blocking; see {@link ForkJoinPool.ManagedBlocker} for tasks that must
+ * block.
+ *
+ * <p>Calling {@link #fork} outside of a pool submits the task to the
+ * {@link ForkJoinPool#commonPool() common pool}.
+ *
+ * <p>Most tasks extend {@link RecursiveAction} or {@link RecursiveTask}
+ * rather than this class.
+ *
+ * @since 1.7
+ */
+public abstract class ForkJoinTask<V> implements Future<V>, Serializable {
+    private static final long serialVersionUID = -7721805057305804111L;
+
+    /*
+     * The run status of a task. Non-negative while the task is pending,
+     * negative once it has completed. SIGNAL is set by threads waiting for
+     * the task which need to be notified on completion.
+     */
+    static final int NORMAL      = -1;
+    static final int CANCELLED   = -2;
+    static final int EXCEPTIONAL = -3;
+    static final int SIGNAL      = 1;
+
+    volatile int status;
+
+    /**
+     * The exception thrown by the task. Written before the status is set
+     * to EXCEPTIONAL and only read after that.
+     */
+    private Throwable exception;
+
+    /**
+     * Marks the task as complete with the specified completion status
+     * unless it's already complete and wakes up any waiting threads.
+     * Returns the final status.
+     */
+    private int setCompletion(int completion) {
+        for (int s;;) {
+            if ((s = status) < 0) {
+                return s;
+            }
+            if (UNSAFE.compareAndSwapInt(this, statusOffset, s, completion)) {
+                if (s != 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+                return completion;
+            }
+        }
+    }
+
+    private int setExceptionalCompletion(Throwable ex) {
+        if (status >= 0) {
+            exception = ex;
+            return setCompletion(EXCEPTIONAL);
+        }
+        return status;
+    }
+
+    /**
+     * Runs the task unless it's already done and records its completion.
+     * Returns the status after running.
+     */
+    final int doExec() {
+        int s = status;
+        if (s >= 0) {
+            boolean completed;
+            try {
+                completed = exec();
+            } catch (Throwable ex) {
+                return setExceptionalCompletion(ex);
+            }
+            if (completed) {
+                s = setCompletion(NORMAL);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Waits at most {@code millis} milliseconds (0 meaning forever) for the
+     * task to complete. Interrupts are ignored.
+     */
+    final void internalWait(long millis) {
+        int s = status;
+        if (s >= 0 && UNSAFE.compareAndSwapInt(this, statusOffset, s, s | SIGNAL)) {
+            synchronized (this) {
+                if (status >= 0) {
+                    try {
+                        wait(millis);
+                    } catch (InterruptedException ignored) {
+                    }
+                } else {
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Blocks a thread which isn't a worker until the task is done or the
+     * deadline (as given by {@link System#nanoTime()}, 0 meaning none) has
+     * passed. Returns the status.
+     */
+    private int externalAwaitDone(boolean interruptible, long deadline)
+            throws InterruptedException {
+
+        boolean interrupted = false;
+        int s;
+        while ((s = status) >= 0) {
+            long millis = 0L;
+            if (deadline != 0L) {
+                long nanos = deadline - System.nanoTime();
+                if (nanos <= 0L) {
+                    break;
+                }
+                millis = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(nanos));
+            }
+            if (UNSAFE.compareAndSwapInt(this, statusOffset, s, s | SIGNAL)) {
+                synchronized (this) {
+                    if (status >= 0) {
+                        try {
+                            wait(millis);
+                        } catch (InterruptedException ie) {
+                            if (interruptible) {
+                                throw ie;
+                            }
+                            interrupted = true;
+                        }
+                    } else {
+                        notifyAll();
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return s;
+    }
+
+    private int externalAwaitDone() {
+        try {
+            return externalAwaitDone(false, 0L);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Waits for the task to complete. Workers help with other tasks while
+     * waiting. Returns the status.
+     */
+    private int doJoin() {
+        int s = status;
+        if (s < 0) {
+            return s;
+        }
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            ForkJoinWorkerThread wt = (ForkJoinWorkerThread) t;
+            if (wt.workQueue.tryUnpush(this) && (s = doExec()) < 0) {
+                return s;
+            }
+            return wt.pool.awaitJoin(wt.workQueue, this, 0L);
+        }
+        return externalAwaitDone();
+    }
+
+    /**
+     * Runs the task in the current thread and waits for it to complete if
+     * {@link #exec} didn't complete it. Returns the status.
+     */
+    private int doInvoke() {
+        int s = doExec();
+        if (s < 0) {
+            return s;
+        }
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            ForkJoinWorkerThread wt = (ForkJoinWorkerThread) t;
+            return wt.pool.awaitJoin(wt.workQueue, this, 0L);
+        }
+        return externalAwaitDone();
+    }
+
+    /**
+     * Throws the exception of an abnormally completed task.
+     */
+    private V reportResult(int s) {
+        if (s == CANCELLED) {
+            throw new CancellationException();
+        }
+        if (s == EXCEPTIONAL) {
+            rethrow(exception);
+        }
+        return getRawResult();
+    }
+
+    /**
+     * Throws {@code ex} if it's unchecked or wraps it in a
+     * {@link RuntimeException} otherwise.
+     */
+    static void rethrow(Throwable ex) {
+        if (ex instanceof RuntimeException) {
+            throw (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        throw new RuntimeException(ex);
+    }
+
+    /**
+     * Arranges to asynchronously execute this task in the pool the current
+     * task is running in, or in the {@link ForkJoinPool#commonPool()} if not
+     * called from a worker thread. A task must not be forked more than once
+     * unless it has completed and been {@link #reinitialize reinitialized}.
+     *
+     * @return {@code this}, to simplify usage
+     */
+    public final ForkJoinTask<V> fork() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            ((ForkJoinWorkerThread) t).workQueue.push(this);
+        } else {
+            ForkJoinPool.common.externalPush(this);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the result of the computation when it is done. Unlike
+     * {@link #get} this method throws the (unchecked) exception thrown by
+     * the computation directly and is never interrupted.
+     *
+     * @return the computed result
+     */
+    public final V join() {
+        return reportResult(doJoin());
+    }
+
+    /**
+     * Runs this task in the current thread, waits for it to complete if
+     * necessary and returns its result, or throws the (unchecked) exception
+     * thrown by the computation.
+     *
+     * @return the computed result
+     */
+    public final V invoke() {
+        return reportResult(doInvoke());
+    }
+
+    /**
+     * Forks {@code t2}, invokes {@code t1} and then joins {@code t2}.
+     * If either task throws an exception the exception is rethrown after
+     * both tasks are done.
+     *
+     * @throws NullPointerException if any task is null
+     */
+    public static void invokeAll(ForkJoinTask<?> t1, ForkJoinTask<?> t2) {
+        t2.fork();
+        int s1 = t1.doInvoke();
+        int s2 = t2.doJoin();
+        if (s1 < NORMAL) {
+            t1.reportResult(s1);
+        }
+        if (s2 < NORMAL) {
+            t2.reportResult(s2);
+        }
+    }
+
+    /**
+     * Forks all the given tasks but the first, invokes the first and then
+     * joins the rest. If any task completes abnormally the tasks which
+     * haven't started yet are cancelled and the exception of the first
+     * abnormally completed task in the array is rethrown.
+     *
+     * @throws NullPointerException if any task is null
+     */
+    public static void invokeAll(ForkJoinTask<?>... tasks) {
+        int last = tasks.length - 1;
+        for (int i = last; i >= 0; i--) {
+            if (tasks[i] == null) {
+                throw new NullPointerException();
+            }
+            if (i != 0) {
+                tasks[i].fork();
+            }
+        }
+        ForkJoinTask<?> failed = null;
+        for (int i = 0; i <= last; i++) {
+            ForkJoinTask<?> t = tasks[i];
+            int s;
+            if (failed != null) {
+                t.cancel(false);
+                s = t.doJoin();
+            } else {
+                s = i == 0 ? t.doInvoke() : t.doJoin();
+            }
+            if (s < NORMAL && failed == null) {
+                failed = t;
+            }
+        }
+        if (failed != null) {
+            failed.reportResult(failed.status);
+        }
+    }
+
+    /**
+     * Like {@link #invokeAll(ForkJoinTask...)} but with a collection of
+     * tasks.
+     *
+     * @return the given collection
+     * @throws NullPointerException if tasks or any element are null
+     */
+    public static <T extends ForkJoinTask<?>> Collection<T> invokeAll(Collection<T> tasks) {
+        invokeAll(tasks.toArray(new ForkJoinTask<?>[tasks.size()]));
+        return tasks;
+    }
+
+    /**
+     * Attempts to cancel execution of this task. Cancellation fails if the
+     * task has already completed. A task which is running can't be
+     * interrupted so {@code mayInterruptIfRunning} is ignored.
+     *
+     * @return {@code true} if this task is now cancelled
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return setCompletion(CANCELLED) == CANCELLED;
+    }
+
+    public final boolean isDone() {
+        return status < 0;
+    }
+
+    public final boolean isCancelled() {
+        return status == CANCELLED;
+    }
+
+    /**
+     * Returns {@code true} if this task threw an exception or was cancelled.
+     */
+    public final boolean isCompletedAbnormally() {
+        return status < NORMAL;
+    }
+
+    /**
+     * Returns {@code true} if this task completed without throwing an
+     * exception and was not cancelled.
+     */
+    public final boolean isCompletedNormally() {
+        return status == NORMAL;
+    }
+
+    /**
+     * Returns the exception thrown by the computation, a
+     * {@link CancellationException} if cancelled, or {@code null} if none or
+     * if the method has not yet completed.
+     */
+    public final Throwable getException() {
+        int s = status;
+        if (s == CANCELLED) {
+            return new CancellationException();
+        }
+        return s == EXCEPTIONAL ? exception : null;
+    }
+
+    /**
+     * Completes this task abnormally. Subsequent calls to {@link #join} and
+     * related operations throw {@code ex} (wrapped in a
+     * {@link RuntimeException} if it's checked). Does nothing if the task
+     * has already completed.
+     */
+    public void completeExceptionally(Throwable ex) {
+        setExceptionalCompletion((ex instanceof RuntimeException) || (ex instanceof Error)
+                ? ex : new RuntimeException(ex));
+    }
+
+    /**
+     * Completes this task with {@code value} as its result unless it has
+     * already completed.
+     */
+    public void complete(V value) {
+        try {
+            setRawResult(value);
+        } catch (Throwable rex) {
+            setExceptionalCompletion(rex);
+            return;
+        }
+        setCompletion(NORMAL);
+    }
+
+    /**
+     * Completes this task normally without setting a value.
+     *
+     * @since 1.8
+     */
+    public final void quietlyComplete() {
+        setCompletion(NORMAL);
+    }
+
+    /**
+     * Waits if necessary for the computation to complete, and then
+     * retrieves its result.
+     *
+     * @throws CancellationException if the computation was cancelled
+     * @throws ExecutionException if the computation threw an exception
+     * @throws InterruptedException if the current thread is not a worker
+     *     and was interrupted while waiting
+     */
+    public final V get() throws InterruptedException, ExecutionException {
+        int s;
+        if (Thread.currentThread() instanceof ForkJoinWorkerThread) {
+            s = doJoin();
+        } else {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            s = externalAwaitDone(true, 0L);
+        }
+        return reportGet(s);
+    }
+
+    /**
+     * Waits if necessary for at most the given time for the computation to
+     * complete, and then retrieves its result, if available.
+     *
+     * @throws TimeoutException if the wait timed out
+     */
+    public final V get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        if (deadline == 0L) {
+            deadline = 1L;
+        }
+        int s = status;
+        if (s >= 0 && nanos > 0L) {
+            Thread t = Thread.currentThread();
+            if (t instanceof ForkJoinWorkerThread) {
+                ForkJoinWorkerThread wt = (ForkJoinWorkerThread) t;
+                s = wt.pool.awaitJoin(wt.workQueue, this, deadline);
+            } else {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                s = externalAwaitDone(true, deadline);
+            }
+        }
+        if (s >= 0) {
+            throw new TimeoutException();
+        }
+        return reportGet(s);
+    }
+
+    private V reportGet(int s) throws ExecutionException {
+        if (s == CANCELLED) {
+            throw new CancellationException();
+        }
+        if (s == EXCEPTIONAL) {
+            throw new ExecutionException(exception);
+        }
+        return getRawResult();
+    }
+
+    /**
+     * Joins this task without returning its result or throwing its
+     * exception.
+     */
+    public final void quietlyJoin() {
+        doJoin();
+    }
+
+    /**
+     * Invokes this task without returning its result or throwing its
+     * exception.
+     */
+    public final void quietlyInvoke() {
+        doInvoke();
+    }
+
+    /**
+     * Possibly executes tasks until the pool hosting the current task is
+     * quiescent. Does nothing unless called from a worker thread.
+     */
+    public static void helpQuiesce() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            ForkJoinWorkerThread wt = (ForkJoinWorkerThread) t;
+            wt.pool.helpQuiescePool(wt.workQueue, 0L);
+        }
+    }
+
+    /**
+     * Resets the internal bookkeeping state of this task, allowing a
+     * subsequent {@code fork}. Must only be called when the task is done
+     * or was never forked.
+     */
+    public void reinitialize() {
+        exception = null;
+        status = 0;
+    }
+
+    /**
+     * Returns the pool hosting the current thread, or {@code null} if the
+     * current thread isn't a worker.
+     */
+    public static ForkJoinPool getPool() {
+        Thread t = Thread.currentThread();
+        return (t instanceof ForkJoinWorkerThread) ? ((ForkJoinWorkerThread) t).pool : null;
+    }
+
+    /**
+     * Returns {@code true} if the current thread is a
+     * {@link ForkJoinWorkerThread}.
+     */
+    public static boolean inForkJoinPool() {
+        return Thread.currentThread() instanceof ForkJoinWorkerThread;
+    }
+
+    /**
+     * Tries to unschedule this task for execution. This succeeds if this
+     * task is the most recently forked task of the current thread and it
+     * hasn't started running.
+     *
+     * @return {@code true} if unforked
+     */
+    public boolean tryUnfork() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            return ((ForkJoinWorkerThread) t).workQueue.tryUnpush(this);
+        }
+        return ForkJoinPool.common.tryExternalUnpush(this);
+    }
+
+    /**
+     * Returns an estimate of the number of tasks that have been forked by
+     * the current worker thread but not yet executed.
+     */
+    public static int getQueuedTaskCount() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            return ((ForkJoinWorkerThread) t).workQueue.queueSize();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns an estimate of how many more locally queued tasks are held by
+     * the current worker thread than there are idle workers that might steal
+     * them. Tasks may use this to decide whether to fork more subtasks.
+     */
+    public static int getSurplusQueuedTaskCount() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            ForkJoinWorkerThread wt = (ForkJoinWorkerThread) t;
+            return wt.workQueue.queueSize() - wt.pool.idleCount;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns, but does not unschedule or execute, the task queued by the
+     * current thread that would be executed next, or {@code null} if none.
+     */
+    protected static ForkJoinTask<?> peekNextLocalTask() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            return ((ForkJoinWorkerThread) t).workQueue.peek();
+        }
+        return null;
+    }
+
+    /**
+     * Unschedules and returns, without executing, the next task queued by
+     * the current thread, or {@code null} if none.
+     */
+    protected static ForkJoinTask<?> pollNextLocalTask() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            return ((ForkJoinWorkerThread) t).workQueue.nextLocalTask();
+        }
+        return null;
+    }
+
+    /**
+     * Unschedules and returns, without executing, the next task queued by
+     * the current thread or, if none, a task forked by another thread.
+     */
+    protected static ForkJoinTask<?> pollTask() {
+        Thread t = Thread.currentThread();
+        if (t instanceof ForkJoinWorkerThread) {
+            ForkJoinWorkerThread wt = (ForkJoinWorkerThread) t;
+            ForkJoinTask<?> task = wt.workQueue.nextLocalTask();
+            return task != null ? task : wt.pool.scan(wt.workQueue);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the result that would be returned by {@link #join}, even if
+     * this task completed abnormally, or {@code null} if this task is not
+     * known to have been completed.
+     */
+    public abstract V getRawResult();
+
+    /**
+     * Forces the given value to be returned as a result.
+     */
+    protected abstract void setRawResult(V value);
+
+    /**
+     * Immediately performs the base action of this task and returns
+     * {@code true} if, upon return from this method, this task is
+     * guaranteed to have completed normally.
+     */
+    protected abstract boolean exec();
+
+    /**
+     * Returns a new {@code ForkJoinTask} that performs the {@code run}
+     * method of the given {@code Runnable} as its action, and returns a null
+     * result upon {@link #join}.
+     */
+    public static ForkJoinTask<?> adapt(Runnable runnable) {
+        return new AdaptedRunnableAction(runnable);
+    }
+
+    /**
+     * Returns a new {@code ForkJoinTask} that performs the {@code run}
+     * method of the given {@code Runnable} as its action, and returns the
+     * given result upon {@link #join}.
+     */
+    public static <T> ForkJoinTask<T> adapt(Runnable runnable, T result) {
+        return new AdaptedRunnable<T>(runnable, result);
+    }
+
+    /**
+     * Returns a new {@code ForkJoinTask} that performs the {@code call}
+     * method of the given {@code Callable} as its action, and returns its
+     * result upon {@link #join}, translating any checked exceptions
+     * encountered into {@code RuntimeException}.
+     */
+    public static <T> ForkJoinTask<T> adapt(Callable<? extends T> callable) {
+        return new AdaptedCallable<T>(callable);
+    }
+
+    static final class AdaptedRunnable<T> extends ForkJoinTask<T> implements RunnableFuture<T> {
+        private static final long serialVersionUID = 5232453952276885070L;
+        final Runnable runnable;
+        T result;
+
+        AdaptedRunnable(Runnable runnable, T result) {
+            if (runnable == null) {
+                throw new NullPointerException();
+            }
+            this.runnable = runnable;
+            this.result = result;
+        }
+
+        public T getRawResult() {
+            return result;
+        }
+
+        protected void setRawResult(T v) {
+            result = v;
+        }
+
+        protected boolean exec() {
+            runnable.run();
+            return true;
+        }
+
+        public void run() {
+            invoke();
+        }
+    }
+
+    static final class AdaptedRunnableAction extends ForkJoinTask<Void> implements RunnableFuture<Void> {
+        private static final long serialVersionUID = 5232453952276885070L;
+        final Runnable runnable;
+
+        AdaptedRunnableAction(Runnable runnable) {
+            if (runnable == null) {
+                throw new NullPointerException();
+            }
+            this.runnable = runnable;
+        }
+
+        public Void getRawResult() {
+            return null;
+        }
+
+        protected void setRawResult(Void v) {
+        }
+
+        protected boolean exec() {
+            runnable.run();
+            return true;
+        }
+
+        public void run() {
+            invoke();
+        }
+    }
+
+    static final class AdaptedCallable<T> extends ForkJoinTask<T> implements RunnableFuture<T> {
+        private static final long serialVersionUID = 2838392045355241008L;
+        final Callable<? extends T> callable;
+        T result;
+
+        AdaptedCallable(Callable<? extends T> callable) {
+            if (callable == null) {
+                throw new NullPointerException();
+            }
+            this.callable = callable;
+        }
+
+        public T getRawResult() {
+            return result;
+        }
+
+        protected void setRawResult(T v) {
+            result = v;
+        }
+
+        protected boolean exec() {
+            try {
+                result = callable.call();
+                return true;
+            } catch (Error err) {
+                throw err;
+            } catch (RuntimeException rex) {
+                throw rex;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        public void run() {
+            invoke();
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe UNSAFE = sun.misc.Unsafe.getUnsafe();
+    private static final long statusOffset;
+    static {
+        try {
+            statusOffset = UNSAFE.objectFieldOffset(ForkJoinTask.class.getDeclaredField("status"));
+        } catch (NoSuchFieldException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.concurrent;
+
+/**
+ * A thread managed by a {@link ForkJoinPool}, which executes
+ * {@link ForkJoinTask}s. This class is subclassable solely for the sake of
+ * adding functionality; there are no overridable methods dealing with
+ * scheduling or execution. Subclasses are created by a custom
+ * {@link ForkJoinPool.ForkJoinWorkerThreadFactory}.
+ *
+ * @since 1.7
+ */
+public class ForkJoinWorkerThread extends Thread {
+    final ForkJoinPool pool;
+    final ForkJoinPool.WorkQueue workQueue;
+
+    /**
+     * Creates a ForkJoinWorkerThread operating in the given pool.
+     *
+     * @throws NullPointerException if pool is null
+     */
+    protected ForkJoinWorkerThread(ForkJoinPool pool) {
+        super(pool.nextWorkerThreadName());
+        this.pool = pool;
+        this.workQueue = pool.registerWorker(this);
+    }
+
+    /**
+     * Returns the pool hosting this thread.
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Returns the unique index number of this thread in its pool. The
+     * returned value ranges from zero to the maximum number of threads
+     * (minus one) that may exist in the pool. Indices of terminated
+     * workers are reused.
+     */
+    public int getPoolIndex() {
+        return workQueue.poolIndex - 1;
+    }
+
+    /**
+     * Initializes internal state after construction but before processing
+     * any tasks. Overrides must call {@code super.onStart()}.
+     */
+    protected void onStart() {
+    }
+
+    /**
+     * Performs cleanup associated with termination of this worker thread.
+     * Overrides must call {@code super.onTermination} at the end.
+     *
+     * @param exception the exception causing this thread to abort due to an
+     *     unrecoverable error, or {@code null} if completed normally
+     */
+    protected void onTermination(Throwable exception) {
+    }
+
+    /**
+     * This method is required to be public, but should never be called
+     * explicitly. It performs the main run loop to execute
+     * {@link ForkJoinTask}s.
+     */
+    public void run() {
+        Throwable exception = null;
+        try {
+            onStart();
+            pool.runWorker(workQueue);
+        } catch (Throwable ex) {
+            exception = ex;
+        } finally {
+            try {
+                onTermination(exception);
+            } catch (Throwable ex) {
+                if (exception == null) {
+                    exception = ex;
+                }
+            } finally {
+                pool.deregisterWorker(this, exception);
+            }
+        }
+        if (exception != null) {
+            ForkJoinTask.rethrow(exception);
+        }
+    }
+}
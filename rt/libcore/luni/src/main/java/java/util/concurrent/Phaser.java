@@ -0,0 +1,806 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.concurrent;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A reusable synchronization barrier, similar in functionality to
+ * {@link CyclicBarrier} and {@link CountDownLatch} but supporting more
+ * flexible usage. Unlike other barriers the number of parties registered to
+ * synchronize on a phaser may vary over time. Parties are added using
+ * {@link #register} or {@link #bulkRegister} and removed using
+ * {@link #arriveAndDeregister}.
+ *
+ * <p>Each generation of a phaser has a phase number. The phase number
+ * starts at zero and advances when all registered parties have arrived at
+ * the phaser, wrapping around to zero after reaching
+ * {@code Integer.MAX_VALUE}. Parties arrive using {@link #arrive} or
+ * {@link #arriveAndDeregister}, which don't block, or
+ * {@link #arriveAndAwaitAdvance} which blocks until the phase advances.
+ * {@link #awaitAdvance} waits for the phase to advance without arriving.
+ * Before the phase advances {@link #onAdvance} is called by the last
+ * arriving party. It may be overridden to terminate the phaser, after which
+ * all synchronization methods return immediately with a negative phase.
+ *
+ * <p>Phasers may be tiered to reduce contention. A phaser constructed with
+ * a parent registers with the parent while it has parties of its own, and
+ * arrives at the parent once all of its own parties have arrived. All
+ * phasers in a tree share the phase of the root and waiting threads wait
+ * on the root.
+ *
+ * <p>A phaser supports at most 65535 registered parties. Attempting to
+ * register more results in an {@link IllegalStateException}.
+ *
+ * <p>Waiting threads block using {@link ForkJoinPool#managedBlock} so
+ * phasers may be used by tasks running in a {@link ForkJoinPool} without
+ * starving the pool.
+ *
+ * @since 1.7
+ */
+public class Phaser {
+
+    /*
+     * The state of a phaser is kept in a single long which is updated by
+     * CAS:
+     *
+     *   unarrived  -- parties yet to arrive in this phase   (bits  0-15)
+     *   parties    -- number of registered parties          (bits 16-31)
+     *   phase      -- the generation of the barrier         (bits 32-62)
+     *   terminated -- set when the phaser has terminated    (bit  63)
+     *
+     * A phaser without registered parties would have zero unarrived
+     * parties which is also the state of a phaser which is advancing. Such
+     * a phaser instead uses the otherwise impossible value EMPTY (no
+     * parties, one unarrived) for its counts.
+     *
+     * The phase of a child phaser lags behind the root until it's brought
+     * up to date by reconcileState(). Threads waiting for the phase to
+     * advance are kept in two Treiber stacks in the root, one for even and
+     * one for odd phases, so that threads waiting on the previous phase
+     * can be released while new waiters are pushed on the other stack.
+     */
+
+    private static final int MAX_PARTIES = 0xffff;
+    private static final int MAX_PHASE = Integer.MAX_VALUE;
+    private static final int PARTIES_SHIFT = 16;
+    private static final int PHASE_SHIFT = 32;
+    private static final int UNARRIVED_MASK = 0xffff;
+    private static final long PARTIES_MASK = 0xffff0000L;
+    private static final long COUNTS_MASK = 0xffffffffL;
+    private static final long TERMINATION_BIT = 1L << 63;
+
+    private static final int ONE_ARRIVAL = 1;
+    private static final int ONE_PARTY = 1 << PARTIES_SHIFT;
+    private static final int ONE_DEREGISTER = ONE_ARRIVAL | ONE_PARTY;
+    private static final int EMPTY = 1;
+
+    /**
+     * The number of times to spin before blocking while waiting for the
+     * phase to advance. Spinning only pays off on multiprocessors and is
+     * increased for every new arrival while fewer parties than there are
+     * processors remain.
+     */
+    private static final int NCPU = Runtime.getRuntime().availableProcessors();
+    private static final int SPINS_PER_ARRIVAL = (NCPU < 2) ? 1 : 1 << 8;
+
+    private volatile long state;
+
+    private final Phaser parent;
+    private final Phaser root;
+
+    /** Waiting threads. Shared with the root. */
+    private final AtomicReference<QNode> evenQ;
+    private final AtomicReference<QNode> oddQ;
+
+    private static int unarrivedOf(long s) {
+        int counts = (int) s;
+        return (counts == EMPTY) ? 0 : (counts & UNARRIVED_MASK);
+    }
+
+    private static int partiesOf(long s) {
+        return (int) s >>> PARTIES_SHIFT;
+    }
+
+    private static int phaseOf(long s) {
+        return (int) (s >>> PHASE_SHIFT);
+    }
+
+    private static int arrivedOf(long s) {
+        int counts = (int) s;
+        return (counts == EMPTY) ? 0 : (counts >>> PARTIES_SHIFT) - (counts & UNARRIVED_MASK);
+    }
+
+    private AtomicReference<QNode> queueFor(int phase) {
+        return ((phase & 1) == 0) ? evenQ : oddQ;
+    }
+
+    private String badArrive(long s) {
+        return "Attempted arrival of unregistered party for " + stateToString(s);
+    }
+
+    private String badRegister(long s) {
+        return "Attempt to register more than " + MAX_PARTIES + " parties for "
+                + stateToString(s);
+    }
+
+    /**
+     * Creates a new phaser with no initially registered parties, no parent
+     * and initial phase number 0.
+     */
+    public Phaser() {
+        this(null, 0);
+    }
+
+    /**
+     * Creates a new phaser with the given number of registered unarrived
+     * parties, no parent and initial phase number 0.
+     *
+     * @throws IllegalArgumentException if parties is less than zero or
+     *     greater than the maximum number of parties supported
+     */
+    public Phaser(int parties) {
+        this(null, parties);
+    }
+
+    /**
+     * Equivalent to {@link #Phaser(Phaser, int) Phaser(parent, 0)}.
+     */
+    public Phaser(Phaser parent) {
+        this(parent, 0);
+    }
+
+    /**
+     * Creates a new phaser with the given parent and number of registered
+     * unarrived parties. If the parent is non-null and the number of parties
+     * is greater than zero this child phaser is registered with its parent.
+     *
+     * @throws IllegalArgumentException if parties is less than zero or
+     *     greater than the maximum number of parties supported
+     */
+    public Phaser(Phaser parent, int parties) {
+        if (parties >>> PARTIES_SHIFT != 0) {
+            throw new IllegalArgumentException("Illegal number of parties");
+        }
+        int phase = 0;
+        this.parent = parent;
+        if (parent != null) {
+            Phaser root = parent.root;
+            this.root = root;
+            this.evenQ = root.evenQ;
+            this.oddQ = root.oddQ;
+            if (parties != 0) {
+                phase = parent.doRegister(1);
+            }
+        } else {
+            this.root = this;
+            this.evenQ = new AtomicReference<QNode>();
+            this.oddQ = new AtomicReference<QNode>();
+        }
+        this.state = (parties == 0) ? (long) EMPTY
+                : ((long) phase << PHASE_SHIFT) | ((long) parties << PARTIES_SHIFT) | parties;
+    }
+
+    /**
+     * Adds a new unarrived party to this phaser. If {@link #onAdvance} is in
+     * progress this waits for it to return before registering. If this
+     * phaser has a parent and previously had no registered parties it's
+     * also registered with its parent.
+     *
+     * @return the arrival phase number to which this registration applied,
+     *     or a negative value if this phaser has terminated
+     * @throws IllegalStateException if attempting to register more than
+     *     the maximum supported number of parties
+     */
+    public int register() {
+        return doRegister(1);
+    }
+
+    /**
+     * Adds the given number of new unarrived parties to this phaser. See
+     * {@link #register}.
+     *
+     * @return the arrival phase number to which this registration applied,
+     *     or a negative value if this phaser has terminated
+     * @throws IllegalStateException if attempting to register more than
+     *     the maximum supported number of parties
+     * @throws IllegalArgumentException if {@code parties < 0}
+     */
+    public int bulkRegister(int parties) {
+        if (parties < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (parties == 0) {
+            return getPhase();
+        }
+        return doRegister(parties);
+    }
+
+    /**
+     * Arrives at this phaser without waiting for others to arrive.
+     *
+     * @return the arrival phase number, or a negative value if terminated
+     * @throws IllegalStateException if not terminated and the number of
+     *     unarrived parties would become negative
+     */
+    public int arrive() {
+        return doArrive(ONE_ARRIVAL);
+    }
+
+    /**
+     * Arrives at this phaser and deregisters from it without waiting for
+     * others to arrive. If this phaser has a parent and deregistration
+     * leaves it without parties it's also deregistered from its parent.
+     *
+     * @return the arrival phase number, or a negative value if terminated
+     * @throws IllegalStateException if not terminated and the number of
+     *     registered or unarrived parties would become negative
+     */
+    public int arriveAndDeregister() {
+        return doArrive(ONE_DEREGISTER);
+    }
+
+    /**
+     * Arrives at this phaser and waits for the others. Equivalent in effect
+     * to {@code awaitAdvance(arrive())}. If interrupted while waiting this
+     * continues to wait and sets the interrupt status on return.
+     *
+     * @return the arrival phase number, or the (negative) current phase if
+     *     terminated
+     * @throws IllegalStateException if not terminated and the number of
+     *     unarrived parties would become negative
+     */
+    public int arriveAndAwaitAdvance() {
+        Phaser root = this.root;
+        while (true) {
+            long s = (root == this) ? state : reconcileState();
+            int phase = phaseOf(s);
+            if (phase < 0) {
+                return phase;
+            }
+            int unarrived = unarrivedOf(s);
+            if (unarrived <= 0) {
+                throw new IllegalStateException(badArrive(s));
+            }
+            long next = s - ONE_ARRIVAL;
+            if (UNSAFE.compareAndSwapLong(this, stateOffset, s, next)) {
+                if (unarrived > 1) {
+                    return root.internalAwaitAdvance(phase, null);
+                }
+                if (root != this) {
+                    return parent.arriveAndAwaitAdvance();
+                }
+                long n = nextState(next, phase);
+                if (!UNSAFE.compareAndSwapLong(this, stateOffset, next, n)) {
+                    // Terminated while advancing
+                    return phaseOf(state);
+                }
+                releaseWaiters(phase);
+                return phaseOf(n);
+            }
+        }
+    }
+
+    /**
+     * Waits for the phase of this phaser to advance from the given phase
+     * value, returning immediately if the current phase is not equal to the
+     * given phase or this phaser is terminated.
+     *
+     * @return the next arrival phase number, or the argument if it is
+     *     negative, or the (negative) current phase if terminated
+     */
+    public int awaitAdvance(int phase) {
+        Phaser root = this.root;
+        long s = (root == this) ? state : reconcileState();
+        int p = phaseOf(s);
+        if (phase < 0) {
+            return phase;
+        }
+        if (p == phase) {
+            return root.internalAwaitAdvance(phase, null);
+        }
+        return p;
+    }
+
+    /**
+     * Waits for the phase of this phaser to advance from the given phase
+     * value, throwing {@code InterruptedException} if interrupted while
+     * waiting.
+     *
+     * @return the next arrival phase number, or the argument if it is
+     *     negative, or the (negative) current phase if terminated
+     * @throws InterruptedException if thread interrupted while waiting
+     */
+    public int awaitAdvanceInterruptibly(int phase) throws InterruptedException {
+        Phaser root = this.root;
+        long s = (root == this) ? state : reconcileState();
+        int p = phaseOf(s);
+        if (phase < 0) {
+            return phase;
+        }
+        if (p == phase) {
+            QNode node = new QNode(this, phase, true, false, 0L);
+            p = root.internalAwaitAdvance(phase, node);
+            if (node.wasInterrupted) {
+                throw new InterruptedException();
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Waits for the phase of this phaser to advance from the given phase
+     * value or the given timeout to elapse, throwing
+     * {@code InterruptedException} if interrupted while waiting.
+     *
+     * @return the next arrival phase number, or the argument if it is
+     *     negative, or the (negative) current phase if terminated
+     * @throws InterruptedException if thread interrupted while waiting
+     * @throws TimeoutException if timed out while waiting
+     */
+    public int awaitAdvanceInterruptibly(int phase, long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        long nanos = unit.toNanos(timeout);
+        Phaser root = this.root;
+        long s = (root == this) ? state : reconcileState();
+        int p = phaseOf(s);
+        if (phase < 0) {
+            return phase;
+        }
+        if (p == phase) {
+            QNode node = new QNode(this, phase, true, true, nanos);
+            p = root.internalAwaitAdvance(phase, node);
+            if (node.wasInterrupted) {
+                throw new InterruptedException();
+            } else if (p == phase) {
+                throw new TimeoutException();
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Forces this phaser to enter termination state. Counts of registered
+     * parties are unaffected. If this phaser is a member of a tiered set of
+     * phasers then all of the phasers in the set are terminated. Has no
+     * effect if this phaser is already terminated.
+     */
+    public void forceTermination() {
+        Phaser root = this.root;
+        long s;
+        while ((s = root.state) >= 0) {
+            if (UNSAFE.compareAndSwapLong(root, stateOffset, s, s | TERMINATION_BIT)) {
+                // Wake up all waiters
+                releaseWaiters(0);
+                releaseWaiters(1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the current phase number. The maximum phase number is
+     * {@code Integer.MAX_VALUE} after which it restarts at zero. Upon
+     * termination the phase number is negative.
+     */
+    public final int getPhase() {
+        return phaseOf(root.state);
+    }
+
+    /**
+     * Returns the number of parties registered at this phaser.
+     */
+    public int getRegisteredParties() {
+        return partiesOf(state);
+    }
+
+    /**
+     * Returns the number of registered parties that have arrived at the
+     * current phase of this phaser. If this phaser has terminated the
+     * returned value is meaningless and arbitrary.
+     */
+    public int getArrivedParties() {
+        return arrivedOf(reconcileState());
+    }
+
+    /**
+     * Returns the number of registered parties that have not yet arrived at
+     * the current phase of this phaser. If this phaser has terminated the
+     * returned value is meaningless and arbitrary.
+     */
+    public int getUnarrivedParties() {
+        return unarrivedOf(reconcileState());
+    }
+
+    /**
+     * Returns the parent of this phaser, or {@code null} if none.
+     */
+    public Phaser getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the root ancestor of this phaser, which is the same as this
+     * phaser if it has no parent.
+     */
+    public Phaser getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns {@code true} if this phaser has been terminated.
+     */
+    public boolean isTerminated() {
+        return root.state < 0L;
+    }
+
+    /**
+     * Overridable method to perform an action upon impending phase advance
+     * and to control termination. This is called by the party whose arrival
+     * advances the phase, before any waiting parties are released. If this
+     * returns {@code true} this phaser is terminated.
+     *
+     * <p>Arrivals and registrations on this phaser from within this method
+     * are unsupported. For tiered phasers this is only called on the root.
+     *
+     * <p>The default implementation returns {@code true} when the number of
+     * registered parties has become zero as the result of
+     * {@link #arriveAndDeregister}.
+     *
+     * @param phase the current phase number on entry to this method, before
+     *     this phaser is advanced
+     * @param registeredParties the current number of registered parties
+     */
+    protected boolean onAdvance(int phase, int registeredParties) {
+        return registeredParties == 0;
+    }
+
+    /**
+     * Returns a string identifying this phaser, as well as its state. The
+     * state, in brackets, includes the phase, the number of registered
+     * parties and the number of arrived parties.
+     */
+    @Override public String toString() {
+        return stateToString(reconcileState());
+    }
+
+    private String stateToString(long s) {
+        return super.toString() + "[phase = " + phaseOf(s) + " parties = " + partiesOf(s)
+                + " arrived = " + arrivedOf(s) + "]";
+    }
+
+    /**
+     * Returns the state to move to from {@code s} when {@code phase}
+     * advances. Only called on the root.
+     */
+    private long nextState(long s, int phase) {
+        long n = s & PARTIES_MASK;
+        int nextUnarrived = (int) n >>> PARTIES_SHIFT;
+        if (onAdvance(phase, nextUnarrived)) {
+            n |= TERMINATION_BIT;
+        } else if (nextUnarrived == 0) {
+            n |= EMPTY;
+        } else {
+            n |= nextUnarrived;
+        }
+        int nextPhase = (phase + 1) & MAX_PHASE;
+        return n | (long) nextPhase << PHASE_SHIFT;
+    }
+
+    /**
+     * Implements {@link #arrive} and {@link #arriveAndDeregister}.
+     *
+     * @param adjust the value to subtract from the state, ONE_ARRIVAL or
+     *     ONE_DEREGISTER
+     */
+    private int doArrive(int adjust) {
+        Phaser root = this.root;
+        while (true) {
+            long s = (root == this) ? state : reconcileState();
+            int phase = phaseOf(s);
+            if (phase < 0) {
+                return phase;
+            }
+            int unarrived = unarrivedOf(s);
+            if (unarrived <= 0) {
+                throw new IllegalStateException(badArrive(s));
+            }
+            long next = s - adjust;
+            if (UNSAFE.compareAndSwapLong(this, stateOffset, s, next)) {
+                if (unarrived == 1) {
+                    int nextUnarrived = partiesOf(next);
+                    if (root == this) {
+                        UNSAFE.compareAndSwapLong(this, stateOffset, next, nextState(next, phase));
+                        releaseWaiters(phase);
+                    } else if (nextUnarrived == 0) {
+                        // The last party deregistered. Deregister from the
+                        // parent as well.
+                        phase = parent.doArrive(ONE_DEREGISTER);
+                        UNSAFE.compareAndSwapLong(this, stateOffset, next, next | EMPTY);
+                    } else {
+                        phase = parent.doArrive(ONE_ARRIVAL);
+                    }
+                }
+                return phase;
+            }
+        }
+    }
+
+    /**
+     * Implements {@link #register} and {@link #bulkRegister}.
+     */
+    private int doRegister(int registrations) {
+        long adjust = ((long) registrations << PARTIES_SHIFT) | registrations;
+        Phaser parent = this.parent;
+        int phase;
+        while (true) {
+            long s = (parent == null) ? state : reconcileState();
+            int counts = (int) s;
+            int parties = counts >>> PARTIES_SHIFT;
+            int unarrived = counts & UNARRIVED_MASK;
+            if (registrations > MAX_PARTIES - parties) {
+                throw new IllegalStateException(badRegister(s));
+            }
+            phase = phaseOf(s);
+            if (phase < 0) {
+                break;
+            }
+            if (counts != EMPTY) {
+                // Not the first registration
+                if (parent == null || reconcileState() == s) {
+                    if (unarrived == 0) {
+                        // Wait for the advance to finish
+                        root.internalAwaitAdvance(phase, null);
+                    } else if (UNSAFE.compareAndSwapLong(this, stateOffset, s, s + adjust)) {
+                        break;
+                    }
+                }
+            } else if (parent == null) {
+                // First registration on a root
+                long next = ((long) phase << PHASE_SHIFT) | adjust;
+                if (UNSAFE.compareAndSwapLong(this, stateOffset, s, next)) {
+                    break;
+                }
+            } else {
+                // First registration on a child. Register with the parent
+                // and then finish registering here. This must not be done
+                // twice concurrently so it's done holding the lock.
+                synchronized (this) {
+                    if (state == s) {
+                        phase = parent.doRegister(1);
+                        if (phase < 0) {
+                            break;
+                        }
+                        // Finish registering even if the phaser terminates
+                        // concurrently since the parent registration
+                        // succeeded.
+                        while (!UNSAFE.compareAndSwapLong(this, stateOffset, s,
+                                ((long) phase << PHASE_SHIFT) | adjust)) {
+                            s = state;
+                            phase = phaseOf(root.state);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return phase;
+    }
+
+    /**
+     * Brings the phase of a child phaser up to date with the root, resetting
+     * its unarrived count if the root has advanced, and returns the
+     * resulting state. Returns the current state of a root phaser.
+     */
+    private long reconcileState() {
+        Phaser root = this.root;
+        long s = state;
+        if (root != this) {
+            int phase;
+            while ((phase = phaseOf(root.state)) != phaseOf(s)) {
+                long counts;
+                if (phase < 0) {
+                    counts = s & COUNTS_MASK;
+                } else {
+                    int p = partiesOf(s);
+                    counts = (p == 0) ? EMPTY : ((s & PARTIES_MASK) | p);
+                }
+                long next = ((long) phase << PHASE_SHIFT) | counts;
+                if (UNSAFE.compareAndSwapLong(this, stateOffset, s, next)) {
+                    s = next;
+                    break;
+                }
+                s = state;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Removes and unparks the threads waiting for {@code phase} once the
+     * root has advanced past it.
+     */
+    private void releaseWaiters(int phase) {
+        AtomicReference<QNode> head = queueFor(phase);
+        QNode q;
+        while ((q = head.get()) != null && q.phase != phaseOf(root.state)) {
+            Thread t = q.thread;
+            if (head.compareAndSet(q, q.next) && t != null) {
+                q.thread = null;
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * Variant of releaseWaiters() used by a thread which stops waiting
+     * because it was interrupted or timed out. Only the waiters which are
+     * done are removed since other waiters may still be waiting for the
+     * current phase. Returns the current phase.
+     */
+    private int abortWait(int phase) {
+        AtomicReference<QNode> head = queueFor(phase);
+        while (true) {
+            QNode q = head.get();
+            int p = phaseOf(root.state);
+            Thread t;
+            if (q == null || ((t = q.thread) != null && q.phase == p)) {
+                return p;
+            }
+            if (head.compareAndSet(q, q.next) && t != null) {
+                q.thread = null;
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * Waits until the phase advances from {@code phase}, the wait is
+     * interrupted or times out. Only called on the root. Spins for a while
+     * before pushing a node on the queue and blocking.
+     *
+     * @param node a node for interruptible or timed waits, or {@code null}
+     *     for uninterruptible waits
+     * @return the current phase
+     */
+    private int internalAwaitAdvance(int phase, QNode node) {
+        // Make sure waiters for the previous phase have been released
+        releaseWaiters(phase - 1);
+        boolean queued = false;
+        int lastUnarrived = 0;
+        int spins = SPINS_PER_ARRIVAL;
+        long s;
+        int p;
+        while ((p = phaseOf(s = state)) == phase) {
+            if (node == null) {
+                // Spin while parties keep arriving
+                int unarrived = (int) s & UNARRIVED_MASK;
+                if (unarrived != lastUnarrived && (lastUnarrived = unarrived) < NCPU) {
+                    spins += SPINS_PER_ARRIVAL;
+                }
+                boolean interrupted = Thread.interrupted();
+                if (interrupted || --spins < 0) {
+                    node = new QNode(this, phase, false, false, 0L);
+                    node.wasInterrupted = interrupted;
+                }
+            } else if (node.isReleasable()) {
+                break;
+            } else if (!queued) {
+                AtomicReference<QNode> head = queueFor(phase);
+                QNode q = node.next = head.get();
+                // Don't push on a queue which still holds stale waiters
+                if ((q == null || q.phase == phase) && phaseOf(state) == phase) {
+                    queued = head.compareAndSet(q, node);
+                }
+            } else {
+                try {
+                    ForkJoinPool.managedBlock(node);
+                } catch (InterruptedException e) {
+                    node.wasInterrupted = true;
+                }
+            }
+        }
+
+        if (node != null) {
+            node.thread = null;
+            if (node.wasInterrupted && !node.interruptible) {
+                Thread.currentThread().interrupt();
+            }
+            if (p == phase && (p = phaseOf(state)) == phase) {
+                // Interrupted or timed out
+                return abortWait(phase);
+            }
+        }
+        releaseWaiters(phase);
+        return p;
+    }
+
+    /**
+     * A thread waiting for the phase to advance.
+     */
+    static final class QNode implements ForkJoinPool.ManagedBlocker {
+        final Phaser phaser;
+        final int phase;
+        final boolean interruptible;
+        final boolean timed;
+        boolean wasInterrupted;
+        long nanos;
+        final long deadline;
+        volatile Thread thread; // nulled to cancel wait
+        QNode next;
+
+        QNode(Phaser phaser, int phase, boolean interruptible, boolean timed, long nanos) {
+            this.phaser = phaser;
+            this.phase = phase;
+            this.interruptible = interruptible;
+            this.timed = timed;
+            this.nanos = nanos;
+            this.deadline = timed ? System.nanoTime() + nanos : 0L;
+            this.thread = Thread.currentThread();
+        }
+
+        public boolean isReleasable() {
+            if (thread == null) {
+                return true;
+            }
+            if (phaser.getPhase() != phase) {
+                thread = null;
+                return true;
+            }
+            if (Thread.interrupted()) {
+                wasInterrupted = true;
+            }
+            if (wasInterrupted && interruptible) {
+                thread = null;
+                return true;
+            }
+            if (timed) {
+                if (nanos > 0L) {
+                    nanos = deadline - System.nanoTime();
+                }
+                if (nanos <= 0L) {
+                    thread = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean block() {
+            if (isReleasable()) {
+                return true;
+            } else if (!timed) {
+                LockSupport.park(this);
+            } else if (nanos > 0L) {
+                LockSupport.parkNanos(this, nanos);
+            }
+            return isReleasable();
+        }
+    }
+
+    // Unsafe mechanics
+    private static final sun.misc.Unsafe UNSAFE = sun.misc.Unsafe.getUnsafe();
+    private static final long stateOffset;
+    static {
+        try {
+            stateOffset = UNSAFE.objectFieldOffset(Phaser.class.getDeclaredField("state"));
+        } catch (NoSuchFieldException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.concurrent;
+
+/**
+ * A recursive resultless {@link ForkJoinTask}. For example, incrementing
+ * every element of an array:<pre>
+ * class IncrementTask extends RecursiveAction {
+ *     final long[] array; final int lo, hi;
+ *     IncrementTask(long[] array, int lo, int hi) {
+ *         this.array = array; this.lo = lo; this.hi = hi;
+ *     }
+ *     protected void compute() {
+ *         if (hi - lo &lt; THRESHOLD) {
+ *             for (int i = lo; i &lt; hi; ++i) {
+ *                 array[i]++;
+ *             }
+ *         } else {
+ *             int mid = (lo + hi) &gt;&gt;&gt; 1;
+ *             invokeAll(new IncrementTask(array, lo, mid),
+ *                       new IncrementTask(array, mid, hi));
+ *         }
+ *     }
+ * }</pre>
+ *
+ * @since 1.7
+ */
+public abstract class RecursiveAction extends ForkJoinTask<Void> {
+    private static final long serialVersionUID = 5232453952276485070L;
+
+    /**
+     * The main computation performed by this task.
+     */
+    protected abstract void compute();
+
+    /**
+     * Always returns {@code null}.
+     */
+    public final Void getRawResult() {
+        return null;
+    }
+
+    /**
+     * Requires null completion value.
+     */
+    protected final void setRawResult(Void mustBeNull) {
+    }
+
+    /**
+     * Implements execution conventions for RecursiveActions.
+     */
+    protected final boolean exec() {
+        compute();
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.concurrent;
+
+/**
+ * A recursive result-bearing {@link ForkJoinTask}. For example, computing
+ * Fibonacci numbers:<pre>
+ * class Fibonacci extends RecursiveTask&lt;Integer&gt; {
+ *     final int n;
+ *     Fibonacci(int n) { this.n = n; }
+ *     protected Integer compute() {
+ *         if (n &lt;= 1) {
+ *             return n;
+ *         }
+ *         Fibonacci f1 = new Fibonacci(n - 1);
+ *         f1.fork();
+ *         Fibonacci f2 = new Fibonacci(n - 2);
+ *         return f2.compute() + f1.join();
+ *     }
+ * }</pre>
+ *
+ * @since 1.7
+ */
+public abstract class RecursiveTask<V> extends ForkJoinTask<V> {
+    private static final long serialVersionUID = 5232453952276485270L;
+
+    /**
+     * The result of the computation.
+     */
+    V result;
+
+    /**
+     * The main computation performed by this task.
+     */
+    protected abstract V compute();
+
+    public final V getRawResult() {
+        return result;
+    }
+
+    protected final void setRawResult(V value) {
+        result = value;
+    }
+
+    /**
+     * Implements execution conventions for RecursiveTask.
+     */
+    protected final boolean exec() {
+        result = compute();
+        return true;
+    }
+}
@@ -0,0 +1,607 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link ScheduledExecutorService} backed by a hierarchical hashed timing
+ * wheel. Scheduling and cancelling a task take constant time regardless of
+ * the number of scheduled tasks, which makes this class a better fit than
+ * {@link ScheduledThreadPoolExecutor} or {@link java.util.Timer} for large
+ * numbers of timeouts which are mostly cancelled before they expire.
+ *
+ * <p>Time is divided into ticks of a fixed duration. A task runs on the first
+ * tick at or after its delay has elapsed so tasks never run early but may run
+ * up to one tick late. The wheel has four levels of 256 slots each. The first
+ * level holds the tasks due within the next 256 ticks, one slot per tick.
+ * Each further level covers 256 times the span of the level below and its
+ * tasks are moved down a level when the wheel reaches their slot.
+ *
+ * <p>A single timer thread owns the wheel. {@code schedule} hands tasks to
+ * it through a lock-free queue and the timer thread links them into their
+ * slots. {@code cancel} only marks the task as cancelled. The timer thread
+ * drops cancelled tasks when it reaches their slots and also purges one slot
+ * of the higher levels every tick or millisecond, whichever is longer, so
+ * cancelled tasks with long delays don't pile up. The timer thread only wakes
+ * up once per tick while tasks are scheduled and sleeps otherwise. By default
+ * tasks run on the timer thread and should be short; tasks which may block
+ * should be run on a separate {@link Executor} passed to the constructor.
+ *
+ * <p>As with {@link ScheduledThreadPoolExecutor}'s default policies delayed
+ * tasks still run after {@link #shutdown()} while periodic tasks are
+ * cancelled.
+ */
+public class TimingWheelScheduledExecutor extends AbstractExecutorService
+        implements ScheduledExecutorService {
+
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    /** The maximum number of ticks the wheel can hold a task for without cascading. */
+    private static final long MAX_SPAN = (1L << (WHEEL_BITS * LEVELS)) - 1;
+    private static final long DEFAULT_TICK_MILLIS = 10;
+    private static final long PURGE_INTERVAL_NANOS = 1000000;
+
+    private static final int RUNNING = 0;
+    private static final int SHUTDOWN = 1;
+    private static final int STOP = 2;
+
+    /** Sequence number to break ties and keep FIFO order, like ScheduledThreadPoolExecutor. */
+    private static final AtomicLong sequencer = new AtomicLong();
+
+    private final long tickNanos;
+    /** The number of ticks between purging two slots. */
+    private final long purgeInterval;
+    private final long startNanos;
+    private final Executor executor;
+    private final Thread timer;
+
+    private final ConcurrentLinkedQueue<WheelTask<?>> additions =
+            new ConcurrentLinkedQueue<WheelTask<?>>();
+    private final CountDownLatch termination = new CountDownLatch(1);
+    private volatile int state = RUNNING;
+    /** True while the timer thread is parked waiting for new tasks. */
+    private volatile boolean idle;
+    /** The tasks which never ran, set by the timer thread when stopped. */
+    private volatile List<Runnable> drained;
+
+    // The fields below are confined to the timer thread.
+    /** The slots of all levels. Each slot is the head of a doubly-linked list. */
+    private final WheelTask<?>[][] wheel = new WheelTask<?>[LEVELS][WHEEL_SIZE];
+    /** The next tick to process. */
+    private long tick;
+    /** The number of tasks linked into the wheel. */
+    private int size;
+    /** The next slot of levels 1 and up to purge of cancelled tasks. */
+    private int purgeCursor;
+    private boolean periodicTasksCancelled;
+
+    /**
+     * Creates an executor with a tick of 10 milliseconds which runs its tasks
+     * on the timer thread.
+     */
+    public TimingWheelScheduledExecutor() {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates an executor with the specified tick duration which runs its
+     * tasks on the timer thread.
+     */
+    public TimingWheelScheduledExecutor(long tickDuration, TimeUnit unit) {
+        this(tickDuration, unit, Executors.defaultThreadFactory(), null);
+    }
+
+    /**
+     * Creates an executor with the specified tick duration.
+     *
+     * @param threadFactory creates the timer thread.
+     * @param executor runs the tasks once they are due or {@code null} to
+     *     run them on the timer thread.
+     */
+    public TimingWheelScheduledExecutor(long tickDuration, TimeUnit unit,
+            ThreadFactory threadFactory, Executor executor) {
+        if (unit == null || threadFactory == null) {
+            throw new NullPointerException();
+        }
+        long nanos = unit.toNanos(tickDuration);
+        if (nanos <= 0) {
+            throw new IllegalArgumentException("tickDuration <= 0");
+        }
+        this.tickNanos = nanos;
+        this.purgeInterval = Math.max(1, PURGE_INTERVAL_NANOS / nanos);
+        this.executor = executor;
+        this.startNanos = System.nanoTime();
+        this.timer = threadFactory.newThread(new Runnable() {
+            public void run() {
+                runTimer();
+            }
+        });
+        if (timer == null) {
+            throw new NullPointerException("threadFactory returned null");
+        }
+        timer.start();
+    }
+
+    /**
+     * A scheduled task and its links in the wheel.
+     */
+    private final class WheelTask<V> extends FutureTask<V>
+            implements RunnableScheduledFuture<V> {
+        private final long sequenceNumber;
+        /** The time the task is enabled to execute in nanoTime units. */
+        private long time;
+        /**
+         * Period in nanoseconds for repeating tasks. A positive value
+         * indicates fixed-rate execution. A negative value indicates
+         * fixed-delay execution. A value of 0 indicates a non-repeating task.
+         */
+        private final long period;
+
+        // Confined to the timer thread.
+        private WheelTask<?> prev;
+        private WheelTask<?> next;
+        private int level;
+        private int slot;
+
+        WheelTask(Runnable r, V result, long time, long period) {
+            super(r, result);
+            this.time = time;
+            this.period = period;
+            this.sequenceNumber = sequencer.getAndIncrement();
+        }
+
+        WheelTask(Callable<V> callable, long time) {
+            super(callable);
+            this.time = time;
+            this.period = 0;
+            this.sequenceNumber = sequencer.getAndIncrement();
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            if (other instanceof WheelTask) {
+                WheelTask<?> x = (WheelTask<?>) other;
+                long diff = time - x.time;
+                if (diff != 0) {
+                    return diff < 0 ? -1 : 1;
+                }
+                return sequenceNumber < x.sequenceNumber ? -1 : 1;
+            }
+            long d = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return (d == 0) ? 0 : ((d < 0) ? -1 : 1);
+        }
+
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset()) {
+                if (period > 0) {
+                    time += period;
+                } else {
+                    time = triggerTime(-period);
+                }
+                if (state == RUNNING) {
+                    enqueue(this);
+                } else {
+                    super.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the nanoTime at which a task scheduled now with the specified
+     * delay is due. Delays are capped so that the difference between any two
+     * due times never overflows.
+     */
+    private static long triggerTime(long delayNanos) {
+        if (delayNanos < 0) {
+            delayNanos = 0;
+        }
+        return System.nanoTime() + Math.min(delayNanos, Long.MAX_VALUE >> 1);
+    }
+
+    private void enqueue(WheelTask<?> task) {
+        additions.add(task);
+        if (idle) {
+            LockSupport.unpark(timer);
+        }
+    }
+
+    private <V> WheelTask<V> schedule(WheelTask<V> task) {
+        if (state != RUNNING) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        enqueue(task);
+        // The timer thread may have terminated after we checked the state.
+        // If it hasn't dequeued the task it never will.
+        if (state != RUNNING && additions.remove(task)) {
+            throw new RejectedExecutionException("Executor has been shut down");
+        }
+        return task;
+    }
+
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        if (command == null || unit == null) {
+            throw new NullPointerException();
+        }
+        return schedule(new WheelTask<Void>(command, null, triggerTime(unit.toNanos(delay)), 0));
+    }
+
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        if (callable == null || unit == null) {
+            throw new NullPointerException();
+        }
+        return schedule(new WheelTask<V>(callable, triggerTime(unit.toNanos(delay))));
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+            long period, TimeUnit unit) {
+        if (command == null || unit == null) {
+            throw new NullPointerException();
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return schedule(new WheelTask<Void>(command, null,
+                triggerTime(unit.toNanos(initialDelay)), unit.toNanos(period)));
+    }
+
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+            long delay, TimeUnit unit) {
+        if (command == null || unit == null) {
+            throw new NullPointerException();
+        }
+        if (delay <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return schedule(new WheelTask<Void>(command, null,
+                triggerTime(unit.toNanos(initialDelay)), -unit.toNanos(delay)));
+    }
+
+    /**
+     * Executes {@code command} with zero required delay. This has the same
+     * effect as {@link #schedule(Runnable,long,TimeUnit) schedule(command, 0, anyUnit)}.
+     */
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override public Future<?> submit(Runnable task) {
+        return schedule(task, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override public <T> Future<T> submit(Runnable task, T result) {
+        if (task == null) {
+            throw new NullPointerException();
+        }
+        return schedule(new WheelTask<T>(task, result, triggerTime(0), 0));
+    }
+
+    @Override public <T> Future<T> submit(Callable<T> task) {
+        return schedule(task, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Initiates an orderly shutdown. Delayed tasks which have already been
+     * scheduled still run when due. Periodic tasks are cancelled and no new
+     * tasks are accepted.
+     */
+    public void shutdown() {
+        if (state == RUNNING) {
+            state = SHUTDOWN;
+        }
+        LockSupport.unpark(timer);
+    }
+
+    /**
+     * Cancels all scheduled tasks and returns the ones which never ran. If a
+     * task is currently running on the timer thread it is interrupted and
+     * this method waits for it to return.
+     */
+    public List<Runnable> shutdownNow() {
+        state = STOP;
+        if (Thread.currentThread() == timer) {
+            return drain();
+        }
+        timer.interrupt();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                termination.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        List<Runnable> result = drained;
+        return result != null ? result : new ArrayList<Runnable>();
+    }
+
+    public boolean isShutdown() {
+        return state != RUNNING;
+    }
+
+    public boolean isTerminated() {
+        return termination.getCount() == 0;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return termination.await(timeout, unit);
+    }
+
+    private void runTimer() {
+        try {
+            while (true) {
+                processAdditions();
+                if (state == STOP) {
+                    drained = drain();
+                    return;
+                }
+                if (state == SHUTDOWN && !periodicTasksCancelled) {
+                    periodicTasksCancelled = true;
+                    purge(true);
+                }
+                if (size == 0) {
+                    if (state != RUNNING && additions.isEmpty()) {
+                        return;
+                    }
+                    idle = true;
+                    if (additions.isEmpty() && state == RUNNING) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                    // Nothing is scheduled so it's safe to skip the ticks
+                    // which have passed while we were idle.
+                    tick = Math.max(tick, currentTick());
+                    continue;
+                }
+                long now = System.nanoTime();
+                long target = (now - startNanos) / tickNanos;
+                if (tick > target) {
+                    LockSupport.parkNanos(this, startNanos + tick * tickNanos - now);
+                    continue;
+                }
+                while (tick <= target && state != STOP) {
+                    expire(tick);
+                    if (tick % purgeInterval == 0) {
+                        purgeNextSlot();
+                    }
+                    tick++;
+                }
+            }
+        } finally {
+            state = STOP;
+            termination.countDown();
+        }
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startNanos) / tickNanos;
+    }
+
+    private void processAdditions() {
+        WheelTask<?> task;
+        while ((task = additions.poll()) != null) {
+            if (task.isPeriodic() && state != RUNNING) {
+                task.cancel(false);
+            } else if (!task.isCancelled()) {
+                link(task);
+            }
+        }
+    }
+
+    /**
+     * Returns the tick on which the task is due, rounding up so that it
+     * never runs early.
+     */
+    private long expiryTick(WheelTask<?> task) {
+        long elapsed = task.time - startNanos;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (elapsed + tickNanos - 1) / tickNanos;
+    }
+
+    private void link(WheelTask<?> task) {
+        long expiry = Math.max(expiryTick(task), tick);
+        long delta = expiry - tick;
+        int level = 0;
+        if (delta > MAX_SPAN) {
+            // Beyond the span of the wheel. The task is put in the farthest
+            // slot and linked again when it is cascaded from there.
+            expiry = tick + MAX_SPAN;
+            delta = MAX_SPAN;
+        }
+        while (delta >= WHEEL_SIZE) {
+            delta >>>= WHEEL_BITS;
+            level++;
+        }
+        int slot = (int) (expiry >>> (WHEEL_BITS * level)) & WHEEL_MASK;
+        WheelTask<?> head = wheel[level][slot];
+        task.prev = null;
+        task.next = head;
+        if (head != null) {
+            head.prev = task;
+        }
+        wheel[level][slot] = task;
+        task.level = level;
+        task.slot = slot;
+        size++;
+    }
+
+    private void unlink(WheelTask<?> task) {
+        if (task.prev != null) {
+            task.prev.next = task.next;
+        } else {
+            wheel[task.level][task.slot] = task.next;
+        }
+        if (task.next != null) {
+            task.next.prev = task.prev;
+        }
+        task.prev = null;
+        task.next = null;
+        size--;
+    }
+
+    /**
+     * Detaches and returns the list of tasks in the specified slot.
+     */
+    private WheelTask<?> detach(int level, int slot) {
+        WheelTask<?> head = wheel[level][slot];
+        wheel[level][slot] = null;
+        for (WheelTask<?> t = head; t != null; t = t.next) {
+            size--;
+        }
+        return head;
+    }
+
+    /**
+     * Processes the specified tick: moves the tasks of the higher level slots
+     * which start at this tick down the wheel and runs the tasks in the first
+     * level slot.
+     */
+    private void expire(long t) {
+        int level = 0;
+        while (level < LEVELS - 1
+                && ((t >>> (WHEEL_BITS * level)) & WHEEL_MASK) == 0) {
+            level++;
+        }
+        for (; level > 0; level--) {
+            WheelTask<?> task = detach(level, (int) (t >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            while (task != null) {
+                WheelTask<?> next = task.next;
+                if (!task.isCancelled()) {
+                    link(task);
+                }
+                task = next;
+            }
+        }
+        WheelTask<?> task = detach(0, (int) t & WHEEL_MASK);
+        while (task != null) {
+            WheelTask<?> next = task.next;
+            task.prev = null;
+            task.next = null;
+            if (task.isCancelled()) {
+                // Dropped.
+            } else if (state == STOP || expiryTick(task) > t) {
+                // Stopped by a previous task or scheduled beyond the span
+                // of the wheel.
+                link(task);
+            } else {
+                run(task);
+            }
+            task = next;
+        }
+    }
+
+    private void run(WheelTask<?> task) {
+        if (executor != null) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.cancel(false);
+            }
+        } else {
+            task.run();
+            if (state != STOP) {
+                // Don't let an interrupt meant for the task leak into the
+                // timer's own parking.
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private void purgeNextSlot() {
+        purge(1 + purgeCursor / WHEEL_SIZE, purgeCursor % WHEEL_SIZE, false);
+        purgeCursor = (purgeCursor + 1) % ((LEVELS - 1) * WHEEL_SIZE);
+    }
+
+    /**
+     * Unlinks the cancelled tasks in all slots. If {@code periodic} is true
+     * periodic tasks are cancelled and unlinked too.
+     */
+    private void purge(boolean periodic) {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                purge(level, slot, periodic);
+            }
+        }
+    }
+
+    private void purge(int level, int slot, boolean periodic) {
+        WheelTask<?> task = wheel[level][slot];
+        while (task != null) {
+            WheelTask<?> next = task.next;
+            if (periodic && task.isPeriodic()) {
+                task.cancel(false);
+            }
+            if (task.isCancelled()) {
+                unlink(task);
+            }
+            task = next;
+        }
+    }
+
+    /**
+     * Unlinks all tasks and returns those which haven't been cancelled.
+     * Must only be called on the timer thread once the state is STOP.
+     */
+    private List<Runnable> drain() {
+        List<Runnable> result = new ArrayList<Runnable>();
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                WheelTask<?> task = detach(level, slot);
+                while (task != null) {
+                    WheelTask<?> next = task.next;
+                    task.prev = null;
+                    task.next = null;
+                    if (!task.isCancelled()) {
+                        result.add(task);
+                    }
+                    task = next;
+                }
+            }
+        }
+        WheelTask<?> task;
+        while ((task = additions.poll()) != null) {
+            if (!task.isCancelled()) {
+                result.add(task);
+            }
+        }
+        return result;
+    }
+}
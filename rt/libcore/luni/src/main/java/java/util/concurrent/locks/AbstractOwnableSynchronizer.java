@@ -41,6 +41,16 @@ public abstract class AbstractOwnableSynchronizer
      * <tt>volatile</tt> field accesses.
      */
     protected final void setExclusiveOwnerThread(Thread t) {
+        Thread previous = exclusiveOwnerThread;
+        if (previous != t) {
+            // Only called by the new or the previous owner
+            if (previous != null) {
+                previous.addOwnedSynchronizers(-1);
+            }
+            if (t != null) {
+                t.addOwnedSynchronizers(1);
+            }
+        }
         exclusiveOwnerThread = t;
     }
 
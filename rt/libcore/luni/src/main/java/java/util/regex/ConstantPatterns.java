@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.regex;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Targets of calls with constant regular expressions. The RoboVM compiler
+ * rewrites calls like {@code s.split(",")} or {@code Pattern.compile("\\d+")}
+ * where the regular expression is a constant to call the method here with the
+ * same name instead. Each regular expression is compiled once and the
+ * {@link Pattern} is shared by all callers. {@link Pattern}s are immutable so
+ * this is only observable through {@code ==}.
+ * <p>
+ * The cache is never pruned. Only the compiler should call these methods so
+ * it only ever holds the constant regular expressions in the app.
+ *
+ * @hide
+ */
+public final class ConstantPatterns {
+    private static final ConcurrentHashMap<String, Pattern> patterns =
+            new ConcurrentHashMap<String, Pattern>();
+
+    private ConstantPatterns() {
+    }
+
+    /**
+     * Equivalent to {@link Pattern#compile(String)}.
+     */
+    public static Pattern compile(String regularExpression) {
+        if (regularExpression == null) {
+            throw new NullPointerException("pattern == null");
+        }
+        Pattern pattern = patterns.get(regularExpression);
+        if (pattern == null) {
+            pattern = Pattern.compile(regularExpression);
+            Pattern existing = patterns.putIfAbsent(regularExpression, pattern);
+            if (existing != null) {
+                pattern = existing;
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * Equivalent to {@link Pattern#compile(String, int)}.
+     */
+    public static Pattern compile(String regularExpression, int flags) {
+        if (flags == 0) {
+            return compile(regularExpression);
+        }
+        if (regularExpression == null) {
+            throw new NullPointerException("pattern == null");
+        }
+        // Flags are rare. Keep them in the same map using a key no regular
+        // expression with flags 0 can clash with.
+        String key = "\u0000" + flags + "\u0000" + regularExpression;
+        Pattern pattern = patterns.get(key);
+        if (pattern == null) {
+            pattern = Pattern.compile(regularExpression, flags);
+            Pattern existing = patterns.putIfAbsent(key, pattern);
+            if (existing != null) {
+                pattern = existing;
+            }
+        }
+        return pattern;
+    }
+
+    /**
+     * Equivalent to {@link Pattern#matches(String, CharSequence)}.
+     */
+    public static boolean matches(String regularExpression, CharSequence input) {
+        return compile(regularExpression).matcher(input).matches();
+    }
+
+    /**
+     * Equivalent to {@code input.matches(regularExpression)}.
+     */
+    public static boolean matches(String input, String regularExpression) {
+        return compile(regularExpression).matcher(input).matches();
+    }
+
+    /**
+     * Equivalent to {@code input.replaceAll(regularExpression, replacement)}.
+     */
+    public static String replaceAll(String input, String regularExpression, String replacement) {
+        return compile(regularExpression).matcher(input).replaceAll(replacement);
+    }
+
+    /**
+     * Equivalent to {@code input.replaceFirst(regularExpression, replacement)}.
+     */
+    public static String replaceFirst(String input, String regularExpression, String replacement) {
+        return compile(regularExpression).matcher(input).replaceFirst(replacement);
+    }
+
+    /**
+     * Equivalent to {@code input.split(regularExpression)}.
+     */
+    public static String[] split(String input, String regularExpression) {
+        return split(input, regularExpression, 0);
+    }
+
+    /**
+     * Equivalent to {@code input.split(regularExpression, limit)}.
+     */
+    public static String[] split(String input, String regularExpression, int limit) {
+        String[] result = Splitter.fastSplit(regularExpression, input, limit);
+        return result != null ? result : compile(regularExpression).split(input, limit);
+    }
+}
@@ -32,6 +32,12 @@ public final class Matcher implements MatchResult {
      */
     private int address;
 
+    /**
+     * Holds the state of the pure Java matcher if the pattern is matched
+     * without ICU, {@code null} otherwise.
+     */
+    private RegexProgram.Runner runner;
+
     /**
      * Holds the input text.
      */
@@ -54,6 +60,12 @@ public final class Matcher implements MatchResult {
      */
     private int findPos;
 
+    /**
+     * Reflects whether a find operation has failed since the last reset. Only
+     * used by the pure Java matcher.
+     */
+    private boolean findExhausted;
+
     /**
      * Holds the position where the next append operation will take place.
      */
@@ -213,6 +225,7 @@ public final class Matcher implements MatchResult {
 
         matchFound = false;
         findPos = regionStart;
+        findExhausted = false;
         appendPos = 0;
 
         return this;
@@ -239,7 +252,12 @@ public final class Matcher implements MatchResult {
             closeImpl(address);
             address = 0;
         }
-        address = openImpl(pattern.address);
+        if (pattern.program != null) {
+            runner = pattern.program.newRunner();
+        } else {
+            runner = null;
+            address = openImpl(pattern.address);
+        }
 
         if (input != null) {
             resetForInput();
@@ -251,6 +269,12 @@ public final class Matcher implements MatchResult {
     }
 
     private void resetForInput() {
+        if (runner != null) {
+            // Like setInputImpl() restarts ICU's find().
+            findPos = regionStart;
+            findExhausted = false;
+            return;
+        }
         setInputImpl(address, input, regionStart, regionEnd);
         useAnchoringBoundsImpl(address, anchoringBounds);
         useTransparentBoundsImpl(address, transparentBounds);
@@ -397,6 +421,11 @@ public final class Matcher implements MatchResult {
             return false;
         }
 
+        if (runner != null) {
+            findExhausted = false;
+            return findJava(findPos);
+        }
+
         matchFound = findImpl(address, input, findPos, matchOffsets);
         if (matchFound) {
             findPos = matchOffsets[1];
@@ -413,6 +442,24 @@ public final class Matcher implements MatchResult {
      * @return true if (and only if) a match has been found.
      */
     public boolean find() {
+        if (runner != null) {
+            int start = findPos;
+            if (findExhausted) {
+                return false;
+            }
+            if (matchFound && matchOffsets[0] == matchOffsets[1]) {
+                // Don't find the same empty match again.
+                if (start >= regionEnd) {
+                    matchFound = false;
+                    findExhausted = true;
+                    return false;
+                }
+                boolean pair = start + 1 < regionEnd && Character.isHighSurrogate(input.charAt(start))
+                        && Character.isLowSurrogate(input.charAt(start + 1));
+                start += pair ? 2 : 1;
+            }
+            return findJava(start);
+        }
         matchFound = findNextImpl(address, input, matchOffsets);
         if (matchFound) {
             findPos = matchOffsets[1];
@@ -428,6 +475,9 @@ public final class Matcher implements MatchResult {
      * @return true if (and only if) the {@code Pattern} matches.
      */
     public boolean lookingAt() {
+        if (runner != null) {
+            return matchJava(RegexProgram.LOOKING_AT);
+        }
         matchFound = lookingAtImpl(address, input, matchOffsets);
         if (matchFound) {
             findPos = matchOffsets[1];
@@ -443,6 +493,9 @@ public final class Matcher implements MatchResult {
      *         region.
      */
     public boolean matches() {
+        if (runner != null) {
+            return matchJava(RegexProgram.MATCHES);
+        }
         matchFound = matchesImpl(address, input, matchOffsets);
         if (matchFound) {
             findPos = matchOffsets[1];
@@ -450,6 +503,26 @@ public final class Matcher implements MatchResult {
         return matchFound;
     }
 
+    private boolean findJava(int start) {
+        matchFound = pattern.program.match(runner, input, start, regionStart, regionEnd,
+                anchoringBounds, RegexProgram.FIND, matchOffsets);
+        if (matchFound) {
+            findPos = matchOffsets[1];
+        } else {
+            findExhausted = true;
+        }
+        return matchFound;
+    }
+
+    private boolean matchJava(int mode) {
+        // Like ICU's lookingAt() and matches() this restarts find().
+        findExhausted = false;
+        matchFound = pattern.program.match(runner, input, regionStart, regionStart, regionEnd,
+                anchoringBounds, mode, matchOffsets);
+        findPos = matchFound ? matchOffsets[1] : regionStart;
+        return matchFound;
+    }
+
     /**
      * Returns the index of the first character of the text that matched a given
      * group.
@@ -522,6 +595,9 @@ public final class Matcher implements MatchResult {
      * @return the number of groups.
      */
     public int groupCount() {
+        if (runner != null) {
+            return pattern.program.groupCount();
+        }
         return groupCountImpl(address);
     }
 
@@ -563,7 +639,9 @@ public final class Matcher implements MatchResult {
      */
     public Matcher useAnchoringBounds(boolean value) {
         anchoringBounds = value;
-        useAnchoringBoundsImpl(address, value);
+        if (runner == null) {
+            useAnchoringBoundsImpl(address, value);
+        }
         return this;
     }
 
@@ -590,8 +668,12 @@ public final class Matcher implements MatchResult {
      * @return the {@code Matcher} itself.
      */
     public Matcher useTransparentBounds(boolean value) {
+        // Transparent bounds only affect lookaround and word boundaries which
+        // the pure Java matcher doesn't support.
         transparentBounds = value;
-        useTransparentBoundsImpl(address, value);
+        if (runner == null) {
+            useTransparentBoundsImpl(address, value);
+        }
         return this;
     }
 
@@ -648,6 +730,9 @@ public final class Matcher implements MatchResult {
      *         into an unsuccessful one.
      */
     public boolean requireEnd() {
+        if (runner != null) {
+            return runner.requireEnd;
+        }
         return requireEndImpl(address);
     }
 
@@ -657,12 +742,17 @@ public final class Matcher implements MatchResult {
      * @return true if (and only if) the last match hit the end of the input.
      */
     public boolean hitEnd() {
+        if (runner != null) {
+            return runner.hitEnd;
+        }
         return hitEndImpl(address);
     }
 
     @Override protected void finalize() throws Throwable {
         try {
-            closeImpl(address);
+            if (address != 0) {
+                closeImpl(address);
+            }
         } finally {
             super.finalize();
         }
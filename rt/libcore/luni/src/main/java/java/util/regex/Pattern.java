@@ -280,6 +280,12 @@ public final class Pattern implements Serializable {
 
     transient int address;
 
+    /**
+     * The pure Java version of the pattern or {@code null} if the pattern
+     * is matched by ICU. See {@link RegexProgram}.
+     */
+    transient RegexProgram program;
+
     /**
      * Returns a {@link Matcher} for this pattern applied to the given {@code input}.
      * The {@code Matcher} can be used to match the {@code Pattern} against the
@@ -388,6 +394,11 @@ public final class Pattern implements Serializable {
             throw new NullPointerException("pattern == null");
         }
 
+        program = RegexProgram.compile(pattern, flags);
+        if (program != null) {
+            return;
+        }
+
         String icuPattern = pattern;
         if ((flags & LITERAL) != 0) {
             icuPattern = quote(pattern);
@@ -434,7 +445,9 @@ public final class Pattern implements Serializable {
 
     @Override protected void finalize() throws Throwable {
         try {
-            closeImpl(address);
+            if (address != 0) {
+                closeImpl(address);
+            }
         } finally {
             super.finalize();
         }
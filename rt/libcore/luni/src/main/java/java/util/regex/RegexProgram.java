@@ -0,0 +1,952 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package java.util.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pure Java backtracking matcher for the subset of the regular expression
+ * syntax most patterns use. Matching a pattern in the subset doesn't call
+ * into ICU through JNI. {@link #compile(String, int)} returns {@code null} for
+ * patterns outside the subset and {@link Pattern} falls back to ICU for them.
+ * That includes all syntax errors so the exceptions thrown are still ICU's.
+ * <p>
+ * The subset is literals, {@code \Q...\E}, {@code .}, character classes
+ * made of literals, ranges and {@code \d \s \w \D \S \W}, {@code ^} and
+ * {@code $}, capturing and non-capturing groups, alternation, and greedy and
+ * reluctant quantifiers. The supported flags are {@link Pattern#DOTALL} and
+ * {@link Pattern#LITERAL}. Predefined classes, {@code .} and {@code $} have
+ * ICU's Unicode semantics.
+ */
+final class RegexProgram {
+
+    static final int FIND = 0;
+    static final int LOOKING_AT = 1;
+    static final int MATCHES = 2;
+
+    private static final int OP_CHAR = 0;
+    private static final int OP_ANY = 1;
+    private static final int OP_ANY_DOTALL = 2;
+    private static final int OP_CLASS = 3;
+    private static final int OP_SPLIT = 4;
+    private static final int OP_JMP = 5;
+    private static final int OP_SAVE = 6;
+    private static final int OP_BOL = 7;
+    private static final int OP_EOL = 8;
+    private static final int OP_MATCH = 9;
+
+    /** Patterns compiling to more code than this are left to ICU. */
+    private static final int MAX_CODE_SIZE = 4096;
+
+    private final int[] code;
+    private final CharSet[] sets;
+    private final int groupCount;
+    /** The character every match starts with or -1 if unknown. */
+    private final int firstChar;
+
+    private RegexProgram(int[] code, CharSet[] sets, int groupCount) {
+        this.code = code;
+        this.sets = sets;
+        this.groupCount = groupCount;
+        int pc = 0;
+        while (code[pc] == OP_SAVE) {
+            pc += 2;
+        }
+        this.firstChar = code[pc] == OP_CHAR ? code[pc + 1] : -1;
+    }
+
+    /**
+     * Compiles {@code pattern} or returns {@code null} if the pattern or the
+     * flags are outside the supported subset.
+     */
+    static RegexProgram compile(String pattern, int flags) {
+        if ((flags & ~(Pattern.DOTALL | Pattern.LITERAL)) != 0) {
+            return null;
+        }
+        try {
+            Parser parser = new Parser(pattern, (flags & Pattern.DOTALL) != 0);
+            Node root = (flags & Pattern.LITERAL) != 0 ? parser.parseLiteral() : parser.parse();
+            Emitter emitter = new Emitter();
+            root.emit(emitter);
+            emitter.emit(OP_MATCH);
+            return new RegexProgram(Arrays.copyOf(emitter.code, emitter.size),
+                    emitter.sets.toArray(new CharSet[emitter.sets.size()]), parser.groupCount);
+        } catch (UnsupportedSyntax e) {
+            return null;
+        }
+    }
+
+    int groupCount() {
+        return groupCount;
+    }
+
+    Runner newRunner() {
+        return new Runner(groupCount);
+    }
+
+    /**
+     * Matches against {@code s[regionStart, regionEnd)} starting at
+     * {@code from} as specified by {@code mode}. On success the group offsets
+     * are stored in {@code offsets} with -1 for groups which didn't
+     * participate in the match.
+     */
+    boolean match(Runner r, String s, int from, int regionStart, int regionEnd,
+            boolean anchoringBounds, int mode, int[] offsets) {
+        r.hitEnd = false;
+        r.requireEnd = false;
+        if (mode != FIND) {
+            return run(r, s, regionStart, regionStart, regionEnd, anchoringBounds, mode == MATCHES, offsets);
+        }
+        int start = from;
+        while (start <= regionEnd) {
+            if (firstChar != -1) {
+                int i = s.indexOf(firstChar, start);
+                if (i == -1 || i >= regionEnd) {
+                    r.hitEnd = true;
+                    return false;
+                }
+                start = i;
+            }
+            if (run(r, s, start, regionStart, regionEnd, anchoringBounds, false, offsets)) {
+                return true;
+            }
+            if (start < regionEnd - 1 && Character.isHighSurrogate(s.charAt(start))
+                    && Character.isLowSurrogate(s.charAt(start + 1))) {
+                start += 2;
+            } else {
+                start++;
+            }
+        }
+        return false;
+    }
+
+    private boolean run(Runner r, String s, int start, int regionStart, int regionEnd,
+            boolean anchoringBounds, boolean toEnd, int[] offsets) {
+        int[] code = this.code;
+        int[] caps = r.caps;
+        int requireEndSlot = caps.length - 1;
+        Arrays.fill(caps, -1);
+        caps[requireEndSlot] = 0;
+        r.sp = 0;
+        int pc = 0;
+        int pos = start;
+        for (;;) {
+            fail: {
+                switch (code[pc]) {
+                case OP_CHAR:
+                    if (pos < regionEnd) {
+                        if (s.charAt(pos) == code[pc + 1]) {
+                            pos++;
+                            pc += 2;
+                            continue;
+                        }
+                    } else {
+                        r.hitEnd = true;
+                    }
+                    break fail;
+                case OP_ANY:
+                case OP_ANY_DOTALL:
+                case OP_CLASS: {
+                    if (pos >= regionEnd) {
+                        r.hitEnd = true;
+                        break fail;
+                    }
+                    int c = s.charAt(pos);
+                    int n = 1;
+                    if (Character.isHighSurrogate((char) c) && pos + 1 < regionEnd
+                            && Character.isLowSurrogate(s.charAt(pos + 1))) {
+                        c = Character.toCodePoint((char) c, s.charAt(pos + 1));
+                        n = 2;
+                    }
+                    if (code[pc] == OP_CLASS) {
+                        if (!sets[code[pc + 1]].contains(c)) {
+                            break fail;
+                        }
+                        pc += 2;
+                    } else {
+                        if (code[pc] == OP_ANY && isLineTerminator(c)) {
+                            break fail;
+                        }
+                        pc++;
+                    }
+                    pos += n;
+                    continue;
+                }
+                case OP_SPLIT:
+                    // Try the first branch now, the second one on backtracking.
+                    r.push(code[pc + 2], pos);
+                    pc = code[pc + 1];
+                    continue;
+                case OP_JMP:
+                    pc = code[pc + 1];
+                    continue;
+                case OP_SAVE:
+                    r.push(-1 - code[pc + 1], caps[code[pc + 1]]);
+                    caps[code[pc + 1]] = pos;
+                    pc += 2;
+                    continue;
+                case OP_BOL:
+                    if (pos != (anchoringBounds ? regionStart : 0)) {
+                        break fail;
+                    }
+                    pc++;
+                    continue;
+                case OP_EOL: {
+                    int limit = anchoringBounds ? regionEnd : s.length();
+                    int anchorStart = anchoringBounds ? regionStart : 0;
+                    boolean matched;
+                    if (pos >= limit) {
+                        matched = true;
+                    } else if (pos == limit - 1) {
+                        char c = s.charAt(pos);
+                        // Not in the middle of a CR LF sequence
+                        matched = isLineTerminator(c)
+                                && !(c == '\n' && pos > anchorStart && s.charAt(pos - 1) == '\r');
+                    } else {
+                        matched = pos == limit - 2 && s.charAt(pos) == '\r' && s.charAt(pos + 1) == '\n';
+                    }
+                    if (!matched) {
+                        break fail;
+                    }
+                    r.hitEnd = true;
+                    if (caps[requireEndSlot] == 0) {
+                        r.push(-1 - requireEndSlot, 0);
+                        caps[requireEndSlot] = 1;
+                    }
+                    pc++;
+                    continue;
+                }
+                case OP_MATCH:
+                    if (toEnd && pos != regionEnd) {
+                        break fail;
+                    }
+                    offsets[0] = start;
+                    offsets[1] = pos;
+                    for (int i = 2; i < offsets.length; i += 2) {
+                        int groupStart = caps[i];
+                        int groupEnd = caps[i + 1];
+                        if (groupStart == -1 || groupEnd == -1) {
+                            groupStart = groupEnd = -1;
+                        }
+                        offsets[i] = groupStart;
+                        offsets[i + 1] = groupEnd;
+                    }
+                    r.requireEnd = caps[requireEndSlot] == 1;
+                    return true;
+                default:
+                    throw new AssertionError();
+                }
+            }
+            // Backtrack: undo captures until we reach an untried branch.
+            for (;;) {
+                if (r.sp == 0) {
+                    return false;
+                }
+                r.sp -= 2;
+                int a = r.stack[r.sp];
+                int b = r.stack[r.sp + 1];
+                if (a < 0) {
+                    caps[-1 - a] = b;
+                } else {
+                    pc = a;
+                    pos = b;
+                    break;
+                }
+            }
+        }
+    }
+
+    private static boolean isLineTerminator(int c) {
+        return (c >= '\n' && c <= '\r') || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Per-{@link Matcher} state. Reused between matches to avoid allocating.
+     */
+    static final class Runner {
+        /**
+         * Backtrack entries, two ints each. Either (pc, pos) of an untried
+         * branch or (-1 - slot, value) restoring a capture slot.
+         */
+        private int[] stack = new int[32];
+        private int sp;
+        /** Group capture slots followed by the requireEnd flag. */
+        private final int[] caps;
+        boolean hitEnd;
+        boolean requireEnd;
+
+        private Runner(int groupCount) {
+            caps = new int[(groupCount + 1) * 2 + 1];
+        }
+
+        private void push(int a, int b) {
+            if (sp + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[sp++] = a;
+            stack[sp++] = b;
+        }
+    }
+
+    /**
+     * A character class: ranges of code points and predefined classes,
+     * optionally negated.
+     */
+    private static final class CharSet {
+        private static final int DIGIT = 1;
+        private static final int NOT_DIGIT = 2;
+        private static final int SPACE = 4;
+        private static final int NOT_SPACE = 8;
+        private static final int WORD = 16;
+        private static final int NOT_WORD = 32;
+
+        private int[] ranges = new int[8];
+        private int rangeCount;
+        private int predicates;
+        private boolean negated;
+
+        void add(int lo, int hi) {
+            if (rangeCount * 2 == ranges.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            ranges[rangeCount * 2] = lo;
+            ranges[rangeCount * 2 + 1] = hi;
+            rangeCount++;
+        }
+
+        boolean contains(int c) {
+            boolean result = false;
+            for (int i = 0; i < rangeCount * 2; i += 2) {
+                if (c >= ranges[i] && c <= ranges[i + 1]) {
+                    result = true;
+                    break;
+                }
+            }
+            if (!result && predicates != 0) {
+                result = ((predicates & DIGIT) != 0 && Character.isDigit(c))
+                        || ((predicates & NOT_DIGIT) != 0 && !Character.isDigit(c))
+                        || ((predicates & SPACE) != 0 && isSpace(c))
+                        || ((predicates & NOT_SPACE) != 0 && !isSpace(c))
+                        || ((predicates & WORD) != 0 && isWord(c))
+                        || ((predicates & NOT_WORD) != 0 && !isWord(c));
+            }
+            return result != negated;
+        }
+
+        /** ICU's {@code \s}: {@code [\t\n\f\r\p{Z}]}. */
+        private static boolean isSpace(int c) {
+            return c == '\t' || c == '\n' || c == '\f' || c == '\r' || Character.isSpaceChar(c);
+        }
+
+        /**
+         * ICU's {@code \w}: {@code [\p{Alphabetic}\p{Mark}\p{Decimal_Number}
+         * \p{Connector_Punctuation}} plus U+200C and U+200D.
+         */
+        private static boolean isWord(int c) {
+            if (Character.isLetter(c) || Character.isDigit(c) || c == '\u200c' || c == '\u200d') {
+                return true;
+            }
+            // Other_Alphabetic is made up of marks
+            int type = Character.getType(c);
+            return type == Character.LETTER_NUMBER || type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                    || type == Character.COMBINING_SPACING_MARK
+                    || type == Character.CONNECTOR_PUNCTUATION;
+        }
+    }
+
+    /**
+     * Thrown by the parser when it encounters anything outside the subset.
+     */
+    private static final class UnsupportedSyntax extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private static final class Emitter {
+        private int[] code = new int[32];
+        private int size;
+        private final List<CharSet> sets = new ArrayList<CharSet>();
+
+        int pc() {
+            return size;
+        }
+
+        void emit(int value) {
+            if (size == code.length) {
+                if (size >= MAX_CODE_SIZE) {
+                    throw new UnsupportedSyntax();
+                }
+                code = Arrays.copyOf(code, size * 2);
+            }
+            code[size++] = value;
+        }
+
+        void emit(int op, int operand) {
+            emit(op);
+            emit(operand);
+        }
+
+        int emitSplit() {
+            int pc = size;
+            emit(OP_SPLIT);
+            emit(0);
+            emit(0);
+            return pc;
+        }
+
+        void patchSplit(int pc, int first, int second) {
+            code[pc + 1] = first;
+            code[pc + 2] = second;
+        }
+
+        int addSet(CharSet set) {
+            sets.add(set);
+            return sets.size() - 1;
+        }
+    }
+
+    private static abstract class Node {
+        abstract void emit(Emitter e);
+
+        /** Returns true if this node can match the empty string. */
+        abstract boolean nullable();
+
+        /** Returns true if a quantifier may follow this node. */
+        boolean quantifiable() {
+            return true;
+        }
+    }
+
+    private static final class CharNode extends Node {
+        private final String chars;
+
+        CharNode(String chars) {
+            this.chars = chars;
+        }
+
+        @Override void emit(Emitter e) {
+            for (int i = 0; i < chars.length(); i++) {
+                e.emit(OP_CHAR, chars.charAt(i));
+            }
+        }
+
+        @Override boolean nullable() {
+            return chars.isEmpty();
+        }
+
+        @Override boolean quantifiable() {
+            // A quantifier after \Q...\E is ambiguous.
+            return chars.length() == 1;
+        }
+    }
+
+    private static final class OpNode extends Node {
+        private final int op;
+
+        OpNode(int op) {
+            this.op = op;
+        }
+
+        @Override void emit(Emitter e) {
+            e.emit(op);
+        }
+
+        @Override boolean nullable() {
+            return op == OP_BOL || op == OP_EOL;
+        }
+
+        @Override boolean quantifiable() {
+            return !nullable();
+        }
+    }
+
+    private static final class SetNode extends Node {
+        private final CharSet set;
+
+        SetNode(CharSet set) {
+            this.set = set;
+        }
+
+        @Override void emit(Emitter e) {
+            e.emit(OP_CLASS, e.addSet(set));
+        }
+
+        @Override boolean nullable() {
+            return false;
+        }
+    }
+
+    private static final class GroupNode extends Node {
+        private final int group;
+        private final Node child;
+
+        GroupNode(int group, Node child) {
+            this.group = group;
+            this.child = child;
+        }
+
+        @Override void emit(Emitter e) {
+            e.emit(OP_SAVE, group * 2);
+            child.emit(e);
+            e.emit(OP_SAVE, group * 2 + 1);
+        }
+
+        @Override boolean nullable() {
+            return child.nullable();
+        }
+    }
+
+    private static final class ConcatNode extends Node {
+        private final List<Node> children;
+
+        ConcatNode(List<Node> children) {
+            this.children = children;
+        }
+
+        @Override void emit(Emitter e) {
+            for (Node child : children) {
+                child.emit(e);
+            }
+        }
+
+        @Override boolean nullable() {
+            for (Node child : children) {
+                if (!child.nullable()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class AltNode extends Node {
+        private final List<Node> alternatives;
+
+        AltNode(List<Node> alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override void emit(Emitter e) {
+            int[] jumps = new int[alternatives.size() - 1];
+            for (int i = 0; i < alternatives.size() - 1; i++) {
+                int split = e.emitSplit();
+                alternatives.get(i).emit(e);
+                jumps[i] = e.pc();
+                e.emit(OP_JMP, 0);
+                e.patchSplit(split, split + 3, e.pc());
+            }
+            alternatives.get(alternatives.size() - 1).emit(e);
+            for (int jump : jumps) {
+                e.code[jump + 1] = e.pc();
+            }
+        }
+
+        @Override boolean nullable() {
+            for (Node alternative : alternatives) {
+                if (alternative.nullable()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class RepeatNode extends Node {
+        static final int INFINITE = -1;
+
+        private final Node child;
+        private final int min;
+        private final int max;
+        private final boolean greedy;
+
+        RepeatNode(Node child, int min, int max, boolean greedy) {
+            this.child = child;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+
+        @Override void emit(Emitter e) {
+            for (int i = 0; i < min; i++) {
+                child.emit(e);
+            }
+            if (max == INFINITE) {
+                int split = e.emitSplit();
+                child.emit(e);
+                e.emit(OP_JMP, split);
+                patch(e, split);
+            } else {
+                int[] splits = new int[max - min];
+                for (int i = 0; i < splits.length; i++) {
+                    splits[i] = e.emitSplit();
+                    child.emit(e);
+                }
+                for (int split : splits) {
+                    patch(e, split);
+                }
+            }
+        }
+
+        private void patch(Emitter e, int split) {
+            if (greedy) {
+                e.patchSplit(split, split + 3, e.pc());
+            } else {
+                e.patchSplit(split, e.pc(), split + 3);
+            }
+        }
+
+        @Override boolean nullable() {
+            return min == 0 || child.nullable();
+        }
+    }
+
+    private static final class Parser {
+        /** Punctuation which is a literal inside a character class in both ICU and the RI. */
+        private static final String CLASS_PUNCTUATION = "!\"#%',./:;<=>@_`~*+?(){}| ";
+
+        private final String pattern;
+        private final boolean dotAll;
+        private int pos;
+        int groupCount;
+
+        Parser(String pattern, boolean dotAll) {
+            this.pattern = pattern;
+            this.dotAll = dotAll;
+        }
+
+        Node parseLiteral() {
+            for (int i = 0; i < pattern.length(); i++) {
+                if (Character.isSurrogate(pattern.charAt(i))) {
+                    throw new UnsupportedSyntax();
+                }
+            }
+            return new CharNode(pattern);
+        }
+
+        Node parse() {
+            Node node = parseAlternation();
+            if (pos != pattern.length()) {
+                // Unbalanced ')'
+                throw new UnsupportedSyntax();
+            }
+            return node;
+        }
+
+        private Node parseAlternation() {
+            List<Node> alternatives = new ArrayList<Node>();
+            alternatives.add(parseConcatenation());
+            while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+                pos++;
+                alternatives.add(parseConcatenation());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new AltNode(alternatives);
+        }
+
+        private Node parseConcatenation() {
+            List<Node> nodes = new ArrayList<Node>();
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+                if (c == '|' || c == ')') {
+                    break;
+                }
+                nodes.add(parseQuantifier(parseAtom()));
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new ConcatNode(nodes);
+        }
+
+        private Node parseAtom() {
+            char c = pattern.charAt(pos++);
+            switch (c) {
+            case '(': {
+                int group = 0;
+                if (pos < pattern.length() && pattern.charAt(pos) == '?') {
+                    if (pos + 1 < pattern.length() && pattern.charAt(pos + 1) == ':') {
+                        pos += 2;
+                    } else {
+                        // Lookaround, inline flags, named groups, ...
+                        throw new UnsupportedSyntax();
+                    }
+                } else {
+                    group = ++groupCount;
+                }
+                Node child = parseAlternation();
+                if (pos == pattern.length() || pattern.charAt(pos) != ')') {
+                    throw new UnsupportedSyntax();
+                }
+                pos++;
+                return group != 0 ? new GroupNode(group, child) : child;
+            }
+            case '[':
+                return new SetNode(parseClass());
+            case '.':
+                return new OpNode(dotAll ? OP_ANY_DOTALL : OP_ANY);
+            case '^':
+                return new OpNode(OP_BOL);
+            case '$':
+                return new OpNode(OP_EOL);
+            case '\\': {
+                if (pos < pattern.length() && pattern.charAt(pos) == 'Q') {
+                    pos++;
+                    int end = pattern.indexOf("\\E", pos);
+                    String quoted = pattern.substring(pos, end == -1 ? pattern.length() : end);
+                    pos = end == -1 ? pattern.length() : end + 2;
+                    for (int i = 0; i < quoted.length(); i++) {
+                        if (Character.isSurrogate(quoted.charAt(i))) {
+                            throw new UnsupportedSyntax();
+                        }
+                    }
+                    return new CharNode(quoted);
+                }
+                CharSet set = new CharSet();
+                int escaped = parseEscape(set);
+                return escaped == -1 ? new SetNode(set) : new CharNode(String.valueOf((char) escaped));
+            }
+            case '*': case '+': case '?': case '{': case ']': case '}':
+                // Dangling quantifier or a character the RI and ICU disagree on.
+                throw new UnsupportedSyntax();
+            default:
+                if (Character.isSurrogate(c)) {
+                    throw new UnsupportedSyntax();
+                }
+                return new CharNode(String.valueOf(c));
+            }
+        }
+
+        private Node parseQuantifier(Node atom) {
+            if (pos == pattern.length()) {
+                return atom;
+            }
+            int min;
+            int max;
+            switch (pattern.charAt(pos)) {
+            case '*':
+                min = 0;
+                max = RepeatNode.INFINITE;
+                pos++;
+                break;
+            case '+':
+                min = 1;
+                max = RepeatNode.INFINITE;
+                pos++;
+                break;
+            case '?':
+                min = 0;
+                max = 1;
+                pos++;
+                break;
+            case '{':
+                pos++;
+                min = parseCount();
+                if (pos < pattern.length() && pattern.charAt(pos) == ',') {
+                    pos++;
+                    max = pos < pattern.length() && pattern.charAt(pos) == '}'
+                            ? RepeatNode.INFINITE : parseCount();
+                } else {
+                    max = min;
+                }
+                if (pos == pattern.length() || pattern.charAt(pos) != '}'
+                        || (max != RepeatNode.INFINITE && max < min)) {
+                    throw new UnsupportedSyntax();
+                }
+                pos++;
+                break;
+            default:
+                return atom;
+            }
+            boolean greedy = true;
+            if (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+                if (c == '?') {
+                    greedy = false;
+                    pos++;
+                } else if (c == '+') {
+                    // Possessive
+                    throw new UnsupportedSyntax();
+                }
+            }
+            if (pos < pattern.length() && "*+?{".indexOf(pattern.charAt(pos)) != -1) {
+                throw new UnsupportedSyntax();
+            }
+            if (!atom.quantifiable() || atom.nullable()) {
+                // Repeating an atom which can match the empty string needs
+                // ICU's empty iteration rules which we don't implement, even
+                // for bounded counts.
+                throw new UnsupportedSyntax();
+            }
+            return new RepeatNode(atom, min, max, greedy);
+        }
+
+        private int parseCount() {
+            int start = pos;
+            int n = 0;
+            while (pos < pattern.length() && pattern.charAt(pos) >= '0' && pattern.charAt(pos) <= '9') {
+                n = n * 10 + (pattern.charAt(pos++) - '0');
+                if (n > MAX_CODE_SIZE) {
+                    throw new UnsupportedSyntax();
+                }
+            }
+            if (pos == start) {
+                throw new UnsupportedSyntax();
+            }
+            return n;
+        }
+
+        private CharSet parseClass() {
+            CharSet set = new CharSet();
+            if (pos < pattern.length() && pattern.charAt(pos) == '^') {
+                set.negated = true;
+                pos++;
+            }
+            int first = pos;
+            for (;;) {
+                if (pos == pattern.length()) {
+                    throw new UnsupportedSyntax();
+                }
+                char c = pattern.charAt(pos);
+                if (c == ']') {
+                    if (pos == first) {
+                        // Empty class or ']' as the first literal.
+                        throw new UnsupportedSyntax();
+                    }
+                    pos++;
+                    return set;
+                }
+                int lo = parseClassChar(set, pos == first);
+                if (lo == -1) {
+                    // A predefined class can't start a range.
+                    if (isRangeDash()) {
+                        throw new UnsupportedSyntax();
+                    }
+                    continue;
+                }
+                int hi = lo;
+                if (isRangeDash()) {
+                    pos++;
+                    hi = parseClassChar(set, false);
+                    if (hi == -1 || hi < lo) {
+                        throw new UnsupportedSyntax();
+                    }
+                }
+                set.add(lo, hi);
+            }
+        }
+
+        private boolean isRangeDash() {
+            return pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']';
+        }
+
+        /**
+         * Parses a character or an escape inside a class. Returns the
+         * character or -1 if a predefined class was added to {@code set}.
+         */
+        private int parseClassChar(CharSet set, boolean first) {
+            char c = pattern.charAt(pos++);
+            if (c == '\\') {
+                return parseEscape(set);
+            }
+            if (c == '-') {
+                // Only unambiguous at either end of the class.
+                if (first || (pos < pattern.length() && pattern.charAt(pos) == ']')) {
+                    return c;
+                }
+                throw new UnsupportedSyntax();
+            }
+            if (c < 0x80 ? Character.isLetterOrDigit(c) || CLASS_PUNCTUATION.indexOf(c) != -1
+                    : !Character.isSurrogate(c)) {
+                return c;
+            }
+            // '[', '&', '^', '$' and control characters.
+            throw new UnsupportedSyntax();
+        }
+
+        /**
+         * Parses the escape following a '\'. Returns the escaped character or
+         * -1 if a predefined class was added to {@code set}.
+         */
+        private int parseEscape(CharSet set) {
+            if (pos == pattern.length()) {
+                throw new UnsupportedSyntax();
+            }
+            char c = pattern.charAt(pos++);
+            switch (c) {
+            case 'd':
+                set.predicates |= CharSet.DIGIT;
+                return -1;
+            case 'D':
+                set.predicates |= CharSet.NOT_DIGIT;
+                return -1;
+            case 's':
+                set.predicates |= CharSet.SPACE;
+                return -1;
+            case 'S':
+                set.predicates |= CharSet.NOT_SPACE;
+                return -1;
+            case 'w':
+                set.predicates |= CharSet.WORD;
+                return -1;
+            case 'W':
+                set.predicates |= CharSet.NOT_WORD;
+                return -1;
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            case 'e':
+                return '\u001b';
+            case 'x':
+                return parseHex(2);
+            case 'u':
+                return parseHex(4);
+            default:
+                if (c < 0x80 && !Character.isLetterOrDigit(c)) {
+                    return c;
+                }
+                // Back references, \b, \p{...}, \Q inside a class, ...
+                throw new UnsupportedSyntax();
+            }
+        }
+
+        private int parseHex(int digits) {
+            if (pos + digits > pattern.length()) {
+                throw new UnsupportedSyntax();
+            }
+            int value = 0;
+            for (int i = 0; i < digits; i++) {
+                int digit = Character.digit(pattern.charAt(pos++), 16);
+                if (digit == -1) {
+                    throw new UnsupportedSyntax();
+                }
+                value = value * 16 + digit;
+            }
+            if (Character.isSurrogate((char) value)) {
+                throw new UnsupportedSyntax();
+            }
+            return value;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 
 package java.util.zip;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -76,7 +77,32 @@ public class CRC32 implements Checksum {
         crc = updateImpl(buf, offset, byteCount, crc);
     }
 
+    /**
+     * Updates this checksum with the bytes between the position and the limit
+     * of {@code buf}. The position is advanced to the limit. The contents of a
+     * direct buffer are read in place.
+     *
+     * @hide
+     */
+    public void update(ByteBuffer buf) {
+        int position = buf.position();
+        int byteCount = buf.remaining();
+        if (buf.isDirect()) {
+            tbytes += byteCount;
+            crc = updateBufferImpl(buf, position, byteCount, crc);
+        } else if (buf.hasArray()) {
+            update(buf.array(), buf.arrayOffset() + position, byteCount);
+        } else {
+            byte[] bytes = new byte[byteCount];
+            buf.duplicate().get(bytes);
+            update(bytes, 0, byteCount);
+        }
+        buf.position(position + byteCount);
+    }
+
     private native long updateImpl(byte[] buf, int offset, int byteCount, long crc1);
 
+    private native long updateBufferImpl(ByteBuffer buf, int offset, int byteCount, long crc1);
+
     private native long updateByteImpl(byte val, long crc1);
 }
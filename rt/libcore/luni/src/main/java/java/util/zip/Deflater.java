@@ -18,8 +18,11 @@
 package java.util.zip;
 
 import dalvik.system.CloseGuard;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.Arrays;
 import libcore.util.EmptyArray;
+import sun.misc.Cleaner;
 
 /**
  * This class compresses data using the <i>DEFLATE</i> algorithm (see <a
@@ -143,12 +146,23 @@ public class Deflater {
 
     private byte[] inputBuffer;
 
+    /**
+     * The buffer passed to {@link #setInput(ByteBuffer)}, if any. Its position
+     * is advanced as input is consumed. A direct buffer is also kept
+     * reachable here while zlib reads from its memory.
+     */
+    private ByteBuffer inputByteBuffer;
+
+    private int inputByteBufferPosition;
+
     private int inRead;
 
     private int inLength;
 
     private final CloseGuard guard = CloseGuard.get();
 
+    private final Cleaner cleaner;
+
     /**
      * Constructs a new {@code Deflater} instance using the default compression
      * level. The strategy can be specified with {@link #setStrategy}. A
@@ -190,6 +204,7 @@ public class Deflater {
         compressLevel = level;
         streamHandle = createStream(compressLevel, strategy, noHeader);
         guard.open("end");
+        cleaner = Cleaner.create(this, new StreamEnder(streamHandle, guard));
     }
 
     /**
@@ -232,17 +247,84 @@ public class Deflater {
         return deflateImpl(buf, offset, byteCount, flush);
     }
 
+    /**
+     * Deflates data (previously passed to {@link #setInput setInput}) into
+     * {@code buf}, between its position and its limit. The position of
+     * {@code buf} is advanced by the number of bytes written.
+     *
+     * @return the number of bytes of compressed data written to {@code buf}.
+     * @throws ReadOnlyBufferException if {@code buf} is read-only.
+     * @hide
+     */
+    public synchronized int deflate(ByteBuffer buf) {
+        return deflateImpl(buf, flushParm);
+    }
+
+    /**
+     * Deflates data (previously passed to {@link #setInput setInput}) into
+     * {@code buf}, optionally flushing the input buffer. See
+     * {@link #deflate(byte[], int, int, int)} for the meaning of {@code flush}.
+     *
+     * @return the number of bytes of compressed data written to {@code buf}.
+     * @throws ReadOnlyBufferException if {@code buf} is read-only.
+     * @hide
+     */
+    public synchronized int deflate(ByteBuffer buf, int flush) {
+        if (flush != NO_FLUSH && flush != SYNC_FLUSH && flush != FULL_FLUSH) {
+            throw new IllegalArgumentException("Bad flush value: " + flush);
+        }
+        return deflateImpl(buf, flush);
+    }
+
     private synchronized int deflateImpl(byte[] buf, int offset, int byteCount, int flush) {
         checkOpen();
         Arrays.checkOffsetAndCount(buf.length, offset, byteCount);
-        if (inputBuffer == null) {
+        if (!hasInput()) {
+            setInput(EmptyArray.BYTE);
+        }
+        try {
+            return deflateImpl(buf, offset, byteCount, streamHandle, flush);
+        } finally {
+            updateInputByteBuffer();
+        }
+    }
+
+    private synchronized int deflateImpl(ByteBuffer buf, int flush) {
+        checkOpen();
+        if (buf.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        if (!buf.isDirect()) {
+            int position = buf.position();
+            int result = deflateImpl(buf.array(), buf.arrayOffset() + position, buf.remaining(),
+                    flush);
+            buf.position(position + result);
+            return result;
+        }
+        if (!hasInput()) {
             setInput(EmptyArray.BYTE);
         }
-        return deflateImpl(buf, offset, byteCount, streamHandle, flush);
+        int position = buf.position();
+        int result;
+        try {
+            result = deflateBufferImpl(buf, position, buf.remaining(), streamHandle, flush);
+        } finally {
+            updateInputByteBuffer();
+        }
+        buf.position(position + result);
+        return result;
+    }
+
+    private void updateInputByteBuffer() {
+        if (inputByteBuffer != null) {
+            inputByteBuffer.position(inputByteBufferPosition + inRead);
+        }
     }
 
     private native int deflateImpl(byte[] buf, int offset, int byteCount, long handle, int flushParm);
 
+    private native int deflateBufferImpl(ByteBuffer buf, int offset, int byteCount, long handle, int flushParm);
+
     /**
      * Frees all resources held onto by this deflating algorithm. Any unused
      * input or output is discarded. This method should be called explicitly in
@@ -256,29 +338,31 @@ public class Deflater {
 
     private void endImpl() {
         if (streamHandle != -1) {
-            endImpl(streamHandle);
+            cleaner.clean();
             inputBuffer = null;
+            inputByteBuffer = null;
             streamHandle = -1;
         }
     }
 
-    private native void endImpl(long handle);
+    private static native void endImpl(long handle);
 
-    @Override protected void finalize() {
-        try {
-            if (guard != null) {
-                guard.warnIfOpen();
-            }
-            synchronized (this) {
-                end(); // to allow overriding classes to clean up
-                endImpl(); // in case those classes don't call super.end()
-            }
-        } finally {
-            try {
-                super.finalize();
-            } catch (Throwable t) {
-                throw new AssertionError(t);
-            }
+    /**
+     * Ends the native stream if the Deflater is garbage collected without
+     * {@link #end()} having been called. Mustn't refer to the Deflater.
+     */
+    private static final class StreamEnder implements Runnable {
+        private final long streamHandle;
+        private final CloseGuard guard;
+
+        StreamEnder(long streamHandle, CloseGuard guard) {
+            this.streamHandle = streamHandle;
+            this.guard = guard;
+        }
+
+        public void run() {
+            guard.warnIfOpen();
+            endImpl(streamHandle);
         }
     }
 
@@ -339,7 +423,7 @@ public class Deflater {
      * {@link #finish} must be called to ensure the compressed data is output.
      */
     public synchronized boolean needsInput() {
-        if (inputBuffer == null) {
+        if (!hasInput()) {
             return true;
         }
         return inRead == inLength;
@@ -349,7 +433,9 @@ public class Deflater {
      * Resets the {@code Deflater} to accept new input without affecting any
      * previously made settings for the compression strategy or level. This
      * operation <i>must</i> be called after {@link #finished} returns
-     * true if the {@code Deflater} is to be reused.
+     * true if the {@code Deflater} is to be reused. The native stream is
+     * reused, so resetting is much cheaper than creating a new
+     * {@code Deflater}.
      */
     public synchronized void reset() {
         checkOpen();
@@ -357,6 +443,7 @@ public class Deflater {
         finished = false;
         resetImpl(streamHandle);
         inputBuffer = null;
+        inputByteBuffer = null;
     }
 
     private native void resetImpl(long handle);
@@ -402,17 +489,55 @@ public class Deflater {
         Arrays.checkOffsetAndCount(buf.length, offset, byteCount);
         inLength = byteCount;
         inRead = 0;
-        if (inputBuffer == null) {
+        if (!hasInput()) {
             setLevelsImpl(compressLevel, strategy, streamHandle);
         }
         inputBuffer = buf;
+        inputByteBuffer = null;
         setInputImpl(buf, offset, byteCount, streamHandle);
     }
 
+    /**
+     * Sets the input to the bytes between the position and the limit of
+     * {@code buf}. The position of {@code buf} is advanced as the input is
+     * deflated. The contents of a direct buffer aren't copied so they must
+     * not be modified until {@link #needsInput} returns {@code true}.
+     *
+     * @hide
+     */
+    public synchronized void setInput(ByteBuffer buf) {
+        checkOpen();
+        int position = buf.position();
+        int byteCount = buf.remaining();
+        if (buf.isDirect()) {
+            inLength = byteCount;
+            inRead = 0;
+            if (!hasInput()) {
+                setLevelsImpl(compressLevel, strategy, streamHandle);
+            }
+            inputBuffer = null;
+            setInputBufferImpl(buf, position, byteCount, streamHandle);
+        } else if (buf.hasArray()) {
+            setInput(buf.array(), buf.arrayOffset() + position, byteCount);
+        } else {
+            byte[] bytes = new byte[byteCount];
+            buf.duplicate().get(bytes);
+            setInput(bytes, 0, byteCount);
+        }
+        inputByteBuffer = buf;
+        inputByteBufferPosition = position;
+    }
+
+    private boolean hasInput() {
+        return inputBuffer != null || inputByteBuffer != null;
+    }
+
     private native void setLevelsImpl(int level, int strategy, long handle);
 
     private native void setInputImpl(byte[] buf, int offset, int byteCount, long handle);
 
+    private native void setInputBufferImpl(ByteBuffer buf, int offset, int byteCount, long handle);
+
     /**
      * Sets the compression level to be used when compressing data. The
      * compression level must be a value between 0 and 9. This value must be set
@@ -424,7 +549,7 @@ public class Deflater {
         if (level < DEFAULT_COMPRESSION || level > BEST_COMPRESSION) {
             throw new IllegalArgumentException("Bad level: " + level);
         }
-        if (inputBuffer != null) {
+        if (hasInput()) {
             throw new IllegalStateException("setLevel cannot be called after setInput");
         }
         compressLevel = level;
@@ -443,7 +568,7 @@ public class Deflater {
         if (strategy < DEFAULT_STRATEGY || strategy > HUFFMAN_ONLY) {
             throw new IllegalArgumentException("Bad strategy: " + strategy);
         }
-        if (inputBuffer != null) {
+        if (hasInput()) {
             throw new IllegalStateException("setStrategy cannot be called after setInput");
         }
         this.strategy = strategy;
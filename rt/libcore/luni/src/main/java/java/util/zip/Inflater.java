@@ -19,7 +19,10 @@ package java.util.zip;
 
 import dalvik.system.CloseGuard;
 import java.io.FileDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.Arrays;
+import sun.misc.Cleaner;
 
 /**
  * This class decompresses data that was compressed using the <i>DEFLATE</i>
@@ -47,6 +50,9 @@ import java.util.Arrays;
  * <p>If you don't know how big the decompressed data will be, you can call {@link #inflate}
  * repeatedly on a temporary buffer, copying the bytes to a {@link java.io.ByteArrayOutputStream},
  * but this is probably another sign you'd be better off using {@link InflaterInputStream}.
+ *
+ * <p>Input and output can also be supplied as {@link ByteBuffer}s. Direct buffers are
+ * handed straight to zlib without copying.
  */
 public class Inflater {
 
@@ -58,8 +64,18 @@ public class Inflater {
 
     private long streamHandle = -1;
 
+    /**
+     * The buffer passed to {@link #setInput(ByteBuffer)}, if any. Its position
+     * is advanced as input is consumed. A direct buffer is also kept
+     * reachable here while zlib reads from its memory.
+     */
+    private ByteBuffer inputByteBuffer;
+    private int inputByteBufferPosition;
+
     private final CloseGuard guard = CloseGuard.get();
 
+    private final Cleaner cleaner;
+
     /**
      * This constructor creates an inflater that expects a header from the input
      * stream. Use {@link #Inflater(boolean)} if the input comes without a ZLIB
@@ -80,6 +96,7 @@ public class Inflater {
     public Inflater(boolean noHeader) {
         streamHandle = createStream(noHeader);
         guard.open("end");
+        cleaner = Cleaner.create(this, new StreamEnder(streamHandle, guard));
     }
 
     private native long createStream(boolean noHeader1);
@@ -93,27 +110,32 @@ public class Inflater {
     public synchronized void end() {
         guard.close();
         if (streamHandle != -1) {
-            endImpl(streamHandle);
+            cleaner.clean();
             inRead = 0;
             inLength = 0;
+            inputByteBuffer = null;
             streamHandle = -1;
         }
     }
 
-    private native void endImpl(long handle);
+    private static native void endImpl(long handle);
 
-    @Override protected void finalize() {
-        try {
-            if (guard != null) {
-                guard.warnIfOpen();
-            }
-            end();
-        } finally {
-            try {
-                super.finalize();
-            } catch (Throwable t) {
-                throw new AssertionError(t);
-            }
+    /**
+     * Ends the native stream if the Inflater is garbage collected without
+     * {@link #end()} having been called. Mustn't refer to the Inflater.
+     */
+    private static final class StreamEnder implements Runnable {
+        private final long streamHandle;
+        private final CloseGuard guard;
+
+        StreamEnder(long streamHandle, CloseGuard guard) {
+            this.streamHandle = streamHandle;
+            this.guard = guard;
+        }
+
+        public void run() {
+            guard.warnIfOpen();
+            endImpl(streamHandle);
         }
     }
 
@@ -216,7 +238,39 @@ public class Inflater {
      */
     public synchronized int inflate(byte[] buf, int offset, int byteCount) throws DataFormatException {
         Arrays.checkOffsetAndCount(buf.length, offset, byteCount);
+        return inflate(buf, null, offset, byteCount);
+    }
+
+    /**
+     * Inflates bytes from the current input into {@code buf}, between its
+     * position and its limit. The position of {@code buf} is advanced by the
+     * number of bytes inflated.
+     *
+     * @throws DataFormatException
+     *             if the underlying stream is corrupted or was not compressed
+     *             using a {@code Deflater}.
+     * @throws ReadOnlyBufferException
+     *             if {@code buf} is read-only.
+     * @return the number of bytes inflated.
+     * @hide
+     */
+    public synchronized int inflate(ByteBuffer buf) throws DataFormatException {
+        if (buf.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        int position = buf.position();
+        int result;
+        if (buf.isDirect()) {
+            result = inflate(null, buf, position, buf.remaining());
+        } else {
+            result = inflate(buf.array(), null, buf.arrayOffset() + position, buf.remaining());
+        }
+        buf.position(position + result);
+        return result;
+    }
 
+    private int inflate(byte[] array, ByteBuffer direct, int offset, int byteCount)
+            throws DataFormatException {
         checkOpen();
 
         if (needsInput()) {
@@ -225,7 +279,18 @@ public class Inflater {
 
         boolean neededDict = needsDictionary;
         needsDictionary = false;
-        int result = inflateImpl(buf, offset, byteCount, streamHandle);
+        int result;
+        try {
+            if (direct != null) {
+                result = inflateBufferImpl(direct, offset, byteCount, streamHandle);
+            } else {
+                result = inflateImpl(array, offset, byteCount, streamHandle);
+            }
+        } finally {
+            if (inputByteBuffer != null) {
+                inputByteBuffer.position(inputByteBufferPosition + inRead);
+            }
+        }
         if (needsDictionary && neededDict) {
             throw new DataFormatException("Needs dictionary");
         }
@@ -234,6 +299,8 @@ public class Inflater {
 
     private native int inflateImpl(byte[] buf, int offset, int byteCount, long handle);
 
+    private native int inflateBufferImpl(ByteBuffer buf, int offset, int byteCount, long handle);
+
     /**
      * Returns true if the input bytes were compressed with a preset
      * dictionary. This method should be called if the first call to {@link #inflate} returns 0,
@@ -254,13 +321,15 @@ public class Inflater {
 
     /**
      * Resets this {@code Inflater}. Should be called prior to inflating a new
-     * set of data.
+     * set of data. The native stream is reused, so resetting is much cheaper
+     * than creating a new {@code Inflater}.
      */
     public synchronized void reset() {
         checkOpen();
         finished = false;
         needsDictionary = false;
         inLength = inRead = 0;
+        inputByteBuffer = null;
         resetImpl(streamHandle);
     }
 
@@ -304,14 +373,46 @@ public class Inflater {
         Arrays.checkOffsetAndCount(buf.length, offset, byteCount);
         inRead = 0;
         inLength = byteCount;
+        inputByteBuffer = null;
         setInputImpl(buf, offset, byteCount, streamHandle);
     }
 
+    /**
+     * Sets the current input to the bytes between the position and the limit
+     * of {@code buf}. The position of {@code buf} is advanced as the input is
+     * inflated. The contents of a direct buffer aren't copied so they must not
+     * be modified until {@link #needsInput} returns {@code true}. This method
+     * should only be called if {@link #needsInput} returns {@code true}.
+     *
+     * @hide
+     */
+    public synchronized void setInput(ByteBuffer buf) {
+        checkOpen();
+        int position = buf.position();
+        int byteCount = buf.remaining();
+        if (buf.isDirect()) {
+            inRead = 0;
+            inLength = byteCount;
+            setInputBufferImpl(buf, position, byteCount, streamHandle);
+        } else if (buf.hasArray()) {
+            setInput(buf.array(), buf.arrayOffset() + position, byteCount);
+        } else {
+            byte[] bytes = new byte[byteCount];
+            buf.duplicate().get(bytes);
+            setInput(bytes, 0, byteCount);
+        }
+        inputByteBuffer = buf;
+        inputByteBufferPosition = position;
+    }
+
     private native void setInputImpl(byte[] buf, int offset, int byteCount, long handle);
 
+    private native void setInputBufferImpl(ByteBuffer buf, int offset, int byteCount, long handle);
+
     synchronized int setFileInput(FileDescriptor fd, long offset, int byteCount) {
         checkOpen();
         inRead = 0;
+        inputByteBuffer = null;
         inLength = setFileInputImpl(fd, offset, byteCount, streamHandle);
         return inLength;
     }
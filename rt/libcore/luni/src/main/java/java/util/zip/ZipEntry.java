@@ -353,13 +353,69 @@ public class ZipEntry implements ZipConstants, Cloneable {
         Streams.readFully(in, hdrBuf, 0, hdrBuf.length);
 
         BufferIterator it = HeapBufferIterator.iterator(hdrBuf, 0, hdrBuf.length, ByteOrder.LITTLE_ENDIAN);
+        readCentralDirEntryHeader(it, 0);
+        it.seek(30);
+        int extraLength = it.readShort() & 0xffff;
+        int commentLength = it.readShort() & 0xffff;
 
+        byte[] nameBytes = new byte[nameLength];
+        Streams.readFully(in, nameBytes, 0, nameBytes.length);
+        name = new String(nameBytes, 0, nameBytes.length, Charsets.UTF_8);
+
+        if (extraLength > 0) {
+            extra = new byte[extraLength];
+            Streams.readFully(in, extra, 0, extraLength);
+        }
+
+        // The RI has always assumed UTF-8. (If GPBF_UTF8_FLAG isn't set, the encoding is
+        // actually IBM-437.)
+        if (commentLength > 0) {
+            byte[] commentBytes = new byte[commentLength];
+            Streams.readFully(in, commentBytes, 0, commentLength);
+            comment = new String(commentBytes, 0, commentBytes.length, Charsets.UTF_8);
+        }
+    }
+
+    /*
+     * Internal constructor.  Creates a new ZipEntry from the Central
+     * Directory Entry at the specified offset of a memory-mapped archive.
+     * See ZipIndex.
+     */
+    ZipEntry(BufferIterator it, int offset) throws ZipException {
+        readCentralDirEntryHeader(it, offset);
+        it.seek(offset + 30);
+        int extraLength = it.readShort() & 0xffff;
+        int commentLength = it.readShort() & 0xffff;
+
+        it.seek(offset + CENHDR);
+        byte[] nameBytes = new byte[nameLength];
+        it.readByteArray(nameBytes, 0, nameBytes.length);
+        name = new String(nameBytes, 0, nameBytes.length, Charsets.UTF_8);
+
+        if (extraLength > 0) {
+            extra = new byte[extraLength];
+            it.readByteArray(extra, 0, extraLength);
+        }
+
+        if (commentLength > 0) {
+            byte[] commentBytes = new byte[commentLength];
+            it.readByteArray(commentBytes, 0, commentLength);
+            comment = new String(commentBytes, 0, commentBytes.length, Charsets.UTF_8);
+        }
+    }
+
+    /*
+     * Reads the fixed size part of the Central Directory Entry starting at
+     * the specified offset of "it".
+     */
+    private void readCentralDirEntryHeader(BufferIterator it, int offset) throws ZipException {
+        it.seek(offset);
         int sig = it.readInt();
         if (sig != CENSIG) {
              throw new ZipException("Central Directory Entry not found");
         }
 
-        it.seek(10);
+        it.seek(offset + 10);
         compressionMethod = it.readShort();
         time = it.readShort();
         modDate = it.readShort();
@@ -369,29 +425,10 @@ public class ZipEntry implements ZipConstants, Cloneable {
         compressedSize = ((long) it.readInt()) & 0xffffffffL;
         size = ((long) it.readInt()) & 0xffffffffL;
 
-        nameLength = it.readShort();
-        int extraLength = it.readShort();
-        int commentLength = it.readShort();
+        nameLength = it.readShort() & 0xffff;
 
         // This is a 32-bit value in the file, but a 64-bit field in this object.
-        it.seek(42);
+        it.seek(offset + 42);
         mLocalHeaderRelOffset = ((long) it.readInt()) & 0xffffffffL;
-
-        byte[] nameBytes = new byte[nameLength];
-        Streams.readFully(in, nameBytes, 0, nameBytes.length);
-        name = new String(nameBytes, 0, nameBytes.length, Charsets.UTF_8);
-
-        // The RI has always assumed UTF-8. (If GPBF_UTF8_FLAG isn't set, the encoding is
-        // actually IBM-437.)
-        if (commentLength > 0) {
-            byte[] commentBytes = new byte[commentLength];
-            Streams.readFully(in, commentBytes, 0, commentLength);
-            comment = new String(commentBytes, 0, commentBytes.length, Charsets.UTF_8);
-        }
-
-        if (extraLength > 0) {
-            extra = new byte[extraLength];
-            Streams.readFully(in, extra, 0, extraLength);
-        }
     }
 }
@@ -29,7 +29,9 @@ import java.nio.ByteOrder;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
 import libcore.io.BufferIterator;
+import libcore.io.ErrnoException;
 import libcore.io.HeapBufferIterator;
 import libcore.io.Streams;
 
@@ -79,6 +81,14 @@ public class ZipFile implements ZipConstants {
      */
     public static final int OPEN_DELETE = 4;
 
+    /**
+     * RoboVM note: Archives are memory-mapped and indexed by {@link ZipIndex}
+     * unless the {@code robovm.zipfile.mmap} system property is set to
+     * {@code false}. Archives which cannot be mapped are always read using
+     * {@link RandomAccessFile}.
+     */
+    private static final boolean USE_MMAP = !"false".equals(System.getProperty("robovm.zipfile.mmap"));
+
     private final String fileName;
 
     private File fileToDeleteOnClose;
@@ -87,6 +97,12 @@ public class ZipFile implements ZipConstants {
 
     private final LinkedHashMap<String, ZipEntry> mEntries = new LinkedHashMap<String, ZipEntry>();
 
+    /**
+     * The index of the memory-mapped archive. If this is set {@code mRaf} and
+     * {@code mEntries} are unused.
+     */
+    private ZipIndex mIndex;
+
     private final CloseGuard guard = CloseGuard.get();
 
     /**
@@ -127,9 +143,13 @@ public class ZipFile implements ZipConstants {
             fileToDeleteOnClose = null;
         }
 
-        mRaf = new RandomAccessFile(fileName, "r");
-
-        readCentralDir();
+        if (USE_MMAP) {
+            mIndex = ZipIndex.open(fileName);
+        }
+        if (mIndex == null) {
+            mRaf = new RandomAccessFile(fileName, "r");
+            readCentralDir();
+        }
         guard.open("close");
     }
 
@@ -168,11 +188,21 @@ public class ZipFile implements ZipConstants {
     public void close() throws IOException {
         guard.close();
         RandomAccessFile raf = mRaf;
+        ZipIndex index = mIndex;
 
-        if (raf != null) { // Only close initialized instances
-            synchronized(raf) {
-                mRaf = null;
-                raf.close();
+        if (raf != null || index != null) { // Only close initialized instances
+            if (raf != null) {
+                synchronized(raf) {
+                    mRaf = null;
+                    raf.close();
+                }
+            } else {
+                mIndex = null;
+                try {
+                    index.close();
+                } catch (ErrnoException errnoException) {
+                    throw errnoException.rethrowAsIOException();
+                }
             }
             if (fileToDeleteOnClose != null) {
                 fileToDeleteOnClose.delete();
@@ -182,7 +212,7 @@ public class ZipFile implements ZipConstants {
     }
 
     private void checkNotClosed() {
-        if (mRaf == null) {
+        if (mRaf == null && mIndex == null) {
             throw new IllegalStateException("Zip file closed");
         }
     }
@@ -196,6 +226,25 @@ public class ZipFile implements ZipConstants {
      */
     public Enumeration<? extends ZipEntry> entries() {
         checkNotClosed();
+        if (mIndex != null) {
+            final ZipIndex index = mIndex;
+            return new Enumeration<ZipEntry>() {
+                private int next = 0;
+
+                public boolean hasMoreElements() {
+                    checkNotClosed();
+                    return next < index.size();
+                }
+
+                public ZipEntry nextElement() {
+                    checkNotClosed();
+                    if (next >= index.size()) {
+                        throw new NoSuchElementException();
+                    }
+                    return index.entryAt(next++);
+                }
+            };
+        }
         final Iterator<ZipEntry> iterator = mEntries.values().iterator();
 
         return new Enumeration<ZipEntry>() {
@@ -226,6 +275,15 @@ public class ZipFile implements ZipConstants {
             throw new NullPointerException();
         }
 
+        ZipIndex index = mIndex;
+        if (index != null) {
+            ZipEntry ze = index.getEntry(entryName);
+            if (ze == null) {
+                ze = index.getEntry(entryName + "/");
+            }
+            return ze;
+        }
+
         ZipEntry ze = mEntries.get(entryName);
         if (ze == null) {
             ze = mEntries.get(entryName + "/");
@@ -250,6 +308,16 @@ public class ZipFile implements ZipConstants {
             return null;
         }
 
+        ZipIndex index = mIndex;
+        if (index != null) {
+            InputStream in = index.getRawInputStream(entry);
+            if (entry.compressionMethod == ZipEntry.DEFLATED) {
+                int bufSize = Math.max(1024, (int)Math.min(entry.getSize(), 65535L));
+                return new ZipInflaterInputStream(in, new Inflater(true), bufSize, entry);
+            }
+            return in;
+        }
+
         // Create an InputStream at the right part of the file.
         RandomAccessFile raf = mRaf;
         synchronized (raf) {
@@ -291,7 +359,8 @@ public class ZipFile implements ZipConstants {
      */
     public int size() {
         checkNotClosed();
-        return mEntries.size();
+        ZipIndex index = mIndex;
+        return index != null ? index.size() : mEntries.size();
     }
 
     /**
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package java.util.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charsets;
+import java.util.Arrays;
+import libcore.io.BufferIterator;
+import libcore.io.ErrnoException;
+import libcore.io.MemoryMappedFile;
+import libcore.io.Streams;
+
+/**
+ * An index over the central directory of a memory-mapped ZIP archive. Used by
+ * {@link ZipFile} instead of parsing every central directory entry into a
+ * {@link ZipEntry} up front. The index only stores the offset of each central
+ * directory entry and the hash of its name. Names are looked up in an open
+ * addressed hash table and compared against the UTF-8 bytes in the mapped
+ * archive. {@link ZipEntry} objects are created on demand and entry data is
+ * read straight from the mapped archive.
+ */
+final class ZipIndex implements ZipConstants {
+    private static final int ENDHEADERMAGIC = 0x06054b50;
+
+    private final MemoryMappedFile mappedFile;
+    private final int fileSize;
+
+    /**
+     * Number of unique entry names in the archive.
+     */
+    private final int count;
+
+    /**
+     * Offsets of the central directory entries in archive order.
+     */
+    private final int[] offsets;
+
+    /**
+     * Hashes of the names of the entries in {@link #offsets}.
+     */
+    private final int[] hashes;
+
+    /**
+     * Open addressed hash table. Each slot holds an index into
+     * {@link #offsets} plus 1 or 0 if the slot is empty.
+     */
+    private final int[] table;
+
+    private boolean closed;
+
+    private ZipIndex(MemoryMappedFile mappedFile) throws ZipException {
+        this.mappedFile = mappedFile;
+        this.fileSize = (int) mappedFile.size();
+
+        BufferIterator it = mappedFile.littleEndianIterator();
+        int eocdOffset = findEndOfCentralDir(it);
+        it.seek(eocdOffset + 4);
+        int diskNumber = it.readShort() & 0xffff;
+        int diskWithCentralDir = it.readShort() & 0xffff;
+        int numEntries = it.readShort() & 0xffff;
+        int totalNumEntries = it.readShort() & 0xffff;
+        it.skip(4); // Ignore centralDirSize.
+        int centralDirOffset = it.readInt();
+
+        if (numEntries != totalNumEntries || diskNumber != 0 || diskWithCentralDir != 0) {
+            throw new ZipException("spanned archives not supported");
+        }
+
+        int tableSize = 2;
+        while (tableSize < numEntries * 2) {
+            tableSize <<= 1;
+        }
+        offsets = new int[numEntries];
+        hashes = new int[numEntries];
+        table = new int[tableSize];
+
+        byte[] name = new byte[256];
+        int n = 0;
+        int offset = centralDirOffset;
+        for (int i = 0; i < numEntries; i++) {
+            if (offset < 0 || offset > fileSize - CENHDR) {
+                throw new ZipException("Central Directory Entry not found");
+            }
+            it.seek(offset);
+            if (it.readInt() != CENSIG) {
+                throw new ZipException("Central Directory Entry not found");
+            }
+            it.seek(offset + 28);
+            int nameLength = it.readShort() & 0xffff;
+            int extraLength = it.readShort() & 0xffff;
+            int commentLength = it.readShort() & 0xffff;
+            int next = offset + CENHDR + nameLength + extraLength + commentLength;
+            if (next > fileSize) {
+                throw new ZipException("Central Directory Entry truncated");
+            }
+
+            if (name.length < nameLength) {
+                name = new byte[nameLength];
+            }
+            it.seek(offset + CENHDR);
+            it.readByteArray(name, 0, nameLength);
+            int hash = hash(name, nameLength);
+            int existing = find(hash, name, nameLength);
+            if (existing >= 0) {
+                // Same semantics as a Map: the last entry wins but keeps the
+                // position of the first.
+                offsets[existing] = offset;
+            } else {
+                offsets[n] = offset;
+                hashes[n] = hash;
+                int slot = hash & (table.length - 1);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & (table.length - 1);
+                }
+                table[slot] = n + 1;
+                n++;
+            }
+            offset = next;
+        }
+        count = n;
+    }
+
+    /**
+     * Maps the specified file and builds the index. Returns {@code null} if the
+     * file cannot be mapped in which case the caller should fall back to
+     * reading the file using {@link java.io.RandomAccessFile}.
+     */
+    static ZipIndex open(String path) throws IOException {
+        MemoryMappedFile mappedFile;
+        try {
+            mappedFile = MemoryMappedFile.mmapRO(path);
+        } catch (ErrnoException e) {
+            return null;
+        }
+        boolean success = false;
+        try {
+            if (mappedFile.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            ZipIndex index = new ZipIndex(mappedFile);
+            success = true;
+            return index;
+        } finally {
+            if (!success) {
+                try {
+                    mappedFile.close();
+                } catch (ErrnoException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Scans back from the end of the file for the End Of Central Directory
+     * record. See the comment on {@code ZipFile.readCentralDir()}.
+     */
+    private int findEndOfCentralDir(BufferIterator it) throws ZipException {
+        int scanOffset = fileSize - ENDHDR;
+        if (scanOffset < 0) {
+            throw new ZipException("File too short to be a zip file: " + fileSize);
+        }
+        int stopOffset = Math.max(scanOffset - 65536, 0);
+        while (true) {
+            it.seek(scanOffset);
+            if (it.readInt() == ENDHEADERMAGIC) {
+                return scanOffset;
+            }
+            scanOffset--;
+            if (scanOffset < stopOffset) {
+                throw new ZipException("EOCD not found; not a Zip archive?");
+            }
+        }
+    }
+
+    private static int hash(byte[] name, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + (name[i] & 0xff);
+        }
+        return h;
+    }
+
+    /**
+     * Returns the index into {@link #offsets} of the entry with the specified
+     * name or -1 if there is no such entry.
+     */
+    private int find(int hash, byte[] name, int length) {
+        BufferIterator it = null;
+        byte[] candidate = null;
+        int slot = hash & (table.length - 1);
+        while (table[slot] != 0) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash) {
+                if (it == null) {
+                    it = mappedFile.littleEndianIterator();
+                }
+                it.seek(offsets[index] + 28);
+                if ((it.readShort() & 0xffff) == length) {
+                    if (candidate == null) {
+                        candidate = new byte[length];
+                    }
+                    it.seek(offsets[index] + CENHDR);
+                    it.readByteArray(candidate, 0, length);
+                    if (equals(candidate, name, length)) {
+                        return index;
+                    }
+                }
+            }
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException("Zip file closed");
+        }
+    }
+
+    /**
+     * Returns the number of entries in the archive.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Creates a new {@link ZipEntry} for the entry at the specified position
+     * in archive order.
+     */
+    synchronized ZipEntry entryAt(int index) {
+        checkNotClosed();
+        try {
+            return new ZipEntry(mappedFile.littleEndianIterator(), offsets[index]);
+        } catch (ZipException e) {
+            // The entry was validated when the index was built
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Returns a new {@link ZipEntry} for the entry with the specified name or
+     * {@code null} if there is no such entry.
+     */
+    synchronized ZipEntry getEntry(String entryName) {
+        checkNotClosed();
+        byte[] name = entryName.getBytes(Charsets.UTF_8);
+        int index = find(hash(name, name.length), name, name.length);
+        return index >= 0 ? entryAt(index) : null;
+    }
+
+    /**
+     * Returns a stream over the raw (possibly compressed) data of the
+     * specified entry.
+     */
+    synchronized InputStream getRawInputStream(ZipEntry entry) throws IOException {
+        checkNotClosed();
+        // The local header's extra data length may differ from the one in the
+        // central directory so we have to read it from the local header.
+        long localHeaderOffset = entry.mLocalHeaderRelOffset;
+        if (localHeaderOffset > fileSize - LOCHDR) {
+            throw new ZipException("Local File Header not found");
+        }
+        BufferIterator it = mappedFile.littleEndianIterator();
+        it.seek((int) localHeaderOffset + 28);
+        int localExtraLength = it.readShort() & 0xffff;
+        long start = localHeaderOffset + LOCHDR + entry.nameLength + localExtraLength;
+        long end = start + entry.compressedSize;
+        if (end > fileSize) {
+            throw new ZipException("Entry data truncated: " + entry.getName());
+        }
+        return new EntryStream(it, (int) start, (int) end);
+    }
+
+    /**
+     * Unmaps the archive. Streams returned by {@link #getRawInputStream} throw
+     * {@link IOException} once this has been called.
+     */
+    synchronized void close() throws ErrnoException {
+        if (!closed) {
+            closed = true;
+            mappedFile.close();
+        }
+    }
+
+    /**
+     * Reads directly from the mapped archive. Synchronizes on the
+     * {@link ZipIndex} to prevent reads after the archive has been unmapped.
+     */
+    private final class EntryStream extends InputStream {
+        private final BufferIterator it;
+        private final int end;
+        private int position;
+
+        EntryStream(BufferIterator it, int start, int end) {
+            this.it = it;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override public int available() {
+            return end - position;
+        }
+
+        @Override public int read() throws IOException {
+            return Streams.readSingleByte(this);
+        }
+
+        @Override public int read(byte[] b, int off, int len) throws IOException {
+            Arrays.checkOffsetAndCount(b.length, off, len);
+            synchronized (ZipIndex.this) {
+                if (closed) {
+                    throw new IOException("Zip file closed");
+                }
+                if (position >= end) {
+                    return -1;
+                }
+                len = Math.min(len, end - position);
+                it.seek(position);
+                it.readByteArray(b, off, len);
+                position += len;
+                return len;
+            }
+        }
+
+        @Override public long skip(long byteCount) {
+            if (byteCount <= 0) {
+                return 0;
+            }
+            int n = (int) Math.min(byteCount, end - position);
+            position += n;
+            return n;
+        }
+    }
+}
@@ -87,6 +87,14 @@ public class BlockGuardOs extends ForwardingOs {
 
     // TODO: Untag newFd when needed for dup2(FileDescriptor oldFd, int newFd)
 
+    @Override public int epoll_wait(FileDescriptor epfd, int[] events, int timeoutMs) throws ErrnoException {
+        // See poll().
+        if (timeoutMs != 0) {
+            BlockGuard.getThreadPolicy().onNetwork();
+        }
+        return os.epoll_wait(epfd, events, timeoutMs);
+    }
+
     @Override public void fdatasync(FileDescriptor fd) throws ErrnoException {
         BlockGuard.getThreadPolicy().onWriteToDisk();
         os.fdatasync(fd);
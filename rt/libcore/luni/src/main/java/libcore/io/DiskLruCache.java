@@ -32,6 +32,8 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charsets;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -39,10 +41,13 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A cache that uses a bounded amount of space on a filesystem. Each cache
@@ -79,7 +84,9 @@ import java.util.concurrent.TimeUnit;
  *
  * <p>Clients call {@link #get} to read a snapshot of an entry. The read will
  * observe the value at the time that {@link #get} was called. Updates and
- * removals after the call do not impact ongoing reads.
+ * removals after the call do not impact ongoing reads. Reads only lock the
+ * entry being read, not the cache. Values may be read as streams, as
+ * {@link FileChannel}s or mapped into memory.
  *
  * <p>This class is tolerant of some I/O errors. If files are missing from the
  * filesystem, the corresponding entries will be dropped from the cache. If
@@ -145,11 +152,28 @@ public final class DiskLruCache implements Closeable {
     private final long maxSize;
     private final int valueCount;
     private long size = 0;
-    private Writer journalWriter;
+    private volatile Writer journalWriter;
     private final LinkedHashMap<String, Entry> lruEntries
             = new LinkedHashMap<String, Entry>(0, 0.75f, true);
     private int redundantOpCount;
 
+    /**
+     * The same entries as {@link #lruEntries}. Lets {@link #get} find an entry
+     * without locking the cache. Only modified while holding the cache's lock.
+     */
+    private final ConcurrentHashMap<String, Entry> entries
+            = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Keys read by {@link #get} which haven't been moved to the head of
+     * {@link #lruEntries} and recorded in the journal yet. Reads are applied in
+     * batches of {@link #READ_BATCH_SIZE} and before any operation which
+     * depends on the LRU order or writes to the journal.
+     */
+    private final ConcurrentLinkedQueue<String> pendingReads = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger pendingReadCount = new AtomicInteger();
+    private static final int READ_BATCH_SIZE = 64;
+
     /**
      * To differentiate between old and current snapshots, each entry is given
      * a sequence number each time an edit is committed. A snapshot is stale if
@@ -264,6 +288,7 @@ public final class DiskLruCache implements Closeable {
         String key = parts[1];
         if (parts[0].equals(REMOVE) && parts.length == 2) {
             lruEntries.remove(key);
+            entries.remove(key);
             return;
         }
 
@@ -271,6 +296,7 @@ public final class DiskLruCache implements Closeable {
         if (entry == null) {
             entry = new Entry(key);
             lruEntries.put(key, entry);
+            entries.put(key, entry);
         }
 
         if (parts[0].equals(CLEAN) && parts.length == 2 + valueCount) {
@@ -305,6 +331,7 @@ public final class DiskLruCache implements Closeable {
                     deleteIfExists(entry.getDirtyFile(t));
                 }
                 i.remove();
+                entries.remove(entry.key);
             }
         }
     }
@@ -315,6 +342,7 @@ public final class DiskLruCache implements Closeable {
      */
     private synchronized void rebuildJournal() throws IOException {
         if (journalWriter != null) {
+            applyPendingReads();
             journalWriter.close();
         }
 
@@ -357,40 +385,47 @@ public final class DiskLruCache implements Closeable {
      * exist is not currently readable. If a value is returned, it is moved to
      * the head of the LRU queue.
      */
-    public synchronized Snapshot get(String key) throws IOException {
+    public Snapshot get(String key) throws IOException {
         checkNotClosed();
         validateKey(key);
-        Entry entry = lruEntries.get(key);
+        Entry entry = entries.get(key);
         if (entry == null) {
             return null;
         }
 
-        if (!entry.readable) {
+        Snapshot snapshot = entry.snapshot();
+        if (snapshot == null) {
             return null;
         }
 
-        /*
-         * Open all streams eagerly to guarantee that we see a single published
-         * snapshot. If we opened streams lazily then the streams could come
-         * from different edits.
-         */
-        InputStream[] ins = new InputStream[valueCount];
-        try {
-            for (int i = 0; i < valueCount; i++) {
-                ins[i] = new FileInputStream(entry.getCleanFile(i));
+        pendingReads.add(key);
+        if (pendingReadCount.incrementAndGet() >= READ_BATCH_SIZE) {
+            synchronized (this) {
+                if (journalWriter != null) {
+                    applyPendingReads();
+                    if (journalRebuildRequired()) {
+                        executorService.submit(cleanupCallable);
+                    }
+                }
             }
-        } catch (FileNotFoundException e) {
-            // a file must have been deleted manually!
-            return null;
         }
 
-        redundantOpCount++;
-        journalWriter.append(READ + ' ' + key + '\n');
-        if (journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
-        }
+        return snapshot;
+    }
 
-        return new Snapshot(key, entry.sequenceNumber, ins);
+    /**
+     * Moves the entries read since the last call to the head of the LRU queue
+     * and appends their READ lines to the journal.
+     */
+    private void applyPendingReads() throws IOException {
+        String key;
+        while ((key = pendingReads.poll()) != null) {
+            pendingReadCount.decrementAndGet();
+            if (lruEntries.get(key) != null) {
+                redundantOpCount++;
+                journalWriter.append(READ + ' ' + key + '\n');
+            }
+        }
     }
 
     /**
@@ -404,6 +439,7 @@ public final class DiskLruCache implements Closeable {
     private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
         checkNotClosed();
         validateKey(key);
+        applyPendingReads();
         Entry entry = lruEntries.get(key);
         if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER
                 && (entry == null || entry.sequenceNumber != expectedSequenceNumber)) {
@@ -412,6 +448,7 @@ public final class DiskLruCache implements Closeable {
         if (entry == null) {
             entry = new Entry(key);
             lruEntries.put(key, entry);
+            entries.put(key, entry);
         } else if (entry.currentEditor != null) {
             return null; // another edit is in progress
         }
@@ -465,32 +502,41 @@ public final class DiskLruCache implements Closeable {
             }
         }
 
-        for (int i = 0; i < valueCount; i++) {
-            File dirty = entry.getDirtyFile(i);
-            if (success) {
-                if (dirty.exists()) {
-                    File clean = entry.getCleanFile(i);
-                    dirty.renameTo(clean);
-                    long oldLength = entry.lengths[i];
-                    long newLength = clean.length();
-                    entry.lengths[i] = newLength;
-                    size = size - oldLength + newLength;
+        applyPendingReads();
+        // Hold the entry's lock while renaming so that readers observe all
+        // values from before or all values from after this edit.
+        synchronized (entry) {
+            for (int i = 0; i < valueCount; i++) {
+                File dirty = entry.getDirtyFile(i);
+                if (success) {
+                    if (dirty.exists()) {
+                        File clean = entry.getCleanFile(i);
+                        dirty.renameTo(clean);
+                        long oldLength = entry.lengths[i];
+                        long newLength = clean.length();
+                        entry.lengths[i] = newLength;
+                        size = size - oldLength + newLength;
+                    }
+                } else {
+                    deleteIfExists(dirty);
+                }
+            }
+
+            entry.currentEditor = null;
+            if (entry.readable | success) {
+                entry.readable = true;
+                if (success) {
+                    entry.sequenceNumber = nextSequenceNumber++;
                 }
-            } else {
-                deleteIfExists(dirty);
             }
         }
 
         redundantOpCount++;
-        entry.currentEditor = null;
-        if (entry.readable | success) {
-            entry.readable = true;
+        if (entry.readable) {
             journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
-            if (success) {
-                entry.sequenceNumber = nextSequenceNumber++;
-            }
         } else {
             lruEntries.remove(entry.key);
+            entries.remove(entry.key);
             journalWriter.write(REMOVE + ' ' + entry.key + '\n');
         }
 
@@ -518,23 +564,28 @@ public final class DiskLruCache implements Closeable {
     public synchronized boolean remove(String key) throws IOException {
         checkNotClosed();
         validateKey(key);
+        applyPendingReads();
         Entry entry = lruEntries.get(key);
         if (entry == null || entry.currentEditor != null) {
             return false;
         }
 
-        for (int i = 0; i < valueCount; i++) {
-            File file = entry.getCleanFile(i);
-            if (!file.delete()) {
-                throw new IOException("failed to delete " + file);
+        synchronized (entry) {
+            entry.readable = false;
+            for (int i = 0; i < valueCount; i++) {
+                File file = entry.getCleanFile(i);
+                if (!file.delete()) {
+                    throw new IOException("failed to delete " + file);
+                }
+                size -= entry.lengths[i];
+                entry.lengths[i] = 0;
             }
-            size -= entry.lengths[i];
-            entry.lengths[i] = 0;
         }
 
         redundantOpCount++;
         journalWriter.append(REMOVE + ' ' + key + '\n');
         lruEntries.remove(key);
+        entries.remove(key);
 
         if (journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
@@ -583,6 +634,7 @@ public final class DiskLruCache implements Closeable {
     }
 
     private void trimToSize() throws IOException {
+        applyPendingReads();
         while (size > maxSize) {
             Map.Entry<String, Entry> toEvict = lruEntries.eldest();
             remove(toEvict.getKey());
@@ -616,12 +668,14 @@ public final class DiskLruCache implements Closeable {
     public final class Snapshot implements Closeable {
         private final String key;
         private final long sequenceNumber;
-        private final InputStream[] ins;
+        private final FileInputStream[] ins;
+        private final long[] lengths;
 
-        private Snapshot(String key, long sequenceNumber, InputStream[] ins) {
+        private Snapshot(String key, long sequenceNumber, FileInputStream[] ins, long[] lengths) {
             this.key = key;
             this.sequenceNumber = sequenceNumber;
             this.ins = ins;
+            this.lengths = lengths;
         }
 
         /**
@@ -647,6 +701,35 @@ public final class DiskLruCache implements Closeable {
             return inputStreamToString(getInputStream(index));
         }
 
+        /**
+         * Returns the length in bytes of the value for {@code index}.
+         */
+        public long getLength(int index) {
+            return lengths[index];
+        }
+
+        /**
+         * Returns the channel for the value at {@code index}. The channel
+         * shares its position with {@link #getInputStream}. Use {@link
+         * FileChannel#transferTo} to copy the value to another channel without
+         * copying it through the Java heap.
+         */
+        public FileChannel getChannel(int index) {
+            return ins[index].getChannel();
+        }
+
+        /**
+         * Maps the value at {@code index} into memory read-only. The mapping
+         * stays valid after this snapshot has been closed and after the entry
+         * has been edited or removed. Values of length 0 can't be mapped.
+         */
+        public MappedByteBuffer map(int index) throws IOException {
+            if (lengths[index] == 0) {
+                throw new IOException("value " + index + " is empty");
+            }
+            return getChannel(index).map(FileChannel.MapMode.READ_ONLY, 0, lengths[index]);
+        }
+
         @Override public void close() {
             for (InputStream in : ins) {
                 IoUtils.closeQuietly(in);
@@ -799,6 +882,31 @@ public final class DiskLruCache implements Closeable {
             this.lengths = new long[valueCount];
         }
 
+        /**
+         * Opens the clean files of this entry. Returns null if the entry isn't
+         * readable. The files are opened eagerly while holding this entry's
+         * lock to guarantee that we see a single published snapshot. If we
+         * opened the files lazily they could come from different edits.
+         */
+        private synchronized Snapshot snapshot() {
+            if (!readable) {
+                return null;
+            }
+            FileInputStream[] ins = new FileInputStream[valueCount];
+            try {
+                for (int i = 0; i < valueCount; i++) {
+                    ins[i] = new FileInputStream(getCleanFile(i));
+                }
+            } catch (FileNotFoundException e) {
+                // a file must have been deleted manually!
+                for (FileInputStream in : ins) {
+                    IoUtils.closeQuietly(in);
+                }
+                return null;
+            }
+            return new Snapshot(key, sequenceNumber, ins, lengths.clone());
+        }
+
         public String getLengths() throws IOException {
             StringBuilder result = new StringBuilder();
             for (long size : lengths) {
@@ -43,6 +43,9 @@ public class ForwardingOs implements Os {
     public FileDescriptor dup(FileDescriptor oldFd) throws ErrnoException { return os.dup(oldFd); }
     public FileDescriptor dup2(FileDescriptor oldFd, int newFd) throws ErrnoException { return os.dup2(oldFd, newFd); }
     public String[] environ() { return os.environ(); }
+    public FileDescriptor epoll_create1(int flags) throws ErrnoException { return os.epoll_create1(flags); }
+    public void epoll_ctl(FileDescriptor epfd, int op, FileDescriptor fd, int events, int data) throws ErrnoException { os.epoll_ctl(epfd, op, fd, events, data); }
+    public int epoll_wait(FileDescriptor epfd, int[] events, int timeoutMs) throws ErrnoException { return os.epoll_wait(epfd, events, timeoutMs); }
     public int fcntlVoid(FileDescriptor fd, int cmd) throws ErrnoException { return os.fcntlVoid(fd, cmd); }
     public int fcntlLong(FileDescriptor fd, int cmd, long arg) throws ErrnoException { return os.fcntlLong(fd, cmd, arg); }
     public int fcntlFlock(FileDescriptor fd, int cmd, StructFlock arg) throws ErrnoException { return os.fcntlFlock(fd, cmd, arg); }
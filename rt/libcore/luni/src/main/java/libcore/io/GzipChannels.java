@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.NioUtils;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Compresses and decompresses gzip files from one {@link FileChannel} to
+ * another. Unlike {@link java.util.zip.GZIPInputStream} and
+ * {@link java.util.zip.GZIPOutputStream} the data never passes through
+ * {@code byte[]}s: zlib reads and writes the direct buffers the channels
+ * use.
+ */
+public final class GzipChannels {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private GzipChannels() {}
+
+    /**
+     * Compresses the bytes from the current position of {@code in} to its end
+     * and writes them in gzip format to {@code out} using the default
+     * compression level. Returns the number of uncompressed bytes.
+     */
+    public static long compress(FileChannel in, FileChannel out) throws IOException {
+        return compress(in, out, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Compresses the bytes from the current position of {@code in} to its end
+     * and writes them in gzip format to {@code out}. Returns the number of
+     * uncompressed bytes.
+     */
+    public static long compress(FileChannel in, FileChannel out, int level) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        CRC32 crc = new CRC32();
+        ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            output.putShort((short) GZIPInputStream.GZIP_MAGIC);
+            output.put((byte) Deflater.DEFLATED);
+            output.put((byte) 0); // flags
+            output.putInt(0); // modification time
+            output.put((byte) 0); // extra flags
+            output.put((byte) 0); // operating system
+
+            long byteCount = 0;
+            boolean eof = false;
+            while (!deflater.finished()) {
+                if (!eof && deflater.needsInput()) {
+                    input.clear();
+                    int n = in.read(input);
+                    input.flip();
+                    if (n == -1) {
+                        eof = true;
+                        deflater.finish();
+                    } else {
+                        byteCount += n;
+                        crc.update(input);
+                        input.rewind();
+                        deflater.setInput(input);
+                    }
+                }
+                deflater.deflate(output);
+                if (!output.hasRemaining() || deflater.finished()) {
+                    output.flip();
+                    writeFully(out, output);
+                    output.clear();
+                }
+            }
+
+            output.putInt((int) crc.getValue());
+            output.putInt((int) byteCount);
+            output.flip();
+            writeFully(out, output);
+            return byteCount;
+        } finally {
+            deflater.end();
+            NioUtils.freeDirectBuffer(input);
+            NioUtils.freeDirectBuffer(output);
+        }
+    }
+
+    /**
+     * Decompresses the gzip data from the current position of {@code in} and
+     * writes the uncompressed bytes to {@code out}. Only the first member of a
+     * multi-member gzip file is read. Returns the number of uncompressed bytes.
+     */
+    public static long decompress(FileChannel in, FileChannel out) throws IOException {
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try {
+            input.limit(0);
+            readHeader(in, input);
+            inflater.setInput(input);
+
+            long byteCount = 0;
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    input.clear();
+                    if (in.read(input) == -1) {
+                        throw new EOFException();
+                    }
+                    input.flip();
+                    inflater.setInput(input);
+                }
+                int n;
+                try {
+                    n = inflater.inflate(output);
+                } catch (DataFormatException e) {
+                    throw (IOException) (new IOException().initCause(e));
+                }
+                if (n == 0 && inflater.needsDictionary()) {
+                    throw new ZipException("gzip data requires a preset dictionary");
+                }
+                byteCount += n;
+                if (!output.hasRemaining() || inflater.finished()) {
+                    output.flip();
+                    crc.update(output);
+                    output.rewind();
+                    writeFully(out, output);
+                    output.clear();
+                }
+            }
+
+            // The inflater has advanced input to the first byte after the
+            // compressed data.
+            require(in, input, 8);
+            if (input.getInt() != (int) crc.getValue()) {
+                throw new ZipException("CRC mismatch");
+            }
+            if (input.getInt() != (int) byteCount) {
+                throw new ZipException("Size mismatch");
+            }
+            return byteCount;
+        } finally {
+            inflater.end();
+            NioUtils.freeDirectBuffer(input);
+            NioUtils.freeDirectBuffer(output);
+        }
+    }
+
+    /**
+     * Reads the gzip header. On return the position of {@code buf} is at the
+     * start of the compressed data.
+     */
+    private static void readHeader(FileChannel in, ByteBuffer buf) throws IOException {
+        require(in, buf, 10);
+        int magic = buf.getShort() & 0xffff;
+        if (magic != GZIPInputStream.GZIP_MAGIC) {
+            throw new ZipException(String.format("unknown format (magic number %x)", magic));
+        }
+        if (buf.get() != Deflater.DEFLATED) {
+            throw new ZipException("unknown compression method");
+        }
+        int flags = buf.get();
+        buf.position(buf.position() + 6); // modification time, extra flags, operating system
+        if ((flags & FEXTRA) != 0) {
+            require(in, buf, 2);
+            int length = buf.getShort() & 0xffff;
+            require(in, buf, length);
+            buf.position(buf.position() + length);
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated(in, buf);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated(in, buf);
+        }
+        if ((flags & FHCRC) != 0) {
+            // The header CRC is practically never written and isn't checked.
+            require(in, buf, 2);
+            buf.getShort();
+        }
+    }
+
+    private static void skipZeroTerminated(FileChannel in, ByteBuffer buf) throws IOException {
+        do {
+            require(in, buf, 1);
+        } while (buf.get() != 0);
+    }
+
+    /**
+     * Makes sure at least {@code byteCount} bytes remain in {@code buf},
+     * reading more from {@code in} if needed.
+     */
+    private static void require(FileChannel in, ByteBuffer buf, int byteCount) throws IOException {
+        if (buf.remaining() >= byteCount) {
+            return;
+        }
+        buf.compact();
+        while (buf.position() < byteCount) {
+            if (in.read(buf) == -1) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+}
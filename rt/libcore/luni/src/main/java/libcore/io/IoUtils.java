@@ -16,6 +16,7 @@
 
 package libcore.io;
 
+import dalvik.system.CloseGuard;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
@@ -66,6 +67,20 @@ public final class IoUtils {
         }
     }
 
+    /**
+     * Returns a {@link sun.misc.Cleaner} thunk which warns using 'guard' if it
+     * is still open and then closes 'fd', ignoring any exceptions. The thunk
+     * doesn't refer to the object owning 'fd'.
+     */
+    public static Runnable newFileDescriptorCloser(final FileDescriptor fd, final CloseGuard guard) {
+        return new Runnable() {
+            public void run() {
+                guard.warnIfOpen();
+                closeQuietly(fd);
+            }
+        };
+    }
+
     /**
      * Closes 'socket', ignoring any exceptions. Does nothing if 'socket' is null.
      */
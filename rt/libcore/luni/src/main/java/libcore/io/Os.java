@@ -34,6 +34,10 @@ public interface Os {
     public FileDescriptor dup(FileDescriptor oldFd) throws ErrnoException;
     public FileDescriptor dup2(FileDescriptor oldFd, int newFd) throws ErrnoException;
     public String[] environ();
+    public FileDescriptor epoll_create1(int flags) throws ErrnoException;
+    public void epoll_ctl(FileDescriptor epfd, int op, FileDescriptor fd, int events, int data) throws ErrnoException;
+    /* Fills events with (events, data) pairs. Returns the number of pairs written. */
+    public int epoll_wait(FileDescriptor epfd, int[] events, int timeoutMs) throws ErrnoException;
     public int fcntlVoid(FileDescriptor fd, int cmd) throws ErrnoException;
     public int fcntlLong(FileDescriptor fd, int cmd, long arg) throws ErrnoException;
     public int fcntlFlock(FileDescriptor fd, int cmd, StructFlock arg) throws ErrnoException;
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.net.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A single request/response exchange submitted to {@link AsyncHttpClient}.
+ * This is the {@link Future} returned to the caller.
+ */
+final class AsyncHttpCall implements Future<AsyncHttpResponse> {
+    final String method;
+    final URI uri;
+    final InetSocketAddress address;
+    final String route;
+    /** The serialized request line, headers and body. */
+    final byte[] request;
+    /**
+     * True if the request may be pipelined behind other requests and retried
+     * on another connection if the server closes the connection before
+     * responding.
+     */
+    final boolean idempotent;
+    private final AsyncHttpClient.Callback callback;
+
+    /** The number of times this call has been written to a connection. */
+    int attempts;
+    /** Fails this call if it takes too long or {@code null}. */
+    volatile ScheduledFuture<?> timeout;
+
+    private AsyncHttpResponse response;
+    private IOException failure;
+    private boolean done;
+    private boolean cancelled;
+
+    AsyncHttpCall(String method, URI uri, InetSocketAddress address, byte[] request,
+            AsyncHttpClient.Callback callback) {
+        this.method = method;
+        this.uri = uri;
+        this.address = address;
+        this.route = address.getHostName().toLowerCase() + ":" + address.getPort();
+        this.request = request;
+        this.idempotent = method.equals(HttpEngine.GET) || method.equals(HttpEngine.HEAD);
+        this.callback = callback;
+    }
+
+    void succeed(AsyncHttpResponse response) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.response = response;
+            done = true;
+            notifyAll();
+        }
+        cancelTimeout();
+        if (callback != null) {
+            try {
+                callback.onResponse(response);
+            } catch (RuntimeException e) {
+                // Must not take down the event loop and the other requests
+                // on it.
+                System.logE("AsyncHttpClient.Callback.onResponse() threw", e);
+            }
+        }
+    }
+
+    void fail(IOException failure) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.failure = failure;
+            done = true;
+            notifyAll();
+        }
+        cancelTimeout();
+        if (callback != null) {
+            try {
+                callback.onFailure(failure);
+            } catch (RuntimeException e) {
+                System.logE("AsyncHttpClient.Callback.onFailure() threw", e);
+            }
+        }
+    }
+
+    /**
+     * Cancels this call. A request which has already been written to a
+     * connection is still completed but its response is discarded.
+     */
+    @Override public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            done = true;
+            notifyAll();
+        }
+        cancelTimeout();
+        return true;
+    }
+
+    private void cancelTimeout() {
+        ScheduledFuture<?> t = timeout;
+        if (t != null) {
+            t.cancel(false);
+        }
+    }
+
+    @Override public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override public synchronized AsyncHttpResponse get()
+            throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override public synchronized AsyncHttpResponse get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private AsyncHttpResponse result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return response;
+    }
+}
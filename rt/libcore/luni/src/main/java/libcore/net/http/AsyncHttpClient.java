@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.net.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.Charsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimingWheelScheduledExecutor;
+
+/**
+ * A non-blocking HTTP/1.1 client. Requests are multiplexed over a small
+ * number of event loop threads, each of which drives the connections of the
+ * hosts assigned to it using a {@link Selector}. Connections are kept alive
+ * and reused and idempotent requests ({@code GET} and {@code HEAD}) to the
+ * same host are pipelined on a connection.
+ *
+ * <p>Only plain {@code http} URIs are supported. Proxies, authentication,
+ * redirects, cookies and caching are left to the caller.
+ *
+ * <p>{@link Callback} methods are invoked on an event loop thread and must
+ * not block. In particular they must not wait for the result of another
+ * request. The only exception is a request which races with
+ * {@link #shutdown()}: it fails on the thread which submitted it. Exceptions
+ * thrown by callbacks are logged and otherwise ignored.
+ *
+ * @hide
+ */
+public final class AsyncHttpClient {
+    /**
+     * Receives the outcome of a request.
+     */
+    public interface Callback {
+        void onResponse(AsyncHttpResponse response);
+        void onFailure(IOException e);
+    }
+
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    private static final int DEFAULT_MAX_PIPELINE_DEPTH = 8;
+    private static final long KEEP_ALIVE_MILLIS = 60 * 1000;
+
+    private final EventLoop[] loops;
+    private final int maxConnectionsPerHost;
+    private final int maxPipelineDepth;
+    private volatile boolean shutdown;
+    private volatile long timeoutNanos;
+
+    /**
+     * The timing wheel shared by all clients for request timeouts. Most
+     * requests complete well before their timeout so timeouts are scheduled
+     * and cancelled at a high rate which is cheap on a timing wheel.
+     */
+    private static final class Timeouts {
+        static final TimingWheelScheduledExecutor WHEEL = new TimingWheelScheduledExecutor(
+                10, TimeUnit.MILLISECONDS, new ThreadFactory() {
+                    @Override public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "AsyncHttpClient-Timeouts");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, null);
+    }
+
+    /**
+     * Creates a client with one event loop thread per available processor
+     * (at most 4), at most 4 connections per host and pipelines of at most
+     * 8 requests.
+     */
+    public AsyncHttpClient() throws IOException {
+        this(Math.min(4, Runtime.getRuntime().availableProcessors()),
+                DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_PIPELINE_DEPTH);
+    }
+
+    public AsyncHttpClient(int threads, int maxConnectionsPerHost, int maxPipelineDepth)
+            throws IOException {
+        if (threads < 1 || maxConnectionsPerHost < 1 || maxPipelineDepth < 1) {
+            throw new IllegalArgumentException("threads=" + threads
+                    + " maxConnectionsPerHost=" + maxConnectionsPerHost
+                    + " maxPipelineDepth=" + maxPipelineDepth);
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxPipelineDepth = maxPipelineDepth;
+        loops = new EventLoop[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                loops[i] = new EventLoop();
+                Thread thread = new Thread(loops[i], "AsyncHttpClient-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets the maximum time from submitting a request until its response has
+     * been received for requests executed after this call. Requests which
+     * take longer fail with a {@link SocketTimeoutException} and the
+     * connection they were sent on is closed. 0 means no timeout, which is the
+     * default.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout < 0");
+        }
+        timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public Future<AsyncHttpResponse> get(URI uri, Callback callback) throws IOException {
+        return execute(HttpEngine.GET, uri, null, null, callback);
+    }
+
+    /**
+     * Sends a request asynchronously. The host name is resolved on the
+     * calling thread.
+     *
+     * @param headers the request headers or {@code null}. {@code Host},
+     *     {@code User-Agent}, {@code Connection} and {@code Content-Length}
+     *     headers are added if missing.
+     * @param body the request body or {@code null}.
+     * @param callback notified when the request completes or {@code null}.
+     * @return a future for the response.
+     */
+    public Future<AsyncHttpResponse> execute(String method, URI uri, RawHeaders headers,
+            byte[] body, Callback callback) throws IOException {
+        if (shutdown) {
+            throw new IllegalStateException("shut down");
+        }
+        if (!"http".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null) {
+            throw new IllegalArgumentException("Unsupported URI: " + uri);
+        }
+        int port = uri.getPort() != -1 ? uri.getPort() : 80;
+        InetSocketAddress address = new InetSocketAddress(uri.getHost(), port);
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(uri.getHost());
+        }
+
+        final AsyncHttpCall call = new AsyncHttpCall(method, uri, address,
+                writeRequest(method, uri, headers, body), callback);
+        final EventLoop loop = loops[(call.route.hashCode() & 0x7fffffff) % loops.length];
+        long timeout = timeoutNanos;
+        if (timeout > 0) {
+            call.timeout = Timeouts.WHEEL.schedule(new Runnable() {
+                @Override public void run() {
+                    loop.expire(call);
+                }
+            }, timeout, TimeUnit.NANOSECONDS);
+        }
+        loop.submit(call);
+        return call;
+    }
+
+    private static byte[] writeRequest(String method, URI uri, RawHeaders headers, byte[] body) {
+        RawHeaders raw = headers != null ? new RawHeaders(headers) : new RawHeaders();
+        String path = uri.getRawPath();
+        if (path == null || path.length() == 0) {
+            path = "/";
+        }
+        if (uri.getRawQuery() != null) {
+            path = path + "?" + uri.getRawQuery();
+        }
+        raw.setStatusLine(method + " " + path + " HTTP/1.1");
+
+        RequestHeaders requestHeaders = new RequestHeaders(uri, raw);
+        if (requestHeaders.getUserAgent() == null) {
+            String agent = System.getProperty("http.agent");
+            requestHeaders.setUserAgent(agent != null
+                    ? agent : ("Java" + System.getProperty("java.version")));
+        }
+        if (requestHeaders.getHost() == null) {
+            requestHeaders.setHost(uri.getPort() > 0 && uri.getPort() != 80
+                    ? uri.getHost() + ":" + uri.getPort() : uri.getHost());
+        }
+        if (requestHeaders.getConnection() == null) {
+            requestHeaders.setConnection("Keep-Alive");
+        }
+        if (requestHeaders.getContentLength() == -1 && (body != null
+                || method.equals(HttpEngine.POST) || method.equals(HttpEngine.PUT))) {
+            requestHeaders.setContentLength(body != null ? body.length : 0);
+        }
+
+        byte[] head = raw.toHeaderString().getBytes(Charsets.ISO_8859_1);
+        if (body == null || body.length == 0) {
+            return head;
+        }
+        byte[] result = new byte[head.length + body.length];
+        System.arraycopy(head, 0, result, 0, head.length);
+        System.arraycopy(body, 0, result, head.length, body.length);
+        return result;
+    }
+
+    /**
+     * Stops the event loop threads. Outstanding requests fail and their
+     * connections are closed.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Drives the connections to the hosts assigned to it. All state except
+     * the submission queue is confined to the loop's thread.
+     */
+    final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<AsyncHttpCall> submissions
+                = new ConcurrentLinkedQueue<AsyncHttpCall>();
+        private final ConcurrentLinkedQueue<AsyncHttpCall> expirations
+                = new ConcurrentLinkedQueue<AsyncHttpCall>();
+        private final Map<String, List<AsyncHttpConnection>> connections
+                = new HashMap<String, List<AsyncHttpConnection>>();
+        private volatile boolean stopped;
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void submit(AsyncHttpCall call) {
+            submissions.add(call);
+            selector.wakeup();
+            if (stopped) {
+                // The loop may have exited before seeing the call. There is
+                // no loop thread left so the call fails on this thread.
+                failSubmissions();
+            }
+        }
+
+        /**
+         * Fails the specified call on this loop's thread if it hasn't
+         * completed yet.
+         */
+        void expire(AsyncHttpCall call) {
+            expirations.add(call);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            stopped = true;
+            selector.wakeup();
+        }
+
+        @Override public void run() {
+            try {
+                while (!stopped) {
+                    selector.select(KEEP_ALIVE_MILLIS);
+                    AsyncHttpCall call;
+                    while ((call = submissions.poll()) != null) {
+                        dispatch(call);
+                    }
+                    while ((call = expirations.poll()) != null) {
+                        timeOut(call);
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        process(key);
+                    }
+                    closeIdleConnections(System.currentTimeMillis());
+                }
+            } catch (Throwable t) {
+                System.logE("AsyncHttpClient event loop failed", t);
+                stopped = true;
+            } finally {
+                IOException failure = new IOException("AsyncHttpClient shut down");
+                for (AsyncHttpConnection connection : allConnections()) {
+                    connection.close(failure);
+                }
+                failSubmissions();
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void failSubmissions() {
+            AsyncHttpCall call;
+            while ((call = submissions.poll()) != null) {
+                call.fail(new IOException("AsyncHttpClient shut down"));
+            }
+        }
+
+        private void process(SelectionKey key) {
+            AsyncHttpConnection connection = (AsyncHttpConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    connection.onConnectable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            } catch (IOException e) {
+                connection.close(e);
+            } catch (RuntimeException e) {
+                // A bug triggered by one peer mustn't take down the loop and
+                // every other connection on it.
+                System.logE("AsyncHttpClient connection failed", e);
+                connection.close(new IOException("Connection failed", e));
+            }
+        }
+
+        /**
+         * Enqueues the call on the connection to its host which can pipeline
+         * it with the fewest outstanding calls. Opens a new connection if
+         * there is no such connection and the host's connection limit allows
+         * it. Otherwise queues the call on the least loaded connection.
+         */
+        void dispatch(AsyncHttpCall call) {
+            if (call.isDone()) {
+                // Cancelled or timed out.
+                return;
+            }
+            if (stopped) {
+                call.fail(new IOException("AsyncHttpClient shut down"));
+                return;
+            }
+            List<AsyncHttpConnection> list = connections.get(call.route);
+            if (list == null) {
+                list = new ArrayList<AsyncHttpConnection>(maxConnectionsPerHost);
+                connections.put(call.route, list);
+            }
+            AsyncHttpConnection best = null;
+            AsyncHttpConnection leastLoaded = null;
+            int open = 0;
+            for (AsyncHttpConnection c : list) {
+                if (c.isClosing()) {
+                    continue;
+                }
+                open++;
+                if (c.canPipeline(call, maxPipelineDepth)
+                        && (best == null || c.outstanding() < best.outstanding())) {
+                    best = c;
+                }
+                if (leastLoaded == null || c.outstanding() < leastLoaded.outstanding()) {
+                    leastLoaded = c;
+                }
+            }
+            if (best == null) {
+                if (open < maxConnectionsPerHost || leastLoaded == null) {
+                    try {
+                        best = new AsyncHttpConnection(this, selector, call);
+                    } catch (IOException e) {
+                        call.fail(e);
+                        return;
+                    }
+                    list.add(best);
+                } else {
+                    best = leastLoaded;
+                }
+            }
+            try {
+                best.enqueue(call);
+            } catch (IOException e) {
+                best.close(e);
+            }
+        }
+
+        private void timeOut(AsyncHttpCall call) {
+            if (call.isDone()) {
+                return;
+            }
+            SocketTimeoutException e = new SocketTimeoutException(
+                    "Request timed out: " + call.method + " " + call.uri);
+            call.fail(e);
+            // Calls which haven't been written yet are skipped. A call in
+            // flight holds up the responses pipelined behind it so its
+            // connection has to go. The calls pipelined behind it didn't
+            // time out and fail or are retried like after a disconnect.
+            List<AsyncHttpConnection> list = connections.get(call.route);
+            if (list != null) {
+                for (AsyncHttpConnection connection : list) {
+                    if (connection.isInFlight(call)) {
+                        connection.close(new IOException(
+                                "Connection closed: pipelined request timed out"));
+                        break;
+                    }
+                }
+            }
+        }
+
+        void remove(AsyncHttpConnection connection) {
+            List<AsyncHttpConnection> list = connections.get(connection.route);
+            if (list != null) {
+                list.remove(connection);
+                if (list.isEmpty()) {
+                    connections.remove(connection.route);
+                }
+            }
+        }
+
+        private List<AsyncHttpConnection> allConnections() {
+            List<AsyncHttpConnection> result = new ArrayList<AsyncHttpConnection>();
+            for (List<AsyncHttpConnection> list : connections.values()) {
+                result.addAll(list);
+            }
+            return result;
+        }
+
+        private void closeIdleConnections(long now) {
+            for (AsyncHttpConnection connection : allConnections()) {
+                if (now - connection.getIdleSince() >= KEEP_ALIVE_MILLIS) {
+                    connection.close(null);
+                }
+            }
+        }
+    }
+}
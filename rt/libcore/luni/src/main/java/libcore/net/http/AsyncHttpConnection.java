@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.net.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import libcore.io.IoUtils;
+
+/**
+ * A non-blocking HTTP/1.1 connection owned by a single
+ * {@link AsyncHttpClient} event loop thread. Requests are written in the order
+ * they were enqueued. Idempotent requests are pipelined: they are written
+ * without waiting for the responses to the requests before them. Responses
+ * are parsed incrementally as bytes arrive and matched to the requests in the
+ * order they were written.
+ * <p>
+ * {@link ChunkedInputStream} and {@link FixedLengthInputStream} can't be used
+ * here: they block reading from the socket until the data they need has
+ * arrived and they release their connection through {@link HttpEngine}.
+ * The body decoding below follows them and shares their validation.
+ */
+final class AsyncHttpConnection {
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final int STATE_STATUS_LINE = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_FIXED_BODY = 2;
+    private static final int STATE_CHUNK_SIZE = 3;
+    private static final int STATE_CHUNK_DATA = 4;
+    private static final int STATE_CHUNK_END = 5;
+    private static final int STATE_TRAILERS = 6;
+    private static final int STATE_UNTIL_CLOSE = 7;
+
+    private final AsyncHttpClient.EventLoop loop;
+    final String route;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private boolean connected;
+
+    /** Calls which have not been written yet. */
+    private final ArrayDeque<AsyncHttpCall> pending = new ArrayDeque<AsyncHttpCall>();
+    /** Calls which have been written and are awaiting their responses. */
+    private final ArrayDeque<AsyncHttpCall> inFlight = new ArrayDeque<AsyncHttpCall>();
+    /** The number of non-idempotent calls in {@link #inFlight}. */
+    private int barriers;
+    private ByteBuffer writeBuffer;
+
+    /**
+     * True once the server has asked to close the connection or the
+     * connection failed. No more requests will be written.
+     */
+    private boolean closing;
+    private boolean closed;
+    private long idleSince;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final StringBuilder line = new StringBuilder(80);
+    private int state = STATE_STATUS_LINE;
+    private RawHeaders headers;
+    private ResponseHeaders responseHeaders;
+    private long remaining;
+    private ByteArrayOutputStream body;
+
+    AsyncHttpConnection(AsyncHttpClient.EventLoop loop, Selector selector, AsyncHttpCall call)
+            throws IOException {
+        this.loop = loop;
+        this.route = call.route;
+        channel = SocketChannel.open();
+        boolean success = false;
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            connected = channel.connect(call.address);
+            key = channel.register(selector, 0, this);
+            success = true;
+        } finally {
+            if (!success) {
+                IoUtils.closeQuietly(channel);
+            }
+        }
+        idleSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the number of calls enqueued on this connection which haven't
+     * been responded to yet.
+     */
+    int outstanding() {
+        return pending.size() + inFlight.size();
+    }
+
+    /**
+     * Returns true if the specified call can be written to this connection
+     * without waiting for any of the outstanding calls to complete.
+     */
+    boolean canPipeline(AsyncHttpCall call, int maxDepth) {
+        if (closing) {
+            return false;
+        }
+        int outstanding = outstanding();
+        if (outstanding == 0) {
+            return true;
+        }
+        if (!call.idempotent || outstanding >= maxDepth || barriers > 0) {
+            return false;
+        }
+        for (AsyncHttpCall c : pending) {
+            if (!c.idempotent) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean isClosing() {
+        return closing;
+    }
+
+    /**
+     * Returns true if the specified call has been written to this connection
+     * and is awaiting its response.
+     */
+    boolean isInFlight(AsyncHttpCall call) {
+        return inFlight.contains(call);
+    }
+
+    long getIdleSince() {
+        return outstanding() == 0 ? idleSince : Long.MAX_VALUE;
+    }
+
+    void enqueue(AsyncHttpCall call) throws IOException {
+        pending.add(call);
+        if (connected) {
+            onWritable();
+        } else {
+            updateInterestOps();
+        }
+    }
+
+    void onConnectable() throws IOException {
+        if (channel.finishConnect()) {
+            connected = true;
+            onWritable();
+        }
+    }
+
+    void onWritable() throws IOException {
+        while (true) {
+            if (writeBuffer == null) {
+                AsyncHttpCall next = pending.peek();
+                if (next == null || closing) {
+                    break;
+                }
+                if (!inFlight.isEmpty() && (barriers > 0 || !next.idempotent)) {
+                    // Wait for the responses before writing a non-idempotent
+                    // request or anything behind one.
+                    break;
+                }
+                pending.poll();
+                if (next.isDone()) {
+                    // Cancelled or timed out.
+                    continue;
+                }
+                next.attempts++;
+                inFlight.add(next);
+                if (!next.idempotent) {
+                    barriers++;
+                }
+                writeBuffer = ByteBuffer.wrap(next.request);
+            }
+            channel.write(writeBuffer);
+            if (writeBuffer.hasRemaining()) {
+                break;
+            }
+            writeBuffer = null;
+        }
+        updateInterestOps();
+    }
+
+    void onReadable() throws IOException {
+        int count = channel.read(readBuffer);
+        if (count == -1) {
+            onEndOfStream();
+            return;
+        }
+        readBuffer.flip();
+        try {
+            parse();
+        } finally {
+            readBuffer.compact();
+        }
+        if (!closed) {
+            if (closing && inFlight.isEmpty()) {
+                close(null);
+            } else {
+                onWritable();
+            }
+        }
+    }
+
+    private void updateInterestOps() {
+        if (closed) {
+            return;
+        }
+        int ops;
+        if (!connected) {
+            ops = SelectionKey.OP_CONNECT;
+        } else {
+            // Always read so that we notice if the server closes an idle
+            // connection.
+            ops = SelectionKey.OP_READ;
+            if (writeBuffer != null) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+        }
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    private void parse() throws IOException {
+        while (!closed && readBuffer.hasRemaining()) {
+            switch (state) {
+            case STATE_STATUS_LINE: {
+                String statusLine = readLine();
+                if (statusLine == null) {
+                    return;
+                }
+                if (inFlight.isEmpty()) {
+                    throw new ProtocolException("Unexpected response: " + statusLine);
+                }
+                headers = new RawHeaders();
+                headers.setStatusLine(statusLine);
+                state = STATE_HEADERS;
+                break;
+            }
+            case STATE_HEADERS: {
+                String header = readLine();
+                if (header == null) {
+                    return;
+                }
+                if (header.length() > 0) {
+                    headers.addLine(header);
+                } else {
+                    endHeaders();
+                }
+                break;
+            }
+            case STATE_FIXED_BODY:
+                readBody();
+                if (remaining == 0) {
+                    complete();
+                }
+                break;
+            case STATE_CHUNK_SIZE: {
+                String chunkSize = readLine();
+                if (chunkSize == null) {
+                    return;
+                }
+                remaining = ChunkedInputStream.parseChunkSize(chunkSize);
+                state = remaining == 0 ? STATE_TRAILERS : STATE_CHUNK_DATA;
+                break;
+            }
+            case STATE_CHUNK_DATA:
+                readBody();
+                if (remaining == 0) {
+                    state = STATE_CHUNK_END;
+                }
+                break;
+            case STATE_CHUNK_END:
+                // Like ChunkedInputStream the rest of the line is ignored.
+                if (readLine() == null) {
+                    return;
+                }
+                state = STATE_CHUNK_SIZE;
+                break;
+            case STATE_TRAILERS: {
+                String trailer = readLine();
+                if (trailer == null) {
+                    return;
+                }
+                if (trailer.length() > 0) {
+                    // Appended to the response headers like
+                    // HttpEngine.readTrailers() does.
+                    headers.addLine(trailer);
+                } else {
+                    complete();
+                }
+                break;
+            }
+            case STATE_UNTIL_CLOSE:
+                remaining = readBuffer.remaining();
+                readBody();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Reads a CRLF or LF terminated ASCII line. Returns {@code null} if the
+     * line hasn't been received completely yet.
+     */
+    private String readLine() throws IOException {
+        while (readBuffer.hasRemaining()) {
+            int c = readBuffer.get() & 0xff;
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                String result = line.toString();
+                line.setLength(0);
+                return result;
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new ProtocolException("Line too long");
+            }
+            line.append((char) c);
+        }
+        return null;
+    }
+
+    private void readBody() {
+        int count = (int) Math.min(remaining, readBuffer.remaining());
+        body.write(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), count);
+        readBuffer.position(readBuffer.position() + count);
+        remaining -= count;
+    }
+
+    private void endHeaders() throws IOException {
+        if (headers.getResponseCode() == HttpEngine.HTTP_CONTINUE) {
+            state = STATE_STATUS_LINE;
+            return;
+        }
+        AsyncHttpCall call = inFlight.peek();
+        responseHeaders = new ResponseHeaders(call.uri, headers);
+        body = new ByteArrayOutputStream();
+        if (!hasResponseBody(call.method)) {
+            complete();
+        } else if (responseHeaders.isChunked()) {
+            state = STATE_CHUNK_SIZE;
+        } else if (responseHeaders.getContentLength() != -1) {
+            remaining = responseHeaders.getContentLength();
+            FixedLengthInputStream.checkContentLength(remaining);
+            state = STATE_FIXED_BODY;
+            if (remaining == 0) {
+                complete();
+            }
+        } else {
+            // The body ends when the server closes the connection.
+            closing = true;
+            state = STATE_UNTIL_CLOSE;
+        }
+    }
+
+    /**
+     * Returns true if the response must have a (possibly 0-length) body.
+     * See {@link HttpEngine#hasResponseBody()}.
+     */
+    private boolean hasResponseBody(String method) {
+        if (method.equals(HttpEngine.HEAD)) {
+            return false;
+        }
+        int responseCode = headers.getResponseCode();
+        if ((responseCode < HttpEngine.HTTP_CONTINUE || responseCode >= 200)
+                && responseCode != HttpURLConnection.HTTP_NO_CONTENT
+                && responseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+            return true;
+        }
+        return responseHeaders.getContentLength() != -1 || responseHeaders.isChunked();
+    }
+
+    private void complete() {
+        AsyncHttpCall call = inFlight.poll();
+        if (!call.idempotent) {
+            barriers--;
+        }
+        if (responseHeaders.hasConnectionClose()
+                || (headers.getHttpMinorVersion() == 0
+                        && !"keep-alive".equalsIgnoreCase(responseHeaders.getConnection()))) {
+            closing = true;
+        }
+        AsyncHttpResponse response = new AsyncHttpResponse(call.uri, responseHeaders,
+                body.toByteArray());
+        state = STATE_STATUS_LINE;
+        headers = null;
+        responseHeaders = null;
+        body = null;
+        if (inFlight.isEmpty() && pending.isEmpty()) {
+            idleSince = System.currentTimeMillis();
+        }
+        call.succeed(response);
+    }
+
+    private void onEndOfStream() throws IOException {
+        if (state == STATE_UNTIL_CLOSE) {
+            complete();
+            close(null);
+        } else if (state == STATE_STATUS_LINE && line.length() == 0) {
+            // The server closed the connection between responses. This is
+            // how servers close idle keep-alive connections and how they
+            // refuse further pipelined requests.
+            close(null);
+        } else {
+            throw new ProtocolException("Unexpected end of stream");
+        }
+    }
+
+    /**
+     * Closes this connection. If the connection had been established, calls
+     * which haven't been written are handed back to the event loop and
+     * idempotent calls which have been written but not responded to are
+     * retried once. All other calls fail with the specified exception.
+     */
+    void close(IOException cause) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closing = true;
+        key.cancel();
+        IoUtils.closeQuietly(channel);
+        loop.remove(this);
+
+        IOException failure = cause != null
+                ? cause : new IOException("Connection closed by server");
+        for (AsyncHttpCall call : inFlight) {
+            if (call.idempotent && call.attempts < 2 && !call.isDone()) {
+                loop.dispatch(call);
+            } else {
+                call.fail(failure);
+            }
+        }
+        inFlight.clear();
+        for (AsyncHttpCall call : pending) {
+            if (connected && call.attempts < 2) {
+                loop.dispatch(call);
+            } else {
+                call.fail(failure);
+            }
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.net.http;
+
+import java.net.URI;
+
+/**
+ * A response received by {@link AsyncHttpClient}. The body has been read
+ * completely and has been decoded from the chunked transfer encoding if
+ * necessary.
+ *
+ * @hide
+ */
+public final class AsyncHttpResponse {
+    private final URI uri;
+    private final ResponseHeaders headers;
+    private final byte[] body;
+
+    AsyncHttpResponse(URI uri, ResponseHeaders headers, byte[] body) {
+        this.uri = uri;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    public int getResponseCode() {
+        return headers.getHeaders().getResponseCode();
+    }
+
+    public ResponseHeaders getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the response body. The array is empty if the response has no
+     * body.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
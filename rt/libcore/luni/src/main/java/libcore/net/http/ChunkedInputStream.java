@@ -19,6 +19,7 @@ package libcore.net.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.CacheRequest;
+import java.net.ProtocolException;
 import java.util.Arrays;
 import libcore.io.Streams;
 
@@ -76,21 +77,33 @@ final class ChunkedInputStream extends AbstractHttpInputStream {
         if (bytesRemainingInChunk != NO_CHUNK_YET) {
             Streams.readAsciiLine(in);
         }
-        String chunkSizeString = Streams.readAsciiLine(in);
-        int index = chunkSizeString.indexOf(";");
+        bytesRemainingInChunk = parseChunkSize(Streams.readAsciiLine(in));
+        if (bytesRemainingInChunk == 0) {
+            hasMoreChunks = false;
+            httpEngine.readTrailers();
+            endOfInput(true);
+        }
+    }
+
+    /**
+     * Parses a chunk size line, ignoring any chunk extension. Shared with
+     * {@link AsyncHttpConnection}.
+     */
+    static int parseChunkSize(String line) throws IOException {
+        int index = line.indexOf(";");
         if (index != -1) {
-            chunkSizeString = chunkSizeString.substring(0, index);
+            line = line.substring(0, index);
         }
+        int chunkSize;
         try {
-            bytesRemainingInChunk = Integer.parseInt(chunkSizeString.trim(), 16);
+            chunkSize = Integer.parseInt(line.trim(), 16);
         } catch (NumberFormatException e) {
-            throw new IOException("Expected a hex chunk size, but was " + chunkSizeString);
+            throw new ProtocolException("Expected a hex chunk size, but was " + line);
         }
-        if (bytesRemainingInChunk == 0) {
-            hasMoreChunks = false;
-            httpEngine.readTrailers();
-            endOfInput(true);
+        if (chunkSize < 0) {
+            throw new ProtocolException("Negative chunk size: " + line);
         }
+        return chunkSize;
     }
 
     @Override public int available() throws IOException {
@@ -19,6 +19,7 @@ package libcore.net.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.CacheRequest;
+import java.net.ProtocolException;
 import java.util.Arrays;
 
 /**
@@ -30,12 +31,23 @@ final class FixedLengthInputStream extends AbstractHttpInputStream {
     public FixedLengthInputStream(InputStream is, CacheRequest cacheRequest,
             HttpEngine httpEngine, int length) throws IOException {
         super(is, httpEngine, cacheRequest);
+        checkContentLength(length);
         bytesRemaining = length;
         if (bytesRemaining == 0) {
             endOfInput(true);
         }
     }
 
+    /**
+     * Rejects a negative Content-Length. Shared with
+     * {@link AsyncHttpConnection}.
+     */
+    static void checkContentLength(long length) throws ProtocolException {
+        if (length < 0) {
+            throw new ProtocolException("Negative content length: " + length);
+        }
+    }
+
     @Override public int read(byte[] buffer, int offset, int count) throws IOException {
         Arrays.checkOffsetAndCount(buffer.length, offset, count);
         checkNotClosed();
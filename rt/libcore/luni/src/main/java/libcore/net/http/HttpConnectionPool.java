@@ -21,9 +21,14 @@ import dalvik.system.SocketTagger;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A pool of HTTP connections. This class exposes its tuning parameters as
@@ -31,52 +36,102 @@ import java.util.List;
  * <ul>
  *   <li>{@code http.keepAlive} true if HTTP connections should be pooled at
  *       all. Default is true.
- *   <li>{@code http.maxConnections} maximum number of connections to each URI.
- *       Default is 5.
+ *   <li>{@code http.maxConnections} maximum number of idle connections to
+ *       each URI. Default is 5.
+ *   <li>{@code http.maxTotalConnections} maximum number of idle connections
+ *       to all URIs. Default is 64.
+ *   <li>{@code http.keepAliveDuration} time in milliseconds to keep an idle
+ *       connection in the pool before closing it. Default is 5 minutes.
  * </ul>
  *
  * <p>This class <i>doesn't</i> adjust its configuration as system properties
  * are changed. This assumes that the applications that set these parameters do
  * so before making HTTP connections, and that this class is initialized lazily.
+ *
+ * <p>Each address has its own list of idle connections guarded by its own
+ * lock so requests to different addresses never contend. The most recently
+ * used connection is reused first since it is the most likely to still be
+ * alive and to have a warm TLS session. A daemon thread closes connections
+ * which have been idle for longer than the keep alive duration. It runs only
+ * while there are idle connections in the pool.
  */
 final class HttpConnectionPool {
 
     public static final HttpConnectionPool INSTANCE = new HttpConnectionPool();
 
+    private static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+
+    private final int maxConnectionsPerAddress;
     private final int maxConnections;
-    private final HashMap<HttpConnection.Address, List<HttpConnection>> connectionPool
-            = new HashMap<HttpConnection.Address, List<HttpConnection>>();
+    private final long keepAliveDurationNanos;
+
+    private final ConcurrentHashMap<HttpConnection.Address, AddressPool> connectionPool
+            = new ConcurrentHashMap<HttpConnection.Address, AddressPool>();
+    private final AtomicInteger idleConnectionCount = new AtomicInteger();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /** Guarded by this. */
+    private boolean cleanupRunning;
 
     private HttpConnectionPool() {
         String keepAlive = System.getProperty("http.keepAlive");
         if (keepAlive != null && !Boolean.parseBoolean(keepAlive)) {
+            maxConnectionsPerAddress = 0;
             maxConnections = 0;
+            keepAliveDurationNanos = 0;
             return;
         }
 
         String maxConnectionsString = System.getProperty("http.maxConnections");
-        this.maxConnections = maxConnectionsString != null
+        this.maxConnectionsPerAddress = maxConnectionsString != null
                 ? Integer.parseInt(maxConnectionsString)
                 : 5;
+        String maxTotalConnectionsString = System.getProperty("http.maxTotalConnections");
+        this.maxConnections = maxTotalConnectionsString != null
+                ? Integer.parseInt(maxTotalConnectionsString)
+                : 64;
+        String keepAliveDurationString = System.getProperty("http.keepAliveDuration");
+        this.keepAliveDurationNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveDurationString != null
+                ? Long.parseLong(keepAliveDurationString)
+                : DEFAULT_KEEP_ALIVE_DURATION_MS);
+    }
+
+    /**
+     * Creates a pool with the specified limits. Used by tests.
+     */
+    HttpConnectionPool(int maxConnectionsPerAddress, int maxConnections,
+            long keepAliveDurationNanos) {
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        this.maxConnections = maxConnections;
+        this.keepAliveDurationNanos = keepAliveDurationNanos;
     }
 
     public HttpConnection get(HttpConnection.Address address, int connectTimeout)
             throws IOException {
         // First try to reuse an existing HTTP connection.
-        synchronized (connectionPool) {
-            List<HttpConnection> connections = connectionPool.get(address);
-            while (connections != null) {
-                HttpConnection connection = connections.remove(connections.size() - 1);
-                if (connections.isEmpty()) {
-                    connectionPool.remove(address);
-                    connections = null;
+        AddressPool addressPool = connectionPool.get(address);
+        if (addressPool != null) {
+            while (true) {
+                IdleConnection idle;
+                synchronized (addressPool) {
+                    idle = addressPool.connections.pollLast();
+                }
+                if (idle == null) {
+                    break;
                 }
+                idleConnectionCount.decrementAndGet();
+                HttpConnection connection = idle.connection;
                 if (connection.isEligibleForRecycling()) {
                     // Since Socket is recycled, re-tag before using
                     Socket socket = connection.getSocket();
                     SocketTagger.get().tag(socket);
+                    hitCount.incrementAndGet();
                     return connection;
                 }
+                connection.closeSocketAndStreams();
             }
         }
 
@@ -84,6 +139,7 @@ final class HttpConnectionPool {
          * We couldn't find a reusable connection, so we need to create a new
          * connection. We're careful not to do so while holding a lock!
          */
+        missCount.incrementAndGet();
         return address.connect(connectTimeout);
     }
 
@@ -98,23 +154,217 @@ final class HttpConnectionPool {
             return;
         }
 
-        if (maxConnections > 0 && connection.isEligibleForRecycling()) {
+        if (maxConnectionsPerAddress > 0 && maxConnections > 0
+                && connection.isEligibleForRecycling()) {
             HttpConnection.Address address = connection.getAddress();
-            synchronized (connectionPool) {
-                List<HttpConnection> connections = connectionPool.get(address);
-                if (connections == null) {
-                    connections = new ArrayList<HttpConnection>();
-                    connectionPool.put(address, connections);
+            boolean added = false;
+            while (true) {
+                AddressPool addressPool = connectionPool.get(address);
+                if (addressPool == null) {
+                    addressPool = new AddressPool();
+                    AddressPool existing = connectionPool.putIfAbsent(address, addressPool);
+                    if (existing != null) {
+                        addressPool = existing;
+                    }
                 }
-                if (connections.size() < maxConnections) {
-                    connection.setRecycled();
-                    connections.add(connection);
-                    return; // keep the connection open
+                synchronized (addressPool) {
+                    if (addressPool.removed) {
+                        // Removed by the cleanup thread after we got it. Try again.
+                        continue;
+                    }
+                    if (addressPool.connections.size() < maxConnectionsPerAddress) {
+                        connection.setRecycled();
+                        addressPool.connections.addLast(
+                                new IdleConnection(connection, System.nanoTime()));
+                        added = true;
+                    }
+                }
+                break;
+            }
+            if (added) {
+                if (idleConnectionCount.incrementAndGet() > maxConnections) {
+                    evictOldest();
                 }
+                startCleanup();
+                return; // keep the connection open
             }
         }
 
         // don't close streams while holding a lock!
         connection.closeSocketAndStreams();
     }
+
+    /**
+     * Closes the connection which has been idle for the longest time.
+     */
+    private void evictOldest() {
+        AddressPool oldestPool = null;
+        long oldestIdleSince = 0;
+        for (AddressPool addressPool : connectionPool.values()) {
+            synchronized (addressPool) {
+                IdleConnection idle = addressPool.connections.peekFirst();
+                // nanoTime() values may be negative so compare differences
+                // and don't use a sentinel for the first candidate.
+                if (idle != null
+                        && (oldestPool == null || idle.idleSince - oldestIdleSince < 0)) {
+                    oldestPool = addressPool;
+                    oldestIdleSince = idle.idleSince;
+                }
+            }
+        }
+        if (oldestPool == null) {
+            return;
+        }
+        IdleConnection idle;
+        synchronized (oldestPool) {
+            idle = oldestPool.connections.pollFirst();
+        }
+        if (idle != null) {
+            idleConnectionCount.decrementAndGet();
+            evictionCount.incrementAndGet();
+            idle.connection.closeSocketAndStreams();
+        }
+    }
+
+    /**
+     * Closes all connections which have been idle for longer than the keep
+     * alive duration and removes empty address pools. Returns the number of
+     * nanoseconds until the next connection expires or -1 if the pool is
+     * empty.
+     */
+    long cleanup(long now) {
+        List<HttpConnection> expired = new ArrayList<HttpConnection>();
+        long nextExpiry = -1;
+        for (Iterator<AddressPool> it = connectionPool.values().iterator(); it.hasNext(); ) {
+            AddressPool addressPool = it.next();
+            synchronized (addressPool) {
+                ArrayDeque<IdleConnection> connections = addressPool.connections;
+                // Connections are added last so the first one is the oldest
+                while (!connections.isEmpty()) {
+                    IdleConnection idle = connections.peekFirst();
+                    long expiresIn = idle.idleSince + keepAliveDurationNanos - now;
+                    if (expiresIn > 0) {
+                        if (nextExpiry == -1 || expiresIn < nextExpiry) {
+                            nextExpiry = expiresIn;
+                        }
+                        break;
+                    }
+                    connections.pollFirst();
+                    expired.add(idle.connection);
+                }
+                if (connections.isEmpty()) {
+                    addressPool.removed = true;
+                    it.remove();
+                }
+            }
+        }
+        idleConnectionCount.addAndGet(-expired.size());
+        evictionCount.addAndGet(expired.size());
+        for (HttpConnection connection : expired) {
+            connection.closeSocketAndStreams();
+        }
+        return nextExpiry;
+    }
+
+    /**
+     * Closes all idle connections.
+     */
+    void evictAll() {
+        List<HttpConnection> connections = new ArrayList<HttpConnection>();
+        for (Iterator<AddressPool> it = connectionPool.values().iterator(); it.hasNext(); ) {
+            AddressPool addressPool = it.next();
+            synchronized (addressPool) {
+                for (IdleConnection idle : addressPool.connections) {
+                    connections.add(idle.connection);
+                }
+                addressPool.connections.clear();
+                addressPool.removed = true;
+                it.remove();
+            }
+        }
+        idleConnectionCount.addAndGet(-connections.size());
+        for (HttpConnection connection : connections) {
+            connection.closeSocketAndStreams();
+        }
+    }
+
+    private void startCleanup() {
+        synchronized (this) {
+            if (cleanupRunning) {
+                return;
+            }
+            cleanupRunning = true;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override public void run() {
+                while (true) {
+                    long waitNanos = cleanup(System.nanoTime());
+                    if (waitNanos == -1) {
+                        synchronized (HttpConnectionPool.this) {
+                            if (idleConnectionCount.get() == 0) {
+                                cleanupRunning = false;
+                                return;
+                            }
+                        }
+                        // Connections were added concurrently. Check again.
+                        continue;
+                    }
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+        }, "HttpConnectionPool");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the number of requests which reused a pooled connection.
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of requests which had to open a new connection.
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of idle connections which have been closed because
+     * they expired or because the pool was full.
+     */
+    long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the number of idle connections in the pool.
+     */
+    int getIdleConnectionCount() {
+        return idleConnectionCount.get();
+    }
+
+    /**
+     * The idle connections to a single address, oldest first.
+     */
+    private static final class AddressPool {
+        final ArrayDeque<IdleConnection> connections = new ArrayDeque<IdleConnection>();
+        /** Set once this has been removed from the pool. Guarded by this. */
+        boolean removed;
+    }
+
+    private static final class IdleConnection {
+        final HttpConnection connection;
+        final long idleSince;
+
+        IdleConnection(HttpConnection connection, long idleSince) {
+            this.connection = connection;
+            this.idleSince = idleSince;
+        }
+    }
 }
@@ -36,6 +36,8 @@ import java.net.ResponseSource;
 import java.net.SecureCacheResponse;
 import java.net.URI;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.NioUtils;
 import java.nio.charset.Charsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -67,6 +69,12 @@ public final class HttpResponseCache extends ResponseCache implements ExtendedRe
     private static final int ENTRY_BODY = 1;
     private static final int ENTRY_COUNT = 2;
 
+    /**
+     * Bodies at least this large are read from a read-only mapping of the
+     * cache file rather than through a {@link java.io.FileInputStream}.
+     */
+    private static final int MIN_MAPPED_BODY_SIZE = 32 * 1024;
+
     private final DiskLruCache cache;
 
     /* read and write statistics, all guarded by 'this' */
@@ -510,6 +518,17 @@ public final class HttpResponseCache extends ResponseCache implements ExtendedRe
      * snapshot when the stream is closed.
      */
     private static InputStream newBodyInputStream(final DiskLruCache.Snapshot snapshot) {
+        // RoboVM note: Large bodies are served from a mapping of the cache
+        // file. Reads then copy straight from the page cache instead of
+        // making a read() system call per buffer.
+        long length = snapshot.getLength(ENTRY_BODY);
+        if (length >= MIN_MAPPED_BODY_SIZE && length <= Integer.MAX_VALUE) {
+            try {
+                return new MappedBodyInputStream(snapshot, snapshot.map(ENTRY_BODY));
+            } catch (IOException e) {
+                // Fall back to reading the file.
+            }
+        }
         return new FilterInputStream(snapshot.getInputStream(ENTRY_BODY)) {
             @Override public void close() throws IOException {
                 snapshot.close();
@@ -518,6 +537,64 @@ public final class HttpResponseCache extends ResponseCache implements ExtendedRe
         };
     }
 
+    /**
+     * Reads a body from a mapping of the cache file. The mapping is released
+     * when the stream is closed.
+     */
+    private static final class MappedBodyInputStream extends InputStream {
+        private final DiskLruCache.Snapshot snapshot;
+        private ByteBuffer buffer;
+
+        MappedBodyInputStream(DiskLruCache.Snapshot snapshot, ByteBuffer buffer) {
+            this.snapshot = snapshot;
+            this.buffer = buffer;
+        }
+
+        private void checkNotClosed() throws IOException {
+            if (buffer == null) {
+                throw new IOException("stream closed");
+            }
+        }
+
+        @Override public synchronized int available() throws IOException {
+            checkNotClosed();
+            return buffer.remaining();
+        }
+
+        @Override public int read() throws IOException {
+            return Streams.readSingleByte(this);
+        }
+
+        @Override public synchronized int read(byte[] b, int off, int len) throws IOException {
+            Arrays.checkOffsetAndCount(b.length, off, len);
+            checkNotClosed();
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override public synchronized long skip(long byteCount) throws IOException {
+            checkNotClosed();
+            if (byteCount <= 0) {
+                return 0;
+            }
+            int n = (int) Math.min(byteCount, buffer.remaining());
+            buffer.position(buffer.position() + n);
+            return n;
+        }
+
+        @Override public synchronized void close() {
+            if (buffer != null) {
+                NioUtils.freeDirectBuffer(buffer);
+                buffer = null;
+                snapshot.close();
+            }
+        }
+    }
+
     static class EntryCacheResponse extends CacheResponse {
         private final Entry entry;
         private final DiskLruCache.Snapshot snapshot;
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package sun.misc;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+
+/**
+ * Phantom reference based alternative to finalization. A cleaner runs its
+ * thunk once its referent has become phantom reachable or when
+ * {@link #clean()} is called, whichever happens first. The thunk is run by
+ * one of the finalizer daemon threads and must never refer to the referent
+ * or the referent will never become phantom reachable.
+ * <p>
+ * Unlike {@link Object#finalize()} a cleaner doesn't resurrect its referent
+ * so the referent's memory can be reclaimed by the same collection which
+ * discovered it, and classes using cleaners instead of finalizers aren't
+ * registered for finalization when instantiated.
+ */
+public final class Cleaner extends PhantomReference<Object> {
+
+    /**
+     * Cleaners are never enqueued on this queue. The reference queue daemon
+     * hands them to the finalizer daemons directly but the VM only processes
+     * references which have a queue.
+     */
+    private static final ReferenceQueue<Object> dummyQueue = new ReferenceQueue<Object>();
+
+    /**
+     * Doubly-linked list of live cleaners. Keeps the cleaners themselves
+     * strongly reachable until they have run.
+     */
+    private static Cleaner first = null;
+
+    private Cleaner next = null;
+    private Cleaner prev = null;
+
+    private final Runnable thunk;
+
+    private Cleaner(Object referent, Runnable thunk) {
+        super(referent, dummyQueue);
+        this.thunk = thunk;
+    }
+
+    /**
+     * Creates a new cleaner which runs {@code thunk} when {@code referent}
+     * has become phantom reachable.
+     *
+     * @return the new cleaner or {@code null} if {@code thunk} is
+     *         {@code null}.
+     */
+    public static Cleaner create(Object referent, Runnable thunk) {
+        if (thunk == null) {
+            return null;
+        }
+        return add(new Cleaner(referent, thunk));
+    }
+
+    private static synchronized Cleaner add(Cleaner cl) {
+        if (first != null) {
+            cl.next = first;
+            first.prev = cl;
+        }
+        first = cl;
+        return cl;
+    }
+
+    private static synchronized boolean remove(Cleaner cl) {
+        // next == prev == this when already removed
+        if (cl.next == cl) {
+            return false;
+        }
+        if (first == cl) {
+            first = cl.next;
+        }
+        if (cl.next != null) {
+            cl.next.prev = cl.prev;
+        }
+        if (cl.prev != null) {
+            cl.prev.next = cl.next;
+        }
+        cl.next = cl;
+        cl.prev = cl;
+        return true;
+    }
+
+    /**
+     * Runs this cleaner's thunk unless it has already been run. Exceptions
+     * thrown by the thunk are logged and discarded.
+     */
+    public void clean() {
+        if (!remove(this)) {
+            return;
+        }
+        try {
+            thunk.run();
+        } catch (Throwable t) {
+            System.logE("Uncaught exception thrown by cleaner", t);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lightweight thread of execution run by one of the carrier threads of a
+ * {@link FiberScheduler}. A fiber which calls {@link #park()} gives up its
+ * carrier until {@link #unpark()} is called on it. While a fiber isn't
+ * running the used part of its stack is kept on the heap so a parked fiber
+ * costs a few kBs rather than the full stack of a {@link Thread}.
+ * <p>
+ * Fibers have the following restrictions:
+ * <ul>
+ * <li>A fiber always runs on the carrier it was assigned when started.</li>
+ * <li>{@link Thread#currentThread()} returns the carrier thread.</li>
+ * <li>Monitors and locks like
+ * {@link java.util.concurrent.locks.ReentrantLock} are owned by the carrier
+ * thread. A fiber which parks while holding one blocks its carrier instead of
+ * giving it up, so no other fiber can acquire it before it has been
+ * released.</li>
+ * <li>{@link java.util.concurrent.locks.LockSupport#park()}, and with it the
+ * locks and synchronizers in {@code java.util.concurrent}, parks the fiber
+ * rather than the carrier. Since
+ * {@link java.util.concurrent.locks.LockSupport#unpark(Thread)} only knows
+ * the carrier it wakes all fibers parked that way on the carrier. The ones
+ * which weren't meant to wake up recheck their condition and park again.</li>
+ * <li>Reading and writing sockets and pipes parks the fiber until the
+ * descriptor is ready. File IO, {@link Object#wait()},
+ * {@link Thread#sleep(long)} and IO done while holding a monitor block the
+ * carrier and all other fibers assigned to it. The latter includes
+ * {@link java.io.BufferedReader} and {@link java.net.ServerSocket#accept()}
+ * and {@link java.net.Socket#connect(java.net.SocketAddress)} which are
+ * synchronized internally.</li>
+ * <li>A parked fiber which can no longer be reached, e.g. because it waits on
+ * something nothing refers to anymore, is reclaimed by the GC together with
+ * its saved stack. It never finishes so its {@code finally} blocks never run.
+ * Fibers parked in {@link java.util.concurrent.locks.LockSupport} are kept
+ * reachable by their carrier.</li>
+ * </ul>
+ */
+public final class Fiber {
+    private static final int RUNNABLE = 0;
+    private static final int PARKING = 1;
+    private static final int PARKED = 2;
+    private static final int DONE = 3;
+
+    private final Runnable task;
+    private final FiberScheduler.Carrier carrier;
+    private final AtomicInteger state = new AtomicInteger(RUNNABLE);
+    private final AtomicBoolean permit = new AtomicBoolean();
+    private final ConcurrentLinkedQueue<Fiber> joiners = new ConcurrentLinkedQueue<Fiber>();
+    private long handle;
+    /**
+     * Set while this fiber blocks its carrier in {@link #park()} because it
+     * holds monitors or locks.
+     */
+    private volatile boolean pinned;
+    /**
+     * The carrier's unpark count when this fiber last returned from
+     * {@link FiberScheduler.Carrier#parkFor(long)}. Only accessed by the
+     * fiber itself.
+     */
+    int seenUnparkCount;
+    /**
+     * Set while this fiber is in its carrier's queue of fibers parked in
+     * {@link java.util.concurrent.locks.LockSupport}.
+     */
+    final AtomicBoolean queuedInLockSupport = new AtomicBoolean();
+
+    Fiber(Runnable task, FiberScheduler.Carrier carrier) {
+        this.task = task;
+        this.carrier = carrier;
+        this.seenUnparkCount = carrier.unparkCount();
+        this.handle = create0(this);
+    }
+
+    /**
+     * Returns the fiber running on the current thread or {@code null} if the
+     * current thread isn't running a fiber.
+     */
+    public static Fiber current() {
+        Thread t = Thread.currentThread();
+        if (t instanceof FiberScheduler.Carrier) {
+            return ((FiberScheduler.Carrier) t).current;
+        }
+        return null;
+    }
+
+    /**
+     * Suspends the current fiber until {@link #unpark()} is called on it
+     * unless a permit is available. Like
+     * {@link java.util.concurrent.locks.LockSupport#park()} this may return
+     * spuriously so callers must recheck the condition they are waiting for.
+     *
+     * @throws IllegalStateException if not called from a fiber.
+     */
+    public static void park() {
+        Fiber f = current();
+        if (f == null) {
+            throw new IllegalStateException("Not called from a fiber");
+        }
+        if (f.permit.getAndSet(false)) {
+            return;
+        }
+        if (mustKeepCarrier()) {
+            // Suspending would let the other fibers on the carrier into the
+            // monitors and locks we hold. Block the carrier until unparked
+            // instead.
+            f.pinned = true;
+            if (!f.permit.get()) {
+                f.carrier.parkCarrier();
+            }
+            f.pinned = false;
+        } else {
+            f.state.set(PARKING);
+            suspend0();
+        }
+        f.permit.set(false);
+    }
+
+    /**
+     * Makes a permit available to this fiber and reschedules it on its
+     * carrier if it is parked.
+     */
+    public void unpark() {
+        permit.set(true);
+        if (pinned) {
+            carrier.unparkCarrier();
+        }
+        if (state.compareAndSet(PARKED, RUNNABLE)) {
+            carrier.submit(this);
+        }
+    }
+
+    /**
+     * Waits for this fiber to finish. Parks the current fiber if called from a
+     * fiber, blocks the current thread otherwise.
+     */
+    public void join() throws InterruptedException {
+        if (state.get() == DONE) {
+            return;
+        }
+        Fiber self = current();
+        if (self != null) {
+            if (self == this) {
+                throw new IllegalStateException("A fiber cannot join itself");
+            }
+            joiners.offer(self);
+            while (state.get() != DONE) {
+                park();
+            }
+        } else {
+            synchronized (this) {
+                while (state.get() != DONE) {
+                    wait();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} until this fiber has finished.
+     */
+    public boolean isAlive() {
+        return state.get() != DONE;
+    }
+
+    /**
+     * Resumes this fiber on the current carrier thread. Called from a single
+     * call site in {@link FiberScheduler.Carrier#run()} since the native code
+     * requires a fiber to be resumed at the same stack depth every time.
+     * Returns {@code true} if the fiber has finished.
+     */
+    boolean resume() {
+        boolean finished = resume0(handle);
+        if (finished) {
+            handle = 0;
+            state.set(DONE);
+            synchronized (this) {
+                notifyAll();
+            }
+            Fiber joiner;
+            while ((joiner = joiners.poll()) != null) {
+                joiner.unpark();
+            }
+            return true;
+        }
+        // The fiber parked itself. Only we move it from PARKING to PARKED
+        // which means unpark() may have missed it if called in between.
+        state.set(PARKED);
+        if (permit.get() && state.compareAndSet(PARKED, RUNNABLE)) {
+            carrier.submit(this);
+        }
+        return false;
+    }
+
+    /**
+     * Called once this fiber has become unreachable. If it is parked nothing
+     * can unpark it anymore so its carrier stops waiting for it. The native
+     * fiber and its saved stack are collected along with this object.
+     */
+    @Override
+    protected void finalize() {
+        if (state.compareAndSet(PARKED, DONE)) {
+            carrier.fiberAbandoned();
+        }
+    }
+
+    /**
+     * Returns {@code true} if the current fiber holds monitors or owns locks.
+     * Both are owned by the carrier so the fiber mustn't give it up.
+     */
+    static boolean mustKeepCarrier() {
+        return holdsMonitors0() || Thread.currentThread().getOwnedSynchronizerCount() != 0;
+    }
+
+    /**
+     * Called by the native code to run the fiber's task.
+     */
+    private void run0() {
+        try {
+            task.run();
+        } catch (Throwable t) {
+            Thread c = Thread.currentThread();
+            c.getUncaughtExceptionHandler().uncaughtException(c, t);
+        }
+    }
+
+    private static native long create0(Fiber fiber);
+    private static native boolean resume0(long handle);
+    private static native void suspend0();
+    private static native boolean holdsMonitors0();
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt;
+
+import static libcore.io.OsConstants.*;
+
+import java.io.FileDescriptor;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import libcore.io.ErrnoException;
+import libcore.io.ForwardingOs;
+import libcore.io.Libcore;
+import libcore.io.Os;
+import libcore.io.StructPollfd;
+
+/**
+ * Wraps {@link Libcore#os} to keep fibers from blocking their carriers in
+ * socket and pipe IO. Before a call which could block is made on a fiber the
+ * descriptor is polled. If it isn't ready the fiber is parked by
+ * {@link FiberPoller} until it is. Calls made on other threads, by fibers
+ * holding monitors or locks and on non-blocking descriptors go straight
+ * through.
+ * <p>
+ * If another thread consumes the data or buffer space between the descriptor
+ * becoming ready and the call the call blocks the carrier as before. Writes
+ * larger than the socket buffer may also block until the remainder has been
+ * sent.
+ */
+final class FiberOs extends ForwardingOs {
+    private static boolean installed;
+    private FiberPoller poller;
+
+    private FiberOs(Os os) {
+        super(os);
+    }
+
+    /**
+     * Installs a {@link FiberOs} unless already installed. Called when the
+     * first {@link FiberScheduler} is created.
+     */
+    static synchronized void install() {
+        if (!installed) {
+            Libcore.os = new FiberOs(Libcore.os);
+            installed = true;
+        }
+    }
+
+    private synchronized FiberPoller poller() throws ErrnoException {
+        if (poller == null) {
+            poller = new FiberPoller(os);
+        }
+        return poller;
+    }
+
+    private static boolean mayPark() {
+        return Fiber.current() != null && !Fiber.mustKeepCarrier();
+    }
+
+    private boolean isReady(FileDescriptor fd, int events) throws ErrnoException {
+        StructPollfd[] pollFds = new StructPollfd[] { new StructPollfd() };
+        pollFds[0].fd = fd;
+        pollFds[0].events = (short) events;
+        return os.poll(pollFds, 0) > 0;
+    }
+
+    /**
+     * Parks the current fiber until {@code fd} is ready for {@code events}.
+     * Throws {@code EAGAIN} like the blocking call would if the socket's
+     * receive timeout elapses first.
+     */
+    private void await(FileDescriptor fd, int events, String functionName) throws ErrnoException {
+        if (!mayPark() || !fd.valid()) {
+            return;
+        }
+        try {
+            if (isReady(fd, events) || (os.fcntlVoid(fd, F_GETFL) & O_NONBLOCK) != 0) {
+                return;
+            }
+        } catch (ErrnoException e) {
+            // Let the real call report the error
+            return;
+        }
+        long timeoutNanos = 0;
+        if (events == POLLIN) {
+            try {
+                timeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+                        os.getsockoptTimeval(fd, SOL_SOCKET, SO_RCVTIMEO).toMillis());
+            } catch (ErrnoException e) {
+                // Not a socket
+            }
+        }
+        if (!poller().await(new FileDescriptor[] { fd }, new int[] { events }, timeoutNanos)) {
+            throw new ErrnoException(functionName, EAGAIN);
+        }
+    }
+
+    @Override
+    public FileDescriptor accept(FileDescriptor fd, InetSocketAddress peerAddress) throws ErrnoException {
+        await(fd, POLLIN, "accept");
+        return os.accept(fd, peerAddress);
+    }
+
+    @Override
+    public void close(FileDescriptor fd) throws ErrnoException {
+        FiberPoller p;
+        synchronized (this) {
+            p = poller;
+        }
+        if (p != null && fd.valid()) {
+            p.closing(fd);
+        }
+        os.close(fd);
+    }
+
+    /**
+     * Connects a blocking socket like {@code IoBridge} does when connecting
+     * with a timeout: non-blocking {@code connect()} followed by waiting for
+     * the socket to become writable.
+     */
+    @Override
+    public void connect(FileDescriptor fd, InetAddress address, int port) throws ErrnoException {
+        if (!mayPark() || (os.fcntlVoid(fd, F_GETFL) & O_NONBLOCK) != 0) {
+            os.connect(fd, address, port);
+            return;
+        }
+        int flags = os.fcntlVoid(fd, F_GETFL);
+        os.fcntlLong(fd, F_SETFL, flags | O_NONBLOCK);
+        try {
+            try {
+                os.connect(fd, address, port);
+                return;
+            } catch (ErrnoException e) {
+                if (e.errno != EINPROGRESS) {
+                    throw e;
+                }
+            }
+            poller().await(new FileDescriptor[] { fd }, new int[] { POLLOUT }, 0);
+            int error = os.getsockoptInt(fd, SOL_SOCKET, SO_ERROR);
+            if (error != 0) {
+                throw new ErrnoException("connect", error);
+            }
+        } finally {
+            os.fcntlLong(fd, F_SETFL, flags);
+        }
+    }
+
+    @Override
+    public int poll(StructPollfd[] fds, int timeoutMs) throws ErrnoException {
+        if (timeoutMs == 0 || !mayPark()) {
+            return os.poll(fds, timeoutMs);
+        }
+        int rc = os.poll(fds, 0);
+        if (rc != 0) {
+            return rc;
+        }
+        // poll(2) ignores negative descriptors
+        int count = 0;
+        for (StructPollfd pollFd : fds) {
+            if (pollFd.fd.valid()) {
+                count++;
+            }
+        }
+        FileDescriptor[] pollFds = new FileDescriptor[count];
+        int[] events = new int[count];
+        for (int i = 0, j = 0; i < fds.length; i++) {
+            if (fds[i].fd.valid()) {
+                pollFds[j] = fds[i].fd;
+                events[j] = fds[i].events;
+                j++;
+            }
+        }
+        long timeoutNanos = timeoutMs < 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        poller().await(pollFds, events, timeoutNanos);
+        // Fills in revents. Returns 0 if we timed out.
+        return os.poll(fds, 0);
+    }
+
+    @Override
+    public int read(FileDescriptor fd, ByteBuffer buffer) throws ErrnoException {
+        await(fd, POLLIN, "read");
+        return os.read(fd, buffer);
+    }
+
+    @Override
+    public int read(FileDescriptor fd, byte[] bytes, int byteOffset, int byteCount) throws ErrnoException {
+        await(fd, POLLIN, "read");
+        return os.read(fd, bytes, byteOffset, byteCount);
+    }
+
+    @Override
+    public int readv(FileDescriptor fd, Object[] buffers, int[] offsets, int[] byteCounts) throws ErrnoException {
+        await(fd, POLLIN, "readv");
+        return os.readv(fd, buffers, offsets, byteCounts);
+    }
+
+    @Override
+    public int recvfrom(FileDescriptor fd, ByteBuffer buffer, int flags, InetSocketAddress srcAddress) throws ErrnoException {
+        await(fd, POLLIN, "recvfrom");
+        return os.recvfrom(fd, buffer, flags, srcAddress);
+    }
+
+    @Override
+    public int recvfrom(FileDescriptor fd, byte[] bytes, int byteOffset, int byteCount, int flags, InetSocketAddress srcAddress) throws ErrnoException {
+        await(fd, POLLIN, "recvfrom");
+        return os.recvfrom(fd, bytes, byteOffset, byteCount, flags, srcAddress);
+    }
+
+    @Override
+    public int sendto(FileDescriptor fd, ByteBuffer buffer, int flags, InetAddress inetAddress, int port) throws ErrnoException {
+        await(fd, POLLOUT, "sendto");
+        return os.sendto(fd, buffer, flags, inetAddress, port);
+    }
+
+    @Override
+    public int sendto(FileDescriptor fd, byte[] bytes, int byteOffset, int byteCount, int flags, InetAddress inetAddress, int port) throws ErrnoException {
+        await(fd, POLLOUT, "sendto");
+        return os.sendto(fd, bytes, byteOffset, byteCount, flags, inetAddress, port);
+    }
+
+    @Override
+    public int write(FileDescriptor fd, ByteBuffer buffer) throws ErrnoException {
+        await(fd, POLLOUT, "write");
+        return os.write(fd, buffer);
+    }
+
+    @Override
+    public int write(FileDescriptor fd, byte[] bytes, int byteOffset, int byteCount) throws ErrnoException {
+        await(fd, POLLOUT, "write");
+        return os.write(fd, bytes, byteOffset, byteCount);
+    }
+
+    @Override
+    public int writev(FileDescriptor fd, Object[] buffers, int[] offsets, int[] byteCounts) throws ErrnoException {
+        await(fd, POLLOUT, "writev");
+        return os.writev(fd, buffers, offsets, byteCounts);
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt;
+
+import static libcore.io.OsConstants.*;
+
+import java.io.FileDescriptor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import libcore.io.ErrnoException;
+import libcore.io.Os;
+import libcore.io.StructPollfd;
+
+/**
+ * Parks fibers until file descriptors become ready. A single daemon thread
+ * waits for all of them using epoll(7) where available and poll(2)
+ * otherwise. A descriptor is removed from the poll set once it has been
+ * reported ready and all fibers waiting on it are unparked. They retry the
+ * operation and come back here if it would still block.
+ */
+final class FiberPoller {
+    private final Os os;
+    /**
+     * The epoll(7) instance or {@code null} if poll(2) is used.
+     */
+    private final FileDescriptor epollFd;
+    /**
+     * The wakeup pipe used with poll(2) to make the poller thread pick up new
+     * descriptors. epoll(7) doesn't need one.
+     */
+    private final FileDescriptor wakeupIn;
+    private final FileDescriptor wakeupOut;
+    /**
+     * Descriptors waited on by fibers, by descriptor number. Guarded by
+     * {@code this}.
+     */
+    private final HashMap<Integer, Entry> entries = new HashMap<Integer, Entry>();
+
+    private static final class Waiter {
+        final Fiber fiber;
+        volatile boolean ready;
+
+        Waiter(Fiber fiber) {
+            this.fiber = fiber;
+        }
+    }
+
+    private static final class Entry {
+        final FileDescriptor fd;
+        final ArrayList<Waiter> waiters = new ArrayList<Waiter>();
+        final ArrayList<Integer> waiterEvents = new ArrayList<Integer>();
+
+        Entry(int fd) {
+            // Our own instance since the caller's is invalidated on close
+            this.fd = new FileDescriptor();
+            this.fd.setInt$(fd);
+        }
+
+        int events() {
+            int events = 0;
+            for (int e : waiterEvents) {
+                events |= e;
+            }
+            return events;
+        }
+    }
+
+    FiberPoller(Os os) throws ErrnoException {
+        this.os = os;
+        if (EPOLLIN != 0) {
+            epollFd = os.epoll_create1(EPOLL_CLOEXEC);
+            wakeupIn = null;
+            wakeupOut = null;
+        } else {
+            epollFd = null;
+            FileDescriptor[] pipe = os.pipe();
+            wakeupIn = pipe[0];
+            wakeupOut = pipe[1];
+            os.fcntlLong(wakeupIn, F_SETFL, os.fcntlVoid(wakeupIn, F_GETFL) | O_NONBLOCK);
+            os.fcntlLong(wakeupOut, F_SETFL, os.fcntlVoid(wakeupOut, F_GETFL) | O_NONBLOCK);
+        }
+        Thread t = new Thread("FiberPoller") {
+            @Override
+            public void run() {
+                if (epollFd != null) {
+                    runEpoll();
+                } else {
+                    runPoll();
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Parks the current fiber until one of {@code fds} is ready for the
+     * corresponding poll(2) {@code events} or the timeout has elapsed.
+     * Returns {@code false} if the timeout elapsed first.
+     *
+     * @param timeoutNanos the timeout or 0 to wait indefinitely.
+     */
+    boolean await(FileDescriptor[] fds, int[] events, long timeoutNanos) throws ErrnoException {
+        final Waiter waiter = new Waiter(Fiber.current());
+        int[] fdInts = new int[fds.length];
+        for (int i = 0; i < fds.length; i++) {
+            fdInts[i] = fds[i].getInt$();
+        }
+        ScheduledFuture<?> timeout = null;
+        try {
+            for (int i = 0; i < fds.length; i++) {
+                add(fdInts[i], events[i], waiter);
+            }
+            long deadline = System.nanoTime() + timeoutNanos;
+            if (timeoutNanos > 0) {
+                timeout = FiberScheduler.Timer.INSTANCE.schedule(new Runnable() {
+                    public void run() {
+                        waiter.fiber.unpark();
+                    }
+                }, timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            while (!waiter.ready) {
+                if (timeoutNanos > 0 && System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+                Fiber.park();
+            }
+            return true;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            // Also the descriptors which weren't ready
+            for (int fd : fdInts) {
+                remove(fd, waiter);
+            }
+        }
+    }
+
+    /**
+     * Unparks the fibers waiting on a descriptor which is about to be closed.
+     * They will find it closed when they retry.
+     */
+    void closing(FileDescriptor fd) {
+        ready(fd.getInt$());
+    }
+
+    private void add(int fd, int events, Waiter waiter) throws ErrnoException {
+        synchronized (this) {
+            Entry entry = entries.get(fd);
+            boolean added = entry == null;
+            if (added) {
+                entry = new Entry(fd);
+            }
+            int oldEvents = entry.events();
+            entry.waiters.add(waiter);
+            entry.waiterEvents.add(events);
+            if (epollFd != null) {
+                int epollEvents = toEpollEvents(entry.events());
+                if (added) {
+                    os.epoll_ctl(epollFd, EPOLL_CTL_ADD, entry.fd, epollEvents, fd);
+                } else if (entry.events() != oldEvents) {
+                    os.epoll_ctl(epollFd, EPOLL_CTL_MOD, entry.fd, epollEvents, fd);
+                }
+            }
+            if (added) {
+                entries.put(fd, entry);
+            }
+        }
+        if (epollFd == null) {
+            wakeup();
+        }
+    }
+
+    private synchronized void remove(int fd, Waiter waiter) {
+        Entry entry = entries.get(fd);
+        if (entry == null) {
+            return;
+        }
+        int index = entry.waiters.indexOf(waiter);
+        if (index < 0) {
+            return;
+        }
+        entry.waiters.remove(index);
+        entry.waiterEvents.remove(index);
+        if (entry.waiters.isEmpty()) {
+            entries.remove(fd);
+            epollDel(entry);
+        }
+        // With poll(2) the descriptor is dropped from the poll set the next
+        // time the poller thread wakes up.
+    }
+
+    private void ready(int fd) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(fd);
+            if (entry == null) {
+                return;
+            }
+            epollDel(entry);
+        }
+        for (Waiter waiter : entry.waiters) {
+            waiter.ready = true;
+            waiter.fiber.unpark();
+        }
+    }
+
+    private void epollDel(Entry entry) {
+        if (epollFd != null) {
+            try {
+                os.epoll_ctl(epollFd, EPOLL_CTL_DEL, entry.fd, 0, entry.fd.getInt$());
+            } catch (ErrnoException e) {
+                // Closed descriptors have already been removed by the kernel
+            }
+        }
+    }
+
+    private static int toEpollEvents(int pollEvents) {
+        int events = 0;
+        if ((pollEvents & POLLIN) != 0) {
+            events |= EPOLLIN;
+        }
+        if ((pollEvents & POLLOUT) != 0) {
+            events |= EPOLLOUT;
+        }
+        return events;
+    }
+
+    private void wakeup() {
+        try {
+            os.write(wakeupOut, new byte[1], 0, 1);
+        } catch (ErrnoException e) {
+            // EAGAIN means the pipe is full and the poller wakes up anyway
+            if (e.errno != EAGAIN) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private void runEpoll() {
+        int[] events = new int[256];
+        for (;;) {
+            int rc;
+            try {
+                rc = os.epoll_wait(epollFd, events, -1);
+            } catch (ErrnoException e) {
+                if (e.errno == EINTR) {
+                    continue;
+                }
+                throw new AssertionError(e);
+            }
+            // (events, fd) pairs
+            for (int i = 0; i < rc; i++) {
+                ready(events[i * 2 + 1]);
+            }
+        }
+    }
+
+    private void runPoll() {
+        byte[] buffer = new byte[64];
+        for (;;) {
+            StructPollfd[] pollFds;
+            synchronized (this) {
+                pollFds = new StructPollfd[entries.size() + 1];
+                pollFds[0] = new StructPollfd();
+                pollFds[0].fd = wakeupIn;
+                pollFds[0].events = (short) POLLIN;
+                int i = 1;
+                for (Entry entry : entries.values()) {
+                    pollFds[i] = new StructPollfd();
+                    pollFds[i].fd = entry.fd;
+                    pollFds[i].events = (short) entry.events();
+                    i++;
+                }
+            }
+            try {
+                os.poll(pollFds, -1);
+                while (os.read(wakeupIn, buffer, 0, buffer.length) > 0) {
+                }
+            } catch (ErrnoException e) {
+                // EAGAIN once the wakeup pipe has been drained
+                if (e.errno != EINTR && e.errno != EAGAIN) {
+                    throw new AssertionError(e);
+                }
+            }
+            for (int i = 1; i < pollFds.length; i++) {
+                if (pollFds[i].revents != 0) {
+                    ready(pollFds[i].fd.getInt$());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimingWheelScheduledExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link Fiber}s on a fixed number of carrier threads. Fibers are
+ * assigned to carriers round-robin when started and stay on their carrier
+ * until they finish. Carriers are daemon threads.
+ */
+public final class FiberScheduler {
+    private static final AtomicInteger schedulerCount = new AtomicInteger();
+
+    private final Carrier[] carriers;
+    private final AtomicInteger nextCarrier = new AtomicInteger();
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new {@link FiberScheduler} with the specified number of
+     * carrier threads.
+     */
+    public FiberScheduler(int carrierCount) {
+        if (carrierCount <= 0) {
+            throw new IllegalArgumentException("carrierCount <= 0");
+        }
+        FiberOs.install();
+        int id = schedulerCount.incrementAndGet();
+        carriers = new Carrier[carrierCount];
+        for (int i = 0; i < carrierCount; i++) {
+            carriers[i] = new Carrier(this, "FiberScheduler-" + id + "-carrier-" + i);
+        }
+        for (Carrier carrier : carriers) {
+            carrier.start();
+        }
+    }
+
+    /**
+     * Starts a new {@link Fiber} running the specified task.
+     *
+     * @throws IllegalStateException if this scheduler has been shut down.
+     */
+    public Fiber start(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        int index = (nextCarrier.getAndIncrement() & Integer.MAX_VALUE) % carriers.length;
+        Carrier carrier = carriers[index];
+        // Count the fiber before checking for shutdown or the carrier could
+        // exit before it has run.
+        carrier.liveFibers.incrementAndGet();
+        if (shutdown) {
+            carrier.liveFibers.decrementAndGet();
+            throw new IllegalStateException("FiberScheduler has been shut down");
+        }
+        Fiber fiber;
+        try {
+            fiber = new Fiber(task, carrier);
+        } catch (RuntimeException e) {
+            carrier.liveFibers.decrementAndGet();
+            throw e;
+        } catch (Error e) {
+            carrier.liveFibers.decrementAndGet();
+            throw e;
+        }
+        carrier.submit(fiber);
+        return fiber;
+    }
+
+    /**
+     * Stops this scheduler from accepting new fibers. The carrier threads exit
+     * once all their fibers have finished.
+     */
+    public void shutdown() {
+        shutdown = true;
+        for (Carrier carrier : carriers) {
+            carrier.unparkCarrier();
+        }
+    }
+
+    /**
+     * Waits for the carrier threads to exit after {@link #shutdown()}. Returns
+     * {@code false} if the timeout elapsed first.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Carrier carrier : carriers) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                carrier.join(TimeUnit.NANOSECONDS.toMillis(remaining), (int) (remaining % 1000000));
+            }
+            if (carrier.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Unparks fibers whose timed parks have elapsed. Created lazily since
+     * most apps never use fibers.
+     */
+    static class Timer {
+        static final TimingWheelScheduledExecutor INSTANCE = new TimingWheelScheduledExecutor(
+                1, TimeUnit.MILLISECONDS, new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "FiberScheduler-timer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, null);
+    }
+
+    static final class Carrier extends Thread {
+        private final FiberScheduler scheduler;
+        private final ConcurrentLinkedQueue<Fiber> runQueue = new ConcurrentLinkedQueue<Fiber>();
+        /**
+         * Fibers parked in {@link java.util.concurrent.locks.LockSupport}.
+         * {@link #unpark()} wakes them all since it can't tell which one it
+         * was meant for.
+         */
+        private final ConcurrentLinkedQueue<Fiber> lockSupportQueue = new ConcurrentLinkedQueue<Fiber>();
+        private final AtomicInteger unparkCount = new AtomicInteger();
+        final AtomicInteger liveFibers = new AtomicInteger();
+        Fiber current;
+
+        Carrier(FiberScheduler scheduler, String name) {
+            super(name);
+            this.scheduler = scheduler;
+            setDaemon(true);
+        }
+
+        void submit(Fiber fiber) {
+            runQueue.offer(fiber);
+            if (Thread.currentThread() != this) {
+                unparkCarrier();
+            }
+        }
+
+        /**
+         * Blocks this carrier thread, including the fiber running on it if
+         * any, until {@link #unparkCarrier()} is called. May return
+         * spuriously.
+         */
+        void parkCarrier() {
+            super.parkFor(0);
+        }
+
+        void unparkCarrier() {
+            super.unpark();
+        }
+
+        int unparkCount() {
+            return unparkCount.get();
+        }
+
+        /**
+         * Called when a parked fiber has been reclaimed by the GC. Wakes the
+         * carrier so that it can exit if that was its last fiber.
+         */
+        void fiberAbandoned() {
+            liveFibers.decrementAndGet();
+            unparkCarrier();
+        }
+
+        /**
+         * Called by {@link sun.misc.Unsafe#park(boolean, long)}. Parks the
+         * current fiber instead of the carrier unless the fiber holds
+         * monitors or locks.
+         */
+        @Override
+        public void parkFor(long nanos) {
+            Fiber fiber = current;
+            if (fiber == null || Fiber.mustKeepCarrier()) {
+                super.parkFor(nanos);
+                return;
+            }
+            // unpark() bumps the count before it wakes the queued fibers.
+            // A change since we last returned is our permit.
+            int count = unparkCount.get();
+            if (count == fiber.seenUnparkCount) {
+                if (fiber.queuedInLockSupport.compareAndSet(false, true)) {
+                    lockSupportQueue.offer(fiber);
+                }
+                // Recheck in case unpark() drained the queue before we were
+                // in it.
+                if (count == unparkCount.get()) {
+                    ScheduledFuture<?> timeout = null;
+                    if (nanos > 0) {
+                        final Fiber f = fiber;
+                        timeout = Timer.INSTANCE.schedule(new Runnable() {
+                            public void run() {
+                                f.unpark();
+                            }
+                        }, nanos, TimeUnit.NANOSECONDS);
+                    }
+                    Fiber.park();
+                    if (timeout != null) {
+                        timeout.cancel(false);
+                    }
+                }
+            }
+            fiber.seenUnparkCount = unparkCount.get();
+        }
+
+        @Override
+        public void parkUntil(long time) {
+            if (current == null || Fiber.mustKeepCarrier()) {
+                super.parkUntil(time);
+                return;
+            }
+            long delayMillis = time - System.currentTimeMillis();
+            if (delayMillis > 0) {
+                parkFor(TimeUnit.MILLISECONDS.toNanos(delayMillis));
+            }
+        }
+
+        /**
+         * Called by {@link sun.misc.Unsafe#unpark(Object)}. Wakes the
+         * carrier in case a fiber holding monitors has parked it and all
+         * fibers parked in {@link #parkFor(long)}.
+         */
+        @Override
+        public void unpark() {
+            super.unpark();
+            unparkCount.incrementAndGet();
+            Fiber fiber;
+            while ((fiber = lockSupportQueue.poll()) != null) {
+                fiber.queuedInLockSupport.set(false);
+                fiber.unpark();
+            }
+        }
+
+        @Override
+        public void interrupt() {
+            super.interrupt();
+            // Let fibers in interruptible waits see the interrupt.
+            unpark();
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                Fiber fiber = runQueue.poll();
+                if (fiber != null) {
+                    current = fiber;
+                    boolean finished = fiber.resume();
+                    current = null;
+                    if (finished) {
+                        liveFibers.decrementAndGet();
+                    }
+                } else if (scheduler.shutdown && liveFibers.get() == 0) {
+                    return;
+                } else {
+                    parkCarrier();
+                }
+            }
+        }
+    }
+}
@@ -15,6 +15,8 @@
  */
 package org.robovm.rt;
 
+import java.io.IOException;
+import java.lang.ref.FinalizerReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
@@ -65,6 +67,93 @@ public final class VM {
      */
     public static native final Class<?>[] getStackClasses(int skipNum, int maxDepth);
     
+    /**
+     * Returns the number of garbage collections which have been performed 
+     * since the VM was started.
+     */
+    public native static final long getGCCount();
+
+    /**
+     * Returns the accumulated time in nanoseconds spent in garbage
+     * collections since the VM was started. A collection is timed from its
+     * start until the allocation or {@link System#gc()} call which triggered
+     * it returns, which includes the time the world was stopped.
+     */
+    public native static final long getGCTotalPauseTime();
+
+    /**
+     * Returns the time in nanoseconds spent in the most recent garbage
+     * collection, measured as for {@link #getGCTotalPauseTime()}. Returns 0 if
+     * no collection has been performed yet.
+     */
+    public native static final long getGCLastPauseTime();
+
+    /**
+     * Returns the total number of bytes allocated on the GCed heap since the
+     * VM was started. This number is never decreased by collections.
+     */
+    public native static final long getBytesAllocated();
+
+    /**
+     * Writes a heap profile to the specified file. The profile contains a 
+     * histogram of the live objects on the heap aggregated by class and, if
+     * allocation sampling has been enabled using 
+     * {@link #startAllocationSampling(int)} or the 
+     * <code>-rvm:allocSampleInterval=&lt;bytes&gt;</code> launch option, the 
+     * sampled allocation sites. Use the <code>HeapProfileReport</code> tool
+     * in the RoboVM compiler to turn the file into a readable report.
+     * 
+     * @param path the file to write to. Will be overwritten if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void writeHeapProfile(String path) throws IOException {
+        if (path == null) {
+            throw new NullPointerException("path");
+        }
+        if (!writeHeapProfile0(path)) {
+            throw new IOException("Failed to write heap profile to " + path);
+        }
+    }
+
+    private native static boolean writeHeapProfile0(String path);
+
+    /**
+     * Starts recording the call stack of allocations. A sample is recorded 
+     * roughly every <code>interval</code> bytes allocated.
+     * 
+     * @param interval the sample interval in bytes.
+     */
+    public static void startAllocationSampling(int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval <= 0");
+        }
+        startAllocationSampling0(interval);
+    }
+
+    private native static void startAllocationSampling0(int interval);
+
+    /**
+     * Stops recording allocation samples. Samples recorded so far are kept
+     * and will still be included in heap profiles.
+     */
+    public native static void stopAllocationSampling();
+
+    /**
+     * Returns the number of finalizers and {@link sun.misc.Cleaner}s which
+     * are waiting to be run by the finalizer threads.
+     */
+    public static int getFinalizerQueueDepth() {
+        return FinalizerReference.getQueueDepth();
+    }
+
+    /**
+     * Returns the total number of finalizers and {@link sun.misc.Cleaner}s
+     * run by the finalizer threads since the VM was started.
+     */
+    public static long getFinalizedCount() {
+        return FinalizerReference.getFinalizedCount();
+    }
+
     public native static final long allocateMemory(int size);
     public native static final long allocateMemoryUncollectable(int size);
     public native static final long allocateMemoryAtomic(int size);
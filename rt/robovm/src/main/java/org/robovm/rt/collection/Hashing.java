@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt.collection;
+
+/**
+ * Hash functions and table sizing shared by the open addressed maps and sets
+ * in this package.
+ */
+final class Hashing {
+    static final int DEFAULT_EXPECTED_SIZE = 8;
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private Hashing() {
+    }
+
+    /**
+     * Spreads the bits of {@code key} so that keys which only differ in their
+     * high bits, like multiples of a power of two, don't collide once masked.
+     */
+    static int mix(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Like {@link #mix(int)} for {@code long} keys.
+     */
+    static int mix(long key) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        h ^= (h >>> 32);
+        return (int) (h ^ (h >>> 16));
+    }
+
+    /**
+     * Returns the power of two table capacity needed to hold
+     * {@code expectedSize} entries without exceeding the maximum load
+     * factor of 3/4.
+     */
+    static int capacityFor(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize < 0: " + expectedSize);
+        }
+        long needed = (long) expectedSize * 4 / 3 + 1;
+        if (needed >= MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+        return Math.max(2, Integer.highestOneBit((int) needed - 1) << 1);
+    }
+
+    /**
+     * Returns the number of entries a table with the specified capacity may
+     * hold before it has to grow.
+     */
+    static int maxFill(int capacity) {
+        // Always leave at least one slot free or lookups of missing keys
+        // would never terminate.
+        return Math.min(capacity - 1, capacity - (capacity >>> 2));
+    }
+}
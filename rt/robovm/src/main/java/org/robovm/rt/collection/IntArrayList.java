@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt.collection;
+
+import java.util.Arrays;
+
+/**
+ * Resizable array of {@code int}s. Unlike an {@code ArrayList<Integer>} it
+ * never boxes and only allocates when it grows. The elements are kept in an
+ * {@code int[]} which, like all primitive arrays, is never scanned by the GC.
+ * Iterate using {@link #size()} and {@link #get(int)}. Not thread safe.
+ */
+public final class IntArrayList {
+    private static final int MIN_CAPACITY_INCREMENT = 12;
+
+    private int[] array;
+    private int size;
+
+    /**
+     * Creates a new empty list.
+     */
+    public IntArrayList() {
+        this(MIN_CAPACITY_INCREMENT);
+    }
+
+    /**
+     * Creates a new empty list which can hold {@code capacity} elements
+     * without growing.
+     */
+    public IntArrayList(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity < 0: " + capacity);
+        }
+        array = new int[capacity];
+    }
+
+    /**
+     * Returns the number of elements in this list.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if this list has no elements.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the element at {@code index}.
+     */
+    public int get(int index) {
+        if (index >= size) {
+            throw indexOutOfBounds(index);
+        }
+        return array[index];
+    }
+
+    /**
+     * Replaces the element at {@code index}.
+     *
+     * @return the previous element.
+     */
+    public int set(int index, int value) {
+        if (index >= size) {
+            throw indexOutOfBounds(index);
+        }
+        int old = array[index];
+        array[index] = value;
+        return old;
+    }
+
+    /**
+     * Appends {@code value} to this list.
+     */
+    public void add(int value) {
+        int[] a = array;
+        int s = size;
+        if (s == a.length) {
+            a = grow(s + 1);
+        }
+        a[s] = value;
+        size = s + 1;
+    }
+
+    /**
+     * Inserts {@code value} at {@code index} moving the following elements
+     * up by one.
+     */
+    public void add(int index, int value) {
+        int s = size;
+        if (index > s || index < 0) {
+            throw indexOutOfBounds(index);
+        }
+        int[] a = array;
+        if (s == a.length) {
+            a = grow(s + 1);
+        }
+        System.arraycopy(a, index, a, index + 1, s - index);
+        a[index] = value;
+        size = s + 1;
+    }
+
+    /**
+     * Appends all of {@code values} to this list.
+     */
+    public void addAll(int[] values) {
+        int s = size;
+        int[] a = array;
+        if (s + values.length > a.length) {
+            a = grow(s + values.length);
+        }
+        System.arraycopy(values, 0, a, s, values.length);
+        size = s + values.length;
+    }
+
+    /**
+     * Removes the element at {@code index} moving the following elements
+     * down by one.
+     *
+     * @return the removed element.
+     */
+    public int removeAt(int index) {
+        int s = size;
+        if (index >= s) {
+            throw indexOutOfBounds(index);
+        }
+        int[] a = array;
+        int old = a[index];
+        System.arraycopy(a, index + 1, a, index, --s - index);
+        size = s;
+        return old;
+    }
+
+    /**
+     * Returns the index of the first occurrence of {@code value} or -1 if
+     * this list doesn't contain {@code value}.
+     */
+    public int indexOf(int value) {
+        int[] a = array;
+        int s = size;
+        for (int i = 0; i < s; i++) {
+            if (a[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns {@code true} if this list contains {@code value}.
+     */
+    public boolean contains(int value) {
+        return indexOf(value) != -1;
+    }
+
+    /**
+     * Removes all elements. Keeps the current capacity.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Makes sure this list can hold {@code minimumCapacity} elements without
+     * growing.
+     */
+    public void ensureCapacity(int minimumCapacity) {
+        if (array.length < minimumCapacity) {
+            array = Arrays.copyOf(array, minimumCapacity);
+        }
+    }
+
+    /**
+     * Returns a new array containing the elements of this list.
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(array, size);
+    }
+
+    private int[] grow(int minimumCapacity) {
+        int s = array.length;
+        int newCapacity = s + (s < (MIN_CAPACITY_INCREMENT / 2) ? MIN_CAPACITY_INCREMENT : s >> 1);
+        array = Arrays.copyOf(array, Math.max(newCapacity, minimumCapacity));
+        return array;
+    }
+
+    private IndexOutOfBoundsException indexOutOfBounds(int index) {
+        return new IndexOutOfBoundsException("Invalid index " + index + ", size is " + size);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(array[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
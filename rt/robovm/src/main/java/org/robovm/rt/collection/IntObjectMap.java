@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt.collection;
+
+import java.util.Arrays;
+
+/**
+ * Open addressed hash map from {@code int} keys to objects. Unlike a
+ * {@code HashMap<Integer, V>} it never boxes its keys and only allocates when
+ * it grows. The keys are kept in an {@code int[]} which, like all primitive
+ * arrays, is never scanned by the GC. {@code null} values are allowed but
+ * {@link #get(int)} can't tell them apart from missing keys.
+ * <p>
+ * Entries are iterated without allocating anything using an index cursor:
+ * <pre>
+ * for (int i = map.next(-1); i != -1; i = map.next(i)) {
+ *     int key = map.keyAt(i);
+ *     V value = map.valueAt(i);
+ * }
+ * </pre>
+ * The map must not be modified while iterating except through
+ * {@link #setValueAt(int, Object)}. Not thread safe.
+ */
+public final class IntObjectMap<V> {
+    /**
+     * 0 marks free slots in {@link #keys}. The entry for key 0 is kept in
+     * {@link #zeroValue} and gets the cursor index {@code keys.length}.
+     */
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int maxFill;
+    /** Number of entries in {@link #keys}, not counting key 0. */
+    private int used;
+    private boolean hasZeroKey;
+    private Object zeroValue;
+
+    /**
+     * Creates a new empty map.
+     */
+    public IntObjectMap() {
+        this(Hashing.DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Creates a new empty map which can hold {@code expectedSize} entries
+     * without growing.
+     */
+    public IntObjectMap(int expectedSize) {
+        allocate(Hashing.capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        maxFill = Hashing.maxFill(capacity);
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     */
+    public int size() {
+        return hasZeroKey ? used + 1 : used;
+    }
+
+    /**
+     * Returns {@code true} if this map has no entries.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private int slotOf(int key) {
+        int[] keys = this.keys;
+        int slot = Hashing.mix(key) & mask;
+        int k;
+        while ((k = keys[slot]) != 0) {
+            if (k == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns {@code true} if this map has an entry for {@code key}.
+     */
+    public boolean containsKey(int key) {
+        return (key == 0) ? hasZeroKey : slotOf(key) != -1;
+    }
+
+    /**
+     * Returns the value for {@code key} or {@code null} if there is none.
+     */
+    public V get(int key) {
+        return get(key, null);
+    }
+
+    /**
+     * Returns the value for {@code key} or {@code valueIfKeyNotFound} if
+     * there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key, V valueIfKeyNotFound) {
+        if (key == 0) {
+            return hasZeroKey ? (V) zeroValue : valueIfKeyNotFound;
+        }
+        int slot = slotOf(key);
+        return (slot != -1) ? (V) values[slot] : valueIfKeyNotFound;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}.
+     *
+     * @return the previous value for {@code key} or {@code null} if there was
+     *         none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key == 0) {
+            V old = (V) zeroValue;
+            hasZeroKey = true;
+            zeroValue = value;
+            return old;
+        }
+        int[] keys = this.keys;
+        int slot = Hashing.mix(key) & mask;
+        int k;
+        while ((k = keys[slot]) != 0) {
+            if (k == key) {
+                V old = (V) values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++used >= maxFill) {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * Removes the entry for {@code key} if there is one.
+     *
+     * @return the removed value or {@code null} if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == 0) {
+            V old = (V) zeroValue;
+            hasZeroKey = false;
+            zeroValue = null;
+            return old;
+        }
+        int slot = slotOf(key);
+        if (slot == -1) {
+            return null;
+        }
+        V old = (V) values[slot];
+        removeSlot(slot);
+        return old;
+    }
+
+    /**
+     * Removes all entries. Keeps the current capacity.
+     */
+    public void clear() {
+        if (used > 0) {
+            Arrays.fill(keys, 0);
+            Arrays.fill(values, null);
+            used = 0;
+        }
+        hasZeroKey = false;
+        zeroValue = null;
+    }
+
+    /**
+     * Returns the cursor index of the entry following the one at
+     * {@code index} or -1 if there are no more entries. Pass -1 to get the
+     * first entry.
+     */
+    public int next(int index) {
+        int[] keys = this.keys;
+        int capacity = keys.length;
+        for (int i = index + 1; i < capacity; i++) {
+            if (keys[i] != 0) {
+                return i;
+            }
+        }
+        return (index < capacity && hasZeroKey) ? capacity : -1;
+    }
+
+    /**
+     * Returns the key of the entry at cursor index {@code index}.
+     */
+    public int keyAt(int index) {
+        return (index == keys.length) ? 0 : keys[index];
+    }
+
+    /**
+     * Returns the value of the entry at cursor index {@code index}.
+     */
+    @SuppressWarnings("unchecked")
+    public V valueAt(int index) {
+        return (V) ((index == keys.length) ? zeroValue : values[index]);
+    }
+
+    /**
+     * Replaces the value of the entry at cursor index {@code index}.
+     */
+    public void setValueAt(int index, V value) {
+        if (index == keys.length) {
+            zeroValue = value;
+        } else {
+            values[index] = value;
+        }
+    }
+
+    /**
+     * Removes the entry in {@code slot} and moves the following entries of
+     * the same probe sequence back so that no tombstones are needed.
+     */
+    private void removeSlot(int slot) {
+        int[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = this.mask;
+        for (;;) {
+            int last = slot;
+            int k;
+            for (;;) {
+                slot = (slot + 1) & mask;
+                k = keys[slot];
+                if (k == 0) {
+                    keys[last] = 0;
+                    values[last] = null;
+                    used--;
+                    return;
+                }
+                int ideal = Hashing.mix(k) & mask;
+                // Move the entry unless its ideal slot lies cyclically in
+                // (last, slot].
+                if (last <= slot ? (last >= ideal || ideal > slot) : (last >= ideal && ideal > slot)) {
+                    break;
+                }
+            }
+            keys[last] = k;
+            values[last] = values[slot];
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        if (oldKeys.length == Hashing.MAX_CAPACITY) {
+            throw new IllegalStateException("Map is full");
+        }
+        allocate(oldKeys.length << 1);
+        int[] keys = this.keys;
+        Object[] values = this.values;
+        int mask = this.mask;
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k != 0) {
+                int slot = Hashing.mix(k) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = k;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('{');
+        for (int i = next(-1); i != -1; i = next(i)) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(keyAt(i)).append('=').append(valueAt(i));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt.collection;
+
+import java.util.Arrays;
+
+/**
+ * Open addressed hash set of {@code long}s. Unlike a {@code HashSet<Long>}
+ * it never boxes and only allocates when it grows. The elements are kept in
+ * a {@code long[]} which, like all primitive arrays, is never scanned by the
+ * GC.
+ * <p>
+ * Elements are iterated without allocating anything using an index cursor:
+ * <pre>
+ * for (int i = set.next(-1); i != -1; i = set.next(i)) {
+ *     long element = set.elementAt(i);
+ * }
+ * </pre>
+ * The set must not be modified while iterating. Not thread safe.
+ */
+public final class LongHashSet {
+    /**
+     * 0 marks free slots in {@link #elements}. Element 0 is tracked by
+     * {@link #hasZero} and gets the cursor index {@code elements.length}.
+     */
+    private long[] elements;
+    private int mask;
+    private int maxFill;
+    /** Number of elements in {@link #elements}, not counting 0. */
+    private int used;
+    private boolean hasZero;
+
+    /**
+     * Creates a new empty set.
+     */
+    public LongHashSet() {
+        this(Hashing.DEFAULT_EXPECTED_SIZE);
+    }
+
+    /**
+     * Creates a new empty set which can hold {@code expectedSize} elements
+     * without growing.
+     */
+    public LongHashSet(int expectedSize) {
+        allocate(Hashing.capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        elements = new long[capacity];
+        mask = capacity - 1;
+        maxFill = Hashing.maxFill(capacity);
+    }
+
+    /**
+     * Returns the number of elements in this set.
+     */
+    public int size() {
+        return hasZero ? used + 1 : used;
+    }
+
+    /**
+     * Returns {@code true} if this set has no elements.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private int slotOf(long element) {
+        long[] elements = this.elements;
+        int slot = Hashing.mix(element) & mask;
+        long e;
+        while ((e = elements[slot]) != 0) {
+            if (e == element) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns {@code true} if this set contains {@code element}.
+     */
+    public boolean contains(long element) {
+        return (element == 0) ? hasZero : slotOf(element) != -1;
+    }
+
+    /**
+     * Adds {@code element} to this set.
+     *
+     * @return {@code true} if this set didn't already contain
+     *         {@code element}.
+     */
+    public boolean add(long element) {
+        if (element == 0) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        long[] elements = this.elements;
+        int slot = Hashing.mix(element) & mask;
+        long e;
+        while ((e = elements[slot]) != 0) {
+            if (e == element) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        elements[slot] = element;
+        if (++used >= maxFill) {
+            grow();
+        }
+        return true;
+    }
+
+    /**
+     * Removes {@code element} from this set.
+     *
+     * @return {@code true} if this set contained {@code element}.
+     */
+    public boolean remove(long element) {
+        if (element == 0) {
+            boolean removed = hasZero;
+            hasZero = false;
+            return removed;
+        }
+        int slot = slotOf(element);
+        if (slot == -1) {
+            return false;
+        }
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Removes all elements. Keeps the current capacity.
+     */
+    public void clear() {
+        if (used > 0) {
+            Arrays.fill(elements, 0L);
+            used = 0;
+        }
+        hasZero = false;
+    }
+
+    /**
+     * Returns the cursor index of the element following the one at
+     * {@code index} or -1 if there are no more elements. Pass -1 to get the
+     * first element.
+     */
+    public int next(int index) {
+        long[] elements = this.elements;
+        int capacity = elements.length;
+        for (int i = index + 1; i < capacity; i++) {
+            if (elements[i] != 0) {
+                return i;
+            }
+        }
+        return (index < capacity && hasZero) ? capacity : -1;
+    }
+
+    /**
+     * Returns the element at cursor index {@code index}.
+     */
+    public long elementAt(int index) {
+        return (index == elements.length) ? 0 : elements[index];
+    }
+
+    /**
+     * Returns a new array containing the elements of this set in no
+     * particular order.
+     */
+    public long[] toArray() {
+        long[] result = new long[size()];
+        int n = 0;
+        for (int i = next(-1); i != -1; i = next(i)) {
+            result[n++] = elementAt(i);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the element in {@code slot} and moves the following elements of
+     * the same probe sequence back so that no tombstones are needed.
+     */
+    private void removeSlot(int slot) {
+        long[] elements = this.elements;
+        int mask = this.mask;
+        for (;;) {
+            int last = slot;
+            long e;
+            for (;;) {
+                slot = (slot + 1) & mask;
+                e = elements[slot];
+                if (e == 0) {
+                    elements[last] = 0;
+                    used--;
+                    return;
+                }
+                int ideal = Hashing.mix(e) & mask;
+                // Move the element unless its ideal slot lies cyclically in
+                // (last, slot].
+                if (last <= slot ? (last >= ideal || ideal > slot) : (last >= ideal && ideal > slot)) {
+                    break;
+                }
+            }
+            elements[last] = e;
+        }
+    }
+
+    private void grow() {
+        long[] oldElements = elements;
+        if (oldElements.length == Hashing.MAX_CAPACITY) {
+            throw new IllegalStateException("Set is full");
+        }
+        allocate(oldElements.length << 1);
+        long[] elements = this.elements;
+        int mask = this.mask;
+        for (int i = 0; i < oldElements.length; i++) {
+            long e = oldElements[i];
+            if (e != 0) {
+                int slot = Hashing.mix(e) & mask;
+                while (elements[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                elements[slot] = e;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        for (int i = next(-1); i != -1; i = next(i)) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(elementAt(i));
+        }
+        return sb.append(']').toString();
+    }
+}
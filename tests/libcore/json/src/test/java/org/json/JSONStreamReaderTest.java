@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import junit.framework.TestCase;
+import org.json.JSONStreamReader.Token;
+
+public class JSONStreamReaderTest extends TestCase {
+
+    public void testTokens() throws Exception {
+        JSONStreamReader reader = new JSONStreamReader(new StringReader(
+                "{\"a\": [1, -2.5e3, \"x\\ty\", true, false, null], \"b\": {}}"));
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        reader.beginArray();
+        assertEquals(Token.NUMBER, reader.peek());
+        assertEquals(1, reader.nextInt());
+        assertEquals(-2500.0, reader.nextDouble());
+        assertEquals("x\ty", reader.nextString());
+        assertTrue(reader.nextBoolean());
+        assertFalse(reader.nextBoolean());
+        assertEquals(Token.NULL, reader.peek());
+        reader.nextNull();
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("b", reader.nextName());
+        reader.beginObject();
+        reader.endObject();
+        reader.endObject();
+        assertEquals(Token.END_DOCUMENT, reader.peek());
+    }
+
+    public void testSkipValue() throws Exception {
+        JSONStreamReader reader = new JSONStreamReader(new StringReader(
+                "[{\"skip\": {\"a\": [1, \"]\\\"\\u005d\", {}], \"b\": null}, \"keep\": 5}, 6]"));
+        reader.beginArray();
+        reader.beginObject();
+        reader.skipValue(); // skips the name "skip" and its value
+        assertEquals("keep", reader.nextName());
+        assertEquals(5L, reader.nextLong());
+        reader.endObject();
+        assertEquals(6, reader.nextInt());
+        reader.endArray();
+        assertEquals(Token.END_DOCUMENT, reader.peek());
+    }
+
+    public void testSkipValueAtEndOfArrayFails() throws Exception {
+        JSONStreamReader reader = new JSONStreamReader(new StringReader("[]"));
+        reader.beginArray();
+        try {
+            reader.skipValue();
+            fail();
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testNextValueMatchesTokener() throws Exception {
+        String json = "{\"int\": 5, \"long\": 12345678901, \"big\": 123456789012345678901,"
+                + " \"double\": 1.5, \"exp\": 1e3, \"negative\": -0, \"string\": \"s\\u00e9\","
+                + " \"array\": [true, null, {}], \"object\": {\"nested\": []}}";
+        JSONStreamReader reader = new JSONStreamReader(new StringReader(json));
+        JSONObject streamed = (JSONObject) reader.nextValue();
+        JSONObject tokened = (JSONObject) new JSONTokener(json).nextValue();
+        assertEquals(tokened.toString(), streamed.toString());
+        assertEquals(Integer.class, streamed.get("int").getClass());
+        assertEquals(Long.class, streamed.get("long").getClass());
+        assertEquals(Double.class, streamed.get("big").getClass());
+        assertEquals(Double.class, streamed.get("exp").getClass());
+        assertSame(JSONObject.NULL, streamed.getJSONArray("array").get(1));
+    }
+
+    public void testNextValueNarrowsLongLiteralsToInteger() throws Exception {
+        String json = "[-2147483648, -1000000000, 2147483647, -2147483649]";
+        JSONArray streamed = (JSONArray) new JSONStreamReader(new StringReader(json)).nextValue();
+        JSONArray tokened = (JSONArray) new JSONTokener(json).nextValue();
+        for (int i = 0; i < tokened.length(); i++) {
+            assertEquals(json, tokened.get(i), streamed.get(i));
+            assertEquals(json, tokened.get(i).getClass(), streamed.get(i).getClass());
+        }
+        assertEquals(Integer.MIN_VALUE, streamed.get(0));
+        assertEquals(Long.class, streamed.get(3).getClass());
+    }
+
+    public void testNextValueInsideStream() throws Exception {
+        JSONStreamReader reader = new JSONStreamReader(new StringReader(
+                "[{\"a\": 1}, {\"a\": 2}]"));
+        reader.beginArray();
+        int sum = 0;
+        while (reader.hasNext()) {
+            sum += ((JSONObject) reader.nextValue()).getInt("a");
+        }
+        reader.endArray();
+        assertEquals(3, sum);
+    }
+
+    public void testNumbers() throws Exception {
+        JSONStreamReader reader = new JSONStreamReader(new StringReader(
+                "[9223372036854775807, -9223372036854775808, 1.0, \"12\", 1.5, 2147483648]"));
+        reader.beginArray();
+        assertEquals(Long.MAX_VALUE, reader.nextLong());
+        assertEquals(Long.MIN_VALUE, reader.nextLong());
+        assertEquals(1L, reader.nextLong());
+        assertEquals(12, reader.nextInt());
+        try {
+            reader.nextLong();
+            fail();
+        } catch (JSONException expected) {
+        }
+        assertEquals("1.5", reader.nextString());
+        try {
+            reader.nextInt();
+            fail();
+        } catch (JSONException expected) {
+        }
+        assertEquals(2147483648L, reader.nextLong());
+        reader.endArray();
+    }
+
+    public void testStrictRejectsLenientSyntax() throws Exception {
+        for (String json : Arrays.asList("{a: 1}", "['a']", "[1; 2]", "{\"a\" = 1}",
+                "[1] // comment", "[TRUE]", "[1] [2]", "[1,]", "{\"a\": 01}")) {
+            JSONStreamReader reader = new JSONStreamReader(new StringReader(json));
+            try {
+                reader.skipValue();
+                reader.peek();
+                fail(json);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+
+    public void testLenient() throws Exception {
+        JSONStreamReader reader = new JSONStreamReader(new StringReader(
+                "/* c */ {a = 'b'; # comment\n c => unquoted, // comment\n 'd': TRUE} [Null]"));
+        reader.setLenient(true);
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        assertEquals("b", reader.nextString());
+        assertEquals("c", reader.nextName());
+        assertEquals(Token.STRING, reader.peek());
+        assertEquals("unquoted", reader.nextString());
+        assertEquals("d", reader.nextName());
+        assertTrue(reader.nextBoolean());
+        reader.endObject();
+        reader.beginArray();
+        reader.nextNull();
+        reader.endArray();
+        assertEquals(Token.END_DOCUMENT, reader.peek());
+    }
+
+    public void testWrongTokenFails() throws Exception {
+        JSONStreamReader reader = new JSONStreamReader(new StringReader("[\"a\"]"));
+        reader.beginArray();
+        try {
+            reader.nextBoolean();
+            fail();
+        } catch (JSONException expected) {
+        }
+        assertEquals("a", reader.nextString());
+    }
+
+    public void testUnterminatedString() throws Exception {
+        JSONStreamReader reader = new JSONStreamReader(new StringReader("[\"abc"));
+        reader.beginArray();
+        try {
+            reader.nextString();
+            fail();
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testValuesSpanningBufferBoundaries() throws Exception {
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'x');
+        String longString = new String(chars);
+        String json = "[\"" + longString + "\", \"" + longString.replace("x", "\\n")
+                + "\", 123456789012, {\"" + longString + "\": true}]";
+        for (int i = 0; i < 2; i++) {
+            JSONStreamReader reader = new JSONStreamReader(
+                    i == 0 ? new StringReader(json) : new OneCharReader(json));
+            reader.beginArray();
+            assertEquals(longString, reader.nextString());
+            assertEquals(longString.replace("x", "\n"), reader.nextString());
+            assertEquals(123456789012L, reader.nextLong());
+            reader.beginObject();
+            assertEquals(longString, reader.nextName());
+            assertTrue(reader.nextBoolean());
+            reader.endObject();
+            reader.endArray();
+            assertEquals(Token.END_DOCUMENT, reader.peek());
+
+            reader = new JSONStreamReader(
+                    i == 0 ? new StringReader(json) : new OneCharReader(json));
+            reader.skipValue();
+            assertEquals(Token.END_DOCUMENT, reader.peek());
+        }
+    }
+
+    public void testLongUnquotedLiteral() throws Exception {
+        char[] chars = new char[3000];
+        Arrays.fill(chars, 'y');
+        String literal = new String(chars);
+        JSONStreamReader reader = new JSONStreamReader(new StringReader("[" + literal + "]"));
+        reader.setLenient(true);
+        reader.beginArray();
+        assertEquals(literal, reader.nextString());
+        reader.endArray();
+    }
+
+    public void testInputStreamIsUtf8() throws Exception {
+        byte[] bytes = "\ufeff[\"\u00e9\u4e2d\ud83d\ude00\"]".getBytes("UTF-8");
+        JSONStreamReader reader = new JSONStreamReader(new ByteArrayInputStream(bytes));
+        reader.beginArray();
+        assertEquals("\u00e9\u4e2d\ud83d\ude00", reader.nextString());
+        reader.endArray();
+        reader.close();
+    }
+
+    /**
+     * Returns at most one character per read to exercise buffer refills.
+     */
+    private static class OneCharReader extends Reader {
+        private final String s;
+        private int pos;
+
+        OneCharReader(String s) {
+            this.s = s;
+        }
+
+        @Override public int read(char[] buffer, int offset, int count) throws IOException {
+            if (pos == s.length()) {
+                return -1;
+            }
+            buffer[offset] = s.charAt(pos++);
+            return 1;
+        }
+
+        @Override public void close() {
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import junit.framework.TestCase;
+
+public class JSONStreamWriterTest extends TestCase {
+
+    public void testMatchesStringer() throws Exception {
+        StringWriter out = new StringWriter();
+        JSONStreamWriter writer = new JSONStreamWriter(out);
+        JSONStringer stringer = new JSONStringer();
+        writer.object();
+        stringer.object();
+        writer.key("a\"/").array().value(false).value(5.0).value(5L).value("\t\u0001\u001f")
+                .value(null).value(JSONObject.NULL).value(-0.0).endArray();
+        stringer.key("a\"/").array().value(false).value(5.0).value(5L).value("\t\u0001\u001f")
+                .value(null).value(JSONObject.NULL).value(-0.0).endArray();
+        writer.key("b").object().endObject();
+        stringer.key("b").object().endObject();
+        writer.endObject();
+        stringer.endObject();
+        writer.close();
+        assertEquals(stringer.toString(), out.toString());
+    }
+
+    public void testIndentMatchesToString() throws Exception {
+        JSONObject object = new JSONObject();
+        object.put("a", new JSONArray().put(1).put(new JSONObject()).put(new JSONArray()));
+        object.put("b", new JSONObject().put("c", "d"));
+        StringWriter out = new StringWriter();
+        JSONStreamWriter writer = new JSONStreamWriter(out).setIndent(4);
+        writer.value(object);
+        writer.close();
+        assertEquals(object.toString(4), out.toString());
+    }
+
+    public void testTreeValuesInStream() throws Exception {
+        StringWriter out = new StringWriter();
+        JSONStreamWriter writer = new JSONStreamWriter(out);
+        writer.array();
+        writer.value(new JSONObject().put("a", 1));
+        writer.value(new JSONArray().put("b"));
+        writer.endArray();
+        writer.close();
+        assertEquals("[{\"a\":1},[\"b\"]]", out.toString());
+    }
+
+    public void testNestingProblems() throws Exception {
+        JSONStreamWriter writer = new JSONStreamWriter(new StringWriter());
+        try {
+            writer.value("root");
+            fail();
+        } catch (JSONException expected) {
+        }
+        writer.object();
+        try {
+            writer.value(1L);
+            fail();
+        } catch (JSONException expected) {
+        }
+        try {
+            writer.endArray();
+            fail();
+        } catch (JSONException expected) {
+        }
+        writer.endObject();
+        try {
+            writer.array();
+            fail();
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testCloseIncompleteDocument() throws Exception {
+        JSONStreamWriter writer = new JSONStreamWriter(new StringWriter());
+        writer.array();
+        try {
+            writer.close();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testOutputStreamIsUtf8() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONStreamWriter writer = new JSONStreamWriter(out);
+        writer.array().value("\u00e9\u4e2d\ud83d\ude00").endArray();
+        writer.close();
+        assertEquals("[\"\u00e9\u4e2d\ud83d\ude00\"]", new String(out.toByteArray(), "UTF-8"));
+    }
+
+    public void testRoundTrip() throws Exception {
+        String json = "{\"a\":[1,2.5,\"x\\ny\",true,null],\"b\":{\"c\":{}}}";
+        JSONStreamReader reader = new JSONStreamReader(new StringReader(json));
+        StringWriter out = new StringWriter();
+        JSONStreamWriter writer = new JSONStreamWriter(out);
+        writer.value(reader.nextValue());
+        writer.close();
+        assertEquals(json, out.toString());
+    }
+}
@@ -26,6 +26,7 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -521,6 +522,43 @@ public final class DiskLruCacheTest extends TestCase {
         snapshot.close();
     }
 
+    public void testSnapshotChannelAndMapping() throws Exception {
+        set("A", "abc", "");
+        DiskLruCache.Snapshot snapshot = cache.get("A");
+        assertEquals(3, snapshot.getLength(0));
+        assertEquals(0, snapshot.getLength(1));
+        assertEquals(3, snapshot.getChannel(0).size());
+        ByteBuffer buffer = snapshot.map(0);
+        snapshot.close();
+
+        // The mapping outlives the snapshot and later edits.
+        set("A", "xyz", "");
+        byte[] bytes = new byte[3];
+        buffer.get(bytes);
+        assertEquals("abc", new String(bytes, "US-ASCII"));
+        try {
+            cache.get("A").map(1);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testReadsAreAppliedBeforeEviction() throws Exception {
+        cache.close();
+        cache = DiskLruCache.open(cacheDir, appVersion, 2, 10);
+        set("A", "aaa", "aa");
+        set("B", "bbb", "bb");
+        for (int i = 0; i < 100; i++) {
+            cache.get("A").close(); // 'B' is now least recently used
+        }
+        set("C", "c", "c"); // grows the size to 12 which evicts 'B'
+        cache.flush();
+        assertEquals(7, cache.size());
+        assertAbsent("B");
+        assertValue("A", "aaa", "aa");
+        assertValue("C", "c", "c");
+    }
+
     public void testRebuildJournalOnRepeatedReads() throws Exception {
         set("A", "a", "a");
         set("B", "b", "b");
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import junit.framework.TestCase;
+
+public final class GzipChannelsTest extends TestCase {
+    private File source;
+    private File compressed;
+    private File decompressed;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        source = File.createTempFile("GzipChannelsTest", "source");
+        compressed = File.createTempFile("GzipChannelsTest", "compressed");
+        decompressed = File.createTempFile("GzipChannelsTest", "decompressed");
+    }
+
+    @Override protected void tearDown() throws Exception {
+        source.delete();
+        compressed.delete();
+        decompressed.delete();
+        super.tearDown();
+    }
+
+    public void testCompressIsReadableByGZIPInputStream() throws Exception {
+        byte[] data = makeData(200000);
+        write(source, data);
+
+        FileChannel in = new FileInputStream(source).getChannel();
+        FileChannel out = new FileOutputStream(compressed).getChannel();
+        assertEquals(data.length, GzipChannels.compress(in, out));
+        in.close();
+        out.close();
+
+        GZIPInputStream gzip = new GZIPInputStream(new FileInputStream(compressed));
+        assertTrue(Arrays.equals(data, Streams.readFully(gzip)));
+    }
+
+    public void testDecompressReadsGZIPOutputStream() throws Exception {
+        byte[] data = makeData(200000);
+        write(compressed, gzip(data));
+
+        FileChannel in = new FileInputStream(compressed).getChannel();
+        FileChannel out = new FileOutputStream(decompressed).getChannel();
+        assertEquals(data.length, GzipChannels.decompress(in, out));
+        in.close();
+        out.close();
+
+        assertTrue(Arrays.equals(data, Streams.readFully(new FileInputStream(decompressed))));
+    }
+
+    public void testEmptyFile() throws Exception {
+        FileChannel in = new FileInputStream(source).getChannel();
+        FileChannel out = new FileOutputStream(compressed).getChannel();
+        assertEquals(0, GzipChannels.compress(in, out));
+        in.close();
+        out.close();
+
+        in = new FileInputStream(compressed).getChannel();
+        out = new FileOutputStream(decompressed).getChannel();
+        assertEquals(0, GzipChannels.decompress(in, out));
+        in.close();
+        out.close();
+        assertEquals(0, decompressed.length());
+    }
+
+    public void testCorruptTrailer() throws Exception {
+        byte[] gzip = gzip(makeData(1000));
+        gzip[gzip.length - 8] ^= 1;
+        write(compressed, gzip);
+
+        FileChannel in = new FileInputStream(compressed).getChannel();
+        FileChannel out = new RandomAccessFile(decompressed, "rw").getChannel();
+        try {
+            GzipChannels.decompress(in, out);
+            fail();
+        } catch (ZipException expected) {
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    private static byte[] makeData(int length) {
+        Random random = new Random(0);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt() : 'a' + i % 7);
+        }
+        return data;
+    }
+
+    private static byte[] gzip(byte[] data) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    private static void write(File file, byte[] data) throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.java.lang.ref;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import sun.misc.Cleaner;
+
+public final class CleanerTest extends TestCase {
+
+    public void testCleanRunsThunkOnce() {
+        final AtomicInteger count = new AtomicInteger();
+        Cleaner cleaner = Cleaner.create(new Object(), new Runnable() {
+            public void run() {
+                count.incrementAndGet();
+            }
+        });
+        cleaner.clean();
+        cleaner.clean();
+        assertEquals(1, count.get());
+    }
+
+    public void testCreateWithNullThunk() {
+        assertNull(Cleaner.create(new Object(), null));
+    }
+
+    public void testExceptionInThunkIsSwallowed() {
+        Cleaner cleaner = Cleaner.create(new Object(), new Runnable() {
+            public void run() {
+                throw new IllegalStateException();
+            }
+        });
+        cleaner.clean();
+    }
+
+    public void testThunkIsRunWhenReferentIsCollected() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        for (int i = 0; i < 1024; i++) { // Create multiple objects to trigger collection
+            createCleanedObject(count);
+        }
+
+        // runFinalization() waits for the Cleaners too.
+        for (int i = 0; i < 10 && count.get() == 0; i++) {
+            FinalizationTester.induceFinalization();
+        }
+        assertTrue(count.get() > 0);
+    }
+
+    /** Do not inline this method; that could break non-precise GCs. See FinalizationTester. */
+    private void createCleanedObject(final AtomicInteger count) {
+        Cleaner.create(new byte[1024 * 16], new Runnable() {
+            public void run() {
+                count.incrementAndGet();
+            }
+        });
+    }
+}
@@ -83,4 +83,58 @@ public class BigIntegerTest extends junit.framework.TestCase {
         } catch (NumberFormatException expected) {
         }
     }
+
+    // Values whose magnitude fits in 63 bits are handled without OpenSSL until
+    // a result overflows. Check the results on both sides of that boundary.
+    public void test_smallValueOverflow() {
+        BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+        BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+        assertEquals("9223372036854775808", max.add(BigInteger.ONE).toString());
+        assertEquals("-9223372036854775809", min.subtract(BigInteger.ONE).toString());
+        assertEquals("-9223372036854775808", max.negate().subtract(BigInteger.ONE).toString());
+        assertEquals("9223372036854775808", min.negate().toString());
+        assertEquals("85070591730234615847396907784232501249", max.multiply(max).toString());
+        assertEquals("9223372030926249001", BigInteger.valueOf(3037000499L).pow(2).toString());
+        assertEquals(BigInteger.valueOf(3037000500L).pow(2),
+                BigInteger.valueOf(3037000500L).multiply(BigInteger.valueOf(3037000500L)));
+        assertEquals("-4611686018427387904", BigInteger.valueOf(-1).shiftLeft(62).toString());
+        assertEquals("-9223372036854775808", BigInteger.valueOf(-1).shiftLeft(63).toString());
+        assertEquals("-1", BigInteger.valueOf(-5).shiftRight(100).toString());
+        assertEquals("-3", BigInteger.valueOf(-5).shiftRight(1).toString());
+        assertEquals(-1, max.compareTo(max.add(BigInteger.ONE)));
+        assertEquals(1, max.add(BigInteger.ONE).compareTo(max));
+    }
+
+    public void test_smallValueDivision() {
+        BigInteger a = new BigInteger("-123456789012345678");
+        BigInteger b = BigInteger.valueOf(1000);
+        assertEquals("-123456789012345", a.divide(b).toString());
+        assertEquals("-678", a.remainder(b).toString());
+        assertEquals("322", a.mod(b).toString());
+        BigInteger[] qr = a.divideAndRemainder(b);
+        assertEquals("-123456789012345", qr[0].toString());
+        assertEquals("-678", qr[1].toString());
+        assertEquals("6", BigInteger.valueOf(-42).gcd(BigInteger.valueOf(18)).toString());
+        assertEquals("0", BigInteger.ZERO.gcd(BigInteger.ZERO).toString());
+        try {
+            a.divide(BigInteger.ZERO);
+            fail();
+        } catch (ArithmeticException expected) {
+        }
+    }
+
+    public void test_smallValueStrings() {
+        assertEquals("17", new BigInteger("+17").toString());
+        assertEquals("0", new BigInteger("-0").toString());
+        assertEquals(0, new BigInteger("-0").signum());
+        assertEquals("-1", new BigInteger("-0000000000000000000001").toString());
+        assertEquals("-999999999999999999", new BigInteger("-999999999999999999", 10).toString());
+        assertEquals(new BigInteger("1234567890123456789012"),
+                new BigInteger("1234567890123456789").multiply(BigInteger.valueOf(1000)).add(BigInteger.valueOf(12)));
+        try {
+            new BigInteger("12a");
+            fail();
+        } catch (NumberFormatException expected) {
+        }
+    }
 }
@@ -18,11 +18,14 @@ package libcore.java.nio.channels;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.ByteBuffer;
 import java.nio.channels.NoConnectionPendingException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import libcore.io.Libcore;
@@ -144,4 +147,110 @@ public class SelectorTest extends TestCase {
             selector.close();
         }
     }
+
+    // RoboVM note: The tests below exercise the incremental interest set
+    // handling of the epoll based selector used on Linux.
+    public void testOnlyReadyKeysAreSelected() throws Exception {
+        Selector selector = Selector.open();
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        List<SocketChannel> channels = new ArrayList<SocketChannel>();
+        try {
+            ssc.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel active = null;
+            SelectionKey activeKey = null;
+            for (int i = 0; i < 200; i++) {
+                SocketChannel client = SocketChannel.open(ssc.socket().getLocalSocketAddress());
+                SocketChannel server = ssc.accept();
+                channels.add(client);
+                channels.add(server);
+                server.configureBlocking(false);
+                SelectionKey key = server.register(selector, SelectionKey.OP_READ);
+                if (i == 100) {
+                    active = client;
+                    activeKey = key;
+                }
+            }
+            assertEquals(0, selector.selectNow());
+
+            active.write(ByteBuffer.wrap(new byte[] { 1 }));
+            assertEquals(1, selector.select(5000));
+            assertEquals(1, selector.selectedKeys().size());
+            assertTrue(selector.selectedKeys().contains(activeKey));
+            assertEquals(SelectionKey.OP_READ, activeKey.readyOps());
+        } finally {
+            for (SocketChannel channel : channels) {
+                channel.close();
+            }
+            selector.close();
+            ssc.close();
+        }
+    }
+
+    public void testInterestOpsChange() throws Exception {
+        Selector selector = Selector.open();
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        SocketChannel client = null;
+        SocketChannel server = null;
+        try {
+            ssc.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            client = SocketChannel.open(ssc.socket().getLocalSocketAddress());
+            server = ssc.accept();
+            server.configureBlocking(false);
+            SelectionKey key = server.register(selector, 0);
+            assertEquals(0, selector.selectNow());
+
+            key.interestOps(SelectionKey.OP_WRITE);
+            assertEquals(1, selector.selectNow());
+            assertEquals(SelectionKey.OP_WRITE, key.readyOps());
+            selector.selectedKeys().clear();
+
+            key.interestOps(0);
+            assertEquals(0, selector.selectNow());
+
+            client.write(ByteBuffer.wrap(new byte[] { 1 }));
+            key.interestOps(SelectionKey.OP_READ);
+            assertEquals(1, selector.select(5000));
+            assertEquals(SelectionKey.OP_READ, key.readyOps());
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+            selector.close();
+            ssc.close();
+        }
+    }
+
+    public void testReregisterAfterCancel() throws Exception {
+        Selector selector = Selector.open();
+        ServerSocketChannel ssc = ServerSocketChannel.open();
+        SocketChannel client = null;
+        SocketChannel server = null;
+        try {
+            ssc.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            client = SocketChannel.open(ssc.socket().getLocalSocketAddress());
+            server = ssc.accept();
+            server.configureBlocking(false);
+            SelectionKey key = server.register(selector, SelectionKey.OP_WRITE);
+            assertEquals(1, selector.selectNow());
+            key.cancel();
+            assertEquals(0, selector.selectNow());
+            assertTrue(selector.keys().isEmpty());
+
+            key = server.register(selector, SelectionKey.OP_WRITE);
+            assertEquals(1, selector.selectNow());
+            assertEquals(SelectionKey.OP_WRITE, key.readyOps());
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+            selector.close();
+            ssc.close();
+        }
+    }
 }
@@ -17,6 +17,7 @@
 package libcore.java.nio.channels;
 
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
@@ -42,4 +43,48 @@ public class SocketChannelTest extends junit.framework.TestCase {
         } catch (IllegalArgumentException expected) {
         }
     }
+
+    public void test_writev_readv() throws Exception {
+        ServerSocket ss = new ServerSocket(0);
+        ss.setReuseAddress(true);
+        SocketChannel client = SocketChannel.open(ss.getLocalSocketAddress());
+        Socket accepted = ss.accept();
+        try {
+            ByteBuffer header = ByteBuffer.wrap("xxhead".getBytes("US-ASCII"));
+            header.position(2);
+            ByteBuffer body = ByteBuffer.allocateDirect(4);
+            body.put("body".getBytes("US-ASCII")).flip();
+            assertEquals(8, client.write(new ByteBuffer[] { header, body }));
+            assertFalse(header.hasRemaining());
+            assertFalse(body.hasRemaining());
+
+            // Echo it back and scatter it into a partially filled heap buffer and a direct buffer.
+            byte[] received = new byte[8];
+            int n = 0;
+            while (n < received.length) {
+                n += accepted.getInputStream().read(received, n, received.length - n);
+            }
+            assertEquals("headbody", new String(received, "US-ASCII"));
+            accepted.getOutputStream().write(received);
+
+            ByteBuffer first = ByteBuffer.allocate(6);
+            first.position(2);
+            ByteBuffer second = ByteBuffer.allocateDirect(4);
+            long total = 0;
+            while (total < 8) {
+                total += client.read(new ByteBuffer[] { first, second });
+            }
+            assertEquals(6, first.position());
+            assertEquals(4, second.position());
+            assertEquals("head", new String(first.array(), 2, 4, "US-ASCII"));
+            second.flip();
+            byte[] bytes = new byte[4];
+            second.get(bytes);
+            assertEquals("body", new String(bytes, "US-ASCII"));
+        } finally {
+            client.close();
+            accepted.close();
+            ss.close();
+        }
+    }
 }
@@ -24,6 +24,7 @@ import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
 
 public class CharsetDecoderTest extends junit.framework.TestCase {
     // None of the harmony or jtreg tests actually check that replaceWith does the right thing!
@@ -105,4 +106,49 @@ public class CharsetDecoderTest extends junit.framework.TestCase {
         assertEquals(1, cb.position());
         assertEquals('\u2603', cb.get(0));
     }
+
+    public void testUtf8MalformedSequencesAreReplacedByMaximalSubpart() throws Exception {
+        // The example from the Unicode Standard, section 3.9: each maximal
+        // subpart of an ill-formed subsequence is replaced by one U+FFFD.
+        byte[] bytes = {
+            0x61, (byte) 0xf1, (byte) 0x80, (byte) 0x80, (byte) 0xe1, (byte) 0x80,
+            (byte) 0xc2, 0x62, (byte) 0x80, 0x63, (byte) 0x80, (byte) 0xbf, 0x64
+        };
+        CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE);
+        assertEquals("a\ufffd\ufffd\ufffdb\ufffdc\ufffd\ufffdd",
+                decoder.decode(ByteBuffer.wrap(bytes)).toString());
+
+        // Encoded surrogates and overlong forms are rejected byte by byte.
+        bytes = new byte[] { (byte) 0xed, (byte) 0xa0, (byte) 0x80, (byte) 0xc0, (byte) 0xaf };
+        assertEquals("\ufffd\ufffd\ufffd\ufffd\ufffd",
+                decoder.decode(ByteBuffer.wrap(bytes)).toString());
+    }
+
+    public void testUtf8TruncatedSequenceAtEndOfInput() throws Exception {
+        CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+        try {
+            decoder.decode(ByteBuffer.wrap(new byte[] { 0x61, (byte) 0xe2, (byte) 0x98 }));
+            fail();
+        } catch (MalformedInputException expected) {
+            assertEquals(2, expected.getInputLength());
+        }
+        decoder.onMalformedInput(CodingErrorAction.REPLACE);
+        assertEquals("a\ufffd", decoder.decode(
+                ByteBuffer.wrap(new byte[] { 0x61, (byte) 0xe2, (byte) 0x98 })).toString());
+    }
+
+    public void testIso8859_1DecodesDirectBuffers() throws Exception {
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        ByteBuffer in = ByteBuffer.allocateDirect(bytes.length);
+        in.put(bytes).flip();
+        String s = Charset.forName("ISO-8859-1").newDecoder().decode(in).toString();
+        assertEquals(bytes.length, s.length());
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals((char) (i & 0xff), s.charAt(i));
+        }
+    }
 }
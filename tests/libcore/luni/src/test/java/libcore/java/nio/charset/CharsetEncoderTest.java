@@ -204,4 +204,46 @@ public class CharsetEncoderTest extends junit.framework.TestCase {
         assertEquals(CoderResult.UNDERFLOW, cr);
         assertEquals(8, bb.position());
     }
+
+    public void testUtf8SurrogatePairSplitAcrossMultipleWrites() throws Exception {
+        CharsetEncoder e = Charset.forName("UTF-8").newEncoder();
+        ByteBuffer bb = ByteBuffer.allocate(128);
+        CoderResult cr = e.encode(CharBuffer.wrap(new char[] { '\ud842' }), bb, false);
+        assertEquals(CoderResult.UNDERFLOW, cr);
+        assertEquals(0, bb.position());
+        cr = e.encode(CharBuffer.wrap(new char[] { '\udf9f' }), bb, false);
+        assertEquals(CoderResult.UNDERFLOW, cr);
+        cr = e.encode(CharBuffer.wrap(new char[] { }), bb, true);
+        assertEquals(CoderResult.UNDERFLOW, cr);
+        cr = e.flush(bb);
+        assertEquals(CoderResult.UNDERFLOW, cr);
+        assertEquals(4, bb.position());
+        assertEquals((byte) 0xf0, bb.get(0));
+        assertEquals((byte) 0xa0, bb.get(1));
+        assertEquals((byte) 0xae, bb.get(2));
+        assertEquals((byte) 0x9f, bb.get(3));
+    }
+
+    public void testUtf8HighSurrogateAtEndOfInputIsMalformed() throws Exception {
+        CharsetEncoder e = Charset.forName("UTF-8").newEncoder();
+        ByteBuffer bb = ByteBuffer.allocate(128);
+        CoderResult cr = e.encode(CharBuffer.wrap(new char[] { 'x', '\ud842' }), bb, true);
+        assertEquals(CoderResult.UNDERFLOW, cr);
+        cr = e.flush(bb);
+        assertTrue(cr.toString(), cr.isMalformed());
+        assertEquals(1, cr.length());
+        assertEquals(1, bb.position());
+    }
+
+    public void testUsAsciiEncodesDirectBuffers() throws Exception {
+        CharsetEncoder e = Charset.forName("US-ASCII").newEncoder()
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bb = ByteBuffer.allocateDirect(16);
+        CoderResult cr = e.encode(CharBuffer.wrap("a\u00e9b"), bb, true);
+        assertEquals(CoderResult.UNDERFLOW, cr);
+        assertEquals(3, bb.position());
+        assertEquals((byte) 'a', bb.get(0));
+        assertEquals((byte) '?', bb.get(1));
+        assertEquals((byte) 'b', bb.get(2));
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.java.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public final class ArraysParallelSortTest extends TestCase {
+
+    // Large enough to be split into several tasks on multi-core devices.
+    private static final int SIZE = 100000;
+
+    public void testInt() {
+        Random r = new Random(1);
+        int[] a = new int[SIZE];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = r.nextInt();
+        }
+        int[] expected = a.clone();
+        Arrays.sort(expected);
+        Arrays.parallelSort(a);
+        assertTrue(Arrays.equals(expected, a));
+    }
+
+    public void testIntRange() {
+        Random r = new Random(2);
+        int[] a = new int[SIZE];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = r.nextInt(1000);
+        }
+        int[] expected = a.clone();
+        Arrays.sort(expected, 10, SIZE - 10);
+        Arrays.parallelSort(a, 10, SIZE - 10);
+        assertTrue(Arrays.equals(expected, a));
+
+        try {
+            Arrays.parallelSort(a, 10, 5);
+            fail();
+        } catch (IllegalArgumentException expectedException) {
+        }
+        try {
+            Arrays.parallelSort(a, 0, SIZE + 1);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException expectedException) {
+        }
+    }
+
+    public void testDouble() {
+        Random r = new Random(3);
+        double[] a = new double[SIZE];
+        for (int i = 0; i < a.length; i++) {
+            switch (i % 100) {
+            case 0: a[i] = Double.NaN; break;
+            case 1: a[i] = -0.0d; break;
+            case 2: a[i] = 0.0d; break;
+            default: a[i] = r.nextGaussian();
+            }
+        }
+        double[] expected = a.clone();
+        Arrays.sort(expected);
+        Arrays.parallelSort(a);
+        assertTrue(Arrays.equals(expected, a));
+    }
+
+    public void testObjectsAreSortedStably() {
+        Random r = new Random(4);
+        Integer[][] a = new Integer[SIZE][];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = new Integer[] { r.nextInt(100), i };
+        }
+        Arrays.parallelSort(a, new Comparator<Integer[]>() {
+            public int compare(Integer[] lhs, Integer[] rhs) {
+                return lhs[0].compareTo(rhs[0]);
+            }
+        });
+        for (int i = 1; i < a.length; i++) {
+            int c = a[i - 1][0].compareTo(a[i][0]);
+            assertTrue(c < 0 || c == 0 && a[i - 1][1] < a[i][1]);
+        }
+    }
+
+    public void testNaturalOrder() {
+        Random r = new Random(5);
+        String[] a = new String[SIZE];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = Integer.toString(r.nextInt());
+        }
+        String[] expected = a.clone();
+        Arrays.sort(expected);
+        Arrays.parallelSort(a);
+        assertTrue(Arrays.equals(expected, a));
+    }
+
+    public void testSmallArrays() {
+        byte[] b = { 3, -1, 2 };
+        Arrays.parallelSort(b);
+        assertTrue(Arrays.equals(new byte[] { -1, 2, 3 }, b));
+        char[] c = {};
+        Arrays.parallelSort(c);
+        long[] l = { 5L };
+        Arrays.parallelSort(l);
+        assertEquals(5L, l[0]);
+    }
+}
@@ -18,7 +18,10 @@ package libcore.java.util;
 
 import java.math.BigDecimal;
 import java.util.Calendar;
+import java.util.ConstantFormats;
+import java.util.Formatter;
 import java.util.Locale;
+import java.util.UnknownFormatConversionException;
 import java.util.TimeZone;
 import tests.support.Support_Locale;
 
@@ -130,4 +133,36 @@ public class FormatterTest extends junit.framework.TestCase {
                     output[i], result);
         }
     }
+
+    public void test_reusedFormatString() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals("1 a ff    -2 0.50", String.format(Locale.US, "%d %s %x %5d %.2f", 1, "a", 255, -2, 0.5));
+            assertEquals("b a b", String.format(Locale.US, "%2$s %1$s %<s", "a", "b"));
+        }
+    }
+
+    public void test_invalidFormatStringOutputsTextBeforeError() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            StringBuilder sb = new StringBuilder();
+            try {
+                new Formatter(sb, Locale.US).format("abc %d def %", 1);
+                fail();
+            } catch (UnknownFormatConversionException expected) {
+            }
+            assertEquals("abc 1 def ", sb.toString());
+        }
+    }
+
+    public void test_ConstantFormats() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(String.format(Locale.US, "%d-%s-%x", i, "x", -1),
+                    ConstantFormats.format(Locale.US, "%d-%s-%x", i, "x", -1));
+        }
+        assertEquals("x", ConstantFormats.format("%s", "x"));
+        try {
+            ConstantFormats.format("50%");
+            fail();
+        } catch (UnknownFormatConversionException expected) {
+        }
+    }
 }
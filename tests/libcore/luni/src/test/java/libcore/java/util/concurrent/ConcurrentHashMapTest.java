@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.java.util.concurrent;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+import libcore.util.SerializationTester;
+
+public final class ConcurrentHashMapTest extends TestCase {
+
+    public void testBasicOperations() {
+        ConcurrentHashMap<String, Integer> map = new ConcurrentHashMap<String, Integer>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put("a", 1));
+        assertEquals(1, (int) map.put("a", 2));
+        assertEquals(2, (int) map.putIfAbsent("a", 3));
+        assertNull(map.putIfAbsent("b", 3));
+        assertEquals(2, map.size());
+        assertFalse(map.replace("a", 1, 4));
+        assertTrue(map.replace("a", 2, 4));
+        assertEquals(4, (int) map.replace("a", 5));
+        assertNull(map.replace("c", 5));
+        assertFalse(map.remove("a", 4));
+        assertTrue(map.remove("a", 5));
+        assertNull(map.get("a"));
+        assertTrue(map.containsValue(3));
+        assertTrue(map.contains(3));
+        assertEquals(3, (int) map.remove("b"));
+        assertNull(map.remove("b"));
+        assertTrue(map.isEmpty());
+    }
+
+    public void testNullsAreRejected() {
+        ConcurrentHashMap<String, String> map = new ConcurrentHashMap<String, String>();
+        try {
+            map.put(null, "a");
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        try {
+            map.put("a", null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        try {
+            map.get(null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        try {
+            map.containsValue(null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+    }
+
+    public void testCollidingKeysAndResize() {
+        ConcurrentHashMap<CollidingKey, Integer> map = new ConcurrentHashMap<CollidingKey, Integer>(1);
+        for (int i = 0; i < 2000; i++) {
+            assertNull(map.put(new CollidingKey(i), i));
+        }
+        assertEquals(2000, map.size());
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i, (int) map.get(new CollidingKey(i)));
+        }
+        for (int i = 0; i < 2000; i += 2) {
+            assertEquals(i, (int) map.remove(new CollidingKey(i)));
+        }
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(i % 2 == 1, map.containsKey(new CollidingKey(i)));
+        }
+    }
+
+    public void testIteratorsAndViews() {
+        ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, -i);
+        }
+        Set<Integer> seen = new HashSet<Integer>();
+        for (Map.Entry<Integer, Integer> e : map.entrySet()) {
+            assertEquals(-e.getKey(), (int) e.getValue());
+            assertTrue(seen.add(e.getKey()));
+            if (e.getKey() % 10 == 0) {
+                e.setValue(e.getKey());
+            }
+        }
+        assertEquals(1000, seen.size());
+        assertEquals(10, (int) map.get(10));
+
+        for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext();) {
+            if (it.next() % 2 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(500, map.size());
+        assertEquals(500, map.values().size());
+        map.keySet().clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.keys().hasMoreElements());
+    }
+
+    public void testIterationDuringResizeReturnsEachElementOnce() {
+        ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>(16);
+        for (int i = 0; i < 12; i++) {
+            map.put(i, i);
+        }
+        Set<Integer> seen = new HashSet<Integer>();
+        int n = 12;
+        for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext();) {
+            assertTrue(seen.add(it.next()));
+            // Forces several resizes while iterating.
+            for (int j = 0; j < 50 && n < 600; j++) {
+                map.put(n, n);
+                n++;
+            }
+        }
+        assertEquals(600, map.size());
+        for (int i = 0; i < 12; i++) {
+            assertTrue(seen.contains(i));
+        }
+    }
+
+    public void testConcurrentUpdates() throws Exception {
+        final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>();
+        final int threadCount = 8;
+        final int perThread = 5000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int base = t * perThread;
+            threads[t] = new Thread() {
+                @Override public void run() {
+                    try {
+                        start.await();
+                        for (int i = base; i < base + perThread; i++) {
+                            map.put(i, i);
+                            // Every thread also contends on the same few keys.
+                            Integer old = map.putIfAbsent(-1 - (i & 7), 0);
+                            if (old != null) {
+                                while (!map.replace(-1 - (i & 7), old, old + 1)) {
+                                    old = map.get(-1 - (i & 7));
+                                }
+                            }
+                            if (map.get(i) != i) {
+                                throw new AssertionError("Lost " + i);
+                            }
+                        }
+                        for (int i = base; i < base + perThread; i += 2) {
+                            map.remove(i);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(threadCount * perThread / 2 + 8, map.size());
+        int sum = 0;
+        for (int i = -8; i < 0; i++) {
+            sum += map.get(i);
+        }
+        // Each of the 8 counters starts at 0 on its first putIfAbsent.
+        assertEquals(threadCount * perThread - 8, sum);
+        for (int i = 0; i < threadCount * perThread; i++) {
+            assertEquals(i % 2 == 1, map.containsKey(i));
+        }
+    }
+
+    public void testSerializationCompatibility() {
+        // Written by the segment-based implementation: 16 segments
+        // followed by the single mapping "a" -> "b".
+        String s = "aced0005737200266a6176612e7574696c2e636f6e63757272656e742e436f6e"
+                + "63757272656e74486173684d61706499de129d87293d03000349000b7365676d"
+                + "656e744d61736b49000c7365676d656e7453686966745b00087365676d656e74"
+                + "737400315b4c6a6176612f7574696c2f636f6e63757272656e742f436f6e6375"
+                + "7272656e74486173684d6170245365676d656e743b78700000000f0000001c75"
+                + "7200315b4c6a6176612e7574696c2e636f6e63757272656e742e436f6e637572"
+                + "72656e74486173684d6170245365676d656e743b52773f41329b397402000078"
+                + "70000000107372002e6a6176612e7574696c2e636f6e63757272656e742e436f"
+                + "6e63757272656e74486173684d6170245365676d656e741f364c905893293d02"
+                + "000146000a6c6f6164466163746f72787200286a6176612e7574696c2e636f6e"
+                + "63757272656e742e6c6f636b732e5265656e7472616e744c6f636b6655a82c2c"
+                + "c86aeb0200014c000473796e6374002f4c6a6176612f7574696c2f636f6e6375"
+                + "7272656e742f6c6f636b732f5265656e7472616e744c6f636b2453796e633b78"
+                + "70737200346a6176612e7574696c2e636f6e63757272656e742e6c6f636b732e"
+                + "5265656e7472616e744c6f636b244e6f6e6661697253796e63658832e7537bbf"
+                + "0b0200007872002d6a6176612e7574696c2e636f6e63757272656e742e6c6f63"
+                + "6b732e5265656e7472616e744c6f636b2453796e63b81ea294aa445a7c020000"
+                + "787200356a6176612e7574696c2e636f6e63757272656e742e6c6f636b732e41"
+                + "6273747261637451756575656453796e6368726f6e697a65726655a843753f52"
+                + "e30200014900057374617465787200366a6176612e7574696c2e636f6e637572"
+                + "72656e742e6c6f636b732e41627374726163744f776e61626c6553796e636872"
+                + "6f6e697a657233dfafb9ad6d6fa90200007870000000003f4000007371007e00"
+                + "057371007e0009000000003f4000007371007e00057371007e0009000000003f"
+                + "4000007371007e00057371007e0009000000003f4000007371007e0005737100"
+                + "7e0009000000003f4000007371007e00057371007e0009000000003f40000073"
+                + "71007e00057371007e0009000000003f4000007371007e00057371007e000900"
+                + "0000003f4000007371007e00057371007e0009000000003f4000007371007e00"
+                + "057371007e0009000000003f4000007371007e00057371007e0009000000003f"
+                + "4000007371007e00057371007e0009000000003f4000007371007e0005737100"
+                + "7e0009000000003f4000007371007e00057371007e0009000000003f40000073"
+                + "71007e00057371007e0009000000003f4000007371007e00057371007e000900"
+                + "0000003f4000007400016174000162707078";
+        ConcurrentHashMap<String, String> map = new ConcurrentHashMap<String, String>();
+        map.put("a", "b");
+        new SerializationTester<ConcurrentHashMap<String, String>>(map, s) {
+            @Override protected void verify(ConcurrentHashMap<String, String> deserialized) {
+                deserialized.put("c", "d");
+                assertEquals(2, deserialized.size());
+            }
+        }.test();
+    }
+
+    static final class CollidingKey {
+        final int id;
+
+        CollidingKey(int id) {
+            this.id = id;
+        }
+
+        @Override public int hashCode() {
+            return id & 3;
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).id == id;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.java.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+public final class ForkJoinPoolTest extends TestCase {
+
+    static final class Fibonacci extends RecursiveTask<Integer> {
+        final int n;
+
+        Fibonacci(int n) {
+            this.n = n;
+        }
+
+        protected Integer compute() {
+            if (n <= 1) {
+                return n;
+            }
+            Fibonacci f1 = new Fibonacci(n - 1);
+            f1.fork();
+            Fibonacci f2 = new Fibonacci(n - 2);
+            return f2.compute() + f1.join();
+        }
+    }
+
+    static final class Failing extends RecursiveAction {
+        final int depth;
+
+        Failing(int depth) {
+            this.depth = depth;
+        }
+
+        protected void compute() {
+            if (depth == 0) {
+                throw new IllegalStateException("depth 0");
+            }
+            invokeAll(new Failing(depth - 1), new Failing(depth - 1));
+        }
+    }
+
+    static final class Spin extends RecursiveTask<Long> {
+        final int from;
+        final int to;
+
+        Spin(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Long compute() {
+            if (to - from <= 1 << 14) {
+                // CPU bound and allocation free so the GC doesn't skew timings
+                long x = from;
+                for (int i = from; i < to; i++) {
+                    for (int j = 0; j < 64; j++) {
+                        x = x * 6364136223846793005L + i;
+                    }
+                }
+                return x;
+            }
+            int mid = (from + to) >>> 1;
+            Spin left = new Spin(from, mid);
+            left.fork();
+            return new Spin(mid, to).compute() ^ left.join();
+        }
+    }
+
+    private ForkJoinPool pool;
+
+    @Override protected void setUp() throws Exception {
+        pool = new ForkJoinPool(4);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        pool.shutdownNow();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    public void testInvoke() {
+        assertEquals(6765, (int) pool.invoke(new Fibonacci(20)));
+        assertEquals(6765, (int) ForkJoinPool.commonPool().invoke(new Fibonacci(20)));
+    }
+
+    public void testForkOutsidePoolUsesCommonPool() throws Exception {
+        Fibonacci f = new Fibonacci(15);
+        f.fork();
+        assertEquals(610, (int) f.get());
+        assertTrue(f.isCompletedNormally());
+    }
+
+    public void testForkedTaskIsStolen() throws Exception {
+        final CountDownLatch stolen = new CountDownLatch(1);
+        final Thread[] threads = new Thread[2];
+        boolean result = pool.invoke(new RecursiveTask<Boolean>() {
+            protected Boolean compute() {
+                threads[0] = Thread.currentThread();
+                ForkJoinTask<?> child = ForkJoinTask.adapt(new Runnable() {
+                    public void run() {
+                        threads[1] = Thread.currentThread();
+                        stolen.countDown();
+                    }
+                }).fork();
+                // The child can only run before the latch times out if
+                // another worker steals it.
+                try {
+                    return stolen.await(10, TimeUnit.SECONDS) & child.join() == null;
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        assertTrue(result);
+        assertNotSame(threads[0], threads[1]);
+        assertTrue(threads[1] instanceof ForkJoinWorkerThread);
+        assertSame(pool, ((ForkJoinWorkerThread) threads[1]).getPool());
+        assertTrue(pool.getStealCount() > 0);
+    }
+
+    public void testNestedJoinsDoNotDeadlock() {
+        // Far more nested joins than there are threads.
+        ForkJoinPool small = new ForkJoinPool(2);
+        try {
+            assertEquals(46368, (int) small.invoke(new Fibonacci(24)));
+        } finally {
+            small.shutdown();
+        }
+    }
+
+    public void testExceptionIsRethrown() {
+        Failing task = new Failing(4);
+        try {
+            pool.invoke(task);
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(task.isCompletedAbnormally());
+        assertTrue(task.getException() instanceof IllegalStateException);
+    }
+
+    public void testSubmitCallable() throws Exception {
+        Future<String> f = pool.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return "result";
+            }
+        });
+        assertEquals("result", f.get());
+
+        Future<String> failing = pool.submit(new Callable<String>() {
+            public String call() throws Exception {
+                throw new Exception("checked");
+            }
+        });
+        try {
+            failing.get();
+            fail();
+        } catch (ExecutionException expected) {
+            assertEquals("checked", expected.getCause().getCause().getMessage());
+        }
+    }
+
+    public void testInvokeAll() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 100; i++) {
+            final int n = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() {
+                    return n * n;
+                }
+            });
+        }
+        int sum = 0;
+        for (Future<Integer> f : pool.invokeAll(tasks)) {
+            assertTrue(f.isDone());
+            sum += f.get();
+        }
+        assertEquals(328350, sum);
+    }
+
+    public void testCancel() throws Exception {
+        Fibonacci f = new Fibonacci(10);
+        assertTrue(f.cancel(false));
+        assertTrue(f.isCancelled());
+        assertTrue(f.isDone());
+        try {
+            f.join();
+            fail();
+        } catch (CancellationException expected) {
+        }
+        assertTrue(f.cancel(false));
+
+        Fibonacci done = new Fibonacci(1);
+        done.invoke();
+        assertFalse(done.cancel(false));
+        assertFalse(done.isCancelled());
+    }
+
+    public void testComplete() throws Exception {
+        Fibonacci f = new Fibonacci(10);
+        f.complete(42);
+        assertEquals(42, (int) f.join());
+        f.reinitialize();
+        assertFalse(f.isDone());
+        assertEquals(55, (int) f.invoke());
+    }
+
+    public void testManagedBlock() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            ForkJoinTask<?> blocked = single.submit(new Runnable() {
+                public void run() {
+                    try {
+                        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                            public boolean block() throws InterruptedException {
+                                latch.await();
+                                return true;
+                            }
+                            public boolean isReleasable() {
+                                return latch.getCount() == 0;
+                            }
+                        });
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            // A spare thread runs this task while the only worker is blocked.
+            ForkJoinTask<?> release = single.submit(new Runnable() {
+                public void run() {
+                    latch.countDown();
+                }
+            });
+            release.get(10, TimeUnit.SECONDS);
+            blocked.get(10, TimeUnit.SECONDS);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    public void testShutdown() throws Exception {
+        ForkJoinPool p = new ForkJoinPool(2);
+        Future<Integer> f = p.submit(new Fibonacci(15));
+        p.shutdown();
+        assertTrue(p.isShutdown());
+        assertEquals(610, (int) f.get());
+        assertTrue(p.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(p.isTerminated());
+        try {
+            p.submit(new Fibonacci(1));
+            fail();
+        } catch (java.util.concurrent.RejectedExecutionException expected) {
+        }
+    }
+
+    public void testScalesAcrossProcessors() throws Exception {
+        int processors = Math.min(4, Runtime.getRuntime().availableProcessors());
+        if (processors < 2) {
+            return;
+        }
+        long sequential = bestTime(1);
+        long parallel = bestTime(processors);
+        // Expect a speedup of at least (processors + 2) / 3, e.g. 1.33 on
+        // two processors and 2 on four.
+        assertTrue("sequential " + sequential + " ns, parallel " + parallel + " ns on "
+                + processors + " processors",
+                parallel * (processors + 2) < sequential * 3);
+    }
+
+    private static long bestTime(int parallelism) throws Exception {
+        ForkJoinPool p = new ForkJoinPool(parallelism);
+        try {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                long start = System.nanoTime();
+                p.invoke(new Spin(0, 1 << 20));
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            return best;
+        } finally {
+            p.shutdown();
+            assertTrue(p.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testCommonPoolIgnoresShutdown() {
+        ForkJoinPool.commonPool().shutdown();
+        assertFalse(ForkJoinPool.commonPool().isShutdown());
+        assertTrue(ForkJoinPool.getCommonPoolParallelism() >= 1);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.java.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public final class PhaserTest extends TestCase {
+
+    public void testArriveAdvancesPhaseOnceAllPartiesArrived() {
+        Phaser phaser = new Phaser(3);
+        assertEquals(0, phaser.arrive());
+        assertEquals(0, phaser.arrive());
+        assertEquals(2, phaser.getArrivedParties());
+        assertEquals(1, phaser.getUnarrivedParties());
+        assertEquals(0, phaser.getPhase());
+        assertEquals(0, phaser.arrive());
+        assertEquals(1, phaser.getPhase());
+        assertEquals(3, phaser.getUnarrivedParties());
+        assertEquals(3, phaser.getRegisteredParties());
+    }
+
+    public void testArriveAndAwaitAdvance() throws Exception {
+        final int threads = 4;
+        final int phases = 100;
+        final Phaser phaser = new Phaser(threads);
+        final AtomicInteger counter = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> list = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread() {
+                public void run() {
+                    for (int p = 0; p < phases; p++) {
+                        counter.incrementAndGet();
+                        phaser.arriveAndAwaitAdvance();
+                        // Everyone has incremented the counter for this phase
+                        if (counter.get() < (p + 1) * threads) {
+                            failures.incrementAndGet();
+                        }
+                        phaser.arriveAndAwaitAdvance();
+                    }
+                }
+            };
+            t.start();
+            list.add(t);
+        }
+        for (Thread t : list) {
+            t.join(10000);
+            assertFalse(t.isAlive());
+        }
+        assertEquals(0, failures.get());
+        assertEquals(threads * phases, counter.get());
+        assertEquals(2 * phases, phaser.getPhase());
+    }
+
+    public void testRegisterAndDeregister() {
+        Phaser phaser = new Phaser();
+        assertEquals(0, phaser.getRegisteredParties());
+        assertEquals(0, phaser.register());
+        assertEquals(0, phaser.bulkRegister(2));
+        assertEquals(3, phaser.getRegisteredParties());
+        phaser.arrive();
+        phaser.arrive();
+        assertEquals(0, phaser.arriveAndDeregister());
+        assertEquals(1, phaser.getPhase());
+        assertEquals(2, phaser.getRegisteredParties());
+        phaser.arriveAndDeregister();
+        phaser.arriveAndDeregister();
+        // onAdvance() terminates the phaser once there are no parties left
+        assertTrue(phaser.isTerminated());
+        assertTrue(phaser.getPhase() < 0);
+        assertTrue(phaser.register() < 0);
+    }
+
+    public void testArriveUnregisteredFails() {
+        Phaser phaser = new Phaser();
+        try {
+            phaser.arrive();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testTooManyPartiesFails() {
+        try {
+            new Phaser(1 << 16);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        Phaser phaser = new Phaser(0xffff);
+        try {
+            phaser.register();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testOnAdvanceTerminates() throws Exception {
+        final List<Integer> advanced = new ArrayList<Integer>();
+        Phaser phaser = new Phaser(1) {
+            protected boolean onAdvance(int phase, int registeredParties) {
+                advanced.add(phase);
+                return phase == 2;
+            }
+        };
+        assertEquals(1, phaser.arriveAndAwaitAdvance());
+        assertEquals(2, phaser.arriveAndAwaitAdvance());
+        assertTrue(phaser.arriveAndAwaitAdvance() < 0);
+        assertTrue(phaser.isTerminated());
+        assertTrue(phaser.awaitAdvance(0) < 0);
+        assertEquals(3, advanced.size());
+    }
+
+    public void testAwaitAdvanceReturnsImmediatelyForOtherPhase() {
+        Phaser phaser = new Phaser(1);
+        assertEquals(0, phaser.awaitAdvance(5));
+        assertEquals(-1, phaser.awaitAdvance(-1));
+    }
+
+    public void testAwaitAdvanceInterruptiblyTimesOut() throws Exception {
+        Phaser phaser = new Phaser(2);
+        phaser.arrive();
+        try {
+            phaser.awaitAdvanceInterruptibly(0, 10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException expected) {
+        }
+        // Timing out is not an arrival
+        assertEquals(0, phaser.arrive());
+        assertEquals(1, phaser.getPhase());
+    }
+
+    public void testAwaitAdvanceInterruptiblyIsInterrupted() throws Exception {
+        final Phaser phaser = new Phaser(2);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    phaser.awaitAdvanceInterruptibly(phaser.arrive());
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        };
+        t.start();
+        Thread.sleep(50);
+        t.interrupt();
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        assertEquals(0, phaser.getPhase());
+    }
+
+    public void testForceTerminationReleasesWaiters() throws Exception {
+        final Phaser phaser = new Phaser(2);
+        final AtomicInteger result = new AtomicInteger(0);
+        Thread t = new Thread() {
+            public void run() {
+                result.set(phaser.arriveAndAwaitAdvance());
+            }
+        };
+        t.start();
+        Thread.sleep(50);
+        phaser.forceTermination();
+        t.join(10000);
+        assertFalse(t.isAlive());
+        assertTrue(result.get() < 0);
+        assertTrue(phaser.isTerminated());
+    }
+
+    public void testTiered() throws Exception {
+        final Phaser root = new Phaser();
+        final int children = 4;
+        final int partiesPerChild = 3;
+        final int phases = 20;
+        final AtomicInteger counter = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> list = new ArrayList<Thread>();
+        for (int c = 0; c < children; c++) {
+            final Phaser child = new Phaser(root, partiesPerChild);
+            assertSame(root, child.getParent());
+            assertSame(root, child.getRoot());
+            for (int i = 0; i < partiesPerChild; i++) {
+                Thread t = new Thread() {
+                    public void run() {
+                        for (int p = 0; p < phases; p++) {
+                            counter.incrementAndGet();
+                            if (child.arriveAndAwaitAdvance() != p + 1
+                                    || counter.get() < (p + 1) * children * partiesPerChild) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                        child.arriveAndDeregister();
+                    }
+                };
+                list.add(t);
+            }
+        }
+        assertEquals(children, root.getRegisteredParties());
+        for (Thread t : list) {
+            t.start();
+        }
+        for (Thread t : list) {
+            t.join(10000);
+            assertFalse(t.isAlive());
+        }
+        assertEquals(0, failures.get());
+        // The children deregistered from the root once they were empty
+        assertEquals(0, root.getRegisteredParties());
+        assertTrue(root.isTerminated());
+    }
+
+    public void testWaitingInForkJoinPool() throws Exception {
+        // More parties than workers. Waiting tasks use managedBlock() so
+        // the pool starts spare threads instead of deadlocking.
+        final int parties = 8;
+        final Phaser phaser = new Phaser(parties);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final AtomicInteger done = new AtomicInteger();
+            for (int i = 0; i < parties; i++) {
+                pool.execute(new RecursiveAction() {
+                    protected void compute() {
+                        phaser.arriveAndAwaitAdvance();
+                        done.incrementAndGet();
+                    }
+                });
+            }
+            assertEquals(1, phaser.awaitAdvanceInterruptibly(0, 10, TimeUnit.SECONDS));
+            pool.shutdown();
+            assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(parties, done.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
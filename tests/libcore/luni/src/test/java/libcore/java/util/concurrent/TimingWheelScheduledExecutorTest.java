@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.java.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimingWheelScheduledExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+public final class TimingWheelScheduledExecutorTest extends TestCase {
+
+    private TimingWheelScheduledExecutor executor;
+
+    @Override protected void setUp() throws Exception {
+        executor = new TimingWheelScheduledExecutor(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    public void testTasksRunInDelayOrderAndNeverEarly() throws Exception {
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch latch = new CountDownLatch(5);
+        final long start = System.nanoTime();
+        int[] delays = { 40, 10, 30, 0, 20 };
+        for (final int delay : delays) {
+            executor.schedule(new Runnable() {
+                public void run() {
+                    if (System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        order.add(delay);
+                    }
+                    latch.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 10, 20, 30, 40), order);
+    }
+
+    public void testCallable() throws Exception {
+        ScheduledFuture<String> future = executor.schedule(new Callable<String>() {
+            public String call() {
+                return "done";
+            }
+        }, 5, TimeUnit.MILLISECONDS);
+        assertEquals("done", future.get(10, TimeUnit.SECONDS));
+    }
+
+    public void testCancelledTaskDoesNotRun() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        Runnable increment = new Runnable() {
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+        List<ScheduledFuture<?>> futures = new ArrayList<ScheduledFuture<?>>();
+        for (int i = 0; i < 10000; i++) {
+            futures.add(executor.schedule(increment, 200, TimeUnit.MILLISECONDS));
+        }
+        for (ScheduledFuture<?> future : futures) {
+            assertTrue(future.cancel(false));
+        }
+        ScheduledFuture<?> last = executor.schedule(increment, 400, TimeUnit.MILLISECONDS);
+        last.get(10, TimeUnit.SECONDS);
+        assertEquals(1, count.get());
+        assertTrue(futures.get(0).isCancelled());
+    }
+
+    public void testTasksAreCascadedFromHigherLevels() throws Exception {
+        // With 10 microsecond ticks these delays span all but the last level.
+        executor.shutdownNow();
+        executor = new TimingWheelScheduledExecutor(10, TimeUnit.MICROSECONDS);
+        final CountDownLatch latch = new CountDownLatch(3);
+        final long start = System.nanoTime();
+        final AtomicInteger early = new AtomicInteger();
+        for (final long delay : new long[] { 1, 100, 1000 }) {
+            executor.schedule(new Runnable() {
+                public void run() {
+                    if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                        early.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, early.get());
+    }
+
+    public void testFixedRateAndFixedDelay() throws Exception {
+        final CountDownLatch rate = new CountDownLatch(5);
+        final CountDownLatch delay = new CountDownLatch(5);
+        ScheduledFuture<?> a = executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                rate.countDown();
+            }
+        }, 0, 2, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> b = executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                delay.countDown();
+            }
+        }, 0, 2, TimeUnit.MILLISECONDS);
+        assertTrue(rate.await(10, TimeUnit.SECONDS));
+        assertTrue(delay.await(10, TimeUnit.SECONDS));
+        assertTrue(a.cancel(false));
+        assertTrue(b.cancel(false));
+    }
+
+    public void testShutdownRunsDelayedTasksAndCancelsPeriodicOnes() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ScheduledFuture<?> delayed = executor.schedule(new Runnable() {
+            public void run() {
+                latch.countDown();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> periodic = executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+            }
+        }, 1, 1, TimeUnit.MILLISECONDS);
+        executor.shutdown();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(latch.await(0, TimeUnit.SECONDS));
+        assertFalse(delayed.isCancelled());
+        assertTrue(periodic.isCancelled());
+    }
+
+    public void testShutdownNowReturnsPendingTasks() throws Exception {
+        Runnable noop = new Runnable() {
+            public void run() {
+            }
+        };
+        executor.schedule(noop, 1, TimeUnit.HOURS);
+        executor.schedule(noop, 1000, TimeUnit.DAYS);
+        executor.schedule(noop, 1, TimeUnit.HOURS).cancel(false);
+        assertEquals(2, executor.shutdownNow().size());
+        assertTrue(executor.isTerminated());
+    }
+
+    public void testTasksRunOnExecutor() throws Exception {
+        executor.shutdownNow();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            executor = new TimingWheelScheduledExecutor(1, TimeUnit.MILLISECONDS,
+                    Executors.defaultThreadFactory(), pool);
+            final Thread[] thread = new Thread[1];
+            executor.submit(new Runnable() {
+                public void run() {
+                    thread[0] = Thread.currentThread();
+                }
+            }).get(10, TimeUnit.SECONDS);
+            Thread poolThread = pool.submit(new Callable<Thread>() {
+                public Thread call() {
+                    return Thread.currentThread();
+                }
+            }).get();
+            assertSame(poolThread, thread[0]);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.java.util.regex;
+
+import java.util.Arrays;
+import java.util.regex.ConstantPatterns;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+/**
+ * Compares the pure Java matcher used for simple regular expressions with
+ * ICU. {@link Pattern#UNIX_LINES} isn't supported by the Java matcher and
+ * forces ICU but doesn't change the results for inputs which only use
+ * {@code \n} as line terminator.
+ */
+public final class PureJavaMatcherTest extends TestCase {
+
+    private static final String[] REGEXES = {
+        "a", "abc", "a*", "a+?", "a{2,3}", "(a|b)*c", "[a-z]+", "[^0-9]+",
+        "\\d+", "\\s*,\\s*", "\\w+@\\w+\\.com", "^\\w+", "\\w+$", ".", "(a)(b)?",
+        "(?:ab)+", "x?", "\\Q.*\\E", "[\\d.]+", "(\\d{1,3})\\.(\\d{1,3})",
+    };
+
+    private static final String[] INPUTS = {
+        "", "a", "aaa", "abcabc", "bbc", "x1y22z333", "a , b,c ,d", "me@host.com",
+        "first\nsecond", "192.168.0.1", ".*x.*", "ab\n", "ababab",
+    };
+
+    public void testFindAgreesWithIcu() {
+        for (String regex : REGEXES) {
+            Pattern java = Pattern.compile(regex);
+            Pattern icu = Pattern.compile(regex, Pattern.UNIX_LINES);
+            for (String input : INPUTS) {
+                Matcher j = java.matcher(input);
+                Matcher i = icu.matcher(input);
+                assertEquals(i.groupCount(), j.groupCount());
+                while (true) {
+                    boolean found = i.find();
+                    assertEquals(regex + " on " + input, found, j.find());
+                    if (!found) {
+                        break;
+                    }
+                    for (int g = 0; g <= i.groupCount(); g++) {
+                        assertEquals(regex + " on " + input, i.start(g), j.start(g));
+                        assertEquals(regex + " on " + input, i.end(g), j.end(g));
+                    }
+                }
+                assertEquals(regex + " on " + input,
+                        icu.matcher(input).matches(), java.matcher(input).matches());
+                assertEquals(regex + " on " + input,
+                        icu.matcher(input).lookingAt(), java.matcher(input).lookingAt());
+            }
+        }
+    }
+
+    public void testSplitAndReplaceAgreeWithIcu() {
+        for (String regex : REGEXES) {
+            Pattern java = Pattern.compile(regex);
+            Pattern icu = Pattern.compile(regex, Pattern.UNIX_LINES);
+            for (String input : INPUTS) {
+                assertEquals(regex + " on " + input,
+                        Arrays.asList(icu.split(input, -1)), Arrays.asList(java.split(input, -1)));
+                assertEquals(regex + " on " + input,
+                        icu.matcher(input).replaceAll("<$0>"), java.matcher(input).replaceAll("<$0>"));
+            }
+        }
+    }
+
+    public void testBoundedRepeatOfNullableGroup() {
+        String regex = "(?:.{2}|^(?:[ab]+\\d+b{1,3}c*?|[ab]?x?x{0,2}?)?\\n*a??.?){2}";
+        assertFalse(Pattern.compile(regex).matcher("b").matches());
+        assertFalse(Pattern.compile(regex, Pattern.UNIX_LINES).matcher("b").matches());
+
+        Matcher m = Pattern.compile("(?:(?:ab|c)c*\\s??|^[^a]?[ab]*?){2}").matcher("x.b");
+        assertTrue(m.find());
+        assertEquals(0, m.start());
+        assertEquals(0, m.end());
+    }
+
+    public void testRegion() {
+        Matcher m = Pattern.compile("^\\d+$").matcher("ab123cd");
+        m.region(2, 5);
+        assertTrue(m.matches());
+        m.useAnchoringBounds(false);
+        assertFalse(m.matches());
+        assertFalse(m.find());
+    }
+
+    public void testHitEnd() {
+        Matcher m = Pattern.compile("abc").matcher("xab");
+        assertFalse(m.find());
+        assertTrue(m.hitEnd());
+        m = Pattern.compile("abc").matcher("abcx");
+        assertTrue(m.find());
+        assertFalse(m.hitEnd());
+    }
+
+    public void testConstantPatternsAreShared() {
+        assertSame(ConstantPatterns.compile("\\d+"), ConstantPatterns.compile("\\d+"));
+        assertSame(ConstantPatterns.compile("a", Pattern.CASE_INSENSITIVE),
+                ConstantPatterns.compile("a", Pattern.CASE_INSENSITIVE));
+        assertNotSame(ConstantPatterns.compile("a"),
+                ConstantPatterns.compile("a", Pattern.CASE_INSENSITIVE));
+    }
+
+    public void testConstantPatternsEquivalence() {
+        assertEquals(Arrays.asList("a", "b", "c"),
+                Arrays.asList(ConstantPatterns.split("a, b ,c", "\\s*,\\s*")));
+        assertEquals("x-y-z", ConstantPatterns.replaceAll("x1y22z", "\\d+", "-"));
+        assertEquals("x-y22z", ConstantPatterns.replaceFirst("x1y22z", "\\d+", "-"));
+        assertTrue(ConstantPatterns.matches("12", "\\d+"));
+        assertTrue(ConstantPatterns.matches("\\d+", (CharSequence) "12"));
+    }
+}
@@ -16,6 +16,7 @@
 
 package libcore.java.util.zip;
 
+import java.nio.ByteBuffer;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -82,4 +83,21 @@ public class DeflaterTest extends TestCase {
         assertTrue(totalDeflated > 0); // the deflated form should be non-empty
         assertEquals(0, totalInflated);
     }
+
+    public void testDeflateDirectByteBufferWithFlush() throws Exception {
+        ByteBuffer input = ByteBuffer.allocateDirect(3);
+        input.put(new byte[] { 1, 2, 3 }).flip();
+        deflater.setInput(input);
+        ByteBuffer output = ByteBuffer.allocateDirect(32);
+        int byteCount = deflater.deflate(output, Deflater.SYNC_FLUSH);
+        assertEquals(byteCount, output.position());
+        assertEquals(3, input.position());
+        assertTrue(deflater.needsInput());
+
+        output.flip();
+        inflater.setInput(output);
+        assertEquals(3, inflater.inflate(decompressed));
+        assertEquals(output.limit(), output.position());
+        assertDecompressed(1, 2, 3);
+    }
 }
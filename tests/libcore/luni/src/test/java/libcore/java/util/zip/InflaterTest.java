@@ -17,6 +17,7 @@
 package libcore.java.util.zip;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.zip.Adler32;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -100,6 +101,60 @@ public class InflaterTest extends TestCase {
         assertTrue(inflater.finished());
     }
 
+    public void testDirectByteBuffers() throws Exception {
+        assertByteBufferRoundTrip(true);
+    }
+
+    public void testHeapByteBuffers() throws Exception {
+        assertByteBufferRoundTrip(false);
+    }
+
+    private static void assertByteBufferRoundTrip(boolean direct) throws Exception {
+        byte[] expectedBytes = makeString().getBytes("UTF-8");
+        ByteBuffer input = allocate(expectedBytes.length, direct);
+        input.put(expectedBytes).flip();
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteBuffer deflated = allocate(expectedBytes.length, direct);
+        while (!deflater.finished()) {
+            ByteBuffer chunk = deflated.duplicate();
+            chunk.limit(Math.min(chunk.position() + 64, chunk.capacity()));
+            int byteCount = deflater.deflate(chunk);
+            assertEquals(chunk.position(), deflated.position() + byteCount);
+            deflated.position(chunk.position());
+        }
+        assertEquals(input.limit(), input.position());
+        assertEquals(deflated.position(), deflater.getBytesWritten());
+        deflater.end();
+        deflated.flip();
+
+        // Feed the input in small slices so that zlib has to ask for more.
+        Inflater inflater = new Inflater();
+        ByteBuffer inflated = allocate(expectedBytes.length, direct);
+        while (!inflater.finished()) {
+            if (inflater.needsInput()) {
+                ByteBuffer slice = deflated.duplicate();
+                slice.limit(Math.min(slice.position() + 16, slice.limit()));
+                deflated.position(slice.limit());
+                inflater.setInput(slice);
+            }
+            inflater.inflate(inflated);
+        }
+        assertEquals(expectedBytes.length, inflated.position());
+        inflater.end();
+
+        inflated.flip();
+        byte[] actualBytes = new byte[inflated.remaining()];
+        inflated.get(actualBytes);
+        assertEquals(new String(expectedBytes, "UTF-8"), new String(actualBytes, "UTF-8"));
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
     private static byte[] deflate(byte[] input, byte[] dictionary) {
         Deflater deflater = new Deflater();
         if (dictionary != null) {
@@ -16,6 +16,7 @@
 
 package libcore.java.util.zip;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -23,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.Random;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -63,6 +65,78 @@ public final class ZipFileTest extends TestCase {
         in.close();
     }
 
+    public void testEntryLookupAndStoredEntries() throws IOException {
+        byte[] data = "stored data".getBytes("UTF-8");
+        File f = File.createTempFile("ZipFileTest", "zip");
+        f.deleteOnExit();
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(f));
+        out.putNextEntry(new ZipEntry("dir/"));
+        out.closeEntry();
+        ZipEntry stored = new ZipEntry("dir/stored.txt");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(data.length);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        stored.setCrc(crc.getValue());
+        out.putNextEntry(stored);
+        out.write(data);
+        out.closeEntry();
+        ZipEntry deflated = new ZipEntry("d\u00e9flated.txt");
+        deflated.setComment("comment");
+        // An extra field with an unknown header id and no data.
+        deflated.setExtra(new byte[] { 0x77, 0x77, 0, 0 });
+        out.putNextEntry(deflated);
+        out.write(data);
+        out.closeEntry();
+        out.close();
+
+        ZipFile zipFile = new ZipFile(f);
+        assertEquals(3, zipFile.size());
+        Enumeration<? extends ZipEntry> e = zipFile.entries();
+        assertEquals("dir/", e.nextElement().getName());
+        assertEquals("dir/stored.txt", e.nextElement().getName());
+        assertEquals("d\u00e9flated.txt", e.nextElement().getName());
+        assertFalse(e.hasMoreElements());
+
+        assertEquals("dir/", zipFile.getEntry("dir").getName());
+        assertNull(zipFile.getEntry("missing"));
+        assertNull(zipFile.getEntry("dir/stored.tx"));
+
+        ZipEntry entry = zipFile.getEntry("dir/stored.txt");
+        assertEquals(ZipEntry.STORED, entry.getMethod());
+        assertEquals(data.length, entry.getSize());
+        assertEquals(new String(data, "UTF-8"), readFully(zipFile.getInputStream(entry)));
+
+        entry = zipFile.getEntry("d\u00e9flated.txt");
+        assertEquals("comment", entry.getComment());
+        assertEquals(4, entry.getExtra().length);
+        assertEquals(new String(data, "UTF-8"), readFully(zipFile.getInputStream(entry)));
+
+        InputStream in = zipFile.getInputStream(zipFile.getEntry("dir/stored.txt"));
+        zipFile.close();
+        try {
+            in.read(new byte[16]);
+            fail();
+        } catch (IOException expected) {
+        }
+        try {
+            zipFile.getEntry("dir/stored.txt");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toString("UTF-8");
+    }
+
     /**
      * Compresses a single random file into a .zip archive.
      */
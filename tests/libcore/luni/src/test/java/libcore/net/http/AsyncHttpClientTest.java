@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.net.http;
+
+import com.google.mockwebserver.MockResponse;
+import com.google.mockwebserver.MockWebServer;
+import com.google.mockwebserver.RecordedRequest;
+import com.google.mockwebserver.SocketPolicy;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+
+public final class AsyncHttpClientTest extends TestCase {
+    private MockWebServer server = new MockWebServer();
+    private AsyncHttpClient client;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        client = new AsyncHttpClient(1, 1, 8);
+    }
+
+    @Override protected void tearDown() throws Exception {
+        client.shutdown();
+        server.shutdown();
+        super.tearDown();
+    }
+
+    private URI uri(String path) throws Exception {
+        return server.getUrl(path).toURI();
+    }
+
+    private static String body(Future<AsyncHttpResponse> future) throws Exception {
+        return new String(future.get(10, TimeUnit.SECONDS).getBody(), "US-ASCII");
+    }
+
+    public void testGet() throws Exception {
+        server.enqueue(new MockResponse().setBody("ABCDE").addHeader("X-Foo: bar"));
+        server.play();
+
+        AsyncHttpResponse response = client.get(uri("/foo?a=b"), null).get(10, TimeUnit.SECONDS);
+        assertEquals(200, response.getResponseCode());
+        assertEquals("bar", response.getHeaders().getHeaders().get("X-Foo"));
+        assertEquals("ABCDE", new String(response.getBody(), "US-ASCII"));
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("GET /foo?a=b HTTP/1.1", request.getRequestLine());
+        assertTrue(request.getHeaders().contains("Host: " + server.getHostName() + ":"
+                + server.getPort()));
+    }
+
+    public void testRequestsArePipelined() throws Exception {
+        server.enqueue(new MockResponse().setBody("A"));
+        server.enqueue(new MockResponse().setChunkedBody("BBBBBBBBBB", 3));
+        server.enqueue(new MockResponse().setResponseCode(204));
+        server.enqueue(new MockResponse().setBody("D"));
+        server.play();
+
+        Future<AsyncHttpResponse> a = client.get(uri("/a"), null);
+        Future<AsyncHttpResponse> b = client.get(uri("/b"), null);
+        Future<AsyncHttpResponse> c = client.get(uri("/c"), null);
+        Future<AsyncHttpResponse> d = client.get(uri("/d"), null);
+        assertEquals("A", body(a));
+        assertEquals("BBBBBBBBBB", body(b));
+        assertEquals(204, c.get().getResponseCode());
+        assertEquals(0, c.get().getBody().length);
+        assertEquals("D", body(d));
+
+        // All requests were sent on the same connection.
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+    }
+
+    public void testPost() throws Exception {
+        server.enqueue(new MockResponse().setBody("A"));
+        server.enqueue(new MockResponse().setBody("B"));
+        server.play();
+
+        Future<AsyncHttpResponse> post = client.execute(HttpEngine.POST, uri("/"), null,
+                "hello".getBytes("US-ASCII"), null);
+        Future<AsyncHttpResponse> get = client.get(uri("/"), null);
+        assertEquals("A", body(post));
+        assertEquals("B", body(get));
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("POST / HTTP/1.1", request.getRequestLine());
+        assertTrue(request.getHeaders().contains("Content-Length: 5"));
+        assertEquals("hello", new String(request.getBody(), "US-ASCII"));
+        assertEquals("GET / HTTP/1.1", server.takeRequest().getRequestLine());
+    }
+
+    public void testPipelinedRequestsAreRetriedAfterDisconnect() throws Exception {
+        server.enqueue(new MockResponse().setBody("A")
+                .setSocketPolicy(SocketPolicy.DISCONNECT_AT_END));
+        server.enqueue(new MockResponse().setBody("B"));
+        server.enqueue(new MockResponse().setBody("C"));
+        server.play();
+
+        Future<AsyncHttpResponse> a = client.get(uri("/a"), null);
+        Future<AsyncHttpResponse> b = client.get(uri("/b"), null);
+        Future<AsyncHttpResponse> c = client.get(uri("/c"), null);
+        assertEquals("A", body(a));
+        assertEquals("B", body(b));
+        assertEquals("C", body(c));
+    }
+
+    public void testResponseWithoutLengthEndsAtClose() throws Exception {
+        server.enqueue(new MockResponse().setBody("ABC").clearHeaders()
+                .setSocketPolicy(SocketPolicy.DISCONNECT_AT_END));
+        server.play();
+
+        assertEquals("ABC", body(client.get(uri("/"), null)));
+    }
+
+    public void testChunkExtensionsAndTrailers() throws Exception {
+        server.enqueue(new MockResponse()
+                .setBody("3;foo=bar\r\nABC\r\n2 ; baz\r\nDE\r\n0\r\nX-Trailer: t\r\n\r\n")
+                .clearHeaders().addHeader("Transfer-encoding: chunked"));
+        server.enqueue(new MockResponse().setBody("B"));
+        server.play();
+
+        AsyncHttpResponse response = client.get(uri("/"), null).get(10, TimeUnit.SECONDS);
+        assertEquals("ABCDE", new String(response.getBody(), "US-ASCII"));
+        assertEquals("t", response.getHeaders().getHeaders().get("X-Trailer"));
+        // The connection is still in sync.
+        assertEquals("B", body(client.get(uri("/"), null)));
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    public void testInvalidChunkSize() throws Exception {
+        assertProtocolError(new MockResponse().setBody("x\r\nA\r\n0\r\n\r\n")
+                .clearHeaders().addHeader("Transfer-encoding: chunked"));
+    }
+
+    public void testNegativeChunkSize() throws Exception {
+        assertProtocolError(new MockResponse().setBody("-1\r\nA\r\n0\r\n\r\n")
+                .clearHeaders().addHeader("Transfer-encoding: chunked"));
+    }
+
+    public void testNegativeContentLength() throws Exception {
+        assertProtocolError(new MockResponse().clearHeaders().addHeader("Content-Length: -5"));
+    }
+
+    /**
+     * Asserts that a GET answered with {@code response} fails with a
+     * {@link ProtocolException} and that the event loop survives it.
+     */
+    private void assertProtocolError(MockResponse response) throws Exception {
+        // The GET is retried once on a new connection.
+        server.enqueue(response);
+        server.enqueue(response);
+        server.enqueue(new MockResponse().setBody("B"));
+        server.play();
+
+        try {
+            client.get(uri("/"), null).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof ProtocolException);
+        }
+        assertEquals("B", body(client.get(uri("/"), null)));
+    }
+
+    public void testCallback() throws Exception {
+        server.enqueue(new MockResponse().setBody("A"));
+        server.play();
+
+        final AtomicReference<AsyncHttpResponse> result = new AtomicReference<AsyncHttpResponse>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.get(uri("/"), new AsyncHttpClient.Callback() {
+            @Override public void onResponse(AsyncHttpResponse response) {
+                result.set(response);
+                latch.countDown();
+            }
+            @Override public void onFailure(IOException e) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals("A", new String(result.get().getBody(), "US-ASCII"));
+    }
+
+    public void testConnectFailure() throws Exception {
+        server.play();
+        URI uri = uri("/");
+        server.shutdown();
+
+        try {
+            client.get(uri, null).get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    public void testTimeout() throws Exception {
+        // Connections are accepted by the kernel but the server never responds.
+        ServerSocket serverSocket = new ServerSocket(0);
+        try {
+            client.setTimeout(100, TimeUnit.MILLISECONDS);
+            URI uri = new URI("http://localhost:" + serverSocket.getLocalPort() + "/");
+            try {
+                client.get(uri, null).get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof SocketTimeoutException);
+            }
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    public void testTimeoutIsCancelledOnResponse() throws Exception {
+        server.enqueue(new MockResponse().setBody("A"));
+        server.enqueue(new MockResponse().setBody("B"));
+        server.play();
+
+        client.setTimeout(200, TimeUnit.MILLISECONDS);
+        assertEquals("A", body(client.get(uri("/"), null)));
+        Thread.sleep(400);
+        // The connection is still usable.
+        assertEquals("B", body(client.get(uri("/"), null)));
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    public void testThrowingCallbackDoesNotStopEventLoop() throws Exception {
+        server.enqueue(new MockResponse().setBody("A"));
+        server.enqueue(new MockResponse().setBody("B"));
+        server.play();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.get(uri("/"), new AsyncHttpClient.Callback() {
+            @Override public void onResponse(AsyncHttpResponse response) {
+                latch.countDown();
+                throw new IllegalStateException();
+            }
+            @Override public void onFailure(IOException e) {
+                latch.countDown();
+                throw new IllegalStateException();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals("B", body(client.get(uri("/"), null)));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package libcore.net.http;
+
+import com.google.mockwebserver.MockResponse;
+import com.google.mockwebserver.MockWebServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URLConnection;
+import junit.framework.TestCase;
+
+/**
+ * Tests the shared {@code HttpConnectionPool} against a loopback
+ * {@link MockWebServer}. The pool isn't public so it's accessed using
+ * reflection.
+ */
+public final class HttpConnectionPoolTest extends TestCase {
+    private MockWebServer server = new MockWebServer();
+    private Object pool;
+
+    @Override protected void setUp() throws Exception {
+        super.setUp();
+        Class<?> poolClass = Class.forName("libcore.net.http.HttpConnectionPool");
+        Field instance = poolClass.getDeclaredField("INSTANCE");
+        instance.setAccessible(true);
+        pool = instance.get(null);
+        invoke("evictAll");
+    }
+
+    @Override protected void tearDown() throws Exception {
+        server.shutdown();
+        invoke("evictAll");
+        super.tearDown();
+    }
+
+    private Object invoke(String name) throws Exception {
+        Method method = pool.getClass().getDeclaredMethod(name);
+        method.setAccessible(true);
+        return method.invoke(pool);
+    }
+
+    public void testConnectionsAreReused() throws Exception {
+        server.enqueue(new MockResponse().setBody("A"));
+        server.enqueue(new MockResponse().setBody("B"));
+        server.play();
+
+        long hits = (Long) invoke("getHitCount");
+        long misses = (Long) invoke("getMissCount");
+        assertEquals("A", readAscii(server.getUrl("/").openConnection()));
+        assertEquals(1, invoke("getIdleConnectionCount"));
+        assertEquals("B", readAscii(server.getUrl("/").openConnection()));
+
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+        assertEquals(hits + 1, invoke("getHitCount"));
+        assertEquals(misses + 1, invoke("getMissCount"));
+        assertEquals(1, invoke("getIdleConnectionCount"));
+    }
+
+    public void testEvictedConnectionsAreNotReused() throws Exception {
+        server.enqueue(new MockResponse().setBody("A"));
+        server.enqueue(new MockResponse().setBody("B"));
+        server.play();
+
+        assertEquals("A", readAscii(server.getUrl("/").openConnection()));
+        invoke("evictAll");
+        assertEquals(0, invoke("getIdleConnectionCount"));
+        assertEquals("B", readAscii(server.getUrl("/").openConnection()));
+
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+    }
+
+    public void testExpiredConnectionsAreEvicted() throws Exception {
+        server.enqueue(new MockResponse().setBody("A"));
+        server.play();
+
+        long evictions = (Long) invoke("getEvictionCount");
+        assertEquals("A", readAscii(server.getUrl("/").openConnection()));
+        assertEquals(1, invoke("getIdleConnectionCount"));
+
+        // Run a cleanup pass far enough in the future for every connection
+        // to have expired.
+        Method cleanup = pool.getClass().getDeclaredMethod("cleanup", long.class);
+        cleanup.setAccessible(true);
+        assertEquals(-1L, cleanup.invoke(pool, System.nanoTime() + Long.MAX_VALUE / 2));
+        assertEquals(0, invoke("getIdleConnectionCount"));
+        assertEquals(evictions + 1, invoke("getEvictionCount"));
+    }
+
+    private String readAscii(URLConnection connection) throws IOException {
+        InputStream in = connection.getInputStream();
+        StringBuilder result = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            result.append((char) c);
+        }
+        in.close();
+        return result.toString();
+    }
+}
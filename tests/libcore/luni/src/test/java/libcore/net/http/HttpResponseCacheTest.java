@@ -297,6 +297,36 @@ public final class HttpResponseCacheTest extends TestCase {
         assertEquals(1, cache.getHitCount());
     }
 
+    public void testLargeResponseBodyIsReadFromMappedCacheFile() throws IOException {
+        byte[] body = new byte[100 * 1024];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        server.enqueue(new MockResponse()
+                .addHeader("Last-Modified: " + formatDate(-1, TimeUnit.HOURS))
+                .addHeader("Expires: " + formatDate(1, TimeUnit.HOURS))
+                .setBody(body));
+        server.play();
+
+        assertEquals(new String(body, "US-ASCII"), readAscii(server.getUrl("/").openConnection()));
+
+        URLConnection connection = server.getUrl("/").openConnection(); // cached!
+        InputStream in = connection.getInputStream();
+        assertEquals(body.length, in.available());
+        assertEquals(1024, in.skip(1024));
+        byte[] rest = new byte[body.length - 1024];
+        int count = 0;
+        int read;
+        while (count < rest.length && (read = in.read(rest, count, rest.length - count)) != -1) {
+            count += read;
+        }
+        assertEquals(rest.length, count);
+        assertEquals(-1, in.read());
+        assertTrue(Arrays.equals(Arrays.copyOfRange(body, 1024, body.length), rest));
+        in.close();
+        assertEquals(1, cache.getHitCount());
+    }
+
     public void testSecureResponseCaching() throws IOException {
         TestSSLContext testSSLContext = TestSSLContext.create();
         server.useHttps(testSSLContext.serverContext.getSocketFactory(), false);
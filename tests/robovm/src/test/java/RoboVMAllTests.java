@@ -15,7 +15,6 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.regex.Pattern;
 
 import junit.framework.Assert;
@@ -121,19 +120,11 @@ public class RoboVMAllTests {
         field(addressCacheClass, "cache").set(field(InetAddress.class, "addressCache").get(null), cache);
     }
     
-    @SuppressWarnings("unchecked")
     private static void cleanupHttpConnectionPool() throws Throwable {
         Class<?> poolClass = Class.forName("libcore.net.http.HttpConnectionPool");
-        Map<Object, List<Object>> connections = 
-                (Map<Object, List<Object>>) field(poolClass, "connectionPool").get(field(poolClass, "INSTANCE").get(null));
-        Method closeSocketAndStreamsMethod = Class.forName("libcore.net.http.HttpConnection").getDeclaredMethod("closeSocketAndStreams");
-        closeSocketAndStreamsMethod.setAccessible(true);
-        for (List<Object> l : connections.values()) {
-            for (Object connection : l) {
-                closeSocketAndStreamsMethod.invoke(connection);
-            }
-        }
-        connections.clear();
+        Method evictAllMethod = poolClass.getDeclaredMethod("evictAll");
+        evictAllMethod.setAccessible(true);
+        evictAllMethod.invoke(field(poolClass, "INSTANCE").get(null));
     }
     
     /**
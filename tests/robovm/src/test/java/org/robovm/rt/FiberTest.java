@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link Fiber} and {@link FiberScheduler}.
+ */
+public class FiberTest {
+    private FiberScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new FiberScheduler(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testManyFibersPassingToken() throws Exception {
+        final int count = 5000;
+        final int rounds = 10;
+        final Fiber[] fibers = new Fiber[count];
+        final AtomicIntegerArray tokens = new AtomicIntegerArray(count);
+        final AtomicInteger hops = new AtomicInteger();
+        final Object lock = new Object();
+        synchronized (lock) {
+            for (int i = 0; i < count; i++) {
+                final int id = i;
+                fibers[i] = scheduler.start(new Runnable() {
+                    public void run() {
+                        // Make sure all fibers have been created
+                        synchronized (lock) {}
+                        for (int r = 0; r < rounds; r++) {
+                            while (tokens.get(id) == 0) {
+                                Fiber.park();
+                            }
+                            tokens.decrementAndGet(id);
+                            hops.incrementAndGet();
+                            int next = (id + 1) % count;
+                            tokens.incrementAndGet(next);
+                            fibers[next].unpark();
+                        }
+                    }
+                });
+            }
+        }
+        tokens.set(0, 1);
+        fibers[0].unpark();
+        for (Fiber f : fibers) {
+            f.join();
+            assertFalse(f.isAlive());
+        }
+        assertEquals(count * rounds, hops.get());
+    }
+
+    @Test
+    public void testUnparkBeforePark() throws Exception {
+        final AtomicInteger parks = new AtomicInteger();
+        Fiber f = scheduler.start(new Runnable() {
+            public void run() {
+                Fiber.current().unpark();
+                // Consumes the permit and returns immediately
+                Fiber.park();
+                parks.incrementAndGet();
+            }
+        });
+        f.join();
+        assertEquals(1, parks.get());
+    }
+
+    @Test
+    public void testJoinFromFiber() throws Exception {
+        final Fiber sleeper = scheduler.start(new Runnable() {
+            public void run() {
+                Fiber.park();
+            }
+        });
+        final AtomicInteger joined = new AtomicInteger();
+        Fiber joiner = scheduler.start(new Runnable() {
+            public void run() {
+                try {
+                    sleeper.join();
+                    joined.incrementAndGet();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        Thread.sleep(100);
+        assertEquals(0, joined.get());
+        assertTrue(joiner.isAlive());
+        sleeper.unpark();
+        joiner.join();
+        assertEquals(1, joined.get());
+    }
+
+    @Test
+    public void testDeepStackSurvivesPark() throws Exception {
+        final AtomicInteger result = new AtomicInteger();
+        final AtomicReference<Fiber> f = new AtomicReference<Fiber>();
+        f.set(scheduler.start(new Runnable() {
+            public void run() {
+                result.set(recurse(500));
+            }
+        }));
+        while (f.get().isAlive()) {
+            f.get().unpark();
+            Thread.sleep(1);
+        }
+        assertEquals(500 * 501 / 2, result.get());
+    }
+
+    private static int recurse(int n) {
+        if (n == 0) {
+            Fiber.park();
+            return 0;
+        }
+        return n + recurse(n - 1);
+    }
+
+    @Test
+    public void testObjectsOnParkedStackAreNotCollected() throws Exception {
+        final AtomicReference<WeakReference<Object>> ref = new AtomicReference<WeakReference<Object>>();
+        final AtomicReference<Object> survivor = new AtomicReference<Object>();
+        Fiber f = scheduler.start(new Runnable() {
+            public void run() {
+                Object o = new byte[1024];
+                ref.set(new WeakReference<Object>(o));
+                Fiber.park();
+                survivor.set(o);
+            }
+        });
+        while (ref.get() == null) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNotNull(ref.get().get());
+        f.unpark();
+        f.join();
+        assertSame(ref.get().get(), survivor.get());
+    }
+
+    @Test
+    public void testUnreachableParkedFiberIsCollected() throws Exception {
+        FiberScheduler single = new FiberScheduler(1);
+        CountDownLatch parking = new CountDownLatch(1);
+        WeakReference<Fiber> ref = startAbandonedFiber(single, parking);
+        parking.await();
+        for (int i = 0; i < 10 && ref.get() != null; i++) {
+            System.gc();
+            System.runFinalization();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+        // The carrier no longer waits for the collected fiber
+        single.shutdown();
+        assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    private static WeakReference<Fiber> startAbandonedFiber(FiberScheduler scheduler,
+            final CountDownLatch parking) {
+        return new WeakReference<Fiber>(scheduler.start(new Runnable() {
+            public void run() {
+                parking.countDown();
+                // Nothing will ever unpark us
+                Fiber.park();
+            }
+        }));
+    }
+
+    @Test
+    public void testExceptionsAndStackTracesAfterPark() throws Exception {
+        final AtomicReference<Throwable> caught = new AtomicReference<Throwable>();
+        Fiber f = scheduler.start(new Runnable() {
+            public void run() {
+                Fiber.park();
+                try {
+                    throwAfterPark();
+                } catch (IllegalStateException e) {
+                    caught.set(e);
+                }
+            }
+        });
+        f.unpark();
+        f.join();
+        assertNotNull(caught.get());
+        StackTraceElement[] trace = caught.get().getStackTrace();
+        assertEquals("throwAfterPark", trace[0].getMethodName());
+        // The trace ends in the fiber. The carrier's frames aren't included.
+        for (StackTraceElement e : trace) {
+            assertFalse(e.getClassName().equals(FiberScheduler.Carrier.class.getName()));
+        }
+    }
+
+    private static void throwAfterPark() {
+        throw new IllegalStateException();
+    }
+
+    @Test
+    public void testParkWhileHoldingMonitorPinsCarrier() throws Exception {
+        // Monitors are owned by the carrier. With a single carrier another
+        // fiber would re-enter the monitor if parking gave up the carrier.
+        FiberScheduler single = new FiberScheduler(1);
+        try {
+            final Object lock = new Object();
+            final AtomicInteger inside = new AtomicInteger();
+            final AtomicInteger maxInside = new AtomicInteger();
+            Runnable r = new Runnable() {
+                public void run() {
+                    synchronized (lock) {
+                        maxInside.set(Math.max(maxInside.get(), inside.incrementAndGet()));
+                        Fiber.park();
+                        inside.decrementAndGet();
+                    }
+                }
+            };
+            Fiber a = single.start(r);
+            Fiber b = single.start(r);
+            Thread.sleep(100);
+            assertEquals(1, inside.get());
+            a.unpark();
+            b.unpark();
+            a.join();
+            b.join();
+            assertEquals(1, maxInside.get());
+        } finally {
+            single.shutdown();
+            assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testLocksParkTheFiber() throws Exception {
+        // All fibers wait for the last one on a single carrier. This only
+        // completes if waiting in LockSupport gives up the carrier.
+        FiberScheduler single = new FiberScheduler(1);
+        try {
+            final int count = 100;
+            final CountDownLatch gate = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(count);
+            final ReentrantLock lock = new ReentrantLock();
+            final AtomicInteger counter = new AtomicInteger();
+            for (int i = 0; i < count; i++) {
+                single.start(new Runnable() {
+                    public void run() {
+                        try {
+                            gate.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        lock.lock();
+                        try {
+                            int n = counter.get();
+                            // Parking while owning the lock must keep the
+                            // carrier or the next fiber would reenter it.
+                            LockSupport.parkNanos(1000);
+                            counter.set(n + 1);
+                        } finally {
+                            lock.unlock();
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+            single.start(new Runnable() {
+                public void run() {
+                    gate.countDown();
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(count, counter.get());
+        } finally {
+            single.shutdown();
+            assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testTimedWaitParksTheFiber() throws Exception {
+        FiberScheduler single = new FiberScheduler(1);
+        try {
+            final CountDownLatch never = new CountDownLatch(1);
+            final AtomicInteger ranMeanwhile = new AtomicInteger();
+            final AtomicInteger timedOut = new AtomicInteger();
+            Fiber waiter = single.start(new Runnable() {
+                public void run() {
+                    try {
+                        if (!never.await(200, TimeUnit.MILLISECONDS)) {
+                            timedOut.set(ranMeanwhile.get());
+                        }
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            Fiber other = single.start(new Runnable() {
+                public void run() {
+                    ranMeanwhile.incrementAndGet();
+                }
+            });
+            waiter.join();
+            other.join();
+            assertEquals(1, timedOut.get());
+        } finally {
+            single.shutdown();
+            assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testSocketReadParksTheFiber() throws Exception {
+        // The reader runs first on the only carrier. The writer only gets to
+        // run if the blocked read gives up the carrier.
+        FiberScheduler single = new FiberScheduler(1);
+        ServerSocket ss = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        final Socket client = new Socket(ss.getInetAddress(), ss.getLocalPort());
+        final Socket server = ss.accept();
+        try {
+            final InputStream in = server.getInputStream();
+            final AtomicInteger read = new AtomicInteger(-2);
+            final CountDownLatch done = new CountDownLatch(1);
+            single.start(new Runnable() {
+                public void run() {
+                    try {
+                        read.set(in.read());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    done.countDown();
+                }
+            });
+            single.start(new Runnable() {
+                public void run() {
+                    try {
+                        client.getOutputStream().write(42);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(42, read.get());
+        } finally {
+            client.close();
+            server.close();
+            ss.close();
+            single.shutdown();
+            assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParkOutsideFiber() {
+        Fiber.park();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStartAfterShutdown() {
+        scheduler.shutdown();
+        scheduler.start(new Runnable() {
+            public void run() {
+            }
+        });
+    }
+}
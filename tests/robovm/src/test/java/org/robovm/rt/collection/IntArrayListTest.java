@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link IntArrayList}.
+ */
+public class IntArrayListTest {
+
+    @Test
+    public void testAddGetSet() {
+        IntArrayList list = new IntArrayList(0);
+        for (int i = 0; i < 100; i++) {
+            list.add(i);
+        }
+        assertEquals(100, list.size());
+        assertEquals(42, list.get(42));
+        assertEquals(42, list.set(42, -1));
+        assertEquals(-1, list.get(42));
+        assertEquals(42, list.indexOf(-1));
+        assertFalse(list.contains(1000));
+    }
+
+    @Test
+    public void testInsertAndRemove() {
+        IntArrayList list = new IntArrayList();
+        list.addAll(new int[] { 1, 2, 4 });
+        list.add(2, 3);
+        list.add(0, 0);
+        assertEquals("[0, 1, 2, 3, 4]", list.toString());
+        assertEquals(0, list.removeAt(0));
+        assertEquals(4, list.removeAt(3));
+        assertArrayEquals(new int[] { 1, 2, 3 }, list.toArray());
+        list.clear();
+        assertTrue(list.isEmpty());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetBeyondSize() {
+        IntArrayList list = new IntArrayList(10);
+        list.add(1);
+        list.get(1);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link IntHashSet}.
+ */
+public class IntHashSetTest {
+
+    @Test
+    public void testAddContainsRemove() {
+        IntHashSet set = new IntHashSet();
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.add(17));
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(17));
+        assertFalse(set.contains(18));
+        assertEquals(2, set.size());
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertEquals(1, set.size());
+        set.clear();
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testToArray() {
+        IntHashSet set = new IntHashSet();
+        for (int i = -50; i <= 50; i++) {
+            set.add(i);
+        }
+        int[] elements = set.toArray();
+        Arrays.sort(elements);
+        assertEquals(101, elements.length);
+        for (int i = 0; i < elements.length; i++) {
+            assertEquals(i - 50, elements[i]);
+        }
+    }
+
+    @Test
+    public void testAgainstHashSet() {
+        Random random = new Random(42);
+        IntHashSet set = new IntHashSet(0);
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 100000; i++) {
+            int element = (random.nextInt(512) - 256) << random.nextInt(4);
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(element), set.add(element));
+            } else {
+                assertEquals(expected.remove(element), set.remove(element));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (int element : expected) {
+            assertTrue(set.contains(element));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link IntIntMap}.
+ */
+public class IntIntMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        IntIntMap map = new IntIntMap();
+        assertTrue(map.isEmpty());
+        map.put(1, 10);
+        map.put(0, 20);
+        map.put(-1, 30);
+        assertEquals(3, map.size());
+        assertEquals(10, map.get(1));
+        assertEquals(20, map.get(0));
+        assertEquals(30, map.get(-1));
+        assertEquals(-5, map.get(2, -5));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(2));
+        assertTrue(map.remove(0));
+        assertFalse(map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(7, map.get(0, 7));
+        assertEquals(2, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(1));
+    }
+
+    @Test
+    public void testAdd() {
+        IntIntMap map = new IntIntMap();
+        assertEquals(3, map.add(5, 3));
+        assertEquals(5, map.add(5, 2));
+        assertEquals(-1, map.add(0, -1));
+        assertEquals(5, map.get(5));
+        assertEquals(-1, map.get(0));
+    }
+
+    @Test
+    public void testCursor() {
+        IntIntMap map = new IntIntMap();
+        for (int i = 0; i < 100; i++) {
+            map.put(i * 1024, i);
+        }
+        int count = 0;
+        long sum = 0;
+        for (int i = map.next(-1); i != -1; i = map.next(i)) {
+            assertEquals(map.keyAt(i), map.valueAt(i) * 1024);
+            map.setValueAt(i, map.valueAt(i) + 1);
+            count++;
+            sum += map.valueAt(i);
+        }
+        assertEquals(100, count);
+        assertEquals(5050, sum);
+        assertEquals(1, map.get(0));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        IntIntMap map = new IntIntMap(0);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            // Few distinct keys so that there are lots of collisions and
+            // removals of entries which have been moved by earlier removals.
+            int key = (random.nextInt(512) - 256) << random.nextInt(4);
+            switch (random.nextInt(3)) {
+            case 0:
+                map.put(key, i);
+                expected.put(key, i);
+                break;
+            case 1:
+                assertEquals(expected.remove(key) != null, map.remove(key));
+                break;
+            default:
+                Integer value = expected.get(key);
+                assertEquals(value != null ? value.intValue() : -1, map.get(key, -1));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey(), -1));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.robovm.rt.collection;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link LongObjectMap}.
+ */
+public class LongObjectMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongObjectMap<String> map = new LongObjectMap<String>();
+        assertNull(map.put(1L << 40, "a"));
+        assertNull(map.put(0, "zero"));
+        assertEquals("a", map.put(1L << 40, "b"));
+        assertEquals("b", map.get(1L << 40));
+        assertEquals("zero", map.get(0));
+        assertNull(map.get(1));
+        assertEquals("x", map.get(1, "x"));
+        assertEquals(2, map.size());
+        assertEquals("zero", map.remove(0));
+        assertNull(map.remove(0));
+        assertEquals("b", map.remove(1L << 40));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void testCursor() {
+        LongObjectMap<String> map = new LongObjectMap<String>();
+        map.put(0, "0");
+        map.put(Long.MIN_VALUE, String.valueOf(Long.MIN_VALUE));
+        map.put(Long.MAX_VALUE, String.valueOf(Long.MAX_VALUE));
+        int count = 0;
+        for (int i = map.next(-1); i != -1; i = map.next(i)) {
+            assertEquals(String.valueOf(map.keyAt(i)), map.valueAt(i));
+            count++;
+        }
+        assertEquals(3, count);
+        assertEquals(-1, new LongObjectMap<String>().next(-1));
+    }
+
+    @Test
+    public void testAgainstHashMap() {
+        Random random = new Random(42);
+        LongObjectMap<Integer> map = new LongObjectMap<Integer>();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            long key = ((long) random.nextInt(512) - 256) << (random.nextInt(3) * 31);
+            switch (random.nextInt(3)) {
+            case 0:
+                assertEquals(expected.put(key, i), map.put(key, i));
+                break;
+            case 1:
+                assertEquals(expected.remove(key), map.remove(key));
+                break;
+            default:
+                assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+    }
+}
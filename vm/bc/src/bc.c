@@ -24,10 +24,12 @@
 #define ALLOC_NATIVE_FRAMES_SIZE 8
 
 typedef struct {
-    ClassInfoHeader* classInfoHeader;
     void* start;
     void* end;
-} AddressClassLookup;
+    ClassInfoHeader* classInfoHeader;
+    // The resolved Method or NULL if not yet resolved
+    Method* method;
+} AddressMethodLookup;
 
 typedef struct {
     ClassInfoHeader* exHeader;
@@ -45,6 +47,9 @@ extern char** _bcBootclasspath;
 extern char** _bcClasspath;
 extern void* _bcBootClassesHash;
 extern void* _bcClassesHash;
+extern void* _bcBootResourcesHash;
+extern void* _bcResourcesHash;
+extern StaticString* _bcStrings;
 static Class* loadBootClass(Env*, const char*, ClassLoader*);
 static Class* loadUserClass(Env*, const char*, ClassLoader*);
 static void classInitialized(Env*, Class*);
@@ -52,12 +57,14 @@ static Interface* loadInterfaces(Env*, Class*);
 static Field* loadFields(Env*, Class*);
 static Method* loadMethods(Env*, Class*);
 static Class* findClassAt(Env*, void*);
+static Method* findMethodAt(Env*, void*);
+static jint lookupResource(Env*, const char*, jboolean, const jint**);
 static Class* createClass(Env*, ClassInfoHeader*, ClassLoader*);
 static jboolean exceptionMatch(Env* env, TrycatchContext*);
 static Options options = {0};
 static VM* vm = NULL;
-static jint addressClassLookupsCount = 0;
-static AddressClassLookup* addressClassLookups = NULL;
+static jint addressMethodLookupsCount = 0;
+static AddressMethodLookup* addressMethodLookups = NULL;
 
 int main(int argc, char* argv[]) {
     options.mainClass = (char*) _bcMainClass;
@@ -70,8 +77,11 @@ int main(int argc, char* argv[]) {
     options.loadFields = loadFields;
     options.loadMethods = loadMethods;
     options.findClassAt = findClassAt;
+    options.findMethodAt = findMethodAt;
+    options.lookupResource = lookupResource;
     options.exceptionMatch = exceptionMatch;
     options.dynamicJNI = _bcDynamicJNI;
+    options.staticStrings = _bcStrings;
     if (!rvmInitOptions(argc, argv, &options, FALSE)) {
         fprintf(stderr, "rvmInitOptions(...) failed!\n");
         return 1;
@@ -121,6 +131,40 @@ static ClassInfoHeader* lookupClassInfo(Env* env, const char* className, void* h
     return NULL;
 }
 
+typedef struct {
+    const char* name;
+    jint count;
+    jint indexes[0];
+} ResourceInfo;
+
+/*
+ * Looks up a resource in the resource index generated by the compiler (see
+ * Linker.generateResourcesHash()). Unlike the classes hashes the resources
+ * hashes use 32-bit sizes and bucket start indexes. Returns the number of
+ * classpath entries containing the resource and sets *indexes to the indexes
+ * of those entries.
+ */
+static jint lookupResource(Env* env, const char* name, jboolean bootclasspath, const jint** indexes) {
+    jint* hash = bootclasspath ? _bcBootResourcesHash : _bcResourcesHash;
+    jint size = hash[1];
+    jint* starts = &hash[2];
+    // The table of entries follows the size + 1 start indexes aligned on a pointer boundary
+    ResourceInfo** base = (ResourceInfo**) (((uintptr_t) &starts[size + 1] + sizeof(void*) - 1) & ~(sizeof(void*) - 1));
+    jint h = 0;
+    MurmurHash3_x86_32(name, strlen(name) + 1, 0x1ce79e5c, &h);
+    h &= size - 1;
+    jint i;
+    for (i = starts[h]; i < starts[h + 1]; i++) {
+        ResourceInfo* info = base[i];
+        if (!strcmp(info->name, name)) {
+            *indexes = info->indexes;
+            return info->count;
+        }
+    }
+    *indexes = NULL;
+    return 0;
+}
+
 static void iterateClassInfos(Env* env, jboolean (*callback)(Env*, ClassInfoHeader*, MethodInfo*, void*), void* hash, void* data) {
     ClassInfoHeader** base = getClassInfosBase(hash);
     jint count = getClassInfosCount(hash);
@@ -328,73 +372,70 @@ error:
     return NULL;
 }
 
-static jboolean countClassesWithConcreteMethodsCallback(Env* env, ClassInfoHeader* header, MethodInfo* mi, void* d) {
+static jboolean countConcreteMethodsCallback(Env* env, ClassInfoHeader* header, MethodInfo* mi, void* d) {
     if (mi->impl) {
         jint* count = (jint*) d;
         *count = *count + 1;
-        return FALSE;
     }
     return TRUE;
 }
 
-static jboolean initAddressClassLookupsCallback(Env* env, ClassInfoHeader* header, MethodInfo* mi, void* d) {
+static jboolean initAddressMethodLookupsCallback(Env* env, ClassInfoHeader* header, MethodInfo* mi, void* d) {
     if (mi->impl) {
-        AddressClassLookup** lookupPtr = (AddressClassLookup**) d;
-        AddressClassLookup* lookup = *lookupPtr;
-        if (lookup->classInfoHeader != header) {
-            if (lookup->classInfoHeader) {
-                *lookupPtr += 1;
-                lookup = *lookupPtr;
-            }
-            lookup->classInfoHeader = header;
-            lookup->start = mi->impl;
-            lookup->end = mi->impl + mi->size;
-        } else if (lookup->start > mi->impl) {
-            lookup->start = mi->impl;
-        } else if (lookup->end <= mi->impl) {
-            lookup->end = mi->impl + mi->size;
-        }
+        AddressMethodLookup** lookupPtr = (AddressMethodLookup**) d;
+        AddressMethodLookup* lookup = *lookupPtr;
+        lookup->start = mi->impl;
+        lookup->end = mi->impl + mi->size;
+        lookup->classInfoHeader = header;
+        lookup->method = NULL;
+        *lookupPtr += 1;
     }
     return TRUE;
 }
 
-static int addressClassLookupCompareBSearch(const void* _a, const void* _b) {
-    AddressClassLookup* needle = (AddressClassLookup*) _a;
-    AddressClassLookup* el = (AddressClassLookup*) _b;
-    void* pc = needle->start;
+static int addressMethodLookupCompareBSearch(const void* _a, const void* _b) {
+    void* pc = *((void**) _a);
+    AddressMethodLookup* el = (AddressMethodLookup*) _b;
     return (pc >= el->start && pc < el->end) ? 0 : ((pc < el->start) ? -1 : 1);
 }
 
-static int addressClassLookupCompareQSort(const void* _a, const void* _b) {
-    AddressClassLookup* a = (AddressClassLookup*) _a;
-    AddressClassLookup* b = (AddressClassLookup*) _b;
-    return (a->end <= b->start) ? -1 : 1;
+static int addressMethodLookupCompareQSort(const void* _a, const void* _b) {
+    AddressMethodLookup* a = (AddressMethodLookup*) _a;
+    AddressMethodLookup* b = (AddressMethodLookup*) _b;
+    return (a->start < b->start) ? -1 : ((a->start > b->start) ? 1 : 0);
 }
 
-static AddressClassLookup* getAddressClassLookups(Env* env) {
-    if (!addressClassLookups) {
+/*
+ * Returns a table with one entry per method with code, ordered by the start
+ * address of the code. The final addresses of the methods aren't known until
+ * the native linker has laid out the class object files so the table is 
+ * built and sorted on first use from the method infos in the ClassInfos.
+ */
+static AddressMethodLookup* getAddressMethodLookups(Env* env) {
+    if (!addressMethodLookups) {
         jint count = 0;
-        iterateClassInfos(env, countClassesWithConcreteMethodsCallback, _bcBootClassesHash, &count);
-        iterateClassInfos(env, countClassesWithConcreteMethodsCallback, _bcClassesHash, &count);
-        AddressClassLookup* lookups = rvmAllocateMemoryAtomicUncollectable(env, sizeof(AddressClassLookup) * count);
+        iterateClassInfos(env, countConcreteMethodsCallback, _bcBootClassesHash, &count);
+        iterateClassInfos(env, countConcreteMethodsCallback, _bcClassesHash, &count);
+        AddressMethodLookup* lookups = rvmAllocateMemoryAtomicUncollectable(env, sizeof(AddressMethodLookup) * count);
         if (!lookups) return NULL;
-        AddressClassLookup* _lookups = lookups;
-        iterateClassInfos(env, initAddressClassLookupsCallback, _bcBootClassesHash, &_lookups);
-        iterateClassInfos(env, initAddressClassLookupsCallback, _bcClassesHash, &_lookups);
-        qsort(lookups, count, sizeof(AddressClassLookup), addressClassLookupCompareQSort);
-        addressClassLookupsCount = count;
-        addressClassLookups = lookups;
+        AddressMethodLookup* _lookups = lookups;
+        iterateClassInfos(env, initAddressMethodLookupsCallback, _bcBootClassesHash, &_lookups);
+        iterateClassInfos(env, initAddressMethodLookupsCallback, _bcClassesHash, &_lookups);
+        qsort(lookups, count, sizeof(AddressMethodLookup), addressMethodLookupCompareQSort);
+        addressMethodLookupsCount = count;
+        addressMethodLookups = lookups;
     }
-    return addressClassLookups;
+    return addressMethodLookups;
 }
 
-Class* findClassAt(Env* env, void* pc) {
-    AddressClassLookup* lookups = getAddressClassLookups(env);
+static AddressMethodLookup* findAddressMethodLookup(Env* env, void* pc) {
+    AddressMethodLookup* lookups = getAddressMethodLookups(env);
     if (!lookups) return NULL;
-    AddressClassLookup needle = {NULL, pc, pc};
-    AddressClassLookup* result = bsearch(&needle, lookups, addressClassLookupsCount, sizeof(AddressClassLookup), addressClassLookupCompareBSearch);
-    if (!result) return NULL;
-    ClassInfoHeader* header = result->classInfoHeader;
+    return bsearch(&pc, lookups, addressMethodLookupsCount, sizeof(AddressMethodLookup), addressMethodLookupCompareBSearch);
+}
+
+static Class* getLookupClass(Env* env, AddressMethodLookup* lookup) {
+    ClassInfoHeader* header = lookup->classInfoHeader;
     Class* clazz = header->clazz;
     if (!clazz) {
         ClassLoader* loader = NULL;
@@ -406,6 +447,33 @@ Class* findClassAt(Env* env, void* pc) {
     return clazz;
 }
 
+Class* findClassAt(Env* env, void* pc) {
+    AddressMethodLookup* lookup = findAddressMethodLookup(env, pc);
+    if (!lookup) return NULL;
+    return getLookupClass(env, lookup);
+}
+
+Method* findMethodAt(Env* env, void* pc) {
+    AddressMethodLookup* lookup = findAddressMethodLookup(env, pc);
+    if (!lookup) return NULL;
+    if (lookup->method) {
+        return lookup->method;
+    }
+    Class* clazz = getLookupClass(env, lookup);
+    if (!clazz) return NULL;
+    Method* method = rvmGetMethods(env, clazz);
+    if (rvmExceptionCheck(env)) return NULL;
+    for (; method != NULL; method = method->next) {
+        if (method->impl == lookup->start) {
+            // Methods are never freed so it's safe to cache the Method here.
+            // Concurrent lookups will store the same value.
+            lookup->method = method;
+            return method;
+        }
+    }
+    return NULL;
+}
+
 jboolean exceptionMatch(Env* env, TrycatchContext* _tc) {
     BcTrycatchContext* tc = (BcTrycatchContext*) _tc;
     LandingPad* lps = tc->landingPads[tc->tc.sel - 1];
@@ -762,18 +830,6 @@ void _bcSetObjectArrayElement(Env* env, ObjectArray* array, jint index, Object*
 }
 
 
-Object* _bcLdcString(Env* env, Object** ptr, char* s, jint length) {
-    Object* o = *ptr;
-    if (o) return o;
-    ENTER;
-    o = rvmNewInternedStringUTF(env, s, length);
-    if (!rvmExceptionCheck(env)) {
-        *ptr = o;
-        rvmRegisterDisappearingLink(env, (void**) ptr, o);
-    }
-    LEAVE(o);
-}
-
 Object* _bcLdcArrayBootClass(Env* env, Class** arrayClassPtr, char* name) {
     Class* arrayClass = *arrayClassPtr;
     if (arrayClass) return (Object*) arrayClass;
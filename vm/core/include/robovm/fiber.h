@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef ROBOVM_FIBER_H
+#define ROBOVM_FIBER_H
+
+typedef struct Fiber Fiber;
+
+extern Fiber* rvmCreateFiber(Env* env, Object* fiberObj);
+extern jboolean rvmResumeFiber(Env* env, Fiber* fiber);
+extern void rvmSuspendFiber(Env* env);
+extern jboolean rvmFiberHoldsMonitors(Env* env);
+
+#endif
+
@@ -21,6 +21,8 @@ extern Class* rvmAllocateMemoryForClass(Env* env, jint classDataSize);
 extern Object* rvmAllocateMemoryForObject(Env* env, Class* clazz);
 extern jboolean rvmIsCriticalOutOfMemoryError(Env* env, Object* throwable);
 extern void rvmRegisterFinalizer(Env* env, Object* obj);
+extern void rvmWaitForPendingFinalizers(Env* env);
+extern Object* rvmRunPendingFinalizers(Env* env);
 extern void rvmRegisterReference(Env* env, Object* reference, Object* referent);
 extern void rvmRegisterDisappearingLink(Env* env, void** address, Object* obj);
 extern void rvmUnregisterDisappearingLink(Env* env, void** address);
@@ -35,6 +37,13 @@ extern jboolean rvmAddObjectGCRoot(Env* env, Object* object);
 extern jlong rvmGetFreeMemory(Env* env);
 extern jlong rvmGetTotalMemory(Env* env);
 extern jlong rvmGetMaxMemory(Env* env);
+extern jlong rvmGetGCCount(Env* env);
+extern jlong rvmGetGCTotalPauseTime(Env* env);
+extern jlong rvmGetGCLastPauseTime(Env* env);
+extern jlong rvmGetTotalBytesAllocated(Env* env);
+extern jboolean rvmWriteHeapProfile(Env* env, const char* path, jboolean append);
+extern void rvmStartAllocationSampling(Env* env, jint interval);
+extern void rvmStopAllocationSampling(Env* env);
 extern void* rvmCopyMemoryAtomic(Env* env, const void* src, size_t size);
 extern void* rvmCopyMemoryAtomicZ(Env* env, const char* src);
 extern Object* rvmNewDirectByteBuffer(Env* env, void* address, jlong capacity);
@@ -51,6 +51,7 @@ typedef struct TypeInfo TypeInfo;
 typedef struct ClassLoader ClassLoader;
 typedef struct DataObject DataObject;
 typedef struct Thread Thread;
+typedef struct FiberCarrier FiberCarrier;
 typedef struct JavaThread JavaThread;
 typedef struct Monitor Monitor;
 typedef struct Array Array;
@@ -251,6 +252,7 @@ struct JavaThread {
 
 struct Thread {
   jint threadId;
+  jint monitorDepth; // Number of monitors currently held. Must directly follow threadId (see header.ll).
   JavaThread* threadObj;
   struct Thread* waitNext;
   struct Thread* prev;
@@ -263,6 +265,7 @@ struct Thread {
   jint status;
   pthread_cond_t waitCond;
   sigset_t signalMask;
+  FiberCarrier* fiberCarrier; // Set while this thread runs a Fiber. Points into the stack so needs no GC scanning.
 };
 
 struct Array {
@@ -346,6 +349,15 @@ typedef struct Env Env;
 struct TrycatchContext;
 typedef struct TrycatchContext TrycatchContext;
 
+/*
+ * A String literal emitted by the compiler. string points to a complete
+ * java.lang.String object outside of the GC heap with a NULL class pointer.
+ */
+typedef struct StaticString {
+    const char* utf8;
+    Object* string;
+} StaticString;
+
 typedef struct Options {
     char* mainClass;
     char** commandLineArgs;
@@ -353,6 +365,15 @@ typedef struct Options {
     jint logLevel;
     jlong maxHeapSize;
     jlong initialHeapSize;
+    jint gcMarkers;
+    jint gcFreeSpaceDivisor;
+    jboolean gcIncremental;
+    jint finalizerThreads;
+    jint allocationSampleInterval;
+    char* heapProfileFile;
+    jboolean cpuProfile;
+    jint cpuProfileInterval;
+    char* cpuProfileFile;
     char basePath[PATH_MAX];
     char executablePath[PATH_MAX];
     char** rawBootclasspath; 
@@ -360,6 +381,7 @@ typedef struct Options {
     ClasspathEntry* bootclasspath;
     ClasspathEntry* classpath;
     jboolean dynamicJNI;
+    StaticString* staticStrings;
     Class* (*loadBootClass)(Env*, const char*, ClassLoader*);
     Class* (*loadUserClass)(Env*, const char*, ClassLoader*);
     void (*classInitialized)(Env*, Class*);
@@ -367,6 +389,8 @@ typedef struct Options {
     Field* (*loadFields)(Env*, Class*);
     Method* (*loadMethods)(Env*, Class*);
     Class* (*findClassAt)(Env*, void*);
+    Method* (*findMethodAt)(Env*, void*);
+    jint (*lookupResource)(Env*, const char*, jboolean, const jint**);
     jboolean (*exceptionMatch)(Env*, TrycatchContext*);
 } Options;
 
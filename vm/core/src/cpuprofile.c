@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <robovm.h>
+#include <string.h>
+#include <stdio.h>
+#include <time.h>
+#include <unistd.h>
+#include <sys/time.h>
+#include "private.h"
+#include "uthash.h"
+
+#define LOG_TAG "core.cpuprofile"
+
+/*
+ * A sampling CPU profiler. When enabled using
+ * -rvm:profile=cpu[,file=<path>][,interval=<ms>] an ITIMER_PROF timer is
+ * armed which makes the kernel send SIGPROF to the process at the specified
+ * interval of consumed CPU time. The signal handler in signal.c captures the
+ * raw pcs of the interrupted thread's call stack into a fixed size ring of
+ * sample slots without taking any locks or allocating any memory. A drain thread
+ * periodically moves ready samples out of the ring and aggregates identical
+ * stacks. The pcs are resolved to methods only when the profile is written
+ * at shutdown.
+ *
+ * The profile is written in the collapsed stack format used by flame graph
+ * tools (e.g. flamegraph.pl): one line per unique stack with the frames
+ * separated by ';', outermost frame first, followed by a space and the
+ * number of samples.
+ */
+
+#define CPU_PROFILE_DEFAULT_INTERVAL_MS 10
+#define CPU_PROFILE_MAX_DEPTH 64
+// Must be a power of 2
+#define CPU_PROFILE_RING_SIZE 1024
+#define CPU_PROFILE_DRAIN_INTERVAL_NS (20 * 1000000)
+
+#define SLOT_EMPTY   0
+#define SLOT_WRITING 1
+#define SLOT_READY   2
+
+typedef struct {
+    jint state;
+    CallStackFrame buffer[CPU_PROFILE_MAX_DEPTH + 1]; // Holds a CallStack
+} SampleSlot;
+
+typedef struct {
+    jint depth;
+    CallStackFrame frames[CPU_PROFILE_MAX_DEPTH];
+} StackKey;
+
+typedef struct {
+    StackKey key;
+    jlong count;
+    UT_hash_handle hh;
+} StackEntry;
+
+static SampleSlot* ring = NULL;
+static jint nextSlot = 0;
+static jint droppedSamples = 0;
+static jint running = FALSE;
+static StackEntry* stacks = NULL;
+static Mutex stacksLock;
+
+/*
+ * Records a sample of the call stack starting at the specified frame. Called
+ * from the SIGPROF handler in signal.c.
+ */
+void cpuProfileRecordSample(Env* env, Frame* fakeFrame) {
+    // NOTE: Everything done here must be async-signal-safe.
+    if (!rvmAtomicLoadInt(&running)) {
+        return;
+    }
+
+    jint index = (rvmAtomicAddInt(&nextSlot, 1) - 1) & (CPU_PROFILE_RING_SIZE - 1);
+    SampleSlot* slot = &ring[index];
+    if (!rvmAtomicCompareAndSwapInt(&slot->state, SLOT_EMPTY, SLOT_WRITING)) {
+        // The drain thread hasn't caught up
+        rvmAtomicAddInt(&droppedSamples, 1);
+        return;
+    }
+
+    CallStack* callStack = (CallStack*) slot->buffer;
+    callStack->length = 0;
+    captureCallStack(env, fakeFrame, callStack, CPU_PROFILE_MAX_DEPTH);
+    rvmAtomicStoreInt(&slot->state, SLOT_READY);
+}
+
+static void drainSamples() {
+    StackKey key;
+    jint i;
+    rvmLockMutex(&stacksLock);
+    for (i = 0; i < CPU_PROFILE_RING_SIZE; i++) {
+        SampleSlot* slot = &ring[i];
+        if (rvmAtomicLoadInt(&slot->state) != SLOT_READY) {
+            continue;
+        }
+        CallStack* callStack = (CallStack*) slot->buffer;
+        memset(&key, 0, sizeof(StackKey));
+        key.depth = callStack->length;
+        memcpy(key.frames, callStack->frames, sizeof(CallStackFrame) * callStack->length);
+        rvmAtomicStoreInt(&slot->state, SLOT_EMPTY);
+
+        StackEntry* entry = NULL;
+        HASH_FIND(hh, stacks, &key, sizeof(StackKey), entry);
+        if (!entry) {
+            entry = calloc(1, sizeof(StackEntry));
+            if (!entry) continue;
+            entry->key = key;
+            HASH_ADD(hh, stacks, key, sizeof(StackKey), entry);
+        }
+        entry->count++;
+    }
+    rvmUnlockMutex(&stacksLock);
+}
+
+static void* drainThreadEntryPoint(void* args) {
+    struct timespec ts = {0, CPU_PROFILE_DRAIN_INTERVAL_NS};
+    while (rvmAtomicLoadInt(&running)) {
+        nanosleep(&ts, NULL);
+        drainSamples();
+    }
+    return NULL;
+}
+
+jboolean initCpuProfile(Env* env) {
+    Options* options = env->vm->options;
+    if (rvmInitMutex(&stacksLock) != 0) {
+        return FALSE;
+    }
+    ring = calloc(CPU_PROFILE_RING_SIZE, sizeof(SampleSlot));
+    if (!ring) {
+        return FALSE;
+    }
+    if (!options->cpuProfileFile) {
+        char path[PATH_MAX];
+        snprintf(path, sizeof(path), "robovm-cpu-%d.txt", (int) getpid());
+        options->cpuProfileFile = strdup(path);
+    }
+
+    rvmAtomicStoreInt(&running, TRUE);
+
+    pthread_t thread;
+    pthread_attr_t attr;
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    if (pthread_create(&thread, &attr, drainThreadEntryPoint, NULL) != 0) {
+        pthread_attr_destroy(&attr);
+        return FALSE;
+    }
+    pthread_attr_destroy(&attr);
+
+    return TRUE;
+}
+
+/*
+ * Arms the ITIMER_PROF timer. The SIGPROF handler must have been installed
+ * before this is called.
+ */
+jboolean startCpuProfileTimer(Env* env) {
+    Options* options = env->vm->options;
+    jint intervalMs = options->cpuProfileInterval > 0 ? options->cpuProfileInterval : CPU_PROFILE_DEFAULT_INTERVAL_MS;
+    struct itimerval timer;
+    timer.it_interval.tv_sec = intervalMs / 1000;
+    timer.it_interval.tv_usec = (intervalMs % 1000) * 1000;
+    timer.it_value = timer.it_interval;
+    if (setitimer(ITIMER_PROF, &timer, NULL) != 0) {
+        return FALSE;
+    }
+
+    TRACEF("CPU profiler started. Sampling every %d ms of CPU time. Writing profile to '%s'",
+        intervalMs, options->cpuProfileFile);
+
+    return TRUE;
+}
+
+static void writeFrameName(FILE* f, Method* m) {
+    const char* s = m->clazz->name;
+    for (; *s; s++) {
+        fputc(*s == '/' ? '.' : *s, f);
+    }
+    fputc('.', f);
+    fputs(m->name, f);
+}
+
+/*
+ * Stops the profiler and writes the collected samples to the profile file.
+ * Called when the VM shuts down. Does nothing if the profiler isn't running.
+ */
+void writeCpuProfile(Env* env) {
+    if (!rvmAtomicCompareAndSwapInt(&running, TRUE, FALSE)) {
+        return;
+    }
+
+    struct itimerval timer;
+    memset(&timer, 0, sizeof(timer));
+    setitimer(ITIMER_PROF, &timer, NULL);
+
+    drainSamples();
+
+    const char* path = env->vm->options->cpuProfileFile;
+    FILE* f = fopen(path, "w");
+    if (!f) {
+        WARNF("Failed to open CPU profile file '%s'", path);
+        return;
+    }
+
+    jlong total = 0;
+    rvmLockMutex(&stacksLock);
+    StackEntry* entry;
+    for (entry = stacks; entry != NULL; entry = entry->hh.next) {
+        jboolean first = TRUE;
+        jint i;
+        // Frames were captured innermost first. Collapsed stacks are written
+        // outermost first.
+        for (i = entry->key.depth - 1; i >= 0; i--) {
+            Method* m = rvmResolveCallStackFrame(env, &entry->key.frames[i]);
+            rvmExceptionClear(env);
+            if (!m) {
+                continue;
+            }
+            if (!first) {
+                fputc(';', f);
+            }
+            writeFrameName(f, m);
+            first = FALSE;
+        }
+        if (first) {
+            fputs("[unknown]", f);
+        }
+        fprintf(f, " %lld\n", (long long) entry->count);
+        total += entry->count;
+    }
+    rvmUnlockMutex(&stacksLock);
+    fclose(f);
+
+    jint dropped = rvmAtomicLoadInt(&droppedSamples);
+    if (dropped > 0) {
+        WARNF("CPU profiler dropped %d of %lld samples", dropped, (long long) (total + dropped));
+    }
+}
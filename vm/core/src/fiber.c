@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <setjmp.h>
+#include <string.h>
+#include <alloca.h>
+#include <robovm.h>
+#include "private.h"
+
+/*
+ * Fibers are implemented by copying stacks. A fiber always runs on the stack 
+ * of the thread resuming it (the carrier), right below the frame of 
+ * enterFiber(). When the fiber suspends itself the part of the stack it uses
+ * is copied to the heap and the carrier continues after its call to 
+ * rvmResumeFiber(). Resuming copies the saved stack back to the very same 
+ * addresses. Since every frame ends up where it was created, pointers into the
+ * stack (GatewayFrames, TrycatchContexts, frame pointers) stay valid and 
+ * neither unwind.c nor the exception handling code has to know about fibers.
+ * The stack copies are allocated from the GC heap and are scanned 
+ * conservatively for heap pointers just like the stacks of threads.
+ *
+ * The restriction this imposes is that a fiber must always be resumed on the
+ * thread which started it and at the same stack depth. FiberScheduler makes 
+ * sure of this by always resuming fibers from the same call site in the run
+ * loop of its carrier threads. A switch costs a memcpy() of the used part of
+ * the fiber's stack which is typically a few kBs when a fiber parks.
+ */
+
+/* 
+ * Extra stack reserved below a saved stack when restoring it. It must cover
+ * the frames of restoreStack() and memcpy().
+ */
+#define RESTORE_STACK_PAD 1024
+
+struct Fiber {
+    Object* fiberObj;
+    Thread* thread;
+    char* base;
+    char* stackLow;
+    void* stackCopy;
+    size_t stackCopyCapacity;
+    GatewayFrame* gatewayFrames;
+    TrycatchContext* trycatchContext;
+    jboolean started;
+    jboolean finished;
+    jmp_buf context;
+};
+
+struct FiberCarrier {
+    Fiber* fiber;
+    jint monitorDepth;
+    GatewayFrame* gatewayFrames;
+    TrycatchContext* trycatchContext;
+    jmp_buf context;
+};
+
+static Method* runMethod = NULL;
+
+static void startFiber(Env* env, Fiber* fiber) __attribute__ ((noinline, noreturn));
+static void enterFiber(Env* env, Fiber* fiber) __attribute__ ((noinline));
+static void restoreStack(Fiber* fiber) __attribute__ ((noinline, noreturn));
+static jboolean saveStackAndLeave(Env* env, Fiber* fiber, FiberCarrier* carrier) __attribute__ ((noinline));
+
+Fiber* rvmCreateFiber(Env* env, Object* fiberObj) {
+    if (!runMethod) {
+        runMethod = rvmGetInstanceMethod(env, fiberObj->clazz, "run0", "()V");
+        if (!runMethod) return NULL;
+    }
+    // The Fiber must be scanned by the GC since it references the fiber's
+    // Java object and its saved stack. It is kept alive by the 'handle' field
+    // of the Java object (see markObject() in memory.c) so a parked fiber 
+    // which can no longer be reached is collected with its saved stack.
+    Fiber* fiber = rvmAllocateMemory(env, sizeof(Fiber));
+    if (!fiber) return NULL;
+    fiber->fiberObj = fiberObj;
+    return fiber;
+}
+
+static void startFiber(Env* env, Fiber* fiber) {
+    // The fiber's Java frames must not be unwound into the carrier's frames
+    // so it starts out with empty GatewayFrame and TrycatchContext chains.
+    env->gatewayFrames = NULL;
+    env->trycatchContext = NULL;
+    rvmCallVoidInstanceMethod(env, fiber->fiberObj, runMethod);
+    // Any uncaught exception is left pending and will be thrown by 
+    // rvmResumeFiber() in the carrier.
+    fiber->finished = TRUE;
+    _longjmp(env->currentThread->fiberCarrier->context, 1);
+}
+
+static void restoreStack(Fiber* fiber) {
+    memcpy(fiber->stackLow, fiber->stackCopy, fiber->base - fiber->stackLow);
+    _longjmp(fiber->context, 1);
+}
+
+static void enterFiber(Env* env, Fiber* fiber) {
+    // The fiber's stack starts right above our frame record
+    char* base = (char*) ((Frame*) __builtin_frame_address(0) + 1);
+    if (!fiber->started) {
+        fiber->started = TRUE;
+        fiber->base = base;
+        startFiber(env, fiber);
+    }
+    if (base != fiber->base) {
+        // Resumed at another stack depth than it was started at
+        return;
+    }
+    // Move our stack pointer below the stack being restored before copying
+    // or memcpy() would overwrite its own frame. The volatile store keeps the
+    // compiler from optimizing the alloca() away.
+    volatile char* pad = alloca(fiber->base - fiber->stackLow + RESTORE_STACK_PAD);
+    pad[0] = 0;
+    restoreStack(fiber);
+}
+
+/*
+ * Resumes the specified Fiber on the current thread. Returns when the Fiber
+ * suspends itself or has finished. Returns TRUE if the Fiber has finished.
+ */
+jboolean rvmResumeFiber(Env* env, Fiber* fiber) {
+    Thread* thread = env->currentThread;
+    if (fiber->finished) {
+        rvmThrowNew(env, java_lang_IllegalStateException, "Fiber has finished");
+        return FALSE;
+    }
+    if (thread->fiberCarrier) {
+        rvmThrowNew(env, java_lang_IllegalStateException, "Fibers cannot resume other fibers");
+        return FALSE;
+    }
+    if (!fiber->thread) {
+        fiber->thread = thread;
+    } else if (fiber->thread != thread) {
+        rvmThrowNew(env, java_lang_IllegalStateException, "Fiber resumed by another thread than the one which started it");
+        return FALSE;
+    }
+
+    FiberCarrier carrier;
+    carrier.fiber = fiber;
+    carrier.monitorDepth = thread->monitorDepth;
+    carrier.gatewayFrames = env->gatewayFrames;
+    carrier.trycatchContext = env->trycatchContext;
+    thread->fiberCarrier = &carrier;
+    if (!_setjmp(carrier.context)) {
+        enterFiber(env, fiber);
+        // enterFiber() only returns if the fiber cannot be resumed here
+        thread->fiberCarrier = NULL;
+        rvmThrowNew(env, java_lang_IllegalStateException, "Fiber resumed at another stack depth than the one it was started at");
+        return FALSE;
+    }
+    // The fiber has suspended itself or finished
+    thread->fiberCarrier = NULL;
+    env->gatewayFrames = carrier.gatewayFrames;
+    env->trycatchContext = carrier.trycatchContext;
+    return fiber->finished;
+}
+
+static jboolean saveStackAndLeave(Env* env, Fiber* fiber, FiberCarrier* carrier) {
+    // Our own frame is below the frame of rvmSuspendFiber() which is where
+    // the fiber continues when resumed.
+    char* low = (char*) __builtin_frame_address(0);
+    size_t size = fiber->base - low;
+    if (size > fiber->stackCopyCapacity) {
+        // Not atomic memory. The saved stack must be scanned by the GC.
+        void* stackCopy = rvmAllocateMemory(env, size);
+        if (!stackCopy) return FALSE;
+        fiber->stackCopy = stackCopy;
+        fiber->stackCopyCapacity = size;
+    }
+    memcpy(fiber->stackCopy, low, size);
+    fiber->stackLow = low;
+    _longjmp(carrier->context, 1);
+}
+
+/*
+ * Returns TRUE if the Fiber running on the current thread has entered
+ * monitors it hasn't exited yet. Monitors are owned by the carrier thread so
+ * another Fiber run by the carrier could enter them if the Fiber suspended 
+ * itself.
+ */
+jboolean rvmFiberHoldsMonitors(Env* env) {
+    Thread* thread = env->currentThread;
+    FiberCarrier* carrier = thread->fiberCarrier;
+    return carrier && thread->monitorDepth != carrier->monitorDepth;
+}
+
+/*
+ * Suspends the Fiber running on the current thread and returns to the 
+ * thread's call to rvmResumeFiber(). Returns when the Fiber has been resumed
+ * again. Throws IllegalMonitorStateException if the Fiber holds monitors.
+ */
+void rvmSuspendFiber(Env* env) {
+    FiberCarrier* carrier = env->currentThread->fiberCarrier;
+    if (!carrier) {
+        rvmThrowNew(env, java_lang_IllegalStateException, "Not called from a fiber");
+        return;
+    }
+    if (rvmFiberHoldsMonitors(env)) {
+        rvmThrowIllegalMonitorStateException(env, "Fiber cannot be suspended while holding monitors");
+        return;
+    }
+    Fiber* fiber = carrier->fiber;
+    fiber->gatewayFrames = env->gatewayFrames;
+    fiber->trycatchContext = env->trycatchContext;
+    if (!_setjmp(fiber->context)) {
+        saveStackAndLeave(env, fiber, carrier);
+        // saveStackAndLeave() only returns if the stack couldn't be saved.
+        // An OutOfMemoryError is pending.
+        return;
+    }
+    // Resumed. rvmResumeFiber() has reset the carrier's chains.
+    env->gatewayFrames = fiber->gatewayFrames;
+    env->trycatchContext = fiber->trycatchContext;
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <robovm.h>
+#include <string.h>
+#include <stdio.h>
+#include <sys/time.h>
+#include "private.h"
+#include "uthash.h"
+
+#define LOG_TAG "core.heapprofile"
+
+/*
+ * Heap profiles are written as plain text, one record per line. A profile
+ * starts with a 'P' line and consists of a histogram section and an optional
+ * allocation sites section:
+ *
+ *   P <version> <timestamp in ms>
+ *   H <instance count> <total bytes> <class name>
+ *   S <sample interval in bytes>
+ *   A <sample count> <sampled bytes> <class name> <frame count>
+ *   F <class name> <method name> <method descriptor>
+ *   E
+ *
+ * Each A record is followed by its F records, innermost frame first. Class
+ * names are written in internal form (e.g. java/lang/String, [I). The
+ * org.robovm.compiler.profiler.HeapProfileReport tool in the compiler turns
+ * such files into human readable reports.
+ */
+#define HEAP_PROFILE_VERSION 1
+
+// The max number of frames recorded for each allocation sample.
+#define ALLOCATION_SAMPLE_MAX_DEPTH 32
+
+typedef struct ClassHistogramEntry {
+    Class* clazz;
+    jlong instances;
+    jlong bytes;
+    UT_hash_handle hh;
+} ClassHistogramEntry;
+
+typedef struct AllocationSiteKey {
+    Class* clazz;
+    jint depth;
+    // Unresolved frames. method is NULL unless the frame is a ProxyMethod.
+    CallStackFrame frames[ALLOCATION_SAMPLE_MAX_DEPTH];
+} AllocationSiteKey;
+
+typedef struct AllocationSite {
+    AllocationSiteKey key;
+    jlong samples;
+    jlong bytes;
+    UT_hash_handle hh;
+} AllocationSite;
+
+jint heapProfileSampleInterval = 0;
+static jint sampleBytesLeft = 0;
+static AllocationSite* allocationSites = NULL;
+static Mutex allocationSitesLock;
+
+jboolean initHeapProfile(Options* options) {
+    if (rvmInitMutex(&allocationSitesLock) != 0) {
+        return FALSE;
+    }
+    if (options->allocationSampleInterval > 0) {
+        rvmStartAllocationSampling(NULL, options->allocationSampleInterval);
+    }
+    return TRUE;
+}
+
+void rvmStartAllocationSampling(Env* env, jint interval) {
+    rvmAtomicStoreInt(&sampleBytesLeft, interval);
+    rvmAtomicStoreInt(&heapProfileSampleInterval, interval);
+}
+
+void rvmStopAllocationSampling(Env* env) {
+    rvmAtomicStoreInt(&heapProfileSampleInterval, 0);
+}
+
+void heapProfileSampleAllocation(Env* env, Class* clazz, size_t size) {
+    jint interval = heapProfileSampleInterval;
+    if (interval <= 0) return;
+
+    jint left = rvmAtomicAddInt(&sampleBytesLeft, -((jint) size));
+    if (left > 0 || left + (jint) size <= 0) {
+        // Either we haven't reached the next sample point yet or some other
+        // thread already crossed it and is recording the sample.
+        return;
+    }
+    rvmAtomicStoreInt(&sampleBytesLeft, interval);
+
+    // Capture the call stack into a buffer on the C stack. We must not
+    // allocate GCed memory here since we're called from the allocator.
+    CallStackFrame buffer[ALLOCATION_SAMPLE_MAX_DEPTH + 1];
+    CallStack* callStack = (CallStack*) buffer;
+    callStack->length = 0;
+    captureCallStack(env, NULL, callStack, ALLOCATION_SAMPLE_MAX_DEPTH);
+
+    AllocationSiteKey key;
+    memset(&key, 0, sizeof(AllocationSiteKey));
+    key.clazz = clazz;
+    key.depth = callStack->length;
+    memcpy(key.frames, callStack->frames, sizeof(CallStackFrame) * callStack->length);
+
+    rvmLockMutex(&allocationSitesLock);
+    AllocationSite* site = NULL;
+    HASH_FIND(hh, allocationSites, &key, sizeof(AllocationSiteKey), site);
+    if (!site) {
+        site = calloc(1, sizeof(AllocationSite));
+        if (!site) {
+            rvmUnlockMutex(&allocationSitesLock);
+            return;
+        }
+        site->key = key;
+        HASH_ADD(hh, allocationSites, key, sizeof(AllocationSiteKey), site);
+    }
+    site->samples++;
+    site->bytes += size;
+    rvmUnlockMutex(&allocationSitesLock);
+}
+
+static void histogramCallback(Object* obj, size_t size, void* data) {
+    // NOTE: This is called with the GC's allocation lock held. We must not
+    // allocate GCed memory here.
+    ClassHistogramEntry** histogram = (ClassHistogramEntry**) data;
+    Class* clazz = obj->clazz;
+    ClassHistogramEntry* entry = NULL;
+    HASH_FIND_PTR(*histogram, &clazz, entry);
+    if (!entry) {
+        entry = calloc(1, sizeof(ClassHistogramEntry));
+        if (!entry) return;
+        entry->clazz = clazz;
+        HASH_ADD_PTR(*histogram, clazz, entry);
+    }
+    entry->instances++;
+    entry->bytes += size;
+}
+
+static int compareHistogramEntries(ClassHistogramEntry* a, ClassHistogramEntry* b) {
+    return a->bytes < b->bytes ? 1 : (a->bytes > b->bytes ? -1 : 0);
+}
+
+static int compareAllocationSites(AllocationSite* a, AllocationSite* b) {
+    return a->bytes < b->bytes ? 1 : (a->bytes > b->bytes ? -1 : 0);
+}
+
+static void writeHistogram(Env* env, FILE* f) {
+    ClassHistogramEntry* histogram = NULL;
+    gcApplyToEachLiveObject(histogramCallback, &histogram);
+    HASH_SORT(histogram, compareHistogramEntries);
+
+    ClassHistogramEntry* entry;
+    ClassHistogramEntry* tmp;
+    HASH_ITER(hh, histogram, entry, tmp) {
+        fprintf(f, "H %lld %lld %s\n", (long long) entry->instances, (long long) entry->bytes, entry->clazz->name);
+        HASH_DEL(histogram, entry);
+        free(entry);
+    }
+}
+
+static void writeAllocationSites(Env* env, FILE* f) {
+    // Copy the sites while holding the lock. Resolving frames may load
+    // classes and methods which could trigger new samples.
+    rvmLockMutex(&allocationSitesLock);
+    jint count = HASH_COUNT(allocationSites);
+    AllocationSite* sites = count > 0 ? malloc(sizeof(AllocationSite) * count) : NULL;
+    if (sites) {
+        HASH_SORT(allocationSites, compareAllocationSites);
+        AllocationSite* site;
+        jint i = 0;
+        for (site = allocationSites; site != NULL; site = site->hh.next) {
+            sites[i++] = *site;
+        }
+    }
+    rvmUnlockMutex(&allocationSitesLock);
+    if (!sites) return;
+
+    fprintf(f, "S %d\n", heapProfileSampleInterval);
+    jint i, j;
+    for (i = 0; i < count; i++) {
+        AllocationSite* site = &sites[i];
+        fprintf(f, "A %lld %lld %s %d\n", (long long) site->samples, (long long) site->bytes,
+            site->key.clazz->name, site->key.depth);
+        for (j = 0; j < site->key.depth; j++) {
+            Method* m = rvmResolveCallStackFrame(env, &site->key.frames[j]);
+            rvmExceptionClear(env);
+            if (m) {
+                fprintf(f, "F %s %s %s\n", m->clazz->name, m->name, m->desc);
+            } else {
+                fprintf(f, "F ? ? ?\n");
+            }
+        }
+    }
+    free(sites);
+}
+
+jboolean rvmWriteHeapProfile(Env* env, const char* path, jboolean append) {
+    FILE* f = fopen(path, append ? "a" : "w");
+    if (!f) {
+        WARNF("Failed to open heap profile file '%s'", path);
+        return FALSE;
+    }
+
+    struct timeval tv;
+    gettimeofday(&tv, NULL);
+    fprintf(f, "P %d %lld\n", HEAP_PROFILE_VERSION, tv.tv_sec * 1000LL + tv.tv_usec / 1000);
+    writeHistogram(env, f);
+    writeAllocationSites(env, f);
+    fprintf(f, "E\n");
+    fclose(f);
+    return TRUE;
+}
@@ -49,6 +49,30 @@ static char* absolutize(char* basePath, char* rel, char* dest) {
     return dest;
 }
 
+static jlong parseMemorySize(char* s) {
+    char* unit;
+    jlong n = strtol(s, &unit, 10);
+    if (n > 0) {
+        if (unit[0] != '\0') {
+            switch (unit[0]) {
+            case 'g':
+            case 'G':
+                n *= 1024 * 1024 * 1024;
+                break;
+            case 'm':
+            case 'M':
+                n *= 1024 * 1024;
+                break;
+            case 'k':
+            case 'K':
+                n *= 1024;
+                break;
+            }
+        }
+    }
+    return n;
+}
+
 static jboolean ignoreSignal(int signo) {
     if (signal(signo, SIG_IGN) == SIG_ERR) {
         return FALSE;
@@ -107,31 +131,52 @@ jboolean rvmInitOptions(int argc, char* argv[], Options* options, jboolean ignor
                 } else if (startsWith(arg, "log=silent")) {
                     if (options->logLevel == 0) options->logLevel = LOG_LEVEL_SILENT;
                 } else if (startsWith(arg, "mx") || startsWith(arg, "ms")) {
-                    char* unit;
-                    jlong n = strtol(&arg[2], &unit, 10);
-                    if (n > 0) {
-                        if (unit[0] != '\0') {
-                            switch (unit[0]) {
-                            case 'g':
-                            case 'G':
-                                n *= 1024 * 1024 * 1024;
-                                break;
-                            case 'm':
-                            case 'M':
-                                n *= 1024 * 1024;
-                                break;
-                            case 'k':
-                            case 'K':
-                                n *= 1024;
-                                break;
-                            }
-                        }
-                    }
+                    jlong n = parseMemorySize(&arg[2]);
                     if (startsWith(arg, "mx")) {
                         options->maxHeapSize = n;
                     } else {
                         options->initialHeapSize = n;
                     }
+                } else if (startsWith(arg, "gcMarkers=")) {
+                    jint n = strtol(&arg[10], NULL, 10);
+                    if (n > 0) {
+                        options->gcMarkers = n;
+                    }
+                } else if (startsWith(arg, "gcFreeSpaceDivisor=")) {
+                    jint n = strtol(&arg[19], NULL, 10);
+                    if (n > 0) {
+                        options->gcFreeSpaceDivisor = n;
+                    }
+                } else if (startsWith(arg, "finalizerThreads=")) {
+                    jint n = strtol(&arg[17], NULL, 10);
+                    if (n > 0) {
+                        options->finalizerThreads = n;
+                    }
+                } else if (startsWith(arg, "gcIncremental")) {
+                    options->gcIncremental = TRUE;
+                } else if (startsWith(arg, "allocSampleInterval=")) {
+                    jlong n = parseMemorySize(&arg[20]);
+                    if (n > 0 && n <= 0x7fffffff) {
+                        options->allocationSampleInterval = (jint) n;
+                    }
+                } else if (startsWith(arg, "profile=cpu")) {
+                    options->cpuProfile = TRUE;
+                    // Parse optional ,file=<path> and ,interval=<ms> parameters
+                    char* p = strchr(arg, ',');
+                    while (p) {
+                        p++;
+                        char* next = strchr(p, ',');
+                        if (startsWith(p, "file=")) {
+                            options->cpuProfileFile = next ? strndup(&p[5], next - p - 5) : strdup(&p[5]);
+                        } else if (startsWith(p, "interval=")) {
+                            options->cpuProfileInterval = strtol(&p[9], NULL, 10);
+                        }
+                        p = next;
+                    }
+                } else if (startsWith(arg, "heapProfileFile=")) {
+                    if (!options->heapProfileFile) {
+                        options->heapProfileFile = strdup(&arg[16]);
+                    }
                 } else if (startsWith(arg, "MainClass=")) {
                     if (!options->mainClass) {
                         char* s = strdup(&arg[10]);
@@ -298,11 +343,25 @@ jboolean rvmRun(Env* env) {
 
     rvmJoinNonDaemonThreads(env);
 
+    if (options->cpuProfile) {
+        // Reattach to resolve the profiled methods
+        Env* profileEnv = NULL;
+        if (rvmAttachCurrentThread(env->vm, &profileEnv, NULL, NULL) == JNI_OK) {
+            writeCpuProfile(profileEnv);
+            rvmDetachCurrentThread(env->vm, TRUE, FALSE);
+        }
+    }
+
     return throwable == NULL ? TRUE : FALSE;
 }
 
 void rvmShutdown(Env* env, jint code) {
     // TODO: Cleanup, stop threads.
+    if (env->vm->options->cpuProfile && rvmGetEnv()) {
+        // System.exit() was called. Write the profile now since rvmRun() 
+        // won't return.
+        writeCpuProfile(rvmGetEnv());
+    }
     exit(code);
 }
 
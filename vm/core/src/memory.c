@@ -16,6 +16,13 @@
 #include <robovm.h>
 #include <string.h>
 #include <stdint.h>
+#include <stdlib.h>
+#include <stdio.h>
+#include <time.h>
+#include <sys/time.h>
+#if defined(DARWIN)
+#   include <mach/mach_time.h>
+#endif
 #include <gc/gc_mark.h>
 #include "private.h"
 #include "uthash.h"
@@ -40,11 +47,11 @@ static Class* java_lang_ref_SoftReference = NULL;
 static Class* java_lang_ref_FinalizerReference = NULL;
 static Method* java_lang_ref_FinalizerReference_add = NULL;
 static InstanceField* java_lang_ref_FinalizerReference_zombie = NULL;
-static Class* java_lang_ref_ReferenceQueue = NULL;
-static Method* java_lang_ref_ReferenceQueue_add = NULL;
 static InstanceField* java_lang_Throwable_stackState = NULL;
 static Class* org_robovm_rt_bro_Struct = NULL;
 static InstanceField* org_robovm_rt_bro_Struct_handle = NULL;
+static Class* org_robovm_rt_Fiber = NULL;
+static InstanceField* org_robovm_rt_Fiber_handle = NULL;
 static Class* java_nio_MemoryBlock = NULL;
 static InstanceField* java_nio_MemoryBlock_address = NULL;
 static VM* vm = NULL;
@@ -85,6 +92,30 @@ static jint objectGCRootsSize = 0;
 static Mutex referentsLock;
 static Mutex gcRootsLock;
 
+// The GC runs finalizers on demand only. finalizerNotifier() sets 
+// finalizersPending and signals pendingFinalizersCond when the GC has found 
+// unreachable objects which need finalization. The thread calling 
+// rvmRunPendingFinalizers() then runs all of them and collects the cleared 
+// references in the list pointed to by clearedReferencesBatch.
+static Mutex pendingFinalizersLock;
+static pthread_cond_t pendingFinalizersCond;
+static jboolean finalizersPending = FALSE;
+static Mutex runFinalizersLock;
+static Object** clearedReferencesBatch = NULL; // Points to a local on the stack of the thread holding runFinalizersLock
+
+// GC pause statistics. A pause starts when the GC calls gcStartCallback() at the
+// beginning of a collection and ends when the allocation or GC_gcollect() call
+// which triggered the collection returns. Collections run synchronously on the
+// triggering thread so this is the time that thread was held up, which
+// includes the time the world was stopped. The 64-bit values are only accessed
+// with the GC's allocation lock held to avoid torn reads on 32-bit targets.
+// gcCollecting is set by gcStartCallback() and lets the allocation functions
+// check for a finished collection without taking the lock.
+static jlong gcPauseStartTime = 0;
+static jlong gcLastPauseTime = 0;
+static jlong gcTotalPauseTime = 0;
+static volatile jint gcCollecting = 0;
+
 // The GC kind used when allocating Objects (and Classes which are also Objects)
 static uint32_t objectGCKind;
 // The GC kind used when allocating large arrays
@@ -172,6 +203,13 @@ static struct GC_ms_entry* markObject(GC_word* addr, struct GC_ms_entry* mark_st
                 void** field_start = (void**) (((char*) obj) + org_robovm_rt_bro_Struct_handle->offset);
                 void** field_end = (void**) (((char*) field_start) + sizeof(jlong));
                 mark_stack_ptr = markRegion(field_start, field_end, mark_stack_ptr, mark_stack_limit);
+            } else if (clazz == org_robovm_rt_Fiber) {
+                // The 'handle' field in org.robovm.rt.Fiber is a long but contains
+                // a pointer to the Fiber struct on the GCed heap. Fiber is 
+                // finalizable and thus allocated with objectGCKind.
+                void** field_start = (void**) (((char*) obj) + org_robovm_rt_Fiber_handle->offset);
+                void** field_end = (void**) (((char*) field_start) + sizeof(jlong));
+                mark_stack_ptr = markRegion(field_start, field_end, mark_stack_ptr, mark_stack_limit);
             } else if (clazz == java_nio_MemoryBlock) {
                 // The 'address' field in java.nio.MemoryBlock is an int but contains a pointer.
                 // Possibly to an address on the GCed heap.
@@ -247,9 +285,108 @@ void gcHeapDump() {
     GC_apply_to_each_live_object(heapDumpCallback, NULL);
 }
 
+typedef struct {
+    void (*callback)(Object*, size_t, void*);
+    void* data;
+} ApplyToEachLiveObjectArgs;
+
+static void applyToEachLiveObjectCallback(void* ptr, unsigned char kind, size_t sz, void* data) {
+    if (kind == objectGCKind || kind == largeArrayGCKind || kind == atomicObjectGCKind) {
+        Object* obj = (Object*) ptr;
+        if (obj->clazz == NULL || obj->clazz->object.clazz != java_lang_Class) {
+            // Not a valid Object. See the comment in markObject().
+            return;
+        }
+        ApplyToEachLiveObjectArgs* args = (ApplyToEachLiveObjectArgs*) data;
+        args->callback(obj, sz, args->data);
+    }
+}
+
+/*
+ * Calls the specified callback for each live Object (including Classes and
+ * arrays) on the heap. The callback is called with the GC's allocation lock
+ * held and must not allocate GCed memory.
+ */
+void gcApplyToEachLiveObject(void (*callback)(Object*, size_t, void*), void* data) {
+    ApplyToEachLiveObjectArgs args = {callback, data};
+    GC_apply_to_each_live_object(applyToEachLiveObjectCallback, &args);
+}
+
+static jlong nanoTime() {
+#if defined(DARWIN)
+    static mach_timebase_info_data_t info = {0, 0};
+    if (info.denom == 0) {
+        mach_timebase_info(&info);
+    }
+    uint64_t t = mach_absolute_time();
+    t *= info.numer;
+    t /= info.denom;
+    return (jlong) t;
+#else
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (jlong) ts.tv_sec * 1000000000LL + ts.tv_nsec;
+#endif
+}
+
+static void gcStartCallback(void) {
+    // Called with the allocation lock held. Must not allocate.
+    gcPauseStartTime = nanoTime();
+    gcCollecting = 1;
+}
+
+static void* endPause(void* data) {
+    // Called with the allocation lock held.
+    if (gcPauseStartTime > 0) {
+        gcLastPauseTime = nanoTime() - gcPauseStartTime;
+        gcTotalPauseTime += gcLastPauseTime;
+        gcPauseStartTime = 0;
+    }
+    gcCollecting = 0;
+    return NULL;
+}
+
+static inline void endPauseIfCollected(void) {
+    if (gcCollecting) {
+        GC_call_with_alloc_lock(endPause, NULL);
+    }
+}
+
+typedef struct {
+    jlong lastPauseTime;
+    jlong totalPauseTime;
+} PauseStats;
+
+static void* readPauseStats(void* data) {
+    PauseStats* stats = (PauseStats*) data;
+    stats->lastPauseTime = gcLastPauseTime;
+    stats->totalPauseTime = gcTotalPauseTime;
+    return NULL;
+}
+
+static void finalizerNotifier(void) {
+    // Called by the GC on the thread which triggered a collection if there
+    // are objects ready for finalization. Wake up the thread waiting in 
+    // rvmWaitForPendingFinalizers().
+    rvmLockMutex(&pendingFinalizersLock);
+    finalizersPending = TRUE;
+    pthread_cond_signal(&pendingFinalizersCond);
+    rvmUnlockMutex(&pendingFinalizersLock);
+}
+
 jboolean initGC(Options* options) {
+    if (options->gcMarkers > 0) {
+        // The number of parallel mark threads is read from the GC_MARKERS
+        // environment variable when the GC initializes its thread support.
+        // A value of 1 disables parallel marking.
+        char markers[16];
+        snprintf(markers, sizeof(markers), "%d", options->gcMarkers);
+        setenv("GC_MARKERS", markers, 1);
+    }
+
     GC_set_no_dls(1);
     GC_set_java_finalization(1);
+    GC_set_finalize_on_demand(1);
     GC_INIT();
     if (options->maxHeapSize > 0) {
         GC_set_max_heap_size(options->maxHeapSize);
@@ -260,6 +397,20 @@ jboolean initGC(Options* options) {
             GC_expand_hp(options->initialHeapSize - now);
         }
     }
+    if (options->gcFreeSpaceDivisor > 0) {
+        GC_set_free_space_divisor(options->gcFreeSpaceDivisor);
+    }
+    if (options->gcIncremental) {
+        // NOTE: This is a no-op if the GC has been compiled with 
+        // GC_DISABLE_INCREMENTAL.
+        GC_enable_incremental();
+    }
+
+    GC_set_start_callback(gcStartCallback);
+
+    if (!initHeapProfile(options)) {
+        return FALSE;
+    }
 
     objectGCKind = GC_new_kind(GC_new_free_list(), GC_MAKE_PROC(GC_new_proc(markObject), 0), 0, 1);
     largeArrayGCKind = GC_new_kind(GC_new_free_list(), GC_DS_LENGTH, 1, 1);
@@ -272,6 +423,16 @@ jboolean initGC(Options* options) {
     if (rvmInitMutex(&gcRootsLock) != 0) {
         return FALSE;
     }
+    if (rvmInitMutex(&pendingFinalizersLock) != 0) {
+        return FALSE;
+    }
+    if (rvmInitMutex(&runFinalizersLock) != 0) {
+        return FALSE;
+    }
+    if (pthread_cond_init(&pendingFinalizersCond, NULL) != 0) {
+        return FALSE;
+    }
+    GC_set_finalizer_notifier(finalizerNotifier);
 
     GC_set_warn_proc(gcWarnProc);
     GC_allow_register_threads();
@@ -309,6 +470,7 @@ static void* gcAllocateKind(size_t size, uint32_t kind) {
         GC_gcollect();
         m = GC_generic_malloc(size, kind);
     }
+    endPauseIfCollected();
     return m;
 }
 void* gcAllocate(size_t size) {
@@ -318,6 +480,7 @@ void* gcAllocate(size_t size) {
         GC_gcollect();
         m = GC_MALLOC(size);
     }
+    endPauseIfCollected();
     return m;
 }
 void* gcAllocateUncollectable(size_t size) {
@@ -327,6 +490,7 @@ void* gcAllocateUncollectable(size_t size) {
         GC_gcollect();
         m = GC_MALLOC_UNCOLLECTABLE(size);
     }
+    endPauseIfCollected();
     return m;
 }
 void* gcAllocateAtomic(size_t size) {
@@ -336,6 +500,7 @@ void* gcAllocateAtomic(size_t size) {
         GC_gcollect();
         m = GC_MALLOC_ATOMIC(size);
     }
+    endPauseIfCollected();
     if (m) {
         memset(m, 0, size);
     }
@@ -348,6 +513,7 @@ void* gcAllocateAtomicUncollectable(size_t size) {
         GC_gcollect();
         m = GC_MALLOC_ATOMIC_UNCOLLECTABLE(size);
     }
+    endPauseIfCollected();
     if (m) {
         memset(m, 0, size);
     }
@@ -373,6 +539,22 @@ static void enqueuePendingReference(Env* env, Object* ref, Object** list) {
     }
 }
 
+/*
+ * Appends the circular queue of references src to the circular queue list.
+ */
+static void appendPendingReferences(Env* env, Object* src, Object** list) {
+    if (*list == NULL) {
+        *list = src;
+    } else {
+        // Same as ReferenceQueue.add() used to do: swap the pendingNext 
+        // pointers of the two tails.
+        Object* next = rvmGetObjectInstanceFieldValue(env, *list, java_lang_ref_Reference_pendingNext);
+        Object* srcNext = rvmGetObjectInstanceFieldValue(env, src, java_lang_ref_Reference_pendingNext);
+        rvmSetObjectInstanceFieldValue(env, *list, java_lang_ref_Reference_pendingNext, srcNext);
+        rvmSetObjectInstanceFieldValue(env, src, java_lang_ref_Reference_pendingNext, next);
+    }
+}
+
 /*
  * Removes the reference at the head of a circular queue of
  * references.
@@ -535,20 +717,21 @@ static void finalizeObject(Env* env, Object* obj) {
     // next time it gets finalized we know it will never be resurrected.
     GC_REGISTER_FINALIZER_NO_ORDER(obj, _finalizeObject, NULL, NULL, NULL);
 
-    rvmUnlockMutex(&referentsLock);
-
     if (clearedReferences != NULL) {
-        rvmCallVoidClassMethod(env, java_lang_ref_ReferenceQueue, java_lang_ref_ReferenceQueue_add, clearedReferences);
-        assert(rvmExceptionOccurred(env) == NULL);
+        // Hand over the cleared references to Java together with the ones of
+        // all other objects finalized by this call to rvmRunPendingFinalizers()
+        assert(clearedReferencesBatch != NULL);
+        appendPendingReferences(env, clearedReferences, clearedReferencesBatch);
     }
+
+    rvmUnlockMutex(&referentsLock);
 }
 
 static void _finalizeObject(GC_PTR addr, GC_PTR client_data) {
     Object* obj = (Object*) addr;
     Env* env = rvmGetEnv();
-    // When attaching a thread (except the main thread) there's a slight chance that the call to rvmCreateEnv()
-    // first triggers a GC. If there are finalize objects this function will be called with no Env associated 
-    // with the current thread. In such cases we reregister the object for finalization and it will be finalized later.
+    // Finalizers are only run by rvmRunPendingFinalizers() so there should always be an Env. If there isn't we
+    // reregister the object for finalization and it will be finalized later.
     if (env) {
         finalizeObject(env, obj);
     } else {
@@ -556,6 +739,35 @@ static void _finalizeObject(GC_PTR addr, GC_PTR client_data) {
     }
 }
 
+/*
+ * Blocks until the GC has found objects ready for finalization.
+ */
+void rvmWaitForPendingFinalizers(Env* env) {
+    rvmLockMutex(&pendingFinalizersLock);
+    while (!finalizersPending && !GC_should_invoke_finalizers()) {
+        pthread_cond_wait(&pendingFinalizersCond, &pendingFinalizersLock);
+    }
+    finalizersPending = FALSE;
+    rvmUnlockMutex(&pendingFinalizersLock);
+}
+
+/*
+ * Runs the VM side of finalization for all objects the GC has found ready for
+ * finalization: references to them are cleared and FinalizerReferences get
+ * their zombie fields set. Returns the references which should be enqueued
+ * as a single circular list linked through pendingNext or NULL if there are
+ * none.
+ */
+Object* rvmRunPendingFinalizers(Env* env) {
+    Object* clearedReferences = NULL;
+    rvmLockMutex(&runFinalizersLock);
+    clearedReferencesBatch = &clearedReferences;
+    GC_invoke_finalizers();
+    clearedReferencesBatch = NULL;
+    rvmUnlockMutex(&runFinalizersLock);
+    return clearedReferences;
+}
+
 void rvmRegisterFinalizer(Env* env, Object* obj) {
     // Call java.lang.FinalizerReference.add(obj)
     // A FinalizerReference will be created for obj and that reference will be registered using rvmRegisterReference().
@@ -597,7 +809,8 @@ done:
 }
 
 void rvmRegisterReference(Env* env, Object* reference, Object* referent) {
-    if (referent) {
+    // Objects outside the heap (e.g. String literals) never become unreachable.
+    if (referent && GC_base(referent)) {
         // Add 'reference' to the references list for 'referent' in the referents hashtable
         rvmLockMutex(&referentsLock);
 
@@ -617,6 +830,10 @@ done:
 }
 
 void rvmRegisterDisappearingLink(Env* env, void** address, Object* obj) {
+    if (!GC_base(obj)) {
+        // Objects outside the heap (e.g. String literals) never disappear.
+        return;
+    }
     GC_GENERAL_REGISTER_DISAPPEARING_LINK(address, obj);
 }
 
@@ -649,10 +866,6 @@ jboolean rvmInitMemory(Env* env) {
     if (!java_lang_ref_FinalizerReference_add) return FALSE;
     java_lang_ref_FinalizerReference_zombie = rvmGetInstanceField(env, java_lang_ref_FinalizerReference, "zombie", "Ljava/lang/Object;");
     if (!java_lang_ref_FinalizerReference_zombie) return FALSE;
-    java_lang_ref_ReferenceQueue = rvmFindClassUsingLoader(env, "java/lang/ref/ReferenceQueue", NULL);
-    if (!java_lang_ref_ReferenceQueue) return FALSE;
-    java_lang_ref_ReferenceQueue_add = rvmGetClassMethod(env, java_lang_ref_ReferenceQueue, "add", "(Ljava/lang/ref/Reference;)V");
-    if (!java_lang_ref_ReferenceQueue_add) return FALSE;
     java_nio_ReadWriteDirectByteBuffer = rvmFindClassUsingLoader(env, "java/nio/ReadWriteDirectByteBuffer", NULL);
     if (!java_nio_ReadWriteDirectByteBuffer) return FALSE;
     java_nio_ReadWriteDirectByteBuffer_init = rvmGetInstanceMethod(env, java_nio_ReadWriteDirectByteBuffer, "<init>", "(II)V");
@@ -673,6 +886,14 @@ jboolean rvmInitMemory(Env* env) {
         org_robovm_rt_bro_Struct_handle = rvmGetInstanceField(env, org_robovm_rt_bro_Struct, "handle", "J");
         if (!org_robovm_rt_bro_Struct_handle) return FALSE;
     }
+    org_robovm_rt_Fiber = rvmFindClassUsingLoader(env, "org/robovm/rt/Fiber", NULL);
+    if (!org_robovm_rt_Fiber) {
+        // We don't need Fiber if it hasn't been compiled in
+        rvmExceptionClear(env);
+    } else {
+        org_robovm_rt_Fiber_handle = rvmGetInstanceField(env, org_robovm_rt_Fiber, "handle", "J");
+        if (!org_robovm_rt_Fiber_handle) return FALSE;
+    }
     java_nio_MemoryBlock = rvmFindClassUsingLoader(env, "java/nio/MemoryBlock", NULL);
     if (!java_nio_MemoryBlock) return FALSE;
     java_nio_MemoryBlock_address = rvmGetInstanceField(env, java_nio_MemoryBlock, "address", "I");
@@ -727,6 +948,9 @@ Object* rvmAllocateMemoryForObject(Env* env, Class* clazz) {
         rvmThrowOutOfMemoryError(env);
         return NULL;
     }
+    if (heapProfileSampleInterval > 0) {
+        heapProfileSampleAllocation(env, clazz, clazz->instanceDataSize);
+    }
     return m;
 }
 
@@ -759,6 +983,9 @@ Array* rvmAllocateMemoryForArray(Env* env, Class* arrayClass, jint length) {
         rvmThrowOutOfMemoryError(env);
         return NULL;
     }
+    if (heapProfileSampleInterval > 0) {
+        heapProfileSampleAllocation(env, arrayClass, (size_t) size);
+    }
     return m;
 }
 
@@ -849,6 +1076,7 @@ void rvmFreeMemoryUncollectable(Env* env, void* m) {
 
 void rvmGCCollect(Env* env) {
     GC_gcollect();
+    endPauseIfCollected();
 }
 
 jlong rvmGetFreeMemory(Env* env) {
@@ -863,6 +1091,26 @@ jlong rvmGetTotalMemory(Env* env) {
     return (jlong) pheap_size;
 }
 
+jlong rvmGetGCCount(Env* env) {
+    return (jlong) GC_get_gc_no();
+}
+
+jlong rvmGetGCTotalPauseTime(Env* env) {
+    PauseStats stats;
+    GC_call_with_alloc_lock(readPauseStats, &stats);
+    return stats.totalPauseTime;
+}
+
+jlong rvmGetGCLastPauseTime(Env* env) {
+    PauseStats stats;
+    GC_call_with_alloc_lock(readPauseStats, &stats);
+    return stats.lastPauseTime;
+}
+
+jlong rvmGetTotalBytesAllocated(Env* env) {
+    return (jlong) GC_get_total_bytes();
+}
+
 jlong rvmGetMaxMemory(Env* env) {
     if (env->vm->options->maxHeapSize > 0) {
         return env->vm->options->maxHeapSize;
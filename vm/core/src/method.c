@@ -171,6 +171,9 @@ Method* rvmGetInstanceMethod(Env* env, Class* clazz, const char* name, const cha
 }
 
 Method* rvmFindMethodAtAddress(Env* env, void* address) {
+    if (env->vm->options->findMethodAt) {
+        return env->vm->options->findMethodAt(env, address);
+    }
     Class* clazz = env->vm->options->findClassAt(env, address);
     if (!clazz) return NULL;
     Method* method = rvmGetMethods(env, clazz);
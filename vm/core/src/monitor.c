@@ -833,6 +833,11 @@ retry:
         assert(LW_MONITOR(obj->lock) != NULL);
         lockMonitor(env, self, LW_MONITOR(obj->lock));
     }
+    /*
+     * Count the monitors held by the thread. The fast path in
+     * header.ll does the same.
+     */
+    self->monitorDepth++;
 }
 
 /*
@@ -898,6 +903,7 @@ jboolean rvmUnlockObject(Env* env, Object* obj) {
             return FALSE;
         }
     }
+    self->monitorDepth--;
     return TRUE;
 }
 
@@ -33,6 +33,12 @@ extern uint32_t gcNewDirectBitmapKind(uint32_t bitmap);
 extern void* gcAllocate(size_t size);
 extern void* allocateMemoryOfKind(Env* env, size_t size, uint32_t kind);
 extern void registerCleanupHandler(Env* env, Object* object, CleanupHandler handler);
+extern void gcApplyToEachLiveObject(void (*callback)(Object*, size_t, void*), void* data);
+
+/* heapprofile.c */
+extern jint heapProfileSampleInterval;
+extern jboolean initHeapProfile(Options* options);
+extern void heapProfileSampleAllocation(Env* env, Class* clazz, size_t size);
 
 /* unwind.c */
 typedef struct Frame {
@@ -59,6 +65,12 @@ extern CallStack* captureCallStackFromFrame(Env* env, Frame* fp);
 /* signal.c */
 extern void dumpThreadStackTrace(Env* env, Thread* thread, CallStack* callStack);
 
+/* cpuprofile.c */
+extern jboolean initCpuProfile(Env* env);
+extern jboolean startCpuProfileTimer(Env* env);
+extern void cpuProfileRecordSample(Env* env, Frame* fakeFrame);
+extern void writeCpuProfile(Env* env);
+
 /* class.c */
 extern uint32_t nextClassId();
 extern ProxyMethod* addProxyMethod(Env* env, Class* clazz, Method* proxiedMethod, jint access, void* impl);
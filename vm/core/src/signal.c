@@ -33,7 +33,13 @@ static inline int sem_init(sem_t* sem, int pshared, unsigned int value) {
     return semaphore_create(mach_task_self(), sem, SYNC_POLICY_FIFO, value);
 }
 static inline int sem_wait(sem_t* sem) {
-    return semaphore_wait(*sem);
+    // Report interruptions the way POSIX sem_wait() does.
+    kern_return_t kr = semaphore_wait(*sem);
+    if (kr == KERN_SUCCESS) {
+        return 0;
+    }
+    errno = kr == KERN_ABORTED ? EINTR : EINVAL;
+    return -1;
 }
 static inline int sem_post(sem_t* sem) {
     return semaphore_signal(*sem);
@@ -43,6 +49,7 @@ static inline int sem_post(sem_t* sem) {
 #define LOG_TAG "core.signal"
 
 #define DUMP_THREAD_STACK_TRACE_SIGNAL SIGUSR2
+#define HEAP_PROFILE_SIGNAL SIGQUIT
 
 /*
  * The common way to implement stack overflow detection is to catch SIGSEGV and see if the
@@ -59,9 +66,12 @@ static inline int sem_post(sem_t* sem) {
 static InstanceField* stackStateField = NULL;
 static CallStack* dumpThreadStackTraceCallStack = NULL;
 static sem_t dumpThreadStackTraceCallSemaphore;
+static sem_t heapProfileSemaphore;
 
 static void signalHandler_npe_so(int signum, siginfo_t* info, void* context);
 static void signalHandler_dump_thread(int signum, siginfo_t* info, void* context);
+static void signalHandler_heap_profile(int signum, siginfo_t* info, void* context);
+static void signalHandler_cpu_profile(int signum, siginfo_t* info, void* context);
 
 #if defined(DARWIN)
 // Weak stub for the function in vm/debug/src/debug.c. If librobovm-debug.a isn't
@@ -71,6 +81,76 @@ void registerDarwinExceptionHandler(void) {
 }
 #endif
 
+static void* heapProfileThreadEntryPoint(void* args) {
+    VM* vm = (VM*) args;
+    Env* env = NULL;
+    while (TRUE) {
+        while (sem_wait(&heapProfileSemaphore) == -1 && errno == EINTR) {
+        }
+        if (!env) {
+            if (rvmAttachCurrentThreadAsDaemon(vm, &env, "Heap Profiler", NULL) != JNI_OK) {
+                WARN("Failed to attach the heap profiler thread");
+                return NULL;
+            }
+        }
+        rvmWriteHeapProfile(env, vm->options->heapProfileFile, TRUE);
+    }
+    return NULL;
+}
+
+/*
+ * Installs a handler for HEAP_PROFILE_SIGNAL and starts a thread which 
+ * appends a heap profile to the file specified by the heapProfileFile option
+ * each time the signal is received. The actual work cannot be done in the 
+ * signal handler since it isn't async-signal-safe.
+ */
+static jboolean installHeapProfileSignalHandler(Env* env) {
+    if (sem_init(&heapProfileSemaphore, 0, 0) != 0) {
+        return FALSE;
+    }
+
+    pthread_t thread;
+    pthread_attr_t attr;
+    pthread_attr_init(&attr);
+    pthread_attr_setdetachstate(&attr, PTHREAD_CREATE_DETACHED);
+    if (pthread_create(&thread, &attr, heapProfileThreadEntryPoint, env->vm) != 0) {
+        pthread_attr_destroy(&attr);
+        return FALSE;
+    }
+    pthread_attr_destroy(&attr);
+
+    struct sigaction sa;
+    sigemptyset(&sa.sa_mask);
+    sa.sa_flags = SA_SIGINFO | SA_RESTART;
+    sa.sa_sigaction = &signalHandler_heap_profile;
+    if (sigaction(HEAP_PROFILE_SIGNAL, &sa, NULL) != 0) {
+        return FALSE;
+    }
+    return TRUE;
+}
+
+/*
+ * Starts the sampling CPU profiler in cpuprofile.c and installs the SIGPROF
+ * handler which records the samples.
+ */
+static jboolean installCpuProfileSignalHandler(Env* env) {
+    if (!initCpuProfile(env)) {
+        return FALSE;
+    }
+
+    struct sigaction sa;
+    sigemptyset(&sa.sa_mask);
+    // SA_RESTART reduces the number of system calls interrupted by SIGPROF
+    // but some (e.g. nanosleep(), sem_wait()) will still fail with EINTR.
+    sa.sa_flags = SA_SIGINFO | SA_ONSTACK | SA_RESTART;
+    sa.sa_sigaction = &signalHandler_cpu_profile;
+    if (sigaction(SIGPROF, &sa, NULL) != 0) {
+        return FALSE;
+    }
+
+    return startCpuProfileTimer(env);
+}
+
 jboolean rvmInitSignals(Env* env) {
     stackStateField = rvmGetInstanceField(env, java_lang_Throwable, "stackState", "J");
     if (!stackStateField) return FALSE;
@@ -80,6 +160,12 @@ jboolean rvmInitSignals(Env* env) {
 #if defined(DARWIN)
     registerDarwinExceptionHandler();
 #endif
+    if (env->vm->options->heapProfileFile) {
+        if (!installHeapProfileSignalHandler(env)) return FALSE;
+    }
+    if (env->vm->options->cpuProfile) {
+        if (!installCpuProfileSignalHandler(env)) return FALSE;
+    }
     return TRUE;
 }
 
@@ -149,7 +235,7 @@ void dumpThreadStackTrace(Env* env, Thread* thread, CallStack* callStack) {
         return;
     }
 
-    while (sem_wait(&dumpThreadStackTraceCallSemaphore) == EINTR) {
+    while (sem_wait(&dumpThreadStackTraceCallSemaphore) == -1 && errno == EINTR) {
     }
 }
 
@@ -247,3 +333,26 @@ static void signalHandler_dump_thread(int signum, siginfo_t* info, void* context
     }
     sem_post(&dumpThreadStackTraceCallSemaphore);
 }
+
+static void signalHandler_heap_profile(int signum, siginfo_t* info, void* context) {
+    sem_post(&heapProfileSemaphore);
+}
+
+static void signalHandler_cpu_profile(int signum, siginfo_t* info, void* context) {
+    Env* env = rvmGetEnv();
+    if (!env || !env->currentThread) {
+        // Not an attached thread (e.g. a GC marker thread)
+        return;
+    }
+    Frame fakeFrame;
+    if (rvmIsNonNativeFrame(env)) {
+        fakeFrame.prev = (Frame*) getFramePointer((ucontext_t*) context);
+        fakeFrame.returnAddress = getPC((ucontext_t*) context);
+    } else if (env->gatewayFrames) {
+        // Signalled while in native code. See signalHandler_dump_thread().
+        fakeFrame = *(Frame*) env->gatewayFrames->frameAddress;
+    } else {
+        return;
+    }
+    cpuProfileRecordSample(env, &fakeFrame);
+}
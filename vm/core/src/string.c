@@ -44,6 +44,9 @@ typedef struct CacheEntry {
 } CacheEntry;
 static CacheEntry* internedStrings = NULL;
 static Mutex internedStringsLock;
+// The String literals emitted by the compiler. Filled in by rvmInitStrings()
+// and never modified after that so it can be read without holding a lock.
+static CacheEntry* staticStrings = NULL;
 
 static inline void obtainInternedStringsLock() {
     rvmLockMutex(&internedStringsLock);
@@ -70,6 +73,16 @@ static Object* findInternedString(Env* env, const char* s) {
     return NULL;
 }
 
+/**
+ * Finds a String literal emitted by the compiler. Returns NULL if s isn't
+ * a literal.
+ */
+static inline Object* findStaticString(const char* s) {
+    CacheEntry* cacheEntry;
+    HASH_FIND_STR(staticStrings, s, cacheEntry);
+    return cacheEntry ? cacheEntry->string : NULL;
+}
+
 /**
  * Adds a string to the cache of interned string. The string must not already be
  * interned.  The internedStringsLock MUST be held when calling this function.
@@ -210,12 +223,40 @@ static inline Object* newString(Env* env, CharArray* value, jint offset, jint le
     return rvmNewObjectA(env, java_lang_String, stringConstructor, args);
 }
 
+/**
+ * Sets the class pointers of the String literals emitted by the compiler and
+ * of their char[]s and adds them to the staticStrings hash. The literals live
+ * outside the GC heap and only point to each other so the GC doesn't need to
+ * see them.
+ */
+static jboolean initStaticStrings(Env* env) {
+    StaticString* ss = env->vm->options->staticStrings;
+    if (!ss) {
+        return TRUE;
+    }
+    for (; ss->utf8; ss++) {
+        Object* string = ss->string;
+        string->clazz = java_lang_String;
+        Object* value = rvmGetObjectInstanceFieldValue(env, string, stringValueField);
+        value->clazz = array_C;
+        CacheEntry* cacheEntry = allocateMemoryOfKind(env, sizeof(CacheEntry), cacheEntryGCKind);
+        if (!cacheEntry) {
+            return FALSE;
+        }
+        cacheEntry->key = ss->utf8;
+        cacheEntry->string = string;
+        HASH_ADD_KEYPTR(hh, staticStrings, cacheEntry->key, strlen(cacheEntry->key), cacheEntry);
+    }
+    return TRUE;
+}
+
 jboolean rvmInitStrings(Env* env) {
     if (rvmInitMutex(&internedStringsLock) != 0) {
         return FALSE;
     }
 
     gcAddRoot(&internedStrings);
+    gcAddRoot(&staticStrings);
     cacheEntryGCKind = gcNewDirectBitmapKind(CACHE_ENTRY_GC_BITMAP);
 
     stringConstructor = rvmGetInstanceMethod(env, java_lang_String, "<init>", "(II[C)V");
@@ -226,7 +267,7 @@ jboolean rvmInitStrings(Env* env) {
     if (!stringOffsetField) return FALSE;
     stringCountField = rvmGetInstanceField(env, java_lang_String, "count", "I");
     if (!stringCountField) return FALSE;
-    return TRUE;
+    return initStaticStrings(env);
 }
 
 Object* rvmNewStringNoCopy(Env* env, CharArray* value, jint offset, jint length) {
@@ -264,10 +305,15 @@ Object* rvmNewString(Env* env, const jchar* chars, jint length) {
 Object* rvmNewInternedStringUTF(Env* env, const char* s, jint length) {
     if (!s) return NULL;
 
+    Object* string = findStaticString(s);
+    if (string) {
+        return string;
+    }
+
     obtainInternedStringsLock();
 
     // Check the cache first.
-    Object* string = findInternedString(env, s);
+    string = findInternedString(env, s);
     if (!string) {
         length = (length == -1) ? getUnicodeLengthOfUtf8(s) : length;
         CharArray* value = rvmNewCharArray(env, length);
@@ -288,18 +334,21 @@ Object* rvmNewInternedStringUTF(Env* env, const char* s, jint length) {
 Object* rvmInternString(Env* env, Object* str) {
     if (!str) return NULL;
 
-    obtainInternedStringsLock();
+    char* s = rvmGetStringUTFChars(env, str);
+    if (!s) return NULL;
 
-    Object* string = NULL;
+    Object* string = findStaticString(s);
+    if (string) {
+        return string;
+    }
 
-    char* s = rvmGetStringUTFChars(env, str);
-    if (s) {
-        // Check the cache first.
-        string = findInternedString(env, s);
-        if (!string) {
-            if (addInternedString(env, s, str)) {
-                string = str;
-            }
+    obtainInternedStringsLock();
+
+    // Check the cache first.
+    string = findInternedString(env, s);
+    if (!string) {
+        if (addInternedString(env, s, str)) {
+            string = str;
         }
     }
 
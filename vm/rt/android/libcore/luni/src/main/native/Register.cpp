@@ -33,7 +33,6 @@ extern int register_java_lang_StringToReal(JNIEnv* env);
 extern int register_java_lang_System(JNIEnv* env);
 extern int register_java_math_NativeBN(JNIEnv* env);
 extern int register_java_nio_ByteOrder(JNIEnv* env);
-extern int register_java_nio_charset_Charsets(JNIEnv* env);
 extern int register_java_text_Bidi(JNIEnv* env);
 extern int register_java_util_regex_Matcher(JNIEnv* env);
 extern int register_java_util_regex_Pattern(JNIEnv* env);
@@ -78,7 +77,6 @@ extern "C" int registerCoreLibrariesJni(JNIEnv* env) {
 //            register_java_lang_System(env) != -1 &&
 //            register_java_math_NativeBN(env) != -1 &&
 //            register_java_nio_ByteOrder(env) != -1 &&
-//            register_java_nio_charset_Charsets(env) != -1 &&
 //            register_java_text_Bidi(env) != -1 &&
 //            register_java_util_regex_Matcher(env) != -1 &&
 //            register_java_util_regex_Pattern(env) != -1 &&
@@ -32,6 +32,15 @@ extern "C" jlong Java_java_util_zip_CRC32_updateImpl(JNIEnv* env, jobject, jbyte
     return result;
 }
 
+extern "C" jlong Java_java_util_zip_CRC32_updateBufferImpl(JNIEnv* env, jobject, jobject buf, int off, int len, jlong crc) {
+    jbyte* bytes = reinterpret_cast<jbyte*>(env->GetDirectBufferAddress(buf));
+    if (bytes == NULL) {
+        jniThrowException(env, "java/lang/IllegalArgumentException", "not a direct buffer");
+        return 0;
+    }
+    return crc32(crc, reinterpret_cast<const Bytef*>(bytes + off), len);
+}
+
 extern "C" jlong Java_java_util_zip_CRC32_updateByteImpl(JNIEnv*, jobject, jbyte val, jlong crc) {
     return crc32(crc, reinterpret_cast<const Bytef*>(&val), 1);
 }
@@ -66,13 +66,12 @@ extern "C" void Java_java_util_zip_Deflater_setInputImpl(JNIEnv* env, jobject, j
     toNativeZipStream(handle)->setInput(env, buf, off, len);
 }
 
-extern "C" jint Java_java_util_zip_Deflater_deflateImpl(JNIEnv* env, jobject recv, jbyteArray buf, int off, int len, jlong handle, int flushStyle) {
-    NativeZipStream* stream = toNativeZipStream(handle);
-    ScopedByteArrayRW out(env, buf);
-    if (out.get() == NULL) {
-        return -1;
-    }
-    stream->stream.next_out = reinterpret_cast<Bytef*>(out.get() + off);
+extern "C" void Java_java_util_zip_Deflater_setInputBufferImpl(JNIEnv* env, jobject, jobject buf, jint off, jint len, jlong handle) {
+    toNativeZipStream(handle)->setDirectInput(env, buf, off, len);
+}
+
+static jint doDeflate(JNIEnv* env, jobject recv, NativeZipStream* stream, jbyte* out, jint len, int flushStyle) {
+    stream->stream.next_out = reinterpret_cast<Bytef*>(out);
     stream->stream.avail_out = len;
 
     Bytef* initialNextIn = stream->stream.next_in;
@@ -106,7 +105,24 @@ extern "C" jint Java_java_util_zip_Deflater_deflateImpl(JNIEnv* env, jobject rec
     return bytesWritten;
 }
 
-extern "C" void Java_java_util_zip_Deflater_endImpl(JNIEnv*, jobject, jlong handle) {
+extern "C" jint Java_java_util_zip_Deflater_deflateImpl(JNIEnv* env, jobject recv, jbyteArray buf, int off, int len, jlong handle, int flushStyle) {
+    ScopedByteArrayRW out(env, buf);
+    if (out.get() == NULL) {
+        return -1;
+    }
+    return doDeflate(env, recv, toNativeZipStream(handle), out.get() + off, len, flushStyle);
+}
+
+extern "C" jint Java_java_util_zip_Deflater_deflateBufferImpl(JNIEnv* env, jobject recv, jobject buf, int off, int len, jlong handle, int flushStyle) {
+    jbyte* out = reinterpret_cast<jbyte*>(env->GetDirectBufferAddress(buf));
+    if (out == NULL) {
+        jniThrowException(env, "java/lang/IllegalArgumentException", "not a direct buffer");
+        return -1;
+    }
+    return doDeflate(env, recv, toNativeZipStream(handle), out + off, len, flushStyle);
+}
+
+extern "C" void Java_java_util_zip_Deflater_endImpl(JNIEnv*, jclass, jlong handle) {
     NativeZipStream* stream = toNativeZipStream(handle);
     deflateEnd(&stream->stream);
     delete stream;
@@ -86,13 +86,12 @@ extern "C" jint Java_java_util_zip_Inflater_setFileInputImpl(JNIEnv* env, jobjec
     return totalByteCount;
 }
 
-extern "C" jint Java_java_util_zip_Inflater_inflateImpl(JNIEnv* env, jobject recv, jbyteArray buf, int off, int len, jlong handle) {
-    NativeZipStream* stream = toNativeZipStream(handle);
-    ScopedByteArrayRW out(env, buf);
-    if (out.get() == NULL) {
-        return -1;
-    }
-    stream->stream.next_out = reinterpret_cast<Bytef*>(out.get() + off);
+extern "C" void Java_java_util_zip_Inflater_setInputBufferImpl(JNIEnv* env, jobject, jobject buf, jint off, jint len, jlong handle) {
+    toNativeZipStream(handle)->setDirectInput(env, buf, off, len);
+}
+
+static jint doInflate(JNIEnv* env, jobject recv, NativeZipStream* stream, jbyte* out, jint len) {
+    stream->stream.next_out = reinterpret_cast<Bytef*>(out);
     stream->stream.avail_out = len;
 
     Bytef* initialNextIn = stream->stream.next_in;
@@ -127,11 +126,28 @@ extern "C" jint Java_java_util_zip_Inflater_inflateImpl(JNIEnv* env, jobject rec
     return bytesWritten;
 }
 
+extern "C" jint Java_java_util_zip_Inflater_inflateImpl(JNIEnv* env, jobject recv, jbyteArray buf, int off, int len, jlong handle) {
+    ScopedByteArrayRW out(env, buf);
+    if (out.get() == NULL) {
+        return -1;
+    }
+    return doInflate(env, recv, toNativeZipStream(handle), out.get() + off, len);
+}
+
+extern "C" jint Java_java_util_zip_Inflater_inflateBufferImpl(JNIEnv* env, jobject recv, jobject buf, int off, int len, jlong handle) {
+    jbyte* out = reinterpret_cast<jbyte*>(env->GetDirectBufferAddress(buf));
+    if (out == NULL) {
+        jniThrowException(env, "java/lang/IllegalArgumentException", "not a direct buffer");
+        return -1;
+    }
+    return doInflate(env, recv, toNativeZipStream(handle), out + off, len);
+}
+
 extern "C" jint Java_java_util_zip_Inflater_getAdlerImpl(JNIEnv*, jobject, jlong handle) {
     return toNativeZipStream(handle)->stream.adler;
 }
 
-extern "C" void Java_java_util_zip_Inflater_endImpl(JNIEnv*, jobject, jlong handle) {
+extern "C" void Java_java_util_zip_Inflater_endImpl(JNIEnv*, jclass, jlong handle) {
     NativeZipStream* stream = toNativeZipStream(handle);
     inflateEnd(&stream->stream);
     delete stream;
@@ -31,6 +31,9 @@
 #include <signal.h>
 #include <stdlib.h>
 #include <sys/ioctl.h>
+#if defined(__linux__)
+#   include <sys/epoll.h>
+#endif
 #include <sys/mman.h>
 #include <sys/stat.h>
 #include <sys/wait.h>
@@ -130,6 +133,17 @@ extern "C" void Java_libcore_io_OsConstants_initConstants(JNIEnv* env, jclass c)
     initConstant(env, c, "EOVERFLOW", EOVERFLOW);
     initConstant(env, c, "EPERM", EPERM);
     initConstant(env, c, "EPIPE", EPIPE);
+// RoboVM note: epoll is only available on Linux.
+#if defined(__linux__)
+    initConstant(env, c, "EPOLLERR", EPOLLERR);
+    initConstant(env, c, "EPOLLHUP", EPOLLHUP);
+    initConstant(env, c, "EPOLLIN", EPOLLIN);
+    initConstant(env, c, "EPOLLOUT", EPOLLOUT);
+    initConstant(env, c, "EPOLL_CLOEXEC", EPOLL_CLOEXEC);
+    initConstant(env, c, "EPOLL_CTL_ADD", EPOLL_CTL_ADD);
+    initConstant(env, c, "EPOLL_CTL_DEL", EPOLL_CTL_DEL);
+    initConstant(env, c, "EPOLL_CTL_MOD", EPOLL_CTL_MOD);
+#endif
     initConstant(env, c, "EPROTO", EPROTO);
     initConstant(env, c, "EPROTONOSUPPORT", EPROTONOSUPPORT);
     initConstant(env, c, "EPROTOTYPE", EPROTOTYPE);
@@ -41,6 +41,10 @@
 #include <signal.h>
 #include <stdlib.h>
 #include <sys/ioctl.h>
+// RoboVM note: epoll is only available on Linux.
+#if defined(__linux__)
+#   include <sys/epoll.h>
+#endif
 #include <sys/mman.h>
 // RoboVM note: On Darwin sendfile is defined in sys/mman.h.
 #if !defined(__APPLE__)
@@ -523,6 +527,63 @@ extern "C" jobjectArray Java_libcore_io_Posix_environ(JNIEnv* env, jobject) {
     return toStringArray(env, environ);
 }
 
+extern "C" jobject Java_libcore_io_Posix_epoll_1create1(JNIEnv* env, jobject, jint flags) {
+#if defined(__linux__)
+    int fd = throwIfMinusOne(env, "epoll_create1", epoll_create1(flags));
+    return fd != -1 ? jniCreateFileDescriptor(env, fd) : NULL;
+#else
+    errno = ENOSYS;
+    throwErrnoException(env, "epoll_create1");
+    return NULL;
+#endif
+}
+
+extern "C" void Java_libcore_io_Posix_epoll_1ctl(JNIEnv* env, jobject, jobject javaEpfd, jint op, jobject javaFd, jint events, jint data) {
+#if defined(__linux__)
+    int epfd = jniGetFDFromFileDescriptor(env, javaEpfd);
+    int fd = jniGetFDFromFileDescriptor(env, javaFd);
+    struct epoll_event event;
+    memset(&event, 0, sizeof(event));
+    event.events = events;
+    event.data.u32 = data;
+    throwIfMinusOne(env, "epoll_ctl", epoll_ctl(epfd, op, fd, &event));
+#else
+    errno = ENOSYS;
+    throwErrnoException(env, "epoll_ctl");
+#endif
+}
+
+extern "C" jint Java_libcore_io_Posix_epoll_1wait(JNIEnv* env, jobject, jobject javaEpfd, jintArray javaEvents, jint timeoutMs) {
+#if defined(__linux__)
+    int epfd = jniGetFDFromFileDescriptor(env, javaEpfd);
+    // javaEvents holds (events, data) pairs
+    int maxEvents = env->GetArrayLength(javaEvents) / 2;
+    if (maxEvents == 0) {
+        jniThrowException(env, "java/lang/IllegalArgumentException", "events.length < 2");
+        return -1;
+    }
+    UniquePtr<struct epoll_event[]> events(new struct epoll_event[maxEvents]);
+    int rc = epoll_wait(epfd, events.get(), maxEvents, timeoutMs);
+    if (rc == -1) {
+        throwErrnoException(env, "epoll_wait");
+        return -1;
+    }
+    ScopedIntArrayRW ints(env, javaEvents);
+    if (ints.get() == NULL) {
+        return -1;
+    }
+    for (int i = 0; i < rc; ++i) {
+        ints[i * 2] = events[i].events;
+        ints[i * 2 + 1] = events[i].data.u32;
+    }
+    return rc;
+#else
+    errno = ENOSYS;
+    throwErrnoException(env, "epoll_wait");
+    return -1;
+#endif
+}
+
 extern "C" jint Java_libcore_io_Posix_fcntlVoid(JNIEnv* env, jobject, jobject javaFd, jint cmd) {
     int fd = jniGetFDFromFileDescriptor(env, javaFd);
     return throwIfMinusOne(env, "fcntl", TEMP_FAILURE_RETRY(fcntl(fd, cmd)));
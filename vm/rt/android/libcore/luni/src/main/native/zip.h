@@ -71,13 +71,17 @@ public:
     }
 
     void setInput(JNIEnv* env, jbyteArray buf, jint off, jint len) {
-        input.reset(new jbyte[len]);
-        if (input.get() == NULL) {
-            inCap = 0;
-            jniThrowOutOfMemoryError(env, NULL);
-            return;
+        // Reuse the existing native buffer if it's large enough. Streams feed
+        // us fixed size chunks so this avoids an allocation per chunk.
+        if (inCap < len || input.get() == NULL) {
+            input.reset(new jbyte[len]);
+            if (input.get() == NULL) {
+                inCap = 0;
+                jniThrowOutOfMemoryError(env, NULL);
+                return;
+            }
+            inCap = len;
         }
-        inCap = len;
         if (buf != NULL) {
             env->GetByteArrayRegion(buf, off, len, &input[0]);
         }
@@ -85,6 +89,18 @@ public:
         stream.avail_in = len;
     }
 
+    // Points zlib straight at the memory of a direct ByteBuffer. The caller
+    // must keep the buffer reachable until the input has been consumed.
+    void setDirectInput(JNIEnv* env, jobject buf, jint off, jint len) {
+        jbyte* address = reinterpret_cast<jbyte*>(env->GetDirectBufferAddress(buf));
+        if (address == NULL) {
+            jniThrowException(env, "java/lang/IllegalArgumentException", "not a direct buffer");
+            return;
+        }
+        stream.next_in = reinterpret_cast<Bytef*>(address + off);
+        stream.avail_in = len;
+    }
+
 private:
     UniquePtr<jbyte[]> mDict;
 
@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <robovm.h>
+
+jint Java_java_lang_Daemons_finalizerThreads(Env* env, Class* c) {
+    return env->vm->options->finalizerThreads;
+}
+
+void Java_java_lang_Daemons_waitForPendingFinalizers(Env* env, Class* c) {
+    rvmWaitForPendingFinalizers(env);
+}
+
+Object* Java_java_lang_Daemons_runPendingFinalizers(Env* env, Class* c) {
+    return rvmRunPendingFinalizers(env);
+}
@@ -13,6 +13,7 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+#include <string.h>
 #include <robovm.h>
 
 char* toBinaryName(Env* env, Object* className) {
@@ -43,3 +44,22 @@ Class* Java_java_lang_VMClassLoader_findClassInClasspathForLoader(Env* env, Clas
     return clazz;
 }
 
+IntArray* Java_java_lang_VMClassLoader_getResourceClasspathIndexes(Env* env, Class* cls, Object* name, jboolean bootclasspath) {
+    if (!env->vm->options->lookupResource) {
+        return NULL;
+    }
+    if (!name) {
+        rvmThrowNew(env, java_lang_NullPointerException, "name");
+        return NULL;
+    }
+    char* nameUTF = rvmGetStringUTFChars(env, name);
+    if (!nameUTF) return NULL;
+    const jint* indexes = NULL;
+    jint count = env->vm->options->lookupResource(env, nameUTF, bootclasspath, &indexes);
+    IntArray* result = rvmNewIntArray(env, count);
+    if (!result) return NULL;
+    if (count > 0) {
+        memcpy(result->values, indexes, count * sizeof(jint));
+    }
+    return result;
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2013 Trillian AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include <robovm.h>
+
+jlong Java_org_robovm_rt_Fiber_create0(Env* env, Class* c, Object* fiberObj) {
+    return PTR_TO_LONG(rvmCreateFiber(env, fiberObj));
+}
+
+jboolean Java_org_robovm_rt_Fiber_resume0(Env* env, Class* c, jlong handle) {
+    return rvmResumeFiber(env, (Fiber*) LONG_TO_PTR(handle));
+}
+
+void Java_org_robovm_rt_Fiber_suspend0(Env* env, Class* c) {
+    rvmSuspendFiber(env);
+}
+
+jboolean Java_org_robovm_rt_Fiber_holdsMonitors0(Env* env, Class* c) {
+    return rvmFiberHoldsMonitors(env);
+}
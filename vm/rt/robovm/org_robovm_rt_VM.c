@@ -94,6 +94,36 @@ ObjectArray* Java_org_robovm_rt_VM_getStackClasses(Env* env, Class* c, jint skip
     return result;
 }
 
+jlong Java_org_robovm_rt_VM_getGCCount(Env* env, Class* c) {
+    return rvmGetGCCount(env);
+}
+
+jlong Java_org_robovm_rt_VM_getGCTotalPauseTime(Env* env, Class* c) {
+    return rvmGetGCTotalPauseTime(env);
+}
+
+jlong Java_org_robovm_rt_VM_getGCLastPauseTime(Env* env, Class* c) {
+    return rvmGetGCLastPauseTime(env);
+}
+
+jlong Java_org_robovm_rt_VM_getBytesAllocated(Env* env, Class* c) {
+    return rvmGetTotalBytesAllocated(env);
+}
+
+jboolean Java_org_robovm_rt_VM_writeHeapProfile0(Env* env, Class* c, Object* path) {
+    char* s = rvmGetStringUTFChars(env, path);
+    if (!s) return FALSE;
+    return rvmWriteHeapProfile(env, s, FALSE);
+}
+
+void Java_org_robovm_rt_VM_startAllocationSampling0(Env* env, Class* c, jint interval) {
+    rvmStartAllocationSampling(env, interval);
+}
+
+void Java_org_robovm_rt_VM_stopAllocationSampling(Env* env, Class* c) {
+    rvmStopAllocationSampling(env);
+}
+
 jlong Java_org_robovm_rt_VM_allocateMemory(Env* env, Class* c, jint size) {
     return PTR_TO_LONG(rvmAllocateMemory(env, size));
 }